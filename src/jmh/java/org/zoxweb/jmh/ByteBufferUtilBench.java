@@ -0,0 +1,50 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.ByteBufferUtil;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ByteBufferUtil allocate/cache round trip, single thread and contended.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ByteBufferUtilBench {
+
+    @Param({"4096", "16709"})
+    public int capacity;
+
+    @Benchmark
+    public ByteBuffer heapAllocateCache() {
+        ByteBuffer bb = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, capacity);
+        ByteBufferUtil.cache(bb);
+        return bb;
+    }
+
+    @Benchmark
+    public ByteBuffer directAllocateCache() {
+        ByteBuffer bb = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.DIRECT, capacity);
+        ByteBufferUtil.cache(bb);
+        return bb;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ByteBuffer heapAllocateCacheContended() {
+        ByteBuffer bb = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, capacity);
+        ByteBufferUtil.cache(bb);
+        return bb;
+    }
+
+    @Benchmark
+    public byte[] byteArrayAllocateCache() {
+        byte[] ba = ByteBufferUtil.allocateByteArray(capacity);
+        ByteBufferUtil.cache(ba);
+        return ba;
+    }
+}
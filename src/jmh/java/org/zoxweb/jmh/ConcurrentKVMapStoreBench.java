@@ -0,0 +1,55 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.util.cache.ConcurrentKVMapStore;
+import org.zoxweb.shared.util.KVMapStore;
+import org.zoxweb.shared.util.KVMapStoreDefault;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent gets, ConcurrentKVMapStore versus the synchronized KVMapStoreDefault, 1024 keys read by 8 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+@Threads(8)
+public class ConcurrentKVMapStoreBench {
+
+    public static final int KEYS = 1024;
+
+    private KVMapStore<Integer, Integer> synced;
+    private ConcurrentKVMapStore<Integer, Integer> concurrent;
+
+    @State(Scope.Thread)
+    public static class Key {
+        private int next;
+
+        int next() {
+            return next++ & (KEYS - 1);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        synced = new KVMapStoreDefault<>(new HashMap<>());
+        concurrent = new ConcurrentKVMapStore<>("bench", 10_000);
+        for (int i = 0; i < KEYS; i++) {
+            synced.put(i, i);
+            concurrent.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public Integer syncedGet(Key key) {
+        return synced.get(key.next());
+    }
+
+    @Benchmark
+    public Integer concurrentGet(Key key) {
+        return concurrent.get(key.next());
+    }
+}
@@ -0,0 +1,71 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.security.AESCrypt;
+import org.zoxweb.server.security.HashUtil;
+import org.zoxweb.shared.crypto.CryptoConst;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AESCrypt buffer encryption/decryption and HashUtil digests.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class CryptoBench {
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private final byte[] password = "jmh-bench-password".getBytes();
+    private byte[] data;
+    private byte[] encrypted;
+    private MessageDigest sha256;
+    private Mac hmac;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, IOException {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        encrypted = AESCrypt.encryptBuffer(password, data).toByteArray();
+        sha256 = HashUtil.getMessageDigest(CryptoConst.HashType.SHA_256);
+        hmac = HashUtil.getMac("HmacSHA256");
+        hmac.init(new SecretKeySpec(password, "HmacSHA256"));
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream aesEncrypt() throws GeneralSecurityException, IOException {
+        return AESCrypt.encryptBuffer(password, data);
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream aesDecrypt() throws GeneralSecurityException, IOException {
+        return AESCrypt.decryptBuffer(password, encrypted);
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        return sha256.digest(data);
+    }
+
+    @Benchmark
+    public byte[] hashSequence() throws NoSuchAlgorithmException {
+        return HashUtil.hashSequence("SHA-256", data, password);
+    }
+
+    @Benchmark
+    public byte[] hmacSHA256() {
+        return hmac.doFinal(data);
+    }
+}
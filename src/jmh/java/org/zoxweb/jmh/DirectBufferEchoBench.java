@@ -0,0 +1,124 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.ByteBufferUtil;
+import org.zoxweb.server.net.BaseChannelOutputStream;
+import org.zoxweb.server.net.BaseSessionCallback;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.net.NIOSocketHandlerFactory;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.shared.io.SharedIOUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap vs direct session buffers on the plain echo path, the echo session writes the read buffer straight back,
+ * with DIRECT buffers the data never crosses the java heap. One round trip of a 4K chunk per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class DirectBufferEchoBench {
+
+    // one session read buffer per round trip
+    public static final int CHUNK = SharedIOUtil.K_4;
+
+    /**
+     * Echo the read buffer as is, no copy to an intermediate stream.
+     */
+    public static class RawEchoSession
+            extends BaseSessionCallback<BaseChannelOutputStream> {
+        @Override
+        public void accept(ByteBuffer byteBuffer) {
+            try {
+                getOutputStream().write(byteBuffer, true);
+            } catch (IOException e) {
+                SharedIOUtil.close(getOutputStream());
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return getOutputStream() != null && getOutputStream().isClosed();
+        }
+
+        @Override
+        public void exception(Throwable e) {
+        }
+    }
+
+    @Param({"HEAP", "DIRECT"})
+    public ByteBufferUtil.BufferType bufferType;
+
+    private TaskProcessor taskProcessor;
+    private TaskSchedulerProcessor tsp;
+    private NIOSocket nioSocket;
+    private int port;
+
+    @Setup
+    public void setup() throws IOException {
+        taskProcessor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+        nioSocket = new NIOSocket(taskProcessor, tsp);
+        NIOSocketHandlerFactory factory = new NIOSocketHandlerFactory(RawEchoSession::new);
+        factory.setBufferType(bufferType);
+        SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, factory);
+        port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        nioSocket.close();
+        tsp.close();
+        taskProcessor.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private Socket socket;
+        private OutputStream os;
+        private InputStream is;
+        private final byte[] out = new byte[CHUNK];
+        private final byte[] in = new byte[CHUNK];
+
+        @Setup
+        public void setup(DirectBufferEchoBench bench) throws IOException {
+            socket = new Socket("127.0.0.1", bench.port);
+            socket.setSoTimeout(5000);
+            socket.setTcpNoDelay(true);
+            os = socket.getOutputStream();
+            is = socket.getInputStream();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] echo(Client client) throws IOException {
+        client.os.write(client.out);
+        client.os.flush();
+        int total = 0;
+        while (total < CHUNK) {
+            int read = client.is.read(client.in, total, CHUNK - total);
+            if (read < 0)
+                throw new IOException("Connection closed");
+            total += read;
+        }
+        return client.in;
+    }
+}
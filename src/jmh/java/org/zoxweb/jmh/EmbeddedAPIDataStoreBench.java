@@ -0,0 +1,66 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.IOUtil;
+import org.zoxweb.server.util.EmbeddedAPIDataStore;
+import org.zoxweb.server.util.MockAPIDataStore;
+import org.zoxweb.shared.data.FileInfoDAO;
+import org.zoxweb.shared.db.QueryMatch;
+import org.zoxweb.shared.util.Const.RelationalOperator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EmbeddedAPIDataStore equality query on a sorted index versus the MockAPIDataStore collection scan, 100,000
+ * entities.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class EmbeddedAPIDataStoreBench {
+
+    private static final int ENTITIES = 100_000;
+    private static final int MAX_LENGTH = 1_000_000;
+
+    private Path dir;
+    private EmbeddedAPIDataStore store;
+    private MockAPIDataStore mock;
+    private final Random random = new Random(3);
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("embedded-store-bench");
+        store = new EmbeddedAPIDataStore(dir.toFile(), false, 1_000_000);
+        mock = new MockAPIDataStore();
+        store.addIndex(FileInfoDAO.NVC_FILE_INFO_DAO, "length", EmbeddedAPIDataStore.IndexType.SORTED);
+        for (int i = 0; i < ENTITIES; i++) {
+            FileInfoDAO fid = new FileInfoDAO();
+            fid.setName("file-" + i);
+            fid.setContentType("text/plain");
+            fid.setLength(random.nextInt(MAX_LENGTH));
+            mock.insert(store.insert(fid));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        IOUtil.deleteDirectoryRecursively(dir);
+    }
+
+    @Benchmark
+    public long indexQuery() {
+        return store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", (long) random.nextInt(MAX_LENGTH), RelationalOperator.EQUAL));
+    }
+
+    @Benchmark
+    public long scanQuery() {
+        return mock.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", (long) random.nextInt(MAX_LENGTH), RelationalOperator.EQUAL));
+    }
+}
@@ -0,0 +1,79 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NVGenericMap JSON encoding and decoding.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class GSONUtilBench {
+
+    private NVGenericMap nvgm;
+    private byte[] json;
+    private String jsonString;
+    private final UByteArrayOutputStream ubaos = new UByteArrayOutputStream(2048);
+
+    @Setup
+    public void setup() throws IOException {
+        nvgm = new NVGenericMap("bench");
+        for (int i = 0; i < 8; i++) {
+            nvgm.build("string_" + i, "value-" + i)
+                    .build(new NVLong("long_" + i, 1_000_000L * i))
+                    .build(new NVInt("int_" + i, i))
+                    .build(new NVBoolean("bool_" + i, i % 2 == 0))
+                    .build(new NVDouble("double_" + i, i * 1.5));
+        }
+        NVGenericMap inner = new NVGenericMap("inner");
+        inner.build("name", "nested").build(new NVInt("depth", 1));
+        nvgm.build(inner);
+        jsonString = GSONUtil.toJSONGenericMap(nvgm, false, false, false);
+        json = SharedStringUtil.getBytes(jsonString);
+    }
+
+    @Benchmark
+    public String toJSONGenericMap() throws IOException {
+        return GSONUtil.toJSONGenericMap(nvgm, false, false, false);
+    }
+
+    @Benchmark
+    public byte[] toJSONGenericMapBytes() throws IOException {
+        return SharedStringUtil.getBytes(GSONUtil.toJSONGenericMap(nvgm, false, false, false));
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream toJSONGenericMapStream() throws IOException {
+        ubaos.reset();
+        return GSONUtil.toJSONGenericMap(ubaos, nvgm, false, false, false);
+    }
+
+    @Benchmark
+    public byte[] toJSONDefaultBytes() {
+        return SharedStringUtil.getBytes(GSONUtil.toJSONDefault(nvgm));
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream toJSONDefaultStream() throws IOException {
+        ubaos.reset();
+        return GSONUtil.toJSONDefault(ubaos, nvgm);
+    }
+
+    @Benchmark
+    public NVGenericMap fromJSONGenericMap() {
+        return GSONUtil.fromJSONGenericMap(json);
+    }
+
+    @Benchmark
+    public NVGenericMap fromJSONGenericMapTree() {
+        return GSONUtil.fromJSONGenericMap(jsonString, null, SharedBase64.Base64Type.URL);
+    }
+}
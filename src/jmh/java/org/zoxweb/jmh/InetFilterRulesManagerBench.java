@@ -0,0 +1,49 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.net.InetFilterRulesManager;
+import org.zoxweb.shared.security.SecConst;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InetFilterRulesManager.checkIPSecurityStatus against rule sets of increasing size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class InetFilterRulesManagerBench {
+
+    @Param({"10", "1000"})
+    public int rules;
+
+    private InetFilterRulesManager manager;
+    private final byte[] hit = {10, 0, 3, 7};
+    private final byte[] miss = {(byte) 192, (byte) 168, 1, 1};
+
+    @Setup
+    public void setup() throws IOException {
+        manager = new InetFilterRulesManager();
+        for (int i = 0; i < rules; i++)
+            manager.addInetFilterProp("10." + (i / 256) + "." + (i % 256) + ".0-255.255.255.0-deny");
+    }
+
+    @Benchmark
+    public SecConst.SecAction checkHit() {
+        return manager.checkIPSecurityStatus(hit);
+    }
+
+    @Benchmark
+    public SecConst.SecAction checkMiss() {
+        return manager.checkIPSecurityStatus(miss);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SecConst.SecAction checkMissContended() {
+        return manager.checkIPSecurityStatus(miss);
+    }
+}
@@ -0,0 +1,47 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.security.CryptoUtil;
+import org.zoxweb.server.security.JWTVerifier;
+import org.zoxweb.server.security.SecUtil;
+import org.zoxweb.shared.crypto.CryptoConst;
+import org.zoxweb.shared.security.JWT;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT HS256 decoding: the reference SecUtil decoder versus the JWTVerifier fast path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class JWTBench {
+
+    private final byte[] key = "jmh-bench-jwt-secret-key".getBytes();
+    private String token;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, IOException {
+        JWT jwt = JWT.createJWT(CryptoConst.JWTAlgo.HS256, "bench@xlogistx.io", "xlogistx.io", "jmh");
+        token = CryptoUtil.encodeJWT(key, jwt, true);
+    }
+
+    @Benchmark
+    public JWT secUtilDecode() throws GeneralSecurityException, IOException {
+        return SecUtil.decodeJWT(key, token);
+    }
+
+    @Benchmark
+    public JWTVerifier.VerifiedJWT verifierVerify() {
+        return JWTVerifier.SINGLETON.verify(key, token);
+    }
+
+    @Benchmark
+    public JWT verifierDecode() {
+        return JWTVerifier.SINGLETON.decode(key, token);
+    }
+}
@@ -0,0 +1,100 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.NVBinaryCodec;
+import org.zoxweb.shared.data.SimpleMessage;
+import org.zoxweb.shared.http.HTTPMessageConfig;
+import org.zoxweb.shared.http.HTTPMethod;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NVEntity and NVGenericMap binary encoding and decoding versus json.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class NVBinaryCodecBench {
+
+    private NVGenericMap nvgm;
+    private HTTPMessageConfig entity;
+    private byte[] mapBinary;
+    private byte[] mapJSON;
+    private byte[] entityBinary;
+    private byte[] entityJSON;
+    private final UByteArrayOutputStream ubaos = new UByteArrayOutputStream(2048);
+
+    @Setup
+    public void setup() throws IOException {
+        nvgm = new NVGenericMap("bench");
+        for (int i = 0; i < 8; i++) {
+            nvgm.build("string_" + i, "value-" + i)
+                    .build(new NVLong("long_" + i, 1_000_000L * i))
+                    .build(new NVInt("int_" + i, i))
+                    .build(new NVBoolean("bool_" + i, i % 2 == 0))
+                    .build(new NVDouble("double_" + i, i * 1.5));
+        }
+        nvgm.build(new NVBlob("blob", new byte[256]));
+        nvgm.build(new NVEntityReference("message", new SimpleMessage("nested", 200)));
+
+        entity = (HTTPMessageConfig) HTTPMessageConfig.createAndInit("https://api.xlogistx.io", "v1/bench", HTTPMethod.POST);
+        entity.getHeaders().build("x-request-id", "0123456789abcdef");
+        entity.getParameters().build("page", "2");
+        entity.setContent(new byte[512]);
+        entity.setBasicAuthorization("user", "password");
+
+        mapBinary = NVBinaryCodec.encode(nvgm);
+        mapJSON = GSONUtil.toJSONGenericMap(ubaos, nvgm, false, false, true).toByteArray();
+        entityBinary = NVBinaryCodec.encode(entity);
+        ubaos.reset();
+        entityJSON = GSONUtil.toJSON(ubaos, entity, false, false, true, SharedBase64.Base64Type.URL).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] mapEncodeBinary() {
+        return NVBinaryCodec.encode(nvgm);
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream mapEncodeJSON() throws IOException {
+        ubaos.reset();
+        return GSONUtil.toJSONGenericMap(ubaos, nvgm, false, false, true);
+    }
+
+    @Benchmark
+    public NVGenericMap mapDecodeBinary() {
+        return NVBinaryCodec.decodeNVGenericMap(mapBinary);
+    }
+
+    @Benchmark
+    public NVGenericMap mapDecodeJSON() {
+        return GSONUtil.fromJSONGenericMap(mapJSON, null, SharedBase64.Base64Type.URL, false);
+    }
+
+    @Benchmark
+    public byte[] entityEncodeBinary() {
+        return NVBinaryCodec.encode(entity);
+    }
+
+    @Benchmark
+    public UByteArrayOutputStream entityEncodeJSON() throws IOException {
+        ubaos.reset();
+        return GSONUtil.toJSON(ubaos, entity, false, false, true, SharedBase64.Base64Type.URL);
+    }
+
+    @Benchmark
+    public NVEntity entityDecodeBinary() {
+        return NVBinaryCodec.decodeNVEntity(entityBinary);
+    }
+
+    @Benchmark
+    public NVEntity entityDecodeJSON() throws Exception {
+        return GSONUtil.fromJSON(entityJSON, SharedBase64.Base64Type.URL);
+    }
+}
@@ -0,0 +1,69 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.shared.data.SimpleMessage;
+import org.zoxweb.shared.util.NVConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NVEntity attribute access by name, by NVConfig and by index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class NVEntityBench {
+
+    private SimpleMessage sm;
+    private NVConfig[] configs;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        sm = new SimpleMessage("bench", 200, "none");
+        configs = SimpleMessage.NVC_SIMPLE_MESSAGE.getAttributes().toArray(new NVConfig[0]);
+        names = new String[configs.length];
+        for (int i = 0; i < configs.length; i++)
+            names[i] = configs[i].getName();
+    }
+
+    @Benchmark
+    public int lookupByName() {
+        int ret = 0;
+        for (String name : names)
+            if (sm.lookupValue(name) != null)
+                ret++;
+        return ret;
+    }
+
+    @Benchmark
+    public int lookupByNVConfig() {
+        int ret = 0;
+        for (NVConfig nvc : configs)
+            if (sm.lookupValue(nvc) != null)
+                ret++;
+        return ret;
+    }
+
+    @Benchmark
+    public int lookupByIndex() {
+        int ret = 0;
+        for (int i = 0; i < configs.length; i++)
+            if (sm.lookupValue(i) != null)
+                ret++;
+        return ret;
+    }
+
+    @Benchmark
+    public SimpleMessage create() {
+        return new SimpleMessage();
+    }
+
+    @Benchmark
+    public SimpleMessage setByNVConfig() {
+        sm.setValue(SimpleMessage.Param.MESSAGE.getNVConfig(), "value");
+        return sm;
+    }
+}
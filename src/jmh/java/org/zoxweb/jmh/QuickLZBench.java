@@ -0,0 +1,43 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.shared.util.QuickLZ;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QuickLZ compress/decompress of a compressible text payload.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class QuickLZBench {
+
+    @Param({"1", "3"})
+    public int level;
+
+    private byte[] data;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 64 * 1024; i++)
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i % 97).append("\",\"active\":true}\n");
+        data = SharedStringUtil.getBytes(sb.toString());
+        compressed = QuickLZ.compress(data, level);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return QuickLZ.compress(data, level);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return QuickLZ.decompress(compressed);
+    }
+}
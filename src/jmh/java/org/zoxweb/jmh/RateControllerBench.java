@@ -0,0 +1,57 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.shared.util.HierarchicalRateController;
+import org.zoxweb.shared.util.RateController;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RateController shared by 4 threads, synchronized TIME type versus the lock-free token bucket.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+@Threads(4)
+public class RateControllerBench {
+
+    private RateController time;
+    private RateController tokenBucket;
+    private HierarchicalRateController hierarchical;
+
+    @Setup
+    public void setup() {
+        time = new RateController("time", "1000000/s");
+        tokenBucket = new RateController("token-bucket", "1000000/s")
+                .setRCType(RateController.RCType.TOKEN_BUCKET)
+                .setBurst(1000);
+        hierarchical = new HierarchicalRateController("tenants", "1000000/s", 1000, "250000/s", 250);
+    }
+
+    @State(Scope.Thread)
+    public static class Tenant {
+        public final String key = Thread.currentThread().getName();
+    }
+
+    @Benchmark
+    public long timeNextWait() {
+        return time.nextWait();
+    }
+
+    @Benchmark
+    public long tokenBucketNextWait() {
+        return tokenBucket.nextWait();
+    }
+
+    @Benchmark
+    public boolean tokenBucketTryAcquire() {
+        return tokenBucket.tryAcquire(1);
+    }
+
+    @Benchmark
+    public boolean hierarchicalTryAcquire(Tenant tenant) {
+        return hierarchical.tryAcquire(tenant.key);
+    }
+}
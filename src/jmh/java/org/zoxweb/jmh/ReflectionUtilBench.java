@@ -0,0 +1,82 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.util.ReflectionUtil;
+import org.zoxweb.shared.annotation.EndPointProp;
+import org.zoxweb.shared.annotation.ParamProp;
+import org.zoxweb.shared.http.HTTPMethod;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Annotated end point dispatch: direct call, Method.invoke, the cached invoker and its typed binding.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class ReflectionUtilBench {
+
+    public static class EndPoint {
+        @EndPointProp(uris = "/profile/{profileId}/{realm}", name = "profile", methods = {HTTPMethod.GET})
+        public String profile(@ParamProp(name = "profileId") String profileId, @ParamProp(name = "realm") String realm) {
+            return realm;
+        }
+    }
+
+    public interface ProfileCall {
+        String profile(EndPoint endPoint, String profileId, String realm);
+    }
+
+    private final EndPoint endPoint = new EndPoint();
+    private Method method;
+    private ReflectionUtil.MethodAnnotations methodAnnotations;
+    private ReflectionUtil.MethodInvoker invoker;
+    private ProfileCall bound;
+    private final Map<String, Object> data = new HashMap<>();
+    private final Object[] args = {"id", "realm"};
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        method = EndPoint.class.getMethod("profile", String.class, String.class);
+        methodAnnotations = ReflectionUtil.scanClassAnnotations(EndPoint.class, EndPointProp.class, ParamProp.class).lookupMethodAnnotations(method);
+        invoker = ReflectionUtil.lookupInvoker(method);
+        bound = invoker.bind(ProfileCall.class);
+        data.put("profileId", "id");
+        data.put("realm", "realm");
+    }
+
+    @Benchmark
+    public Object direct() {
+        return endPoint.profile((String) args[0], (String) args[1]);
+    }
+
+    @Benchmark
+    public Object methodInvoke() throws Exception {
+        return method.invoke(endPoint, args);
+    }
+
+    @Benchmark
+    public Object invoker() throws Exception {
+        return invoker.invoke(endPoint, args);
+    }
+
+    @Benchmark
+    public Object bound() {
+        return bound.profile(endPoint, (String) args[0], (String) args[1]);
+    }
+
+    @Benchmark
+    public Object invokeAnnotated() throws Exception {
+        return ReflectionUtil.invokeMethod(endPoint, methodAnnotations, data);
+    }
+
+    @Benchmark
+    public Object scanClassAnnotations() {
+        return ReflectionUtil.scanClassAnnotations(EndPoint.class, EndPointProp.class, ParamProp.class).findMethodAnnotationsByType(EndPointProp.class);
+    }
+}
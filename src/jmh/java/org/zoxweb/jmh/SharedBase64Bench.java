@@ -0,0 +1,44 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.shared.util.SharedBase64;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SharedBase64 encode/decode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class SharedBase64Bench {
+
+    @Param({"64", "4096"})
+    public int size;
+
+    @Param({"DEFAULT", "URL"})
+    public SharedBase64.Base64Type type;
+
+    private byte[] data;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        encoded = SharedBase64.encode(type, data);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return SharedBase64.encode(type, data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return SharedBase64.decode(type, encoded);
+    }
+}
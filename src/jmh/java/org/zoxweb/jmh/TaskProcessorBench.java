@@ -0,0 +1,51 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.task.TaskProcessor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TaskProcessor dispatch, a batch of empty tasks queued and awaited.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TaskProcessorBench {
+
+    public static final int BATCH = 1000;
+
+    private TaskProcessor taskProcessor;
+
+    @Setup
+    public void setup() {
+        taskProcessor = new TaskProcessor("JMH", 1024, Runtime.getRuntime().availableProcessors() * 2, Thread.NORM_PRIORITY, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        taskProcessor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void execute() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++)
+            taskProcessor.execute(latch::countDown);
+        latch.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    @Threads(4)
+    public void executeContended() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++)
+            taskProcessor.execute(latch::countDown);
+        latch.await();
+    }
+}
@@ -0,0 +1,75 @@
+package org.zoxweb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.net.ws.WSFrameCodec;
+import org.zoxweb.shared.http.HTTPWSFrame;
+import org.zoxweb.shared.http.HTTPWSProto;
+import org.zoxweb.shared.io.BytesArray;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Masked client frame decoding and server frame encoding, HTTPWSFrame/HTTPWSProto against WSFrameCodec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class WSFrameCodecBench {
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private static final byte[] KEY = {0x37, (byte) 0xfa, 0x21, 0x3d};
+    private static final int MASK = 0x37fa213d;
+
+    private byte[] frame;
+    private byte[] payload;
+    private final UByteArrayOutputStream ubaos = new UByteArrayOutputStream(4096);
+    private final WSFrameCodec.Frame codecFrame = new WSFrameCodec.Frame();
+    private ByteBuffer bb;
+    private final ByteBuffer header = ByteBuffer.allocate(WSFrameCodec.MAX_HEADER_SIZE);
+
+    @Setup
+    public void setup() {
+        payload = new byte[payloadSize];
+        new Random(1).nextBytes(payload);
+        UByteArrayOutputStream temp = new UByteArrayOutputStream();
+        HTTPWSProto.formatFrame(temp, true, HTTPWSProto.OpCode.BINARY, KEY, payload);
+        frame = temp.toByteArray();
+        bb = ByteBuffer.allocate(frame.length);
+    }
+
+    @Benchmark
+    public BytesArray parseHTTPWSFrame() {
+        ubaos.reset();
+        ubaos.write(frame, 0, frame.length);
+        return HTTPWSFrame.parse(ubaos, 0).data();
+    }
+
+    @Benchmark
+    public int parseWSFrameCodec() {
+        // same copy in as the transport read
+        bb.clear();
+        bb.put(frame);
+        codecFrame.parse(bb, 0, bb.position(), Integer.MAX_VALUE);
+        codecFrame.unmask(bb);
+        return codecFrame.payloadLength();
+    }
+
+    @Benchmark
+    public BytesArray formatHTTPWSProto() {
+        ubaos.reset();
+        return HTTPWSProto.formatFrame(ubaos, true, HTTPWSProto.OpCode.BINARY, null, payload);
+    }
+
+    @Benchmark
+    public int formatWSFrameCodec() {
+        header.clear();
+        return WSFrameCodec.encodeHeader(header, true, 0x2, payload.length, 0);
+    }
+}
@@ -21,13 +21,16 @@ import jakarta.mail.internet.MimeMessage;
 import org.zoxweb.server.api.APIServiceProviderBase;
 import org.zoxweb.server.http.HTTPUtil;
 import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
 import org.zoxweb.server.task.TaskUtil;
 import org.zoxweb.shared.api.*;
 import org.zoxweb.shared.filters.MessageContentFilter;
 import org.zoxweb.shared.util.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -71,128 +74,217 @@ public class SMTPProvider
     class SMTPSenderTask
             implements Runnable {
         SMTPProvider smtpProvider;
-        APINotificationMessage notificationMessage;
+        List<APINotificationMessage> notificationMessages;
 
-        SMTPSenderTask(SMTPProvider smtpProvider, APINotificationMessage notificationMessage) {
+        SMTPSenderTask(SMTPProvider smtpProvider, List<APINotificationMessage> notificationMessages) {
             this.smtpProvider = smtpProvider;
-            this.notificationMessage = notificationMessage;
+            this.notificationMessages = notificationMessages;
         }
 
         public void run() {
-            //sendAPIMessageInternal((APIMessage) event.getTaskExecutorParameters()[0]);
-//			TaskEvent event = attachedEvent();
-//			int index = 0;
-//			SMTPProvider smtpProvider =  (SMTPProvider) event.getTaskExecutorParameters()[index++];
-//			APINotificationMessage notificationMessage = (APINotificationMessage) event.getTaskExecutorParameters()[index++];
-
-
-            final String USER_NAME = getAPIConfigInfo().getProperties().getValue(SMTPCreator.Param.USERNAME.getName());
-            final String PASSWORD = getAPIConfigInfo().getProperties().getValue(SMTPCreator.Param.PASSWORD.getName());
-
-
-            Session session = smtpProvider.createSession(
-                    smtpProvider.createProperties(true, true, getAPIConfigInfo().getProperties().getValue(SMTPCreator.Param.HOST.getName()),
-                            getAPIConfigInfo().getProperties().getValue(SMTPCreator.Param.PORT.getName())),
-                    USER_NAME, PASSWORD);
-
             try {
-                // Default MimeMessage object.
-                MimeMessage msg = new MimeMessage(session);
-
-                // Set From
-                String from = SharedUtil.lookupValue(notificationMessage.getExtraAttribues().get(SMTPMessageParam.SENDER_ID_NAME.getValue()));
+                SMTPTransportPool pool = smtpProvider.getTransportPool();
+                if (notificationMessages.size() == 1) {
+                    MimeMessage msg = createMimeMessage(pool.getSession(), notificationMessages.get(0));
+                    pool.send(msg);
+                    if (log.isEnabled())
+                        log.getLogger().info(SMTPMessageIDFilter.SINGLETON.validate(msg.getHeader(SMTPMessageParam.MESSAGE_ID.getValue())));
+                    return;
+                }
 
-                if (from != null) {
-                    from = from + " <" + notificationMessage.getSenderID() + ">";
-                } else {
-                    from = notificationMessage.getSenderID();
+                List<MimeMessage> msgs = new ArrayList<>(notificationMessages.size());
+                for (APINotificationMessage notificationMessage : notificationMessages)
+                    msgs.add(createMimeMessage(pool.getSession(), notificationMessage));
+
+                MessagingException[] failures = pool.sendAll(msgs);
+                int failed = 0;
+                MessagingException first = null;
+                for (MessagingException e : failures) {
+                    if (e != null) {
+                        failed++;
+                        if (first == null)
+                            first = e;
+                    }
                 }
+                if (log.isEnabled())
+                    log.getLogger().info("batch sent " + (msgs.size() - failed) + " failed " + failed);
+                if (first != null)
+                    throw new APIException(failed + " of " + msgs.size() + " messages failed: " + first.getMessage());
+            } catch (MessagingException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
-                msg.setFrom(new InternetAddress(from));
+    }
 
-                // Set To
-                StringBuilder sb = new StringBuilder();
+    /**
+     * Create the mime message of a notification message.
+     *
+     * @param session             mail session
+     * @param notificationMessage to be converted
+     * @return the mime message
+     * @throws MessagingException if the message is invalid
+     */
+    static MimeMessage createMimeMessage(Session session, APINotificationMessage notificationMessage)
+            throws MessagingException {
+        // Default MimeMessage object.
+        MimeMessage msg = new MimeMessage(session);
+
+        // Set From
+        String from = SharedUtil.lookupValue(notificationMessage.getExtraAttribues().get(SMTPMessageParam.SENDER_ID_NAME.getValue()));
+
+        if (from != null) {
+            from = from + " <" + notificationMessage.getSenderID() + ">";
+        } else {
+            from = notificationMessage.getSenderID();
+        }
 
-                for (String to : notificationMessage.getRecipientIDs()) {
-                    if (sb.length() > 0)
-                        sb.append(",");
+        msg.setFrom(new InternetAddress(from));
 
-                    sb.append(to);
-                }
+        // Set To
+        StringBuilder sb = new StringBuilder();
 
-                msg.addRecipients(Message.RecipientType.TO, sb.toString());
+        for (String to : notificationMessage.getRecipientIDs()) {
+            if (sb.length() > 0)
+                sb.append(",");
 
-                //msg.setHeader("Content-Type", "text/plain; charset=UTF-8");
-                // Set Cc
-                @SuppressWarnings("unchecked")
-                List<NVPair> ccList = (List<NVPair>) SharedUtil.lookupArrayValues(notificationMessage.getExtraAttribues(), SMTPMessageParam.CC.getValue());
+            sb.append(to);
+        }
 
-                if (ccList != null) {
-                    for (NVPair nvp : ccList) {
-                        msg.addRecipient(Message.RecipientType.CC, new InternetAddress(nvp.getValue()));
-                    }
-                }
+        msg.addRecipients(Message.RecipientType.TO, sb.toString());
 
-                //	Set Bcc
-                @SuppressWarnings("unchecked")
-                List<NVPair> bccList = (List<NVPair>) SharedUtil.lookupArrayValues(notificationMessage.getExtraAttribues(), SMTPMessageParam.BCC.getValue());
+        // Set Cc
+        @SuppressWarnings("unchecked")
+        List<NVPair> ccList = (List<NVPair>) SharedUtil.lookupArrayValues(notificationMessage.getExtraAttribues(), SMTPMessageParam.CC.getValue());
 
-                if (bccList != null) {
-                    for (NVPair nvp : bccList) {
-                        msg.addRecipient(Message.RecipientType.BCC, new InternetAddress(nvp.getValue()));
-                    }
-                }
+        if (ccList != null) {
+            for (NVPair nvp : ccList) {
+                msg.addRecipient(Message.RecipientType.CC, new InternetAddress(nvp.getValue()));
+            }
+        }
 
-                // Set Subject
-                msg.setSubject(notificationMessage.getTitle());
+        //	Set Bcc
+        @SuppressWarnings("unchecked")
+        List<NVPair> bccList = (List<NVPair>) SharedUtil.lookupArrayValues(notificationMessage.getExtraAttribues(), SMTPMessageParam.BCC.getValue());
 
-                // Set Message
-                String bodyContent = MessageContentFilter.SINGLETON.validate(notificationMessage);
+        if (bccList != null) {
+            for (NVPair nvp : bccList) {
+                msg.addRecipient(Message.RecipientType.BCC, new InternetAddress(nvp.getValue()));
+            }
+        }
 
+        // Set Subject
+        msg.setSubject(notificationMessage.getTitle());
 
-                if (HTTPUtil.isHTML(bodyContent)) {
-                    //System.out.println("WE have HTML message\n" + bodyContent);
-                    msg.setContent(bodyContent, SMTPMessageParam.TEXT_HTML.getValue());
-                } else {
-                    //System.out.println("WE have TEXT message\b" + bodyContent);
-                    //msg.setHeader("Content-Type", "text/plain; charset=UTF-8");
-                    msg.setText(bodyContent, Const.UTF_8);
-                }
+        // Set Message
+        String bodyContent = MessageContentFilter.SINGLETON.validate(notificationMessage);
 
-                // Send Message
-                Transport.send(msg);
 
-                if (log.isEnabled())
-                    log.getLogger().info(SMTPMessageIDFilter.SINGLETON.validate(msg.getHeader(SMTPMessageParam.MESSAGE_ID.getValue())));
-            } catch (MessagingException e) {
-                throw new RuntimeException(e);
-            }
+        if (HTTPUtil.isHTML(bodyContent)) {
+            msg.setContent(bodyContent, SMTPMessageParam.TEXT_HTML.getValue());
+        } else {
+            msg.setText(bodyContent, Const.UTF_8);
         }
-
+        return msg;
     }
 
     //private APIConfigInfo configInfo;
     private String name;
     private String description;
     private APIExceptionHandler exceptionHandler;
+    private volatile SMTPTransportPool transportPool;
+    private volatile int maxConnections = 4;
+    private volatile Executor executor = null;
+    private volatile TaskSchedulerProcessor scheduler = null;
     //private Properties properties;
     //private Session session;
 
 
     public Void connect()
             throws APIException {
+        getTransportPool();
         return null;
     }
 
 
     public void close()
             throws APIException {
-
+        SMTPTransportPool pool;
+        synchronized (this) {
+            pool = transportPool;
+            transportPool = null;
+        }
+        if (pool != null)
+            pool.close();
     }
 
 
     public boolean isProviderActive() {
-        return false;
+        SMTPTransportPool pool = transportPool;
+        return pool != null && !pool.isClosed();
+    }
+
+    /**
+     * @return the maximum number of parallel SMTP connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Set the maximum number of parallel SMTP connections, applies to the next transport pool.
+     *
+     * @param maxConnections the maximum number of parallel SMTP connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("Invalid max connections " + maxConnections);
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Set the executor and scheduler of the transport pool, applies to the next transport pool.
+     * If not set the default task processor and scheduler are used.
+     *
+     * @param executor  used to run the parallel connections
+     * @param scheduler used to evict the idle connections
+     */
+    public void setTaskExecutors(Executor executor, TaskSchedulerProcessor scheduler) {
+        SUS.checkIfNulls("Null parameters", executor, scheduler);
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Return the pool of authenticated transports of the SMTP configuration, created on first use.
+     *
+     * @return the transport pool
+     */
+    public SMTPTransportPool getTransportPool() {
+        SMTPTransportPool ret = transportPool;
+        if (ret == null) {
+            synchronized (this) {
+                ret = transportPool;
+                if (ret == null) {
+                    if (getAPIConfigInfo() == null)
+                        throw new APIException("Missing configuration information");
+                    NVGenericMap props = getAPIConfigInfo().getProperties();
+                    ret = new SMTPTransportPool(SMTPTransportPool.createSession(
+                            SMTPTransportPool.createProperties(true,
+                                    props.getValue(SMTPCreator.Param.AUTHENTICATION.getName()),
+                                    props.getValue(SMTPCreator.Param.HOST.getName()),
+                                    props.getValue(SMTPCreator.Param.PORT.getName()),
+                                    Const.TimeInMillis.SECOND.mult(30)),
+                            props.getValue(SMTPCreator.Param.USERNAME.getName()),
+                            props.getValue(SMTPCreator.Param.PASSWORD.getName())),
+                            maxConnections,
+                            executor != null ? executor : TaskUtil.defaultTaskProcessor(),
+                            scheduler != null ? scheduler : TaskUtil.defaultTaskScheduler());
+                    transportPool = ret;
+                }
+            }
+        }
+        return ret;
     }
 
     @Override
@@ -260,7 +352,7 @@ public class SMTPProvider
 
 //		TaskExecutor td = new SMTPSenderTask();
 //		TaskEvent    te = new TaskEvent(this, td, this, message);
-        SMTPSenderTask smtpSenderTask = new SMTPSenderTask(this, (APINotificationMessage) message);
+        SMTPSenderTask smtpSenderTask = new SMTPSenderTask(this, Collections.singletonList((APINotificationMessage) message));
 
         switch (apind) {
             case NOW:
@@ -278,6 +370,49 @@ public class SMTPProvider
         return null;
     }
 
+    /**
+     * Send a batch of messages over the pooled connections, each connection sending many messages.
+     *
+     * @param messages to be sent
+     * @param apind    NOW the messages are sent at the method return, QUEUED the batch is queued and sent later
+     * @throws NullPointerException     if messages is null
+     * @throws IllegalArgumentException if a message is not an email
+     * @throws APIException             if some messages failed to be sent
+     */
+    public void sendAPIMessages(List<? extends APIMessage> messages, APINotificationDelivery apind)
+            throws NullPointerException, IllegalArgumentException, APIException {
+        if (getAPIConfigInfo() == null) {
+            throw new APIException("Missing configuration information");
+        }
+
+        SUS.checkIfNulls("Messages list is null", messages);
+        List<APINotificationMessage> notificationMessages = new ArrayList<>(messages.size());
+        for (APIMessage message : messages) {
+            SUS.checkIfNulls("APINotificationMessage is null", message);
+            if (!(message instanceof APINotificationMessage)) {
+                throw new IllegalArgumentException("Message is not an instance of APINotificationMessage");
+            }
+            if (!getAPIConfigInfo().isServiceTypeSupported(message.getMessageType())) {
+                throw new IllegalArgumentException("Message is not an email type.");
+            }
+            notificationMessages.add((APINotificationMessage) message);
+        }
+        if (notificationMessages.isEmpty())
+            return;
+
+        SMTPSenderTask smtpSenderTask = new SMTPSenderTask(this, notificationMessages);
+        switch (apind) {
+            case NOW:
+                smtpSenderTask.run();
+                break;
+            case QUEUED:
+                TaskUtil.defaultTaskScheduler().queue(0, smtpSenderTask);
+                break;
+            default:
+                break;
+        }
+    }
+
 //	private APITransactionInfo sendAPIMessageInternal(APIMessage message)
 //						throws NullPointerException, IllegalArgumentException, APIException
 //	{
@@ -389,40 +524,6 @@ public class SMTPProvider
 //		return null;
 //	}
 
-    /**
-     * @param authentication
-     * @param encrypt
-     * @param host
-     * @param port
-     */
-    private Properties createProperties(boolean authentication, boolean encrypt, String host, String port) {
-        Properties properties = new Properties();
-        properties.put("mail.smtp.auth", "" + authentication);
-        properties.put("mail.smtp.ssl.enable", "" + encrypt);
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", port);
-
-        return properties;
-    }
-
-    /**
-     * @param properties
-     * @param userName
-     * @param password
-     */
-    private Session createSession(Properties properties, final String userName, final String password) {
-        Session session = Session.getInstance(properties,
-                new Authenticator() {
-                    @Override
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(userName, password);
-                    }
-                });
-
-        return session;
-    }
-
-
     public APITransactionInfo updateTransactionInfo(APITransactionInfo transaction)
             throws NullPointerException, IllegalArgumentException, APIException {
 
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.api.provider.notification.smtp;
+
+import jakarta.mail.*;
+import jakarta.mail.internet.MimeMessage;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.util.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of connected and authenticated SMTP transports for one SMTP configuration.
+ * <p>
+ * Transports are reused across messages instead of connecting and authenticating for every message, at most
+ * {@link #getMaxConnections()} are in use at the same time. An idle transport is checked with a NOOP before reuse
+ * if it was idle longer than {@link #getHealthCheckAfter()}, and closed once idle longer than {@link #getIdleTimeout()}.
+ * </p>
+ */
+public class SMTPTransportPool
+        implements AutoCloseable, ToNVProperties {
+
+    private static final LogWrapper log = new LogWrapper(SMTPTransportPool.class).setEnabled(false);
+
+    private static class IdleTransport {
+        private final Transport transport;
+        private final long idleSince;
+
+        private IdleTransport(Transport transport) {
+            this.transport = transport;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final Session session;
+    private final Executor executor;
+    private final TaskSchedulerProcessor scheduler;
+    private final ConcurrentLinkedDeque<IdleTransport> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final int maxConnections;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+    private volatile long idleTimeout = Const.TimeInMillis.MINUTE.MILLIS;
+    private volatile long healthCheckAfter = Const.TimeInMillis.SECOND.mult(15);
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesFailed = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong connectionsEvicted = new AtomicLong();
+    private final AtomicLong healthCheckFailed = new AtomicLong();
+
+    /**
+     * Create a pool using the default task processor and scheduler.
+     *
+     * @param session        the mail session with the connection and authentication properties
+     * @param maxConnections the maximum number of parallel connections
+     */
+    public SMTPTransportPool(Session session, int maxConnections) {
+        this(session, maxConnections, TaskUtil.defaultTaskProcessor(), TaskUtil.defaultTaskScheduler());
+    }
+
+    /**
+     * @param session        the mail session with the connection and authentication properties
+     * @param maxConnections the maximum number of parallel connections
+     * @param executor       used by {@link #sendAll(List)} to run the parallel connections
+     * @param scheduler      used to evict the idle connections
+     */
+    public SMTPTransportPool(Session session, int maxConnections, Executor executor, TaskSchedulerProcessor scheduler) {
+        SUS.checkIfNulls("Null parameters", session, executor, scheduler);
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("Invalid max connections " + maxConnections);
+        this.session = session;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the mail session used to create the messages and the transports
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout in millis after which an idle connection is closed
+     * @return this
+     */
+    public SMTPTransportPool setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public long getHealthCheckAfter() {
+        return healthCheckAfter;
+    }
+
+    /**
+     * @param healthCheckAfter in millis of idle time after which a connection is checked with a NOOP before reuse
+     * @return this
+     */
+    public SMTPTransportPool setHealthCheckAfter(long healthCheckAfter) {
+        this.healthCheckAfter = healthCheckAfter;
+        return this;
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Send a message over a pooled connection.
+     *
+     * @param msg to be sent
+     * @throws MessagingException if the message failed
+     */
+    public void send(MimeMessage msg)
+            throws MessagingException {
+        Transport transport = borrow();
+        boolean reusable = false;
+        try {
+            sendMessage(transport, msg);
+            reusable = true;
+        } catch (SendFailedException e) {
+            // rejected addresses, the connection is still valid
+            reusable = true;
+            throw e;
+        } finally {
+            release(transport, reusable);
+        }
+    }
+
+    /**
+     * Send a batch of messages over up to {@link #getMaxConnections()} connections, each connection sending many
+     * messages. The calling thread sends over one of the connections. Once a connection can't be established the
+     * remaining messages fail with the same exception instead of each waiting on the connect timeout.
+     *
+     * @param messages to be sent
+     * @return the failure of each message by index, null entries for the messages sent
+     * @throws MessagingException if the pool is closed or the calling thread is interrupted
+     */
+    public MessagingException[] sendAll(List<? extends MimeMessage> messages)
+            throws MessagingException {
+        SUS.checkIfNulls("Null messages", messages);
+        MessagingException[] ret = new MessagingException[messages.size()];
+        if (messages.isEmpty())
+            return ret;
+        checkOpen();
+
+        AtomicInteger index = new AtomicInteger();
+        AtomicReference<MessagingException> connectFailure = new AtomicReference<>();
+        int workerCount = Math.min(maxConnections, messages.size());
+        CountDownLatch done = new CountDownLatch(workerCount - 1);
+        List<AtomicBoolean> claims = new ArrayList<>();
+        for (int i = 1; i < workerCount; i++) {
+            AtomicBoolean claim = new AtomicBoolean();
+            claims.add(claim);
+            executor.execute(() -> {
+                if (claim.compareAndSet(false, true)) {
+                    try {
+                        sendBatch(messages, index, ret, connectFailure);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        sendBatch(messages, index, ret, connectFailure);
+
+        // the workers not started yet have nothing left to send
+        for (AtomicBoolean claim : claims)
+            if (claim.compareAndSet(false, true))
+                done.countDown();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted", e);
+        }
+        return ret;
+    }
+
+    private void sendBatch(List<? extends MimeMessage> messages, AtomicInteger index, MessagingException[] failures,
+                           AtomicReference<MessagingException> connectFailure) {
+        Transport transport = null;
+        try {
+            int i;
+            while ((i = index.getAndIncrement()) < messages.size()) {
+                if (connectFailure.get() != null) {
+                    failures[i] = connectFailure.get();
+                    continue;
+                }
+                if (transport == null) {
+                    try {
+                        transport = borrow();
+                    } catch (MessagingException e) {
+                        // the server is not reachable, fail the remaining messages of all the connections
+                        connectFailure.compareAndSet(null, e);
+                        failures[i] = e;
+                        continue;
+                    }
+                }
+                try {
+                    sendMessage(transport, messages.get(i));
+                } catch (SendFailedException e) {
+                    failures[i] = e;
+                } catch (MessagingException | RuntimeException e) {
+                    failures[i] = e instanceof MessagingException ? (MessagingException) e : new MessagingException(e.toString(), e);
+                    // connection level failure, continue on a new connection
+                    Transport failed = transport;
+                    transport = null;
+                    release(failed, false);
+                }
+            }
+        } finally {
+            if (transport != null)
+                release(transport, true);
+        }
+    }
+
+    private void sendMessage(Transport transport, MimeMessage msg)
+            throws MessagingException {
+        try {
+            msg.saveChanges();
+            transport.sendMessage(msg, msg.getAllRecipients());
+            messagesSent.incrementAndGet();
+        } catch (MessagingException e) {
+            messagesFailed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a connected transport, waits if {@link #getMaxConnections()} transports are in use. The transport must
+     * be given back with {@link #release(Transport, boolean)}.
+     *
+     * @return connected transport
+     * @throws MessagingException if the connection failed or the pool is closed
+     */
+    public Transport borrow()
+            throws MessagingException {
+        checkOpen();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted", e);
+        }
+        try {
+            IdleTransport it;
+            while ((it = idle.pollFirst()) != null) {
+                long idleTime = System.currentTimeMillis() - it.idleSince;
+                if (idleTime > idleTimeout) {
+                    evict(it.transport);
+                    continue;
+                }
+                // isConnected sends a NOOP to check the connection
+                if (idleTime > healthCheckAfter && !it.transport.isConnected()) {
+                    healthCheckFailed.incrementAndGet();
+                    closeTransport(it.transport);
+                    continue;
+                }
+                connectionsReused.incrementAndGet();
+                return it.transport;
+            }
+            Transport transport = session.getTransport();
+            transport.connect();
+            connectionsCreated.incrementAndGet();
+            return transport;
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a borrowed transport.
+     *
+     * @param transport borrowed with {@link #borrow()}
+     * @param reusable  false if the transport failed and must be closed
+     */
+    public void release(Transport transport, boolean reusable) {
+        try {
+            if (reusable && !closed.get()) {
+                idle.offerFirst(new IdleTransport(transport));
+                scheduleSweep();
+                // the pool was closed meanwhile
+                if (closed.get())
+                    closeIdle();
+            } else
+                closeTransport(transport);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void scheduleSweep() {
+        if (sweepScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.queue(idleTimeout, this::sweep);
+            } catch (RuntimeException e) {
+                // scheduler closed, the expired idle connections are still evicted by borrow
+                sweepScheduled.set(false);
+                if (log.isEnabled()) log.getLogger().info("sweep not scheduled " + e);
+            }
+        }
+    }
+
+    private void sweep() {
+        sweepScheduled.set(false);
+        // the oldest idle transports are at the tail
+        IdleTransport it;
+        while ((it = idle.peekLast()) != null && System.currentTimeMillis() - it.idleSince > idleTimeout) {
+            if (idle.removeLastOccurrence(it))
+                evict(it.transport);
+        }
+        if (!idle.isEmpty() && !closed.get())
+            scheduleSweep();
+    }
+
+    private void evict(Transport transport) {
+        connectionsEvicted.incrementAndGet();
+        closeTransport(transport);
+    }
+
+    private void closeIdle() {
+        IdleTransport it;
+        while ((it = idle.pollFirst()) != null)
+            closeTransport(it.transport);
+    }
+
+    private static void closeTransport(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            if (log.isEnabled()) log.getLogger().info("close failed " + e);
+        }
+    }
+
+    private void checkOpen()
+            throws MessagingException {
+        if (closed.get())
+            throw new MessagingException("SMTP transport pool closed");
+    }
+
+    /**
+     * Close the idle connections, the borrowed connections are closed when released.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true))
+            closeIdle();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap("smtp_transport_pool");
+        ret.build(new NVLong("messages_sent", messagesSent.get()))
+                .build(new NVLong("messages_failed", messagesFailed.get()))
+                .build(new NVLong("connections_created", connectionsCreated.get()))
+                .build(new NVLong("connections_reused", connectionsReused.get()))
+                .build(new NVLong("connections_evicted", connectionsEvicted.get()))
+                .build(new NVLong("health_check_failed", healthCheckFailed.get()))
+                .build(new NVInt("idle", idle.size()))
+                .build(new NVInt("in_use", maxConnections - permits.availablePermits()));
+        return ret;
+    }
+
+    /**
+     * Create the session properties of an SMTP configuration.
+     *
+     * @param authentication true to authenticate
+     * @param security       NONE, TLS for STARTTLS or SSL
+     * @param host           SMTP server
+     * @param port           SMTP port
+     * @param timeout        connect and read timeout in millis
+     * @return session properties
+     */
+    public static Properties createProperties(boolean authentication, String security, String host, String port, long timeout) {
+        Properties properties = new Properties();
+        properties.put("mail.transport.protocol", "smtp");
+        properties.put("mail.smtp.auth", "" + authentication);
+        properties.put("mail.smtp.ssl.enable", "" + !("NONE".equalsIgnoreCase(security) || "TLS".equalsIgnoreCase(security)));
+        if ("TLS".equalsIgnoreCase(security))
+            properties.put("mail.smtp.starttls.enable", "true");
+        properties.put("mail.smtp.host", host);
+        properties.put("mail.smtp.port", port);
+        properties.put("mail.smtp.connectiontimeout", "" + timeout);
+        properties.put("mail.smtp.timeout", "" + timeout);
+        properties.put("mail.smtp.writetimeout", "" + timeout);
+        return properties;
+    }
+
+    /**
+     * @param properties session properties
+     * @param userName   for authentication
+     * @param password   for authentication
+     * @return mail session
+     */
+    public static Session createSession(Properties properties, final String userName, final String password) {
+        return Session.getInstance(properties,
+                new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return new PasswordAuthentication(userName, password);
+                    }
+                });
+    }
+}
@@ -5,12 +5,15 @@ import org.zoxweb.server.logging.LogWrapper;
 import org.zoxweb.server.task.TaskSchedulerProcessor;
 import org.zoxweb.server.util.GSONUtil;
 import org.zoxweb.shared.http.*;
+import org.zoxweb.shared.task.ConsumerCallback;
 import org.zoxweb.shared.util.*;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -34,9 +37,11 @@ import java.util.concurrent.atomic.AtomicLong;
  * <p>
  * Calls can be issued synchronously ({@link #syncCall(Object)}) or asynchronously
  * ({@link #asyncCall(HTTPCallback)}) via the configured {@link Executor} or
- * {@link TaskSchedulerProcessor}; an optional {@link RateController} gates synchronous calls
+ * {@link TaskSchedulerProcessor}, or without holding a thread per call on an
+ * {@link HTTPNIOClientPool}; an optional {@link RateController} gates synchronous calls
  * (throwing when the rate is exceeded) and paces asynchronous ones by scheduling delays.
- * Success and failure counters track call outcomes.
+ * An optional {@link HTTPAPIResponseCache} coalesces identical GET calls and serves cacheable
+ * responses. Success and failure counters track call outcomes.
  * <p>
  * The positive-results map ({@link #setPositiveResults(int...)}, {@link #lookupPositiveResult(int)})
  * lets callback code reinterpret specific http error statuses as successful outcomes; the endpoint
@@ -79,45 +84,91 @@ public class HTTPAPIEndPoint<I, O>
     private volatile ScheduledExecutorService tsp;
     private volatile String domain;
     private volatile OkHttpClient okHttpClient = null;
+    private volatile HTTPNIOClientPool clientPool = null;
+    private volatile HTTPAPIResponseCache responseCache = null;
     private volatile NVGenericMap properties = new NVGenericMap();
     private volatile BiDataEncoder<HTTPMessageConfigInterface, HTTPAuthorization, HTTPMessageConfigInterface> authorizationEncoder = DEFAULT_AUTHORIZATION_ENCODER;
 
 
     /**
      * One call execution unit: builds the per-call message config from the callback's input,
-     * sends it via {@link OkHTTPCall}, decodes the response and reports the {@link HTTPAPIResult}
-     * (or any exception) back to the callback, updating the success/failure counters.
-     * The constructor rejects a null callback, so every sync and async entry point fails fast
-     * on the caller's thread before any dispatch.
+     * sends it via {@link OkHTTPCall}, or without blocking via the {@link HTTPNIOClientPool} when
+     * one is set for an asynchronous call, decodes the response and reports the
+     * {@link HTTPAPIResult} (or any exception) back to the callback, updating the success/failure
+     * counters. The constructor rejects a null callback, so every sync and async entry point fails
+     * fast on the caller's thread before any dispatch.
      */
     private class ToRun
-            implements Runnable {
+            implements Runnable, ConsumerCallback<HTTPResponse> {
         private final HTTPCallback<I, O> callback;
         private final HTTPAuthorization authorization;
+        private final HTTPNIOClientPool pool;
 
-        ToRun(HTTPCallback<I, O> callback, HTTPAuthorization authorization) {
+        ToRun(HTTPCallback<I, O> callback, HTTPAuthorization authorization, HTTPNIOClientPool pool) {
             SUS.checkIfNull("callback is null", callback);
 
             this.callback = callback;
             this.authorization = authorization;
+            this.pool = pool;
         }
 
         public void run() {
             try {
-                HTTPResponseData hrd = OkHTTPCall.send(getOkHttpClient(), createHMCI(callback.get(), authorization));
-                HTTPAPIResult<?> hapir = new HTTPAPIResult<>(hrd.getStatus(),
-                        hrd.getHeaders(),
-                        dataDecoder != null ? dataDecoder.decode(hrd) : hrd.getData(),
-                        hrd.getDuration());
+                HTTPMessageConfigInterface hmci = createHMCI(callback.get(), authorization);
+                HTTPAPIResponseCache cache = responseCache;
+                if (cache != null && cache.isCacheable(hmci))
+                    cache.call(hmci, this::send, HTTPAPIEndPoint.this::toResult, new ConsumerCallback<HTTPAPIResult<?>>() {
+                        @Override
+                        public void accept(HTTPAPIResult<?> result) {
+                            complete(result);
+                        }
+
+                        @Override
+                        public void exception(Throwable e) {
+                            ToRun.this.exception(e);
+                        }
+                    });
+                else
+                    send(hmci, this);
+            } catch (Exception e) {
+                exception(e);
+            }
+        }
 
+        private void send(HTTPMessageConfigInterface hmci, ConsumerCallback<HTTPResponse> cc) throws IOException {
+            if (pool != null)
+                pool.send(hmci, cc);
+            else
+                cc.accept(OkHTTPCall.send(getOkHttpClient(), hmci));
+        }
+
+        @Override
+        public void accept(HTTPResponse response) {
+            HTTPAPIResult<?> hapir;
+            try {
+                hapir = toResult((HTTPResponseData) response);
+            } catch (Exception e) {
+                exception(e);
+                return;
+            }
+            complete(hapir);
+        }
+
+        private void complete(HTTPAPIResult<?> hapir) {
+            try {
                 callback.accept((HTTPAPIResult<O>) hapir);
 
                 successCounter.incrementAndGet();
             } catch (Exception e) {
-                failedCounter.incrementAndGet();
-                callback.exception(e);
+                exception(e);
             }
         }
+
+        @Override
+        public void exception(Throwable e) {
+            failedCounter.incrementAndGet();
+            callback.exception(e);
+        }
     }
 
 
@@ -140,7 +191,9 @@ public class HTTPAPIEndPoint<I, O>
         ret.executor = executor;
         ret.tsp = tsp;
         ret.okHttpClient = okHttpClient;
+        ret.clientPool = clientPool;
         ret.properties = NVGenericMap.copy(properties, deepCopy);
+        ret.setResponseCache(responseCache);
         ret.domain = domain;
         ret.rateController = rateController;
 
@@ -350,7 +403,59 @@ public class HTTPAPIEndPoint<I, O>
 
 
     /**
-     * Sets the executor running asynchronous calls; used only when no scheduler is set.
+     * @return the non-blocking connection pool used by asynchronous calls, null if none
+     */
+    public HTTPNIOClientPool getClientPool() {
+        return clientPool;
+    }
+
+    /**
+     * Sets the non-blocking connection pool running asynchronous calls: the request is built and
+     * queued on the caller's thread (or on the scheduler when delayed by the rate controller) and
+     * the callback completes on the NIO dispatch thread, so in flight calls hold no thread.
+     * Synchronous calls keep using {@link OkHTTPCall}.
+     *
+     * @param clientPool the connection pool, null to run asynchronous calls on the executor or scheduler
+     * @return this endpoint
+     */
+    public HTTPAPIEndPoint<I, O> setClientPool(HTTPNIOClientPool clientPool) {
+        this.clientPool = clientPool;
+        return this;
+    }
+
+
+    /**
+     * @return the response cache shared by the GET calls, null if none
+     */
+    public HTTPAPIResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the opt-in response cache: concurrent identical GET calls share one upstream call,
+     * cacheable responses are served from the cache or revalidated. Every call decodes the shared
+     * response with this endpoint's data decoder into its own result. Its live counters are
+     * published in the properties as {@code response_cache}. The cache may be shared by endpoints.
+     *
+     * @param responseCache the response cache, null to disable caching
+     * @return this endpoint
+     */
+    public HTTPAPIEndPoint<I, O> setResponseCache(HTTPAPIResponseCache responseCache) {
+        this.responseCache = responseCache;
+        NVGenericMap props = properties;
+        if (props != null) {
+            if (responseCache != null)
+                props.build(responseCache.getStats());
+            else
+                props.remove("response_cache");
+        }
+        return this;
+    }
+
+
+    /**
+     * Sets the executor running asynchronous calls; used when no scheduler is set and for the
+     * undelayed calls on a client pool.
      *
      * @param exec the executor
      * @return this endpoint
@@ -393,7 +498,7 @@ public class HTTPAPIEndPoint<I, O>
      */
     public HTTPAPIEndPoint<I, O> syncCall(HTTPCallback<I, O> callback, HTTPAuthorization authorization)
             throws IOException {
-        ToRun toRun = new ToRun(callback, authorization);
+        ToRun toRun = new ToRun(callback, authorization, null);
         checkRateController();
         toRun.run();
         return this;
@@ -429,11 +534,28 @@ public class HTTPAPIEndPoint<I, O>
         checkRateController();
         try {
             HTTPAPIResult<O> httpapiResult;
-            HTTPResponseData hrd = OkHTTPCall.send(getOkHttpClient(), createHMCI(input, authorization));
-            if (dataDecoder != null)
-                httpapiResult = new HTTPAPIResult<O>(hrd.getStatus(), hrd.getHeaders(), dataDecoder.decode(hrd), hrd.getDuration());
-            else
-                httpapiResult = (HTTPAPIResult<O>) new HTTPAPIResult<byte[]>(hrd.getStatus(), hrd.getHeaders(), hrd.getData(), hrd.getDuration());
+            HTTPMessageConfigInterface hmci = createHMCI(input, authorization);
+            HTTPAPIResponseCache cache = responseCache;
+            if (cache != null && cache.isCacheable(hmci)) {
+                CompletableFuture<HTTPAPIResult<?>> future = new CompletableFuture<>();
+                cache.call(hmci, (h, cc) -> cc.accept(OkHTTPCall.send(getOkHttpClient(), h)), this::toResult, new ConsumerCallback<HTTPAPIResult<?>>() {
+                    @Override
+                    public void accept(HTTPAPIResult<?> result) {
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void exception(Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+                try {
+                    httpapiResult = (HTTPAPIResult<O>) future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            } else
+                httpapiResult = (HTTPAPIResult<O>) toResult(OkHTTPCall.send(getOkHttpClient(), hmci));
 
             successCounter.incrementAndGet();
             return httpapiResult;
@@ -445,6 +567,21 @@ public class HTTPAPIEndPoint<I, O>
     }
 
 
+    /**
+     * Decodes the raw response into the api result, keeping the response headers whichever
+     * transport produced them.
+     *
+     * @param hrd the raw response
+     * @return the typed api result (raw bytes when no data decoder is set)
+     */
+    private HTTPAPIResult<?> toResult(HTTPResponseData hrd) {
+        Object data = dataDecoder != null ? dataDecoder.decode(hrd) : hrd.getData();
+        if (hrd.headers() != null)
+            return new HTTPAPIResult<>(hrd.getStatus(), hrd.headers(), data, hrd.getDuration());
+        return new HTTPAPIResult<>(hrd.getStatus(), hrd.getHeaders(), data, hrd.getDuration());
+    }
+
+
     /**
      * Gate for synchronous calls: no-op without a rate controller, otherwise throws when the
      * controller reports its threshold reached (peek first, then consume a slot).
@@ -525,21 +662,30 @@ public class HTTPAPIEndPoint<I, O>
     /**
      * Invokes the endpoint asynchronously after the given delay, preferring the scheduler and
      * falling back to the executor; call failures are reported to the callback, not thrown.
+     * With a client pool set an undelayed call is dispatched to the executor, the request is built
+     * and queued on the pool off the caller's thread; without an executor nor a scheduler it is
+     * built and queued from the caller's thread.
      *
      * @param callback      supplies the input and receives the result or exception
      * @param authorization per-call authorization overriding the template config's, null to use the template's
      * @param delayInMillis dispatch delay in milliseconds, ignored when only an executor is set
      * @return this endpoint
-     * @throws IllegalArgumentException when neither a scheduler nor an executor is configured
+     * @throws IllegalArgumentException when neither a scheduler nor an executor is configured and
+     *                                  the call is not queued directly on the client pool
      * @throws NullPointerException     when callback is null
      */
     public HTTPAPIEndPoint<I, O> asyncCall(HTTPCallback<I, O> callback, HTTPAuthorization authorization, long delayInMillis) {
-        ToRun toRun = new ToRun(callback, authorization);
+        ToRun toRun = new ToRun(callback, authorization, clientPool);
 
-        if (tsp != null)
+        boolean poolNow = toRun.pool != null && delayInMillis <= 0;
+        if (poolNow && executor != null)
+            executor.execute(toRun);
+        else if (tsp != null)
             tsp.schedule(toRun, delayInMillis, TimeUnit.MILLISECONDS);
         else if (executor != null)
             executor.execute(toRun);
+        else if (poolNow)
+            toRun.run();
         else
             throw new IllegalArgumentException("No executor or scheduler found can't execute");
 
@@ -633,6 +779,8 @@ public class HTTPAPIEndPoint<I, O>
         this.properties = properties;
         if (properties != null) {
             setPositiveResults((List<Integer>) properties.getValue("positive_result_codes"));
+            if (responseCache != null)
+                properties.build(responseCache.getStats());
         }
 
         return this;
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.http;
+
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.shared.http.*;
+import org.zoxweb.shared.task.ConsumerCallback;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Size bounded in memory response cache with single flight request coalescing, used by
+ * {@link HTTPAPIEndPoint} for its GET calls.
+ * <p>
+ * Concurrent identical requests (method, url, parameters, headers and authorization) share one
+ * upstream call. The raw {@link HTTPResponseData} is shared and stored, every caller decodes it
+ * with its own decoder into its own {@link HTTPAPIResult}, so the callers never share a decoded
+ * result and endpoints with different data decoders can share the cache. The caller request is
+ * never modified, the upstream call is issued with a copy. A 200 response is stored when its
+ * {@code Cache-Control} allows it and it is either fresh for a {@code max-age} or carries an
+ * {@code ETag} or {@code Last-Modified} validator; a fresh entry is served without an upstream
+ * call, a stale one is revalidated with {@code If-None-Match}/{@code If-Modified-Since} and a 304
+ * answer reuses the stored response. {@code no-store} responses are never stored, {@code no-cache}
+ * ones are revalidated on every call, and a request with {@code Cache-Control: no-cache} or
+ * {@code no-store} bypasses the cache. The least recently used entries are evicted beyond the
+ * entry or byte limits.
+ * </p>
+ * <p>
+ * The hit, miss, coalesced, revalidated, stored and evicted counters are kept in the live
+ * {@link #getStats() stats} map, {@link HTTPAPIEndPoint} publishes it in its properties.
+ * </p>
+ */
+public class HTTPAPIResponseCache
+        implements ToNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(HTTPAPIResponseCache.class).setEnabled(false);
+
+    /**
+     * The upstream call issued by the cache, the response is delivered to the callback.
+     */
+    public interface Transport {
+        void send(HTTPMessageConfigInterface hmci, ConsumerCallback<HTTPResponse> callback) throws IOException;
+    }
+
+    private static final class Entry {
+        private final HTTPResponseData response;
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+        private volatile long maxAge;
+        private volatile long expiresAt;
+
+        private Entry(HTTPResponseData response, String etag, String lastModified, long size) {
+            this.response = response;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        private boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * A caller with its own decoder and error handling.
+     */
+    private static final class Waiter {
+        private final DataDecoder<HTTPResponseData, HTTPAPIResult<?>> decoder;
+        private final boolean httpErrorAsException;
+        private final ConsumerCallback<HTTPAPIResult<?>> callback;
+
+        private Waiter(DataDecoder<HTTPResponseData, HTTPAPIResult<?>> decoder, boolean httpErrorAsException,
+                       ConsumerCallback<HTTPAPIResult<?>> callback) {
+            this.decoder = decoder;
+            this.httpErrorAsException = httpErrorAsException;
+            this.callback = callback;
+        }
+
+        private void complete(HTTPResponseData hrd, Throwable e) {
+            try {
+                if (e == null && (hrd.getStatus() < 200 || hrd.getStatus() > 299) && httpErrorAsException) {
+                    HTTPStatusCode hsc = HTTPStatusCode.statusByCode(hrd.getStatus());
+                    e = new HTTPCallException(hsc != null ? hsc.REASON : "HTTP status " + hrd.getStatus(), hrd);
+                }
+                HTTPAPIResult<?> result = null;
+                if (e == null) {
+                    try {
+                        result = decoder.decode(hrd);
+                    } catch (Exception de) {
+                        e = de;
+                    }
+                }
+                if (e != null)
+                    callback.exception(e);
+                else
+                    callback.accept(result);
+            } catch (Exception ex) {
+                if (log.isEnabled()) ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The callers waiting on the upstream call in progress for a key.
+     */
+    private static final class Flight {
+        private final List<Waiter> waiters = new ArrayList<>();
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Flight> flights = new HashMap<>();
+    private long bytes = 0;
+
+    private final NVGenericMap stats = new NVGenericMap("response_cache");
+    private final NVLong hits = new NVLong("hits", 0);
+    private final NVLong misses = new NVLong("misses", 0);
+    private final NVLong coalesced = new NVLong("coalesced", 0);
+    private final NVLong revalidated = new NVLong("revalidated", 0);
+    private final NVLong stored = new NVLong("stored", 0);
+    private final NVLong evicted = new NVLong("evicted", 0);
+
+    /**
+     * @param maxEntries the maximum number of stored responses
+     * @param maxBytes   the maximum total size of the stored response bodies
+     */
+    public HTTPAPIResponseCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("Invalid cache limits " + maxEntries + ", " + maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        stats.build(hits)
+                .build(misses)
+                .build(coalesced)
+                .build(revalidated)
+                .build(stored)
+                .build(evicted);
+    }
+
+    /**
+     * @return the live counters map, updated in place
+     */
+    public NVGenericMap getStats() {
+        return stats;
+    }
+
+    /**
+     * @param hmci the request
+     * @return true if the request goes through the cache, a GET without content and without a
+     * no-cache or no-store request directive
+     */
+    public boolean isCacheable(HTTPMessageConfigInterface hmci) {
+        if (hmci.getMethod() != HTTPMethod.GET || hmci.getContent() != null)
+            return false;
+        String cacheControl = hmci.getHeaders().getValue(HTTPHeader.CACHE_CONTROL);
+        return cacheControl == null || (directive(cacheControl, "no-store") == null && directive(cacheControl, "no-cache") == null);
+    }
+
+    /**
+     * Serve the request from the cache, join the upstream call in progress for the same request or
+     * issue a new one.
+     *
+     * @param hmci      the request, must be {@link #isCacheable(HTTPMessageConfigInterface) cacheable}
+     * @param transport issues the upstream call
+     * @param decoder   converts the response into a new result for this caller
+     * @param callback  receives the result or the error
+     */
+    public void call(HTTPMessageConfigInterface hmci, Transport transport,
+                     DataDecoder<HTTPResponseData, HTTPAPIResult<?>> decoder, ConsumerCallback<HTTPAPIResult<?>> callback) {
+        String key = toKey(hmci);
+        long now = System.currentTimeMillis();
+        Waiter waiter = new Waiter(decoder, hmci.isHTTPErrorAsException(), callback);
+        HTTPResponseData hit = null;
+        Entry stale;
+        synchronized (this) {
+            stale = entries.get(key);
+            if (stale != null && stale.expiresAt > now) {
+                hits.setValue(hits.getValue() + 1);
+                hit = stale.response;
+            } else {
+                Flight flight = flights.get(key);
+                if (flight != null) {
+                    flight.waiters.add(waiter);
+                    coalesced.setValue(coalesced.getValue() + 1);
+                    return;
+                }
+                flight = new Flight();
+                flight.waiters.add(waiter);
+                flights.put(key, flight);
+                if (stale == null || !stale.hasValidator()) {
+                    stale = null;
+                    misses.setValue(misses.getValue() + 1);
+                }
+            }
+        }
+
+        if (hit != null) {
+            waiter.complete(hit, null);
+            return;
+        }
+
+        Entry conditional = stale;
+        try {
+            transport.send(upstreamRequest(hmci, conditional), new ConsumerCallback<HTTPResponse>() {
+                @Override
+                public void accept(HTTPResponse response) {
+                    try {
+                        complete(key, update(key, conditional, (HTTPResponseData) response), null);
+                    } catch (Exception e) {
+                        complete(key, null, e);
+                    }
+                }
+
+                @Override
+                public void exception(Throwable e) {
+                    complete(key, null, e);
+                }
+            });
+        } catch (Exception e) {
+            complete(key, null, e);
+        }
+    }
+
+    /**
+     * Copy of the caller request for the upstream call, the status is checked per caller once the
+     * 304 was handled and the validators of the stale entry are added.
+     */
+    private static HTTPMessageConfigInterface upstreamRequest(HTTPMessageConfigInterface hmci, Entry stale) {
+        HTTPMessageConfigInterface ret = HTTPUtil.copyRequest(hmci);
+        ret.setHTTPErrorAsException(false);
+        if (stale != null) {
+            if (stale.etag != null)
+                ret.getHeaders().add("If-None-Match", stale.etag);
+            if (stale.lastModified != null)
+                ret.getHeaders().add("If-Modified-Since", stale.lastModified);
+        }
+        return ret;
+    }
+
+    /**
+     * Store or refresh the entry for the upstream response.
+     *
+     * @return the response delivered to the callers, the stored one on a 304
+     */
+    private HTTPResponseData update(String key, Entry conditional, HTTPResponseData hrd) {
+        String cacheControl = headerValue(hrd, HTTPHeader.CACHE_CONTROL.getName());
+        long now = System.currentTimeMillis();
+        if (hrd.getStatus() == HTTPStatusCode.NOT_MODIFIED.CODE && conditional != null) {
+            long maxAge = cacheControl != null ? maxAge(cacheControl, hrd) : conditional.maxAge;
+            conditional.maxAge = maxAge;
+            conditional.expiresAt = now + maxAge;
+            synchronized (this) {
+                revalidated.setValue(revalidated.getValue() + 1);
+                // the entry may have been evicted in the meantime
+                if (entries.get(key) == null && bytes + conditional.size <= maxBytes)
+                    put(key, conditional);
+            }
+            return conditional.response;
+        }
+
+        if (hrd.getStatus() == HTTPStatusCode.OK.CODE && (cacheControl == null || directive(cacheControl, "no-store") == null)) {
+            long maxAge = cacheControl != null ? maxAge(cacheControl, hrd) : 0;
+            Entry entry = new Entry(hrd,
+                    headerValue(hrd, HTTPHeader.ETAG.getName()),
+                    headerValue(hrd, HTTPHeader.LAST_MODIFIED.getName()),
+                    (hrd.getData() != null ? hrd.getData().length : 0) + key.length());
+            entry.maxAge = maxAge;
+            entry.expiresAt = now + maxAge;
+            if ((maxAge > 0 || entry.hasValidator()) && entry.size <= maxBytes) {
+                synchronized (this) {
+                    put(key, entry);
+                    stored.setValue(stored.getValue() + 1);
+                }
+            }
+        }
+        return hrd;
+    }
+
+    private void put(String key, Entry entry) {
+        Entry old = entries.put(key, entry);
+        if (old != null)
+            bytes -= old.size;
+        bytes += entry.size;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && (entries.size() > maxEntries || bytes > maxBytes); ) {
+            Entry eldest = it.next();
+            it.remove();
+            bytes -= eldest.size;
+            evicted.setValue(evicted.getValue() + 1);
+        }
+    }
+
+    /**
+     * Complete all the callers of the flight.
+     */
+    private void complete(String key, HTTPResponseData hrd, Throwable e) {
+        Flight flight;
+        synchronized (this) {
+            flight = flights.remove(key);
+        }
+        if (flight == null)
+            return;
+        for (Waiter waiter : flight.waiters)
+            waiter.complete(hrd, e);
+    }
+
+    /**
+     * Remove all the stored responses, the counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of stored responses
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = NVGenericMap.copy(stats, true);
+        ret.build(new NVInt("entries", entries.size()))
+                .build(new NVLong("bytes", bytes));
+        if (detailed) {
+            ret.build(new NVInt("max_entries", maxEntries))
+                    .build(new NVLong("max_bytes", maxBytes));
+        }
+        return ret;
+    }
+
+    /**
+     * The coalescing and cache key: method, url, parameters, headers and authorization.
+     */
+    static String toKey(HTTPMessageConfigInterface hmci) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(hmci.getMethod()).append(' ').append(hmci.toURLInfo().toURL());
+        for (GetNameValue<?> gnv : hmci.getParameters().valuesAs(new GetNameValue[0]))
+            sb.append('&').append(gnv.getName()).append('=').append(gnv.getValue());
+        for (GetNameValue<?> gnv : hmci.getHeaders().valuesAs(new GetNameValue[0]))
+            sb.append('\n').append(gnv.getName()).append(':').append(gnv.getValue());
+        if (hmci.getAuthorization() != null)
+            sb.append('\n').append(hmci.getAuthorization().toHTTPHeader().getValue());
+        return sb.toString();
+    }
+
+    /**
+     * @return the freshness lifetime in millis, 0 if it has to be revalidated
+     */
+    private static long maxAge(String cacheControl, HTTPResponse response) {
+        if (directive(cacheControl, "no-cache") != null)
+            return 0;
+        String value = directive(cacheControl, "max-age");
+        if (value == null)
+            return 0;
+        try {
+            long maxAge = Long.parseLong(value);
+            String age = headerValue(response, "Age");
+            if (age != null)
+                maxAge -= Long.parseLong(age.trim());
+            return Math.max(0, maxAge) * Const.TimeInMillis.SECOND.MILLIS;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the directive value, an empty string for a directive without value, null if absent
+     */
+    static String directive(String cacheControl, String name) {
+        for (String token : cacheControl.split(",")) {
+            token = token.trim();
+            int eq = token.indexOf('=');
+            String tokenName = eq == -1 ? token : token.substring(0, eq).trim();
+            if (tokenName.equalsIgnoreCase(name)) {
+                if (eq == -1)
+                    return "";
+                String value = token.substring(eq + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\""))
+                    value = value.substring(1, value.length() - 1);
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Case insensitive header lookup for both the map and the NVGenericMap response headers.
+     */
+    private static String headerValue(HTTPResponse response, String name) {
+        if (response.headers() != null)
+            return response.headers().getValue(name);
+        if (response.getHeaders() != null) {
+            for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty())
+                    return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
@@ -85,18 +85,18 @@ public final class HTTPCodecs {
      * Uses Base64 DEFAULT type for any embedded binary data.
      * </p>
      */
-    public static final DataDecoder<byte[], NVGenericMap> BytesToNVGM = (input) -> GSONUtil.fromJSONDefault(input, NVGenericMap.class);
+    public static final DataDecoder<byte[], NVGenericMap> BytesToNVGM = (input) -> GSONUtil.fromJSONGenericMap(input, null, SharedBase64.Base64Type.DEFAULT, false);
 
     /**
      * Decoder that converts {@link HTTPResponseData} JSON content to an {@link NVGenericMap}.
      */
-    public static final DataDecoder<HTTPResponseData, NVGenericMap> HRDToNVGM = (input) -> GSONUtil.fromJSONDefault(input.getDataAsString(), NVGenericMap.class);
+    public static final DataDecoder<HTTPResponseData, NVGenericMap> HRDToNVGM = (input) -> GSONUtil.fromJSONGenericMap(input.getData(), null, SharedBase64.Base64Type.DEFAULT, false);
 
     /**
      * Decoder that converts {@link HTTPResponseData} JSON content to an {@link NVGenericMap}
      * with pretty-print and array support enabled.
      */
-    public static final DataDecoder<HTTPResponseData, NVGenericMap> NVGMDecoderPAS = (input) -> GSONUtil.fromJSONDefault(input.getDataAsString(), NVGenericMap.class, true);
+    public static final DataDecoder<HTTPResponseData, NVGenericMap> NVGMDecoderPAS = (input) -> GSONUtil.fromJSONGenericMap(input.getData(), null, SharedBase64.Base64Type.DEFAULT, true);
 
     /**
      * Decoder that converts {@link HTTPResponseData} JSON array content to an {@link NVGenericMapList}.
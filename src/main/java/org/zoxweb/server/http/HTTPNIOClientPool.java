@@ -0,0 +1,875 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.http;
+
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.net.common.TCPSessionCallback;
+import org.zoxweb.server.net.ssl.SSLContextInfo;
+import org.zoxweb.shared.http.*;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.protocol.Delimiter;
+import org.zoxweb.shared.task.ConsumerCallback;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking HTTP/1.1 client connection pool running on a {@link NIOSocket}.
+ * <p>
+ * Connections are kept alive and shared per {@code scheme://host:port}, at most
+ * {@link #setMaxConnectionsPerHost(int) maxConnectionsPerHost} per host; requests beyond the limit
+ * wait in a per host queue and are dispatched as soon as a connection frees up. With a
+ * {@link #setMaxPipelineDepth(int) pipeline depth} above 1, idempotent requests are pipelined on
+ * busy connections once the host is at its connection limit. All the https connections of a host
+ * share one {@link SSLContextInfo} so the TLS sessions are resumed instead of renegotiated.
+ * </p>
+ * <p>
+ * Responses are framed incrementally by Content-Length, chunked transfer encoding or connection
+ * close, and delivered as {@link HTTPResponseData} on the NIO dispatch thread; a non 2xx status
+ * is reported as {@link HTTPCallException} when the request has http error as exception set, the
+ * same as {@link OkHTTPCall}. An idempotent request whose connection closed before its response
+ * arrived, typically a stale keep-alive connection, is retried once on a new connection.
+ * </p>
+ * <pre>{@code
+ * HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(4);
+ * pool.send(HTTPMessageConfig.buildHMCI("https://example.com/", HTTPMethod.GET, true), callback);
+ * }</pre>
+ */
+public class HTTPNIOClientPool
+        implements AutoCloseable, ToNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(HTTPNIOClientPool.class).setEnabled(false);
+
+    /**
+     * The largest accepted response header block
+     */
+    public static final int MAX_HEADER_SIZE = Const.SizeInBytes.K.mult(64);
+
+    /**
+     * The default largest accepted response body
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = Const.SizeInBytes.M.mult(64);
+
+    private final NIOSocket nioSocket;
+    private final ConcurrentHashMap<String, HostPool> hostPools = new ConcurrentHashMap<>();
+    private volatile int maxConnectionsPerHost = 8;
+    private volatile int maxPipelineDepth = 1;
+    private volatile long keepAliveTimeout = Const.TimeInMillis.MINUTE.MILLIS;
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private volatile boolean closed = false;
+
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final AtomicLong connectionCounter = new AtomicLong();
+    private final AtomicLong reuseCounter = new AtomicLong();
+    private final AtomicLong pipelinedCounter = new AtomicLong();
+    private final AtomicLong retryCounter = new AtomicLong();
+    private final AtomicLong failedCounter = new AtomicLong();
+
+    /**
+     * @param nioSocket the NIO socket running the client connections
+     */
+    public HTTPNIOClientPool(NIOSocket nioSocket) {
+        SUS.checkIfNulls("null NIOSocket", nioSocket);
+        this.nioSocket = nioSocket;
+    }
+
+    /**
+     * @return the NIO socket running the client connections
+     */
+    public NIOSocket getNIOSocket() {
+        return nioSocket;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of connections per scheme, host and port
+     * @return this
+     */
+    public HTTPNIOClientPool setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException("maxConnectionsPerHost must be greater than zero " + maxConnectionsPerHost);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    public int getMaxPipelineDepth() {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * @param maxPipelineDepth the maximum number of requests in flight per connection, 1 disables
+     *                         pipelining
+     * @return this
+     */
+    public HTTPNIOClientPool setMaxPipelineDepth(int maxPipelineDepth) {
+        if (maxPipelineDepth < 1)
+            throw new IllegalArgumentException("maxPipelineDepth must be greater than zero " + maxPipelineDepth);
+        this.maxPipelineDepth = maxPipelineDepth;
+        return this;
+    }
+
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * @param keepAliveTimeout in millis, an idle connection older than the timeout is closed
+     *                         instead of being reused
+     * @return this
+     */
+    public HTTPNIOClientPool setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @param maxBodySize the largest accepted response body in bytes, a bigger response fails with a
+     *                    {@link ProtocolException} and its connection is closed
+     * @return this
+     */
+    public HTTPNIOClientPool setMaxBodySize(int maxBodySize) {
+        if (maxBodySize < 1)
+            throw new IllegalArgumentException("maxBodySize must be greater than zero " + maxBodySize);
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Send a request through the pool, the response or the error is delivered to the callback.
+     *
+     * @param hmci     the request, not modified, a copy is sent as http 1.1
+     * @param callback receives the {@link HTTPResponseData}
+     * @throws IOException if the pool is closed or the request cannot be formatted
+     */
+    public void send(HTTPMessageConfigInterface hmci, ConsumerCallback<HTTPResponse> callback)
+            throws IOException {
+        SUS.checkIfNulls("null HTTPMessageConfigInterface or callback", hmci, callback);
+        if (closed)
+            throw new IOException("HTTPNIOClientPool closed");
+
+        URLInfo urlInfo = hmci.toURLInfo();
+        String key = urlInfo.toBasicURL();
+        HostPool hostPool = hostPools.get(key);
+        if (hostPool == null) {
+            try {
+                hostPool = hostPools.computeIfAbsent(key, k -> new HostPool(k, urlInfo, hmci.isSSL(), hmci.isSecureCheckEnabled()));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        requestCounter.incrementAndGet();
+        hostPool.submit(new Exchange(hmci, urlInfo, callback));
+    }
+
+    /**
+     * Close all the connections, the in flight and waiting requests fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (HostPool hostPool : hostPools.values())
+            hostPool.close();
+        hostPools.clear();
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap("http_nio_client_pool");
+        int connections = 0;
+        int waiting = 0;
+        for (HostPool hostPool : hostPools.values()) {
+            synchronized (hostPool) {
+                connections += hostPool.connections.size();
+                waiting += hostPool.waiting.size();
+            }
+        }
+        ret.build(new NVLong("requests", requestCounter.get()))
+                .build(new NVLong("connections_created", connectionCounter.get()))
+                .build(new NVLong("connections_reused", reuseCounter.get()))
+                .build(new NVLong("pipelined", pipelinedCounter.get()))
+                .build(new NVLong("retries", retryCounter.get()))
+                .build(new NVLong("failed", failedCounter.get()))
+                .build(new NVInt("hosts", hostPools.size()))
+                .build(new NVInt("open_connections", connections))
+                .build(new NVInt("waiting", waiting));
+        if (detailed) {
+            ret.build(new NVInt("max_connections_per_host", maxConnectionsPerHost))
+                    .build(new NVInt("max_pipeline_depth", maxPipelineDepth))
+                    .build(new NVLong("keep_alive_timeout", keepAliveTimeout));
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return toProperties(false).toString();
+    }
+
+    private static boolean isIdempotent(HTTPMethod method) {
+        switch (method) {
+            case GET:
+            case HEAD:
+            case OPTIONS:
+            case PUT:
+            case DELETE:
+            case TRACE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static final class UncheckedIOException
+            extends RuntimeException {
+        UncheckedIOException(IOException e) {
+            super(e);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * One request/response exchange, the request is formatted once so it can be retried.
+     */
+    private final class Exchange {
+        private final HTTPMessageConfigInterface hmci;
+        private final ConsumerCallback<HTTPResponse> callback;
+        private final UByteArrayOutputStream request = new UByteArrayOutputStream(256);
+        private final boolean head;
+        private final boolean idempotent;
+        private final long ts = System.currentTimeMillis();
+        private boolean sent = false;
+        private boolean retried = false;
+
+        private Exchange(HTTPMessageConfigInterface hmci, URLInfo urlInfo, ConsumerCallback<HTTPResponse> callback)
+                throws IOException {
+            // the host, content length, version and authorization headers are set on a copy
+            this.hmci = HTTPUtil.copyRequest(hmci);
+            this.callback = callback;
+            this.head = hmci.getMethod() == HTTPMethod.HEAD;
+            this.idempotent = isIdempotent(hmci.getMethod());
+            String host = urlInfo.ipAddress.getInetAddress();
+            if (urlInfo.ipAddress.getPort() != urlInfo.scheme.defaultPort())
+                host += ":" + urlInfo.ipAddress.getPort();
+            this.hmci.getHeaders().add(HTTPHeader.HOST.getName(), host);
+            if (this.hmci.getContent() != null && this.hmci.getHeaders().get(HTTPHeader.CONTENT_LENGTH) == null)
+                this.hmci.setContentLength(this.hmci.getContent().length);
+            new HTTPRequestFormatter(this.hmci).writeTo(request);
+        }
+
+        private void complete(HTTPResponseData hrd, String reason) {
+            try {
+                if ((hrd.getStatus() < 200 || hrd.getStatus() > 299) && hmci.isHTTPErrorAsException())
+                    fail(new HTTPCallException(reason, hrd));
+                else
+                    callback.accept(hrd);
+            } catch (Exception e) {
+                if (log.isEnabled()) e.printStackTrace();
+                callback.exception(e);
+            }
+        }
+
+        private void fail(Exception e) {
+            failedCounter.incrementAndGet();
+            callback.exception(e);
+        }
+    }
+
+    /**
+     * The connections and waiting requests of one scheme, host and port, guarded by its own monitor.
+     */
+    private final class HostPool {
+        private final String key;
+        private final InetSocketAddress address;
+        private final SSLContextInfo sslContextInfo;
+        private final ArrayDeque<PooledConnection> connections = new ArrayDeque<>();
+        private final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+
+        private HostPool(String key, URLInfo urlInfo, boolean ssl, boolean certValidationEnabled) {
+            this.key = key;
+            this.address = new InetSocketAddress(urlInfo.ipAddress.getInetAddress(), urlInfo.ipAddress.getPort());
+            if (ssl) {
+                try {
+                    sslContextInfo = new SSLContextInfo(address, certValidationEnabled);
+                } catch (Exception e) {
+                    throw new UncheckedIOException(new IOException(e));
+                }
+            } else
+                sslContextInfo = null;
+        }
+
+        private void submit(Exchange exchange) {
+            PooledConnection toConnect = null;
+            PooledConnection toFlush = null;
+            List<PooledConnection> expired = null;
+            synchronized (this) {
+                if (closed) {
+                    exchange.fail(new IOException("HTTPNIOClientPool closed"));
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                PooledConnection pipeline = null;
+                for (Iterator<PooledConnection> it = connections.descendingIterator(); it.hasNext(); ) {
+                    PooledConnection pc = it.next();
+                    if (!pc.isReusable()) {
+                        continue;
+                    }
+                    if (pc.inFlight.isEmpty()) {
+                        if (now - pc.lastUsed > keepAliveTimeout) {
+                            // expired idle connection
+                            it.remove();
+                            if (expired == null)
+                                expired = new ArrayList<>();
+                            expired.add(pc);
+                            continue;
+                        }
+                        toFlush = pc;
+                        break;
+                    }
+                    if (exchange.idempotent && pc.inFlight.size() < maxPipelineDepth && pc.pipelinable &&
+                            (pipeline == null || pc.inFlight.size() < pipeline.inFlight.size()))
+                        pipeline = pc;
+                }
+
+                if (toFlush != null) {
+                    if (toFlush.responses > 0)
+                        reuseCounter.incrementAndGet();
+                } else if (connections.size() < maxConnectionsPerHost) {
+                    toConnect = new PooledConnection(this);
+                    connections.add(toConnect);
+                } else if (pipeline != null) {
+                    toFlush = pipeline;
+                    pipelinedCounter.incrementAndGet();
+                } else {
+                    waiting.add(exchange);
+                }
+
+                if (toFlush != null)
+                    toFlush.inFlight.add(exchange);
+                else if (toConnect != null)
+                    toConnect.inFlight.add(exchange);
+            }
+
+            if (expired != null)
+                for (PooledConnection pc : expired)
+                    SharedIOUtil.close(pc);
+
+            if (toConnect != null)
+                connect(toConnect);
+            else if (toFlush != null)
+                toFlush.flushRequests();
+        }
+
+        private void connect(PooledConnection pc) {
+            connectionCounter.incrementAndGet();
+            try {
+                nioSocket.addClientSocket(pc);
+            } catch (Exception e) {
+                // addClientSocket already reported the error to the connection
+                if (log.isEnabled()) log.getLogger().info(key + " connect failed " + e);
+            }
+        }
+
+        /**
+         * Hand the waiting requests to the connection once it can take them.
+         */
+        private void released(PooledConnection pc) {
+            synchronized (this) {
+                if (waiting.isEmpty() || !pc.isReusable())
+                    return;
+                boolean idle = pc.inFlight.isEmpty();
+                if (idle) {
+                    pc.inFlight.add(waiting.poll());
+                    reuseCounter.incrementAndGet();
+                }
+                while (!waiting.isEmpty() && pc.pipelinable && pc.inFlight.size() < maxPipelineDepth &&
+                        waiting.peek().idempotent && pc.inFlight.peekLast().idempotent) {
+                    pc.inFlight.add(waiting.poll());
+                    pipelinedCounter.incrementAndGet();
+                }
+            }
+            pc.flushRequests();
+        }
+
+        /**
+         * Remove a closed connection, retry or fail its unanswered requests and use the freed slot
+         * for the waiting ones.
+         */
+        private void closed(PooledConnection pc, Exception cause) {
+            List<Exchange> orphans;
+            Exchange next = null;
+            synchronized (this) {
+                if (!connections.remove(pc))
+                    return;
+                orphans = new ArrayList<>(pc.inFlight);
+                pc.inFlight.clear();
+                if (!waiting.isEmpty() && !closed)
+                    next = waiting.poll();
+            }
+
+            List<Exchange> retries = null;
+            for (Exchange exchange : orphans) {
+                if (!closed && pc.connected && exchange.idempotent && !exchange.retried) {
+                    exchange.retried = true;
+                    exchange.sent = false;
+                    retryCounter.incrementAndGet();
+                    if (retries == null)
+                        retries = new ArrayList<>();
+                    retries.add(exchange);
+                } else
+                    exchange.fail(cause != null ? cause : new IOException("Connection closed before response " + key));
+            }
+
+            if (retries != null)
+                for (Exchange exchange : retries)
+                    submit(exchange);
+            if (next != null)
+                submit(next);
+        }
+
+        private void close() {
+            List<PooledConnection> toClose;
+            List<Exchange> toFail;
+            synchronized (this) {
+                toClose = new ArrayList<>(connections);
+                toFail = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            for (Exchange exchange : toFail)
+                exchange.fail(new IOException("HTTPNIOClientPool closed"));
+            for (PooledConnection pc : toClose)
+                SharedIOUtil.close(pc);
+        }
+    }
+
+    /**
+     * A keep-alive client connection processing its requests in order.
+     */
+    private final class PooledConnection
+            extends TCPSessionCallback {
+        private final HostPool hostPool;
+        // guarded by the host pool monitor
+        private final ArrayDeque<Exchange> inFlight = new ArrayDeque<>();
+        private final ResponseReader reader = new ResponseReader();
+        private final Object writeLock = new Object();
+        private volatile boolean connected = false;
+        private volatile boolean keepAlive = true;
+        // pipelining is only attempted once the server proved to be keep-alive
+        private volatile boolean pipelinable = false;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long responses = 0;
+        private volatile Exception failure;
+
+        private PooledConnection(HostPool hostPool) {
+            this.hostPool = hostPool;
+            if (hostPool.sslContextInfo != null)
+                setSSLContextInfo(hostPool.sslContextInfo);
+            else
+                setRemoteAddress(hostPool.address);
+        }
+
+        private boolean isReusable() {
+            if (!keepAlive || isClosed())
+                return false;
+            Channel channel = getChannel();
+            return channel == null || channel.isOpen();
+        }
+
+        @Override
+        protected void connectedFinished() {
+            connected = true;
+            flushRequests();
+        }
+
+        /**
+         * Write the requests not yet sent, in the order they were queued.
+         */
+        private void flushRequests() {
+            if (!connected)
+                return;
+            synchronized (writeLock) {
+                for (; ; ) {
+                    Exchange exchange = null;
+                    synchronized (hostPool) {
+                        for (Exchange e : inFlight) {
+                            if (!e.sent) {
+                                exchange = e;
+                                break;
+                            }
+                        }
+                        if (exchange == null)
+                            return;
+                        exchange.sent = true;
+                    }
+                    try {
+                        exchange.request.writeTo(getOutputStream());
+                    } catch (Exception e) {
+                        if (log.isEnabled()) log.getLogger().info(hostPool.key + " write failed " + e);
+                        break;
+                    }
+                }
+            }
+            // closed outside the write lock, the retries may flush on another connection
+            SharedIOUtil.close(this);
+        }
+
+        @Override
+        public void accept(SelectionKey key) {
+            super.accept(key);
+            // in tls mode the end of stream closes the ssl session but not this callback
+            if (!isClosed() && !key.channel().isOpen())
+                SharedIOUtil.close(this);
+        }
+
+        @Override
+        public void accept(ByteBuffer byteBuffer) {
+            // the decrypted tls data is in write mode, the plain data is ready to read
+            boolean writeMode = getSSLContextInfo() != null;
+            if (writeMode)
+                ((Buffer) byteBuffer).flip();
+            try {
+                reader.append(byteBuffer);
+            } finally {
+                if (writeMode)
+                    ((Buffer) byteBuffer).clear();
+            }
+
+            try {
+                for (; ; ) {
+                    Exchange exchange;
+                    synchronized (hostPool) {
+                        exchange = inFlight.peek();
+                    }
+                    if (exchange == null) {
+                        if (reader.available() > 0)
+                            throw new ProtocolException("Unsolicited response data " + reader.available());
+                        return;
+                    }
+                    if (!reader.next(exchange.head, maxBodySize))
+                        return;
+
+                    boolean reuse = reader.keepAlive;
+                    synchronized (hostPool) {
+                        inFlight.poll();
+                        responses++;
+                        lastUsed = System.currentTimeMillis();
+                        if (!reuse)
+                            keepAlive = false;
+                        else
+                            pipelinable = true;
+                    }
+                    exchange.complete(reader.toResponseData(System.currentTimeMillis() - exchange.ts, getID()), reader.reason);
+                    reader.reset();
+                    if (!reuse) {
+                        SharedIOUtil.close(this);
+                        return;
+                    }
+                    hostPool.released(this);
+                }
+            } catch (Exception e) {
+                if (log.isEnabled()) e.printStackTrace();
+                failure = e;
+                SharedIOUtil.close(this);
+            }
+        }
+
+        @Override
+        public void exception(Throwable e) {
+            if (log.isEnabled()) log.getLogger().info(hostPool.key + " " + e);
+            failure = e instanceof Exception ? (Exception) e : new IOException(e);
+            SharedIOUtil.close(this);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // a response delimited by the connection close is complete now
+                Exchange exchange = null;
+                synchronized (hostPool) {
+                    if (failure == null && reader.isReadingUntilClose())
+                        exchange = inFlight.poll();
+                }
+                if (exchange != null) {
+                    exchange.complete(reader.toResponseData(System.currentTimeMillis() - exchange.ts, getID()), reader.reason);
+                    reader.reset();
+                }
+                hostPool.closed(this, failure);
+            }
+        }
+    }
+
+    /**
+     * Incremental HTTP/1.1 response framer, keeps the bytes of the next pipelined response.
+     */
+    private static final class ResponseReader {
+        private static final int HEADERS = 0;
+        private static final int BODY = 1;
+        private static final int CHUNK_SIZE = 2;
+        private static final int CHUNK_DATA = 3;
+        private static final int CHUNK_END = 4;
+        private static final int TRAILERS = 5;
+        private static final int UNTIL_CLOSE = 6;
+
+        private byte[] buffer = new byte[SharedIOUtil.K_4];
+        private int start = 0;
+        private int end = 0;
+        private int scanIndex = 0;
+
+        private int state = HEADERS;
+        private long remaining;
+        private int status;
+        private String reason;
+        private boolean keepAlive;
+        private NVGenericMap headers;
+        private UByteArrayOutputStream body;
+
+        private int available() {
+            return end - start;
+        }
+
+        private boolean isReadingUntilClose() {
+            return state == UNTIL_CLOSE;
+        }
+
+        private void append(ByteBuffer bb) {
+            int length = bb.remaining();
+            if (length == 0)
+                return;
+            if (end + length > buffer.length) {
+                // compact then grow
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    scanIndex -= start;
+                    end -= start;
+                    start = 0;
+                }
+                if (end + length > buffer.length) {
+                    byte[] temp = new byte[Math.max(buffer.length * 2, end + length)];
+                    System.arraycopy(buffer, 0, temp, 0, end);
+                    buffer = temp;
+                }
+            }
+            bb.get(buffer, end, length);
+            end += length;
+        }
+
+        /**
+         * Frame the next response.
+         *
+         * @param head        true if the request was a HEAD, the response has no body
+         * @param maxBodySize the largest accepted body
+         * @return true if a full response was read
+         * @throws IOException in case of a malformed or too big response
+         */
+        private boolean next(boolean head, int maxBodySize) throws IOException {
+            for (; ; ) {
+                switch (state) {
+                    case HEADERS:
+                        int headersEnd = indexOf(Math.max(start, scanIndex), Delimiter.CRLFCRLF.getBytes());
+                        if (headersEnd == -1) {
+                            scanIndex = Math.max(start, end - 3);
+                            if (end - start > MAX_HEADER_SIZE)
+                                throw new ProtocolException("Response headers too big " + (end - start));
+                            return false;
+                        }
+                        parseHeaders(headersEnd);
+                        start = headersEnd + 4;
+                        scanIndex = start;
+                        if (status >= 100 && status < 200 && status != 101) {
+                            // interim response
+                            continue;
+                        }
+                        body = new UByteArrayOutputStream();
+                        if (head || status < 200 || status == 204 || status == 304) {
+                            state = HEADERS;
+                            return true;
+                        }
+                        String transferEncoding = headers.getValue(HTTPHeader.TRANSFER_ENCODING);
+                        String contentLength = headers.getValue(HTTPHeader.CONTENT_LENGTH);
+                        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                            state = CHUNK_SIZE;
+                        } else if (contentLength != null) {
+                            try {
+                                remaining = Long.parseLong(contentLength.trim());
+                            } catch (NumberFormatException e) {
+                                throw new ProtocolException("Invalid Content-Length " + contentLength);
+                            }
+                            if (remaining < 0 || remaining > Integer.MAX_VALUE)
+                                throw new ProtocolException("Invalid Content-Length " + contentLength);
+                            if (remaining > maxBodySize)
+                                throw new ProtocolException("Response body too big " + remaining);
+                            body = new UByteArrayOutputStream((int) Math.min(remaining, SharedIOUtil.K_32));
+                            state = BODY;
+                        } else {
+                            keepAlive = false;
+                            state = UNTIL_CLOSE;
+                        }
+                        break;
+                    case BODY:
+                    case CHUNK_DATA:
+                        int length = (int) Math.min(remaining, end - start);
+                        body.write(buffer, start, length);
+                        start += length;
+                        remaining -= length;
+                        if (remaining > 0)
+                            return false;
+                        if (state == BODY) {
+                            state = HEADERS;
+                            return true;
+                        }
+                        state = CHUNK_END;
+                        break;
+                    case CHUNK_SIZE:
+                        int lineEnd = indexOf(start, Delimiter.CRLF.getBytes());
+                        if (lineEnd == -1)
+                            return false;
+                        String line = new String(buffer, start, lineEnd - start, StandardCharsets.ISO_8859_1).trim();
+                        int extension = line.indexOf(';');
+                        if (extension != -1)
+                            line = line.substring(0, extension).trim();
+                        try {
+                            remaining = Long.parseLong(line, 16);
+                        } catch (NumberFormatException e) {
+                            throw new ProtocolException("Invalid chunk size " + line);
+                        }
+                        if (remaining < 0 || body.size() + remaining > Integer.MAX_VALUE)
+                            throw new ProtocolException("Invalid chunk size " + line);
+                        if (body.size() + remaining > maxBodySize)
+                            throw new ProtocolException("Response body too big " + (body.size() + remaining));
+                        start = lineEnd + 2;
+                        state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                        break;
+                    case CHUNK_END:
+                        if (end - start < 2)
+                            return false;
+                        if (buffer[start] != '\r' || buffer[start + 1] != '\n')
+                            throw new ProtocolException("Invalid chunk terminator");
+                        start += 2;
+                        state = CHUNK_SIZE;
+                        break;
+                    case TRAILERS:
+                        int trailerEnd = indexOf(start, Delimiter.CRLF.getBytes());
+                        if (trailerEnd == -1)
+                            return false;
+                        boolean last = trailerEnd == start;
+                        start = trailerEnd + 2;
+                        if (last) {
+                            state = HEADERS;
+                            return true;
+                        }
+                        break;
+                    case UNTIL_CLOSE:
+                        if ((long) body.size() + end - start > maxBodySize)
+                            throw new ProtocolException("Response body too big " + ((long) body.size() + end - start));
+                        body.write(buffer, start, end - start);
+                        start = end;
+                        return false;
+                    default:
+                        throw new IllegalStateException("Invalid state " + state);
+                }
+            }
+        }
+
+        private void parseHeaders(int headersEnd) {
+            headers = new NVGenericMap();
+            int lineStart = start;
+            boolean firstLine = true;
+            String version = null;
+            while (lineStart < headersEnd) {
+                int lineEnd = indexOf(lineStart, Delimiter.CRLF.getBytes());
+                if (lineEnd == -1 || lineEnd > headersEnd)
+                    lineEnd = headersEnd;
+                String line = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1);
+                if (firstLine) {
+                    HTTPResponseLine responseLine = new HTTPResponseLine(line);
+                    version = responseLine.getVersion();
+                    try {
+                        status = responseLine.getStatus();
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Invalid status line " + line);
+                    }
+                    reason = responseLine.getThirdToken();
+                    firstLine = false;
+                } else if (!line.isEmpty()) {
+                    headers.add(SharedUtil.toNVPair(line, ":", true));
+                }
+                lineStart = lineEnd + 2;
+            }
+
+            String connection = headers.getValue(HTTPHeader.CONNECTION);
+            if (connection != null)
+                connection = connection.toLowerCase();
+            if (HTTPVersion.HTTP_1_0.getValue().equalsIgnoreCase(version))
+                keepAlive = connection != null && connection.contains("keep-alive");
+            else
+                keepAlive = connection == null || !connection.contains("close");
+        }
+
+        private int indexOf(int from, byte[] match) {
+            for (int i = from, last = end - match.length; i <= last; i++) {
+                int j = 0;
+                while (j < match.length && buffer[i + j] == match[j])
+                    j++;
+                if (j == match.length)
+                    return i;
+            }
+            return -1;
+        }
+
+        private HTTPResponseData toResponseData(long duration, String correlationID) {
+            HTTPResponseData ret = new HTTPResponseData(status, headers, body != null ? body.toByteArray() : Const.EMPTY_BYTE_ARRAY, duration);
+            ret.setCorrelationID(correlationID);
+            return ret;
+        }
+
+        private void reset() {
+            headers = null;
+            body = null;
+            reason = null;
+            if (start == end) {
+                start = 0;
+                end = 0;
+                scanIndex = 0;
+            }
+        }
+    }
+}
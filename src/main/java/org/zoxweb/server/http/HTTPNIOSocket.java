@@ -1,6 +1,7 @@
 package org.zoxweb.server.http;
 
 import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.shared.http.HTTPMessageConfigInterface;
 import org.zoxweb.shared.http.HTTPResponse;
 import org.zoxweb.shared.task.ConsumerCallback;
 
@@ -10,10 +11,34 @@ public class HTTPNIOSocket
     implements AutoCloseable
 {
     private final NIOSocket nioSocket;
+    private volatile HTTPNIOClientPool clientPool;
     public HTTPNIOSocket(NIOSocket nioSocket) {
         this.nioSocket = nioSocket;
     }
 
+    /**
+     * Send the request on a pooled keep-alive connection.
+     * @param hmci the request
+     * @param callback the response callback
+     * @throws IOException in case of error
+     */
+    public void send(HTTPMessageConfigInterface hmci, ConsumerCallback<HTTPResponse> callback) throws IOException {
+        getClientPool().send(hmci, callback);
+    }
+
+    /**
+     * @return the keep-alive connection pool sharing this socket, created on first use
+     */
+    public HTTPNIOClientPool getClientPool() {
+        if (clientPool == null) {
+            synchronized (this) {
+                if (clientPool == null)
+                    clientPool = new HTTPNIOClientPool(nioSocket);
+            }
+        }
+        return clientPool;
+    }
+
 
 
     public void asyncSend(HTTPURLCallback huc, ConsumerCallback<HTTPResponse> callback) throws IOException {
@@ -29,6 +54,8 @@ public class HTTPNIOSocket
         return nioSocket;
     }
     public void close() throws IOException {
+        if (clientPool != null)
+            clientPool.close();
         nioSocket.close();
     }
 }
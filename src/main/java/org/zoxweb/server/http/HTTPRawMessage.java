@@ -50,6 +50,8 @@ public class HTTPRawMessage
 
 
     private volatile NamedValue<?> lastParam = null;
+    // resume point of the end of headers search
+    private int headersScanIndex = 0;
 
     public HTTPRawMessage(String msg) {
         this(SharedStringUtil.getBytes(msg));
@@ -78,6 +80,25 @@ public class HTTPRawMessage
         this.ubaos = ubaos;
     }
 
+    /**
+     * Message with headers already parsed by {@link HTTPRequestParser}.
+     *
+     * @param hmci      the parsed request line and headers
+     * @param body      the body, with the chunked framing already removed
+     * @param dechunked true if the body was transfer chunked
+     */
+    HTTPRawMessage(HTTPMessageConfigInterface hmci, UByteArrayOutputStream body, boolean dechunked) {
+        this.ubaos = body;
+        this.hmci = hmci;
+        parsedHeadersStatus = true;
+        if (dechunked) {
+            endOfChunkedContentReached = true;
+            dataMark = body.size();
+        }
+        if (hmci.getMethod() == HTTPMethod.GET)
+            HTTPCodecs.WWW_URL_ENC.decode(this);
+    }
+
 
     public UByteArrayOutputStream getDataStream() {
         return ubaos;
@@ -85,8 +106,12 @@ public class HTTPRawMessage
 
     private boolean parseRawHeaders() {
         if (!areHeadersParsed()) {
-            int endOfHeadersIndex = ubaos.indexOf(Delimiter.CRLFCRLF.getBytes());
-            if (endOfHeadersIndex != -1) {
+            int endOfHeadersIndex = ubaos.indexOf(headersScanIndex, Delimiter.CRLFCRLF.getBytes());
+            if (endOfHeadersIndex == -1) {
+                // do not rescan the received bytes on the next call
+                headersScanIndex = Math.max(0, ubaos.size() - (Delimiter.CRLFCRLF.length() - 1));
+            } else {
+                headersScanIndex = 0;
                 int headersLineCounter = 0;
                 while (getDataMark() < endOfHeadersIndex) {
                     int endOfCurrentLine = ubaos.indexOf(getDataMark(), Delimiter.CRLF.getBytes());//, 0, ProtocolDelimiter.CRLF.getBytes().length);
@@ -365,6 +390,7 @@ public class HTTPRawMessage
 
     public synchronized void reset(boolean hmciToo) {
         ubaos.reset();
+        headersScanIndex = 0;
         if (hmciToo) {
             hmci = new HTTPMessageConfig();
             parsedHeadersStatus = false;
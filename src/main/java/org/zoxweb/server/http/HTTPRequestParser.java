@@ -0,0 +1,730 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.http;
+
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.shared.http.HTTPHeader;
+import org.zoxweb.shared.http.HTTPMessageConfig;
+import org.zoxweb.shared.http.HTTPMessageConfigInterface;
+import org.zoxweb.shared.http.HTTPMethod;
+import org.zoxweb.shared.util.GetNVProperties;
+import org.zoxweb.shared.util.NVGenericMap;
+import org.zoxweb.shared.util.NVLong;
+import org.zoxweb.shared.util.NVPair;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.1 request parser, a state machine fed with the network reads.
+ * <p>
+ * Every byte is scanned once, the request line and the headers are recorded as byte ranges in the parser buffer
+ * and turned into Strings only when asked for. The chunked transfer framing is removed in place while the chunks
+ * arrive, the bodies are contiguous byte ranges. A single read may carry several pipelined requests, they are all
+ * returned in order by {@link #poll()}.
+ * </p>
+ * <p>
+ * The {@link Request} views returned by {@link #poll()} are reused, they are valid till the next {@code feed} call,
+ * {@link Request#toHTTPRawMessage()} copies a request into an {@link HTTPRawMessage} and runs the content decoders
+ * of {@link HTTPCodecs} on its body. The parser is not thread safe, one parser per connection.
+ * </p>
+ * <p>
+ * In streaming mode a request whose body is not fully received is returned by {@link #poll()} once its headers
+ * are parsed, its body is then returned piece by piece by {@link #pollBody()} and is not buffered.
+ * </p>
+ */
+public class HTTPRequestParser
+        implements GetNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(HTTPRequestParser.class).setEnabled(false);
+
+    public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    private static final HTTPMethod[] METHODS = HTTPMethod.values();
+    private static final String CONTENT_LENGTH = HTTPHeader.CONTENT_LENGTH.getName();
+    private static final String TRANSFER_ENCODING = HTTPHeader.TRANSFER_ENCODING.getName();
+    private static final String CONNECTION = HTTPHeader.CONNECTION.getName();
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    private enum State {
+        REQUEST_LINE,
+        HEADERS,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        CHUNK_TRAILER
+    }
+
+    /**
+     * A parsed request, a view over the parser buffer.
+     */
+    public static final class Request {
+        private byte[] buf;
+        private int base;
+        // offsets relative to base
+        private int uriStart;
+        private int uriEnd;
+        private int versionStart;
+        private int versionEnd;
+        private HTTPMethod method;
+        // 4 ints per header: name start, name end, value start, value end
+        private int[] headers = new int[64];
+        private int headerCount;
+        private long contentLength;
+        private boolean chunked;
+        private boolean connectionClose;
+        private boolean connectionKeepAlive;
+        private int bodyStart;
+        private int bodyEnd;
+        private String uri;
+        private boolean streamed;
+
+        private void reset(byte[] buf, int base) {
+            this.buf = buf;
+            this.base = base;
+            method = null;
+            headerCount = 0;
+            contentLength = -1;
+            chunked = false;
+            connectionClose = false;
+            connectionKeepAlive = false;
+            bodyStart = 0;
+            bodyEnd = 0;
+            uri = null;
+            streamed = false;
+        }
+
+        private void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            if (headerCount * 4 == headers.length)
+                headers = Arrays.copyOf(headers, headers.length * 2);
+            int i = headerCount++ * 4;
+            headers[i] = nameStart;
+            headers[i + 1] = nameEnd;
+            headers[i + 2] = valueStart;
+            headers[i + 3] = valueEnd;
+        }
+
+        private String string(int start, int end) {
+            return new String(buf, base + start, end - start, StandardCharsets.UTF_8);
+        }
+
+        private boolean equalsIgnoreCase(int start, int end, String str) {
+            if (end - start != str.length())
+                return false;
+            for (int i = 0; i < str.length(); i++) {
+                int c = buf[base + start + i];
+                int s = str.charAt(i);
+                if (c != s) {
+                    // ASCII letters only
+                    int lc = c | 0x20;
+                    if (lc != (s | 0x20) || lc < 'a' || lc > 'z')
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        public HTTPMethod getMethod() {
+            return method;
+        }
+
+        public String getURI() {
+            if (uri == null)
+                uri = string(uriStart, uriEnd);
+            return uri;
+        }
+
+        public String getVersion() {
+            return string(versionStart, versionEnd);
+        }
+
+        public int headerCount() {
+            return headerCount;
+        }
+
+        public String getHeaderName(int index) {
+            return string(headers[index * 4], headers[index * 4 + 1]);
+        }
+
+        public String getHeaderValue(int index) {
+            return string(headers[index * 4 + 2], headers[index * 4 + 3]);
+        }
+
+        /**
+         * @param name header name, case insensitive
+         * @return the index of the first header with the name, -1 if not found
+         */
+        public int headerIndex(String name) {
+            for (int i = 0; i < headerCount; i++)
+                if (equalsIgnoreCase(headers[i * 4], headers[i * 4 + 1], name))
+                    return i;
+            return -1;
+        }
+
+        /**
+         * @param name header name, case insensitive
+         * @return the value of the first header with the name, null if not found
+         */
+        public String getHeaderValue(String name) {
+            int index = headerIndex(name);
+            return index != -1 ? getHeaderValue(index) : null;
+        }
+
+        /**
+         * @return the Content-Length header value, -1 if not set
+         */
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        public boolean isChunked() {
+            return chunked;
+        }
+
+        /**
+         * @return true if the body is returned by {@link HTTPRequestParser#pollBody()}, the headers of a streamed
+         * request are valid till the next feed
+         */
+        public boolean isStreamed() {
+            return streamed;
+        }
+
+        /**
+         * @return true if the connection stays open after the request
+         */
+        public boolean isKeepAlive() {
+            if (connectionClose)
+                return false;
+            // HTTP/1.1 is persistent by default
+            return connectionKeepAlive || (versionEnd - versionStart == 8 && buf[base + versionEnd - 1] != '0');
+        }
+
+        /**
+         * @return the body length, the chunked framing removed
+         */
+        public int getBodyLength() {
+            return bodyEnd - bodyStart;
+        }
+
+        /**
+         * @return read only view of the body
+         */
+        public ByteBuffer body() {
+            return ByteBuffer.wrap(buf, base + bodyStart, bodyEnd - bodyStart).slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * @return a copy of the body
+         */
+        public byte[] copyBody() {
+            return Arrays.copyOfRange(buf, base + bodyStart, base + bodyEnd);
+        }
+
+        /**
+         * Copy the request into an HTTPRawMessage, the headers are materialised and the body is decoded by the
+         * {@link HTTPCodecs} content decoders.
+         *
+         * @return the parsed raw message
+         */
+        public HTTPRawMessage toHTTPRawMessage() {
+            HTTPMessageConfigInterface hmci = toHTTPMessageConfig();
+            UByteArrayOutputStream body = new UByteArrayOutputStream(Math.max(getBodyLength(), 32));
+            body.write(buf, base + bodyStart, getBodyLength());
+            HTTPRawMessage ret = new HTTPRawMessage(hmci, body, chunked);
+            ret.parse();
+            return ret;
+        }
+
+        /**
+         * Copy the request line and the headers, the body is not copied.
+         *
+         * @return the request config
+         */
+        public HTTPMessageConfigInterface toHTTPMessageConfig() {
+            HTTPMessageConfigInterface ret = new HTTPMessageConfig();
+            ret.setMethod(method);
+            ret.setURI(getURI());
+            ret.setHTTPVersion(getVersion());
+            for (int i = 0; i < headerCount; i++)
+                ret.getHeaders().add(new NVPair(getHeaderName(i), getHeaderValue(i)));
+            return ret;
+        }
+
+        public String toString() {
+            return "Request[" + method + " " + getURI() + " headers=" + headerCount + " body=" + getBodyLength() + "]";
+        }
+    }
+
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+    private final boolean streamBody;
+    private byte[] buf = new byte[4096];
+    // end of the valid data
+    private int limit;
+    // next byte to scan
+    private int pos;
+    // start of the current line
+    private int lineStart;
+    // chunked body write index
+    private int bodyWrite;
+    // bytes left in the current body or chunk
+    private long remaining;
+    private State state = State.REQUEST_LINE;
+    // pool.get(0 .. readyCount - 1) are the parsed requests, pool.get(readyCount) the current one
+    private final ArrayList<Request> pool = new ArrayList<>();
+    private int readyCount;
+    private int pollIndex;
+    private Request current;
+    // the request with a streamed body, its next body byte and, once complete, the end of its body
+    private Request streamed;
+    private int streamMark;
+    private int streamEnd;
+    private long requestCount;
+    private long byteCount;
+
+    public HTTPRequestParser() {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * @param maxHeaderSize maximum size of the request line and headers
+     * @param maxBodySize   maximum size of a body
+     */
+    public HTTPRequestParser(int maxHeaderSize, int maxBodySize) {
+        this(maxHeaderSize, maxBodySize, false);
+    }
+
+    /**
+     * @param maxHeaderSize maximum size of the request line and headers
+     * @param maxBodySize   maximum size of a buffered body, not applied to the streamed bodies
+     * @param streamBody    if true the bodies not fully received are streamed by {@link #pollBody()}
+     */
+    public HTTPRequestParser(int maxHeaderSize, int maxBodySize, boolean streamBody) {
+        if (maxHeaderSize < 64 || maxBodySize < 0)
+            throw new IllegalArgumentException("Invalid max sizes " + maxHeaderSize + ", " + maxBodySize);
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+        this.streamBody = streamBody;
+        pool.add(current = new Request());
+        current.reset(buf, 0);
+    }
+
+    /**
+     * Consume the remaining bytes of the buffer, the requests returned by previous {@link #poll()} calls are
+     * released.
+     *
+     * @param bb the buffer, flipped for reading
+     * @return number of complete requests available
+     * @throws IllegalArgumentException if the request is malformed or too big, the connection must be closed
+     */
+    public int feed(ByteBuffer bb) {
+        int len = bb.remaining();
+        prepare(len);
+        bb.get(buf, limit, len);
+        limit += len;
+        return parse(len);
+    }
+
+    /**
+     * @param data   the bytes
+     * @param offset of the data
+     * @param len    of the data
+     * @return number of complete requests available
+     * @throws IllegalArgumentException if the request is malformed or too big, the connection must be closed
+     */
+    public int feed(byte[] data, int offset, int len) {
+        prepare(len);
+        System.arraycopy(data, offset, buf, limit, len);
+        limit += len;
+        return parse(len);
+    }
+
+    /**
+     * In streaming mode the request being received is returned once its headers are parsed, and no request is
+     * returned till the streamed body is drained by {@link #pollBody()}.
+     *
+     * @return the next parsed request, null if none, valid till the next feed
+     */
+    public Request poll() {
+        if (streamed != null)
+            return null;
+        while (pollIndex < readyCount) {
+            Request r = pool.get(pollIndex++);
+            // already returned when its headers were parsed
+            if (!r.streamed)
+                return r;
+        }
+        if (streamBody && state.ordinal() >= State.BODY.ordinal()) {
+            current.streamed = true;
+            streamed = current;
+            streamMark = current.base + current.bodyStart;
+            return current;
+        }
+        return null;
+    }
+
+    /**
+     * Return the body bytes of the streamed request received since the last call, with the chunked framing
+     * removed.
+     *
+     * @return read only view valid till the next feed, null if no body bytes are pending
+     */
+    public ByteBuffer pollBody() {
+        if (streamed == null)
+            return null;
+        boolean complete = streamed != current;
+        int end = complete ? streamEnd : current.chunked ? bodyWrite : pos;
+        ByteBuffer ret = streamMark < end ? ByteBuffer.wrap(buf, streamMark, end - streamMark).slice().asReadOnlyBuffer() : null;
+        streamMark = end;
+        if (complete)
+            streamed = null;
+        return ret;
+    }
+
+    /**
+     * @return true till the body of the streamed request is complete and drained
+     */
+    public boolean isBodyStreaming() {
+        return streamed != null;
+    }
+
+    /**
+     * @return number of parsed requests not polled yet
+     */
+    public int available() {
+        return readyCount - pollIndex;
+    }
+
+    /**
+     * @return true if a request is partially received
+     */
+    public boolean isPending() {
+        return state != State.REQUEST_LINE || limit > current.base;
+    }
+
+    /**
+     * Drop all the buffered data, the parser is ready for a new connection.
+     */
+    public void reset() {
+        readyCount = 0;
+        pollIndex = 0;
+        limit = pos = lineStart = 0;
+        state = State.REQUEST_LINE;
+        streamed = null;
+        current = pool.get(0);
+        current.reset(buf, 0);
+    }
+
+    @Override
+    public NVGenericMap getProperties() {
+        NVGenericMap ret = new NVGenericMap("http_request_parser");
+        ret.build(new NVLong("requests", requestCount))
+                .build(new NVLong("bytes", byteCount))
+                .build(new NVLong("buffer_size", buf.length));
+        return ret;
+    }
+
+    // release the parsed requests, move the current request, or the streamed body not drained yet, to the
+    // buffer start and make room for len bytes
+    private void prepare(int len) {
+        if (readyCount > 0) {
+            pool.set(readyCount, pool.get(0));
+            pool.set(0, current);
+            readyCount = 0;
+            pollIndex = 0;
+        }
+        int base = streamed != null ? streamMark : current.base;
+        if (base > 0) {
+            System.arraycopy(buf, base, buf, 0, limit - base);
+            limit -= base;
+            pos -= base;
+            lineStart -= base;
+            bodyWrite -= base;
+            streamMark -= base;
+            streamEnd -= base;
+            // the headers of a streamed request are dropped
+            current.base -= base;
+        }
+        if (limit + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, limit + len));
+            current.buf = buf;
+        }
+    }
+
+    private int parse(int len) {
+        byteCount += len;
+        while (step()) ;
+        if (log.isEnabled()) log.getLogger().info("state " + state + " ready " + readyCount + " pending " + (limit - current.base));
+        return readyCount - pollIndex;
+    }
+
+    // scan for the end of the current line, -1 if not received yet
+    private int lineEnd() {
+        for (int i = pos; i < limit; i++)
+            if (buf[i] == '\n') {
+                pos = i + 1;
+                return i > lineStart && buf[i - 1] == '\r' ? i - 1 : i;
+            }
+        pos = limit;
+        return -1;
+    }
+
+    private boolean step() {
+        Request r = current;
+        switch (state) {
+            case BODY: {
+                int take = (int) Math.min(remaining, limit - pos);
+                pos += take;
+                remaining -= take;
+                if (remaining > 0)
+                    return false;
+                r.bodyEnd = pos - r.base;
+                complete();
+                return true;
+            }
+            case CHUNK_DATA: {
+                int take = (int) Math.min(remaining, limit - pos);
+                if (pos != bodyWrite)
+                    System.arraycopy(buf, pos, buf, bodyWrite, take);
+                bodyWrite += take;
+                pos += take;
+                remaining -= take;
+                if (remaining > 0)
+                    return false;
+                lineStart = pos;
+                state = State.CHUNK_DATA_END;
+                return true;
+            }
+            default:
+                break;
+        }
+
+        int start = lineStart;
+        int end = lineEnd();
+        if (end == -1) {
+            if (state == State.REQUEST_LINE || state == State.HEADERS) {
+                if (limit - r.base > maxHeaderSize)
+                    throw new IllegalArgumentException("HTTP header too big");
+                if (state == State.REQUEST_LINE)
+                    validateMethod(r.base, limit);
+            } else if (limit - lineStart > MAX_CHUNK_LINE)
+                throw new IllegalArgumentException("HTTP chunk line too big");
+            return false;
+        }
+        lineStart = pos;
+        if ((state == State.REQUEST_LINE || state == State.HEADERS) && pos - r.base > maxHeaderSize)
+            throw new IllegalArgumentException("HTTP header too big");
+
+        switch (state) {
+            case REQUEST_LINE:
+                if (start == end) {
+                    // empty lines before a request are ignored
+                    r.base = pos;
+                    return true;
+                }
+                requestLine(r, start, end);
+                state = State.HEADERS;
+                break;
+            case HEADERS:
+                if (start == end) {
+                    endOfHeaders(r);
+                    break;
+                }
+                header(r, start, end);
+                break;
+            case CHUNK_SIZE:
+                long size = chunkSize(start, end);
+                if (size == 0) {
+                    r.bodyEnd = bodyWrite - r.base;
+                    state = State.CHUNK_TRAILER;
+                } else {
+                    if (!streamBody && bodyWrite - r.base - r.bodyStart + size > maxBodySize)
+                        throw new IllegalArgumentException("HTTP body too big");
+                    remaining = size;
+                    state = State.CHUNK_DATA;
+                }
+                break;
+            case CHUNK_DATA_END:
+                if (start != end)
+                    throw new IllegalArgumentException("HTTP chunk not terminated by CRLF");
+                state = State.CHUNK_SIZE;
+                break;
+            case CHUNK_TRAILER:
+                // the trailer headers are ignored
+                if (start == end)
+                    complete();
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private void validateMethod(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buf[i] == ' ') {
+                if (lookupMethod(from, i) == null)
+                    throw new IllegalArgumentException("Invalid HTTP method " + new String(buf, from, i - from, StandardCharsets.UTF_8));
+                return;
+            }
+        if (to - from > 25)
+            throw new IllegalArgumentException("HTTP method token too big");
+    }
+
+    private HTTPMethod lookupMethod(int from, int to) {
+        for (HTTPMethod m : METHODS) {
+            String name = m.getName();
+            if (name.length() == to - from) {
+                int i = 0;
+                while (i < name.length() && buf[from + i] == name.charAt(i))
+                    i++;
+                if (i == name.length())
+                    return m;
+            }
+        }
+        return null;
+    }
+
+    private void requestLine(Request r, int start, int end) {
+        int sp1 = indexOf(start, end, (byte) ' ');
+        int sp2 = sp1 != -1 ? indexOf(sp1 + 1, end, (byte) ' ') : -1;
+        if (sp1 == -1 || sp2 == -1 || sp2 == sp1 + 1 || sp2 + 1 == end)
+            throw new IllegalArgumentException("Invalid HTTP request line " + new String(buf, start, end - start, StandardCharsets.UTF_8));
+        r.method = lookupMethod(start, sp1);
+        if (r.method == null)
+            throw new IllegalArgumentException("Invalid HTTP method " + new String(buf, start, sp1 - start, StandardCharsets.UTF_8));
+        r.uriStart = sp1 + 1 - r.base;
+        r.uriEnd = sp2 - r.base;
+        r.versionStart = sp2 + 1 - r.base;
+        r.versionEnd = end - r.base;
+    }
+
+    private void header(Request r, int start, int end) {
+        int colon = indexOf(start, end, (byte) ':');
+        if (colon <= start || buf[start] == ' ' || buf[start] == '\t')
+            throw new IllegalArgumentException("Invalid HTTP header " + new String(buf, start, end - start, StandardCharsets.UTF_8));
+        int nameEnd = colon;
+        while (nameEnd > start && buf[nameEnd - 1] == ' ')
+            nameEnd--;
+        int valueStart = colon + 1;
+        while (valueStart < end && (buf[valueStart] == ' ' || buf[valueStart] == '\t'))
+            valueStart++;
+        int valueEnd = end;
+        while (valueEnd > valueStart && (buf[valueEnd - 1] == ' ' || buf[valueEnd - 1] == '\t'))
+            valueEnd--;
+        int base = r.base;
+        r.addHeader(start - base, nameEnd - base, valueStart - base, valueEnd - base);
+
+        if (r.equalsIgnoreCase(start - base, nameEnd - base, CONTENT_LENGTH)) {
+            long length = 0;
+            if (valueStart == valueEnd || valueEnd - valueStart > 18)
+                throw new IllegalArgumentException("Invalid Content-Length");
+            for (int i = valueStart; i < valueEnd; i++) {
+                int d = buf[i] - '0';
+                if (d < 0 || d > 9)
+                    throw new IllegalArgumentException("Invalid Content-Length");
+                length = length * 10 + d;
+            }
+            if (r.contentLength != -1 && r.contentLength != length)
+                throw new IllegalArgumentException("Conflicting Content-Length");
+            r.contentLength = length;
+        } else if (r.equalsIgnoreCase(start - base, nameEnd - base, TRANSFER_ENCODING)) {
+            // chunked must be the last transfer coding
+            r.chunked = valueEnd - valueStart >= 7 && r.equalsIgnoreCase(valueEnd - 7 - base, valueEnd - base, "chunked");
+        } else if (r.equalsIgnoreCase(start - base, nameEnd - base, CONNECTION)) {
+            r.connectionClose |= containsIgnoreCase(valueStart, valueEnd, "close");
+            r.connectionKeepAlive |= containsIgnoreCase(valueStart, valueEnd, "keep-alive");
+        }
+    }
+
+    private void endOfHeaders(Request r) {
+        r.bodyStart = pos - r.base;
+        r.bodyEnd = r.bodyStart;
+        if (r.chunked) {
+            // chunked takes precedence over the content length
+            bodyWrite = pos;
+            state = State.CHUNK_SIZE;
+        } else if (r.contentLength > 0) {
+            if (!streamBody && r.contentLength > maxBodySize)
+                throw new IllegalArgumentException("HTTP body too big " + r.contentLength);
+            remaining = r.contentLength;
+            state = State.BODY;
+        } else
+            complete();
+    }
+
+    private long chunkSize(int start, int end) {
+        long size = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            int c = buf[i];
+            int d;
+            if (c >= '0' && c <= '9')
+                d = c - '0';
+            else if (c >= 'a' && c <= 'f')
+                d = c - 'a' + 10;
+            else if (c >= 'A' && c <= 'F')
+                d = c - 'A' + 10;
+            else if (c == ';' || c == ' ' || c == '\t')
+                // chunk extensions are ignored
+                break;
+            else
+                throw new IllegalArgumentException("Invalid HTTP chunk size");
+            if (++digits > 15)
+                throw new IllegalArgumentException("HTTP chunk size too big");
+            size = (size << 4) | d;
+        }
+        if (digits == 0)
+            throw new IllegalArgumentException("Invalid HTTP chunk size");
+        return size;
+    }
+
+    private void complete() {
+        if (current.streamed)
+            streamEnd = current.base + current.bodyEnd;
+        requestCount++;
+        state = State.REQUEST_LINE;
+        if (++readyCount == pool.size())
+            pool.add(new Request());
+        current = pool.get(readyCount);
+        current.reset(buf, pos);
+        lineStart = pos;
+    }
+
+    private int indexOf(int from, int to, byte b) {
+        for (int i = from; i < to; i++)
+            if (buf[i] == b)
+                return i;
+        return -1;
+    }
+
+    private boolean containsIgnoreCase(int from, int to, String token) {
+        int len = token.length();
+        for (int i = from; i + len <= to; i++) {
+            int j = 0;
+            while (j < len && (buf[i + j] | 0x20) == token.charAt(j))
+                j++;
+            if (j == len)
+                return true;
+        }
+        return false;
+    }
+}
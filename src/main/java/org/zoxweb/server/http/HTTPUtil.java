@@ -80,6 +80,38 @@ public class HTTPUtil {
     }
 
 
+    /**
+     * Copy a request before it is completed for the wire, the headers and parameters maps are new so
+     * the caller request is never modified. The content is shared.
+     *
+     * @param hmci the request to copy
+     * @return the copy
+     */
+    public static HTTPMessageConfigInterface copyRequest(HTTPMessageConfigInterface hmci) {
+        HTTPMessageConfigInterface ret = HTTPMessageConfig.createAndInit(hmci.getURL(), hmci.getURI(), hmci.getMethod(), hmci.isSecureCheckEnabled());
+        NVGenericMap.copy(hmci.getHeaders(), ret.getHeaders(), false);
+        NVGenericMap.copy(hmci.getParameters(), ret.getParameters(), false);
+        ret.setHTTPParameterFormatter(hmci.getHTTPParameterFormatter());
+        ret.setAuthorization(hmci.getAuthorization());
+        ret.setProxyAddress(hmci.getProxyAddress());
+        ret.setRedirectEnabled(hmci.isRedirectEnabled());
+        ret.setHTTPErrorAsException(hmci.isHTTPErrorAsException());
+        ret.setCharset(hmci.getCharset());
+        ret.setTimeout(hmci.getTimeout());
+        if (hmci.getHTTPVersion() != null)
+            ret.setHTTPVersion(hmci.getHTTPVersion());
+        if (hmci.getContent() != null)
+            ret.setContent(hmci.getContent());
+        else if (hmci.getContentAsISIfAvailable() != null) {
+            try {
+                ret.setContentAsIS(hmci.getContentAsISIfAvailable(), false);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return ret;
+    }
+
     /**
      * Build an HTTP response
      *
@@ -106,7 +138,7 @@ public class HTTPUtil {
             throws IOException {
         HTTPMessageConfigInterface hmci = buildResponse((HTTPMessageConfigInterface) null, statusCode, headers);
         hmci.setContentType(HTTPMediaType.APPLICATION_JSON, HTTPConst.CHARSET_UTF_8);
-        hmci.setContent(GSONUtil.toJSON(nve, false, false, true));
+        hmci.setContent(GSONUtil.toJSON(new UByteArrayOutputStream(), nve, false, false, true, null).toByteArray());
         return hmci;
     }
 
@@ -119,7 +151,14 @@ public class HTTPUtil {
     }
 
     public static HTTPMessageConfigInterface buildResponse(NVGenericMap nvgm, HTTPStatusCode statusCode, GetNameValue<?>... headers) {
-        return buildResponse(GSONUtil.toJSONDefault(nvgm), statusCode, headers);
+        HTTPMessageConfigInterface hmci = buildResponse((HTTPMessageConfigInterface) null, statusCode, headers);
+        hmci.setContentType(HTTPMediaType.APPLICATION_JSON, HTTPConst.CHARSET_UTF_8);
+        try {
+            hmci.setContent(GSONUtil.toJSONDefault(new UByteArrayOutputStream(), nvgm).toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return hmci;
     }
 
 
@@ -16,6 +16,7 @@
  */
 package org.zoxweb.server.http.proxy;
 
+import org.zoxweb.server.http.HTTPRequestParser;
 import org.zoxweb.server.http.HTTPUtil;
 import org.zoxweb.server.io.ByteBufferUtil;
 import org.zoxweb.server.io.ByteBufferUtil.BufferType;
@@ -51,67 +52,7 @@ public class NIOProxyProtocol
     public static final String AUTHENTICATION = "AUTHENTICATION";
 
 
-    private static class RequestInfo {
-        final HTTPMessageConfigInterface hmci;
-        int payloadIndex = -1;
-        int payloadSent = 0;
-        final IPAddress remoteAddress;
-        boolean headerNotSent = true;
-
-        RequestInfo(HTTPMessageConfigInterface hmci, UByteArrayOutputStream ubaos) {
-            this.hmci = hmci;
-            remoteAddress = HTTPUtil.parseHost(hmci.getURI());
-            //if (hmci.getContentLength() > 0)
-            {
-                payloadIndex = ubaos.indexOf(Delimiter.CRLFCRLF.getBytes());
-                if (payloadIndex > 0) {
-                    payloadIndex += Delimiter.CRLFCRLF.getBytes().length;
-                } else {
-                    throw new IllegalArgumentException("invalid message");
-                }
-
-            }
-        }
-
-        public void writeHeader(SocketChannel remoteChannel, UByteArrayOutputStream requestRawBuffer)
-                throws IOException {
-            if (headerNotSent) {
-                ByteBufferUtil.write(remoteChannel, HTTPUtil.formatRequest(hmci, true, null, HTTPHeader.PROXY_CONNECTION.getName()));
-                headerNotSent = false;
-                writePayload(remoteChannel, requestRawBuffer, payloadIndex);
-                if (hmci.getContentLength() < 0) {
-
-                    requestRawBuffer.reset();
-                }
-            }
-        }
-
-        public void writePayload(SocketChannel remoteChannel, UByteArrayOutputStream requestRawBuffer, int fromIndex) throws IOException {
-            if (hmci.getContentLength() > 1 && !isRequestComplete()) {
-                int dataLength = requestRawBuffer.size() - fromIndex;
-                if ((dataLength + payloadSent) > hmci.getContentLength()) {
-                    dataLength = hmci.getContentLength() - payloadSent - fromIndex;
-                }
-
-                ByteBufferUtil.write(remoteChannel, requestRawBuffer.getInternalBuffer(), fromIndex, dataLength);
-                payloadSent += dataLength;
-                requestRawBuffer.shiftLeft(fromIndex + dataLength, 0);
-            }
-        }
-
-
-        public boolean isRequestComplete() {
-            return payloadSent == hmci.getContentLength();
-        }
-
-
-        public HTTPMessageConfigInterface getHTTPMessageConfigInterface() {
-            return hmci;
-        }
-
-
-    }
-
+    private static final byte[] LAST_CHUNK = SharedStringUtil.getBytes("0" + Delimiter.CRLFCRLF);
 
     public static final class NIOProxyProtocolFactory
             extends ProtocolFactoryBase<NIOProxyProtocol> {
@@ -146,15 +87,17 @@ public class NIOProxyProtocol
 
     }
 
-    private UByteArrayOutputStream requestBuffer = new UByteArrayOutputStream();
-    private HTTPMessageConfigInterface requestMCCI = null;
+    // the body of a request not fully received is streamed to the remote host
+    private final HTTPRequestParser parser = new HTTPRequestParser(SharedIOUtil.K_8, 0, true);
+    private final UByteArrayOutputStream responseBuffer = new UByteArrayOutputStream();
+    // the streamed body is chunked
+    private boolean chunkedBody = false;
     private IPAddress lastRemoteAddress = null;
     private SocketChannel remoteChannel = null;
     private SelectionKey remoteChannelSK = null;
     //private SocketChannel phSChannel = null;
     //private SelectionKey  clientChannelSK = null;
     private ChannelRelayTunnel channelRelay = null;
-    private RequestInfo requestInfo = null;
     private final ByteBuffer sourceBB;
 
     private boolean relayConnection = false;
@@ -208,9 +151,9 @@ public class NIOProxyProtocol
                         ByteBufferUtil.write(remoteChannel, sourceBB);
                         //log.info(ByteBufferUtil.toString(bBuffer));
                     } else {
-                        ByteBufferUtil.write(sourceBB, requestBuffer, true);
-                        //log.info(new String(requestBuffer.getInternalBuffer(), 0, requestBuffer.size()));
-                        tryToConnectRemote(requestBuffer, read);
+                        ((Buffer) sourceBB).flip();
+                        parser.feed(sourceBB);
+                        processRequests();
                     }
                 }
 
@@ -299,209 +242,178 @@ public class NIOProxyProtocol
     }
 
 
-    private boolean isRequestValid(RequestInfo requestInfo, UByteArrayOutputStream requestRawBuffer) throws IOException {
+    private boolean isRequestValid(HTTPMessageConfigInterface hmci) throws IOException {
         if (((Boolean) getProperties().getValue(AUTHENTICATION))) {
-            if (requestInfo.getHTTPMessageConfigInterface().getHeaders().get(HTTPHeader.PROXY_AUTHORIZATION) == null) {
-                HTTPMessageConfigInterface hccError = createErrorMSG(HTTPStatusCode.PROXY_AUTHENTICATION_REQUIRED.CODE, HTTPStatusCode.PROXY_AUTHENTICATION_REQUIRED.REASON, requestMCCI.getURI());
+            if (hmci.getHeaders().get(HTTPHeader.PROXY_AUTHORIZATION) == null) {
+                HTTPMessageConfigInterface hccError = createErrorMSG(HTTPStatusCode.PROXY_AUTHENTICATION_REQUIRED.CODE, HTTPStatusCode.PROXY_AUTHENTICATION_REQUIRED.REASON, hmci.getURI());
                 hccError.getHeaders().add(new NVPair(HTTPHeader.PROXY_AUTHENTICATE, "Basic "));
-                ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, requestRawBuffer));
+                ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, responseBuffer));
                 close();
                 return false;
             }
 
-            requestInfo.getHTTPMessageConfigInterface().getHeaders().remove(HTTPHeader.PROXY_AUTHORIZATION);
+            hmci.getHeaders().remove(HTTPHeader.PROXY_AUTHORIZATION);
         }
         return true;
     }
 
-
-    private void tryToConnectRemote(UByteArrayOutputStream requestRawBuffer, int lastRead) throws IOException {
-
-
-        // new code
-        if (requestMCCI == null) {
-            requestMCCI = HTTPUtil.parseRawHTTPRequest(requestRawBuffer, requestMCCI, true);
-            if (requestMCCI != null)
-                requestInfo = new RequestInfo(requestMCCI, requestRawBuffer);
-        }
-
-        if (requestInfo != null) {
-            if (!isRequestValid(requestInfo, requestRawBuffer)) {
-                log.getLogger().info("returning not continuing");
-                log.getLogger().info("" + requestMCCI);
-                return;
+    /**
+     * Forward the pipelined requests parsed so far, the body of the last one may be still streaming.
+     */
+    private void processRequests() throws IOException {
+        HTTPRequestParser.Request request;
+        do {
+            ByteBuffer body;
+            while ((body = parser.pollBody()) != null)
+                writeBody(body);
+            if (chunkedBody && !parser.isBodyStreaming()) {
+                ByteBufferUtil.write(remoteChannel, LAST_CHUNK, 0, LAST_CHUNK.length);
+                chunkedBody = false;
             }
 
+            request = parser.poll();
+            if (request != null && !forwardRequest(request))
+                return;
+        }
+        while (request != null && !relayConnection);
+    }
 
-            //InetSocketAddressDAO remoteAddress = HTTPUtil.parseHost(requestMCCI.getURI());
-            if (requestMCCI.getMethod() == HTTPMethod.CONNECT) {
-
-                relayConnection = true;
-                if (NetUtil.checkSecurityStatus(getOutgoingInetFilterRulesManager(), requestInfo.remoteAddress.getInetAddress(), remoteChannel) != SecConst.SecAction.ALLOW) {
-                    HTTPMessageConfigInterface hccError = createErrorMSG(403, "Access Denied", requestMCCI.getURI());
-
-                    ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, requestRawBuffer));
-                    close();
-                    return;
-                    // we must reply with an error
-                }
-                if (remoteChannel != null && !NetUtil.areInetSocketAddressDAOEquals(requestInfo.remoteAddress, lastRemoteAddress)) {
-                    log.getLogger().info("NOT supposed to happen");
-                    //IOUtil.close(remoteChannel);
-                    if (channelRelay != null) {
-                        // try to read any pending data
-                        // very, very nasty bug
-                        channelRelay.accept(remoteChannelSK);
-                        channelRelay.waitThenStopReading(remoteChannelSK);
-                    } else
-                        getSelectorController().cancelSelectionKey(remoteChannelSK);
-                }
+    private void writeBody(ByteBuffer body) throws IOException {
+        if (chunkedBody) {
+            // the parser removed the chunked framing, one chunk per body piece
+            byte[] size = SharedStringUtil.getBytes(Integer.toHexString(body.remaining()) + Delimiter.CRLF);
+            ByteBufferUtil.write(remoteChannel, size, 0, size.length);
+            ByteBufferUtil.write(remoteChannel, body, false);
+            ByteBufferUtil.write(remoteChannel, Delimiter.CRLF.getBytes(), 0, Delimiter.CRLF.getBytes().length);
+        } else
+            ByteBufferUtil.write(remoteChannel, body, false);
+    }
 
+    private boolean forwardRequest(HTTPRequestParser.Request request) throws IOException {
+        HTTPMessageConfigInterface requestMCCI = request.toHTTPMessageConfig();
+        IPAddress remoteAddress = HTTPUtil.parseHost(requestMCCI.getURI());
+        if (!isRequestValid(requestMCCI)) {
+            log.getLogger().info("returning not continuing");
+            log.getLogger().info("" + requestMCCI);
+            return false;
+        }
 
-                try {
-                    remoteChannel = SocketChannel.open((new InetSocketAddress(requestInfo.remoteAddress.getInetAddress(), requestInfo.remoteAddress.getPort())));
-                } catch (Exception e) {
+        if (requestMCCI.getMethod() == HTTPMethod.CONNECT) {
 
-                    HTTPMessageConfigInterface hccError = createErrorMSG(404, "Host Not Found", requestMCCI.getURI());
+            relayConnection = true;
+            if (NetUtil.checkSecurityStatus(getOutgoingInetFilterRulesManager(), remoteAddress.getInetAddress(), remoteChannel) != SecConst.SecAction.ALLOW) {
+                HTTPMessageConfigInterface hccError = createErrorMSG(403, "Access Denied", requestMCCI.getURI());
 
-                    ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, requestRawBuffer));
-                    close();
-                    return;
-                }
+                ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, responseBuffer));
+                close();
+                return false;
+                // we must reply with an error
+            }
+            if (remoteChannel != null && !NetUtil.areInetSocketAddressDAOEquals(remoteAddress, lastRemoteAddress)) {
+                log.getLogger().info("NOT supposed to happen");
+                if (channelRelay != null) {
+                    // try to read any pending data
+                    // very, very nasty bug
+                    channelRelay.accept(remoteChannelSK);
+                    channelRelay.waitThenStopReading(remoteChannelSK);
+                } else
+                    getSelectorController().cancelSelectionKey(remoteChannelSK);
+            }
 
 
-                requestRawBuffer.reset();
+            try {
+                remoteChannel = SocketChannel.open((new InetSocketAddress(remoteAddress.getInetAddress(), remoteAddress.getPort())));
+            } catch (Exception e) {
 
+                HTTPMessageConfigInterface hccError = createErrorMSG(404, "Host Not Found", requestMCCI.getURI());
 
-                requestRawBuffer.write(requestMCCI.getHTTPVersion().getValue() + " 200 Connection established" + Delimiter.CRLF);
-                //requestRawBuffer.write(HTTPVersion.HTTP_1_0.getValue() + " 200 Connection established" + ProtocolDelimiter.CRLF);
-                //if (requestInfo.remoteAddress.getPort() != 80)
-                requestRawBuffer.write(HTTPHeader.PROXY_AGENT + ": " + getName() + Delimiter.CRLFCRLF);
-                //else
-                //	requestRawBuffer.write(ProtocolDelimiter.CRLF.getBytes());
+                ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, responseBuffer));
+                close();
+                return false;
+            }
 
-                // tobe tested
-                //remoteChannelSK = getSelectorController().register(NIOChannelCleaner.DEFAULT, remoteChannel, SelectionKey.OP_READ, new ChannelRelayTunnel(SourceOrigin.REMOTE, getReadBufferSize(), remoteChannel, clientChannel, clientChannelSK, true, getSelectorController()), FACTORY.isBlocking());
 
-                ByteBufferUtil.write(phSChannel, requestRawBuffer);
-                requestRawBuffer.reset();
-                requestMCCI = null;
-                if (log.isEnabled())
-                    log.getLogger().info(new String(requestRawBuffer.toByteArray()));
+            responseBuffer.reset();
+            responseBuffer.write(requestMCCI.getHTTPVersion().getValue() + " 200 Connection established" + Delimiter.CRLF);
+            responseBuffer.write(HTTPHeader.PROXY_AGENT + ": " + getName() + Delimiter.CRLFCRLF);
+            ByteBufferUtil.write(phSChannel, responseBuffer);
+            responseBuffer.reset();
 
 
-                remoteChannelSK = getSelectorController().register(remoteChannel,
-                        SelectionKey.OP_READ,
-                        new ChannelRelayTunnel(SharedIOUtil.K_4, remoteChannel, phSChannel, phSK, true, getSelectorController()),
-                        false);
-                requestInfo = null;
+            remoteChannelSK = getSelectorController().register(remoteChannel,
+                    SelectionKey.OP_READ,
+                    new ChannelRelayTunnel(SharedIOUtil.K_4, remoteChannel, phSChannel, phSK, true, getSelectorController()),
+                    false);
 
-            } else {
-                if (log.isEnabled())
-                    log.getLogger().info(new String(requestRawBuffer.toByteArray()));
+        } else {
+            if (log.isEnabled())
+                log.getLogger().info("" + request);
 
 
-                if (NetUtil.checkSecurityStatus(getOutgoingInetFilterRulesManager(), requestInfo.remoteAddress.getInetAddress(), remoteChannel) != SecConst.SecAction.ALLOW) {
-                    HTTPMessageConfigInterface hccError = createErrorMSG(403, "Access Denied", requestMCCI.getURI());
+            if (NetUtil.checkSecurityStatus(getOutgoingInetFilterRulesManager(), remoteAddress.getInetAddress(), remoteChannel) != SecConst.SecAction.ALLOW) {
+                HTTPMessageConfigInterface hccError = createErrorMSG(403, "Access Denied", requestMCCI.getURI());
 
-                    ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, requestRawBuffer));
-                    close();
-                    return;
-                    // we must reply with an error
-                }
+                ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, responseBuffer));
+                close();
+                return false;
+                // we must reply with an error
+            }
 
-                if (!NetUtil.areInetSocketAddressDAOEquals(requestInfo.remoteAddress, lastRemoteAddress)) {
-
-                    //IOUtil.close(remoteChannel);
-                    if (channelRelay != null) {
-                        channelRelay.accept(remoteChannelSK);
-                        channelRelay.waitThenStopReading(remoteChannelSK);
-                        if (log.isEnabled())
-                            log.getLogger().info("THIS IS  supposed to happen RELAY STOP:" + lastRemoteAddress + "," + requestInfo.remoteAddress);
-                    } else if (remoteChannelSK != null) {
-                        if (log.isEnabled())
-                            log.getLogger().info("THIS IS  supposed to happen CANCEL READ");
-                        getSelectorController().cancelSelectionKey(remoteChannelSK);
-                    }
+            if (!NetUtil.areInetSocketAddressDAOEquals(remoteAddress, lastRemoteAddress)) {
+
+                if (channelRelay != null) {
+                    channelRelay.accept(remoteChannelSK);
+                    channelRelay.waitThenStopReading(remoteChannelSK);
+                    if (log.isEnabled())
+                        log.getLogger().info("THIS IS  supposed to happen RELAY STOP:" + lastRemoteAddress + "," + remoteAddress);
+                } else if (remoteChannelSK != null) {
+                    if (log.isEnabled())
+                        log.getLogger().info("THIS IS  supposed to happen CANCEL READ");
+                    getSelectorController().cancelSelectionKey(remoteChannelSK);
                 }
+            }
 
 
-                if (remoteChannelSK == null || !remoteChannelSK.isValid()) {
-                    //log.getLogger().info("ChangeConnection:" + changeConnection);
-                    try {
-                        remoteChannel = SocketChannel.open((new InetSocketAddress(requestInfo.remoteAddress.getInetAddress(), requestInfo.remoteAddress.getPort())));
-                        //remoteChannelSK = getSelectorController().register(remoteSet, remoteChannel, SelectionKey.OP_READ, new ChannelRelay(remoteChannel, clientChannel), FACTORY.isBlocking());
-                    } catch (Exception e) {
-                        if (log.isEnabled()) {
-                            log.getLogger().info(new String(requestRawBuffer.toByteArray()));
-                            log.getLogger().info("" + requestInfo.remoteAddress);
-                            e.printStackTrace();
-                        }
-                        HTTPMessageConfigInterface hccError = createErrorMSG(404, "Host Not Found", requestInfo.remoteAddress.getInetAddress() + ":" + requestInfo.remoteAddress.getPort());
-                        ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, requestRawBuffer));
-                        close();
-                        return;
+            if (remoteChannelSK == null || !remoteChannelSK.isValid()) {
+                try {
+                    remoteChannel = SocketChannel.open((new InetSocketAddress(remoteAddress.getInetAddress(), remoteAddress.getPort())));
+                } catch (Exception e) {
+                    if (log.isEnabled()) {
+                        log.getLogger().info("" + request);
+                        log.getLogger().info("" + remoteAddress);
+                        e.printStackTrace();
                     }
+                    HTTPMessageConfigInterface hccError = createErrorMSG(404, "Host Not Found", remoteAddress.getInetAddress() + ":" + remoteAddress.getPort());
+                    ByteBufferUtil.write(phSChannel, HTTPUtil.formatResponse(hccError, responseBuffer));
+                    close();
+                    return false;
                 }
+            }
 
-                if (requestMCCI.isMultiPartEncoding()) {
-                    log.getLogger().info("We have multi Econding");
-                }
-
-
-                requestInfo.writeHeader(remoteChannel, requestRawBuffer);
-                requestInfo.writePayload(remoteChannel, requestRawBuffer, 0);
-
-//				if (requestInfo == null)
-//				{
-//					requestInfo = new RequestInfo(requestMCCI, requestRawBuffer);
-//					ByteBufferUtil.write(remoteChannel, HTTPUtil.formatRequest(requestMCCI, true, null, HTTPHeaderName.PROXY_CONNECTION.getName()));
-//					if (requestInfo.hmci.getContentLength() > 1)
-//	    			{
-//	    				ByteBufferUtil.write(remoteChannel, requestRawBuffer.getInternalBuffer(), requestInfo.payloadPendingIndex, requestRawBuffer.size() - requestInfo.payloadPendingIndex);
-//	    				requestInfo.bytesSent += requestRawBuffer.size() - requestInfo.payloadPendingIndex;
-//	    				requestRawBuffer.reset();
-//	    				if (requestInfo.bytesSent == requestInfo.hmci.getContentLength())
-//	    				{
-//	    					requestInfo = null;
-//	    	    			requestMCCI = null;
-//	    	    			lastRemoteAddress = requestInfo.remoteAddress;
-//	    					
-//	    				}
-//	    			}
-//				}
-
-
-                if (remoteChannelSK == null || !remoteChannelSK.isValid()) {
-                    channelRelay = new ChannelRelayTunnel(SharedIOUtil.K_4, remoteChannel, phSChannel, phSK, true, getSelectorController());
-                    remoteChannelSK = getSelectorController().register(remoteChannel, SelectionKey.OP_READ, channelRelay, false);
-                }
-
-
-//				if (requestInfo != null && requestInfo.hmci.getContentLength()  > 1 && requestInfo.payloadSent != requestInfo.hmci.getContentLength() && requestRawBuffer.size() > 0)
-//				{
-//					ByteBufferUtil.write(remoteChannel, requestRawBuffer.getInternalBuffer(), 0, requestRawBuffer.size());
-//    				requestInfo.payloadSent += requestRawBuffer.size();	
-//				}
-
-
-                lastRemoteAddress = requestInfo.remoteAddress;
-
-                if (requestInfo != null && requestInfo.payloadSent == requestInfo.hmci.getContentLength() || requestInfo.hmci.getContentLength() < 1) {
-                    requestInfo = null;
-                    requestMCCI = null;
+            ByteBufferUtil.write(remoteChannel, HTTPUtil.formatRequest(requestMCCI, true, null, HTTPHeader.PROXY_CONNECTION.getName()));
+            chunkedBody = request.isChunked();
+            if (request.isStreamed()) {
+                // the body is written by processRequests as it arrives
+                if (log.isEnabled())
+                    log.getLogger().info("streaming body of " + request);
+            } else {
+                if (request.getBodyLength() > 0)
+                    writeBody(request.body());
+                if (chunkedBody) {
+                    ByteBufferUtil.write(remoteChannel, LAST_CHUNK, 0, LAST_CHUNK.length);
+                    chunkedBody = false;
                 }
-
-//				lastRemoteAddress = requestInfo.remoteAddress;
-//				requestRawBuffer.reset();
-
             }
-        }
-
 
-        // code to be removed
 
+            if (remoteChannelSK == null || !remoteChannelSK.isValid()) {
+                channelRelay = new ChannelRelayTunnel(SharedIOUtil.K_4, remoteChannel, phSChannel, phSK, true, getSelectorController());
+                remoteChannelSK = getSelectorController().register(remoteChannel, SelectionKey.OP_READ, channelRelay, false);
+            }
 
+            lastRemoteAddress = remoteAddress;
+        }
+        return true;
     }
 
 
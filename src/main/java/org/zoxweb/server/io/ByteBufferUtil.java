@@ -18,10 +18,7 @@ package org.zoxweb.server.io;
 import org.zoxweb.server.util.ServerUtil;
 import org.zoxweb.shared.io.BytesArray;
 import org.zoxweb.shared.io.SharedIOUtil;
-import org.zoxweb.shared.util.Const;
-import org.zoxweb.shared.util.SUS;
-import org.zoxweb.shared.util.SimpleQueue;
-import org.zoxweb.shared.util.UniqueSimpleQueue;
+import org.zoxweb.shared.util.*;
 
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -30,11 +27,10 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
 public class ByteBufferUtil {
@@ -43,19 +39,73 @@ public class ByteBufferUtil {
         HEAP
     }
 
-    private static final ByteBufferUtil SINGLETON = new ByteBufferUtil();
+    /**
+     * Byte buffers pool, the buffers are pooled by exact capacity
+     */
+    private static final class ByteBufferPool
+            extends SizeClassPool<ByteBuffer> {
+        private ByteBufferPool(String name) {
+            super(name, CACHE_LIMIT);
+        }
 
-    final private Map<Integer, SimpleQueue<ByteBuffer>> cachedBuffers = new HashMap<Integer, SimpleQueue<ByteBuffer>>();
-    final private Map<Integer, UniqueSimpleQueue<byte[]>> cachedByteArrays = new HashMap<>();
-    final private SimpleQueue<UByteArrayOutputStream> cachedUBAOS = new SimpleQueue<UByteArrayOutputStream>();
-    volatile private int count;
-    volatile private int availableCapacity;
+        @Override
+        protected int capacityOf(ByteBuffer bb) {
+            return bb.capacity();
+        }
+
+        @Override
+        protected void reset(ByteBuffer bb) {
+            ((Buffer) bb).clear();
+        }
 
+        @Override
+        protected int defaultLimit(int capacity) {
+            // up to CACHE_LIMIT buffers but no more than CLASS_BYTES_LIMIT per size class
+            return Math.max(MIN_CACHE_LIMIT, Math.min(CACHE_LIMIT, capacity > 0 ? CLASS_BYTES_LIMIT / capacity : CACHE_LIMIT));
+        }
+    }
 
     /**
-     * The maximum number of buffer cached per byte buffer capacity
+     * The maximum number of buffer cached per byte buffer capacity, the default size class limit
      */
     public static final int CACHE_LIMIT = 512;
+    /**
+     * The minimum size class limit of large capacities
+     */
+    public static final int MIN_CACHE_LIMIT = 8;
+    /**
+     * The default maximum total bytes cached per byte buffer size class 8M
+     */
+    public static final int CLASS_BYTES_LIMIT = 8 * SharedIOUtil.K_1 * SharedIOUtil.K_1;
+
+    private static final ByteBufferUtil SINGLETON = new ByteBufferUtil();
+
+    private final ByteBufferPool heapBuffers = new ByteBufferPool("heap_buffers");
+    private final ByteBufferPool directBuffers = new ByteBufferPool("direct_buffers");
+    private final SizeClassPool<byte[]> cachedByteArrays = new SizeClassPool<byte[]>("byte_arrays", CACHE_LIMIT) {
+        @Override
+        protected int capacityOf(byte[] ba) {
+            return ba.length;
+        }
+
+        @Override
+        protected void reset(byte[] ba) {
+            Arrays.fill(ba, (byte) 0);
+        }
+    };
+    // all the cached streams share one size class
+    private final SizeClassPool<UByteArrayOutputStream> cachedUBAOS = new SizeClassPool<UByteArrayOutputStream>("ubaos", CACHE_LIMIT) {
+        @Override
+        protected int capacityOf(UByteArrayOutputStream ubaos) {
+            return 0;
+        }
+
+        @Override
+        protected void reset(UByteArrayOutputStream ubaos) {
+            ubaos.reset();
+        }
+    };
+    private volatile boolean directPoolEnabled = true;
 
 
     public static final ByteBuffer EMPTY = allocateByteBuffer(0);
@@ -76,51 +126,23 @@ public class ByteBufferUtil {
     }
 
     private void cache0(UByteArrayOutputStream ubaos) {
-        if (cachedUBAOS.size() < CACHE_LIMIT && ubaos != null && ubaos.size() <= SharedIOUtil.K_4) {
-            synchronized (this) {
-                ubaos.reset();
-                cachedUBAOS.queue(ubaos);
-                availableCapacity += ubaos.getInternalBuffer().length;
-            }
-        }
+        if (ubaos != null && ubaos.size() <= SharedIOUtil.K_4)
+            cachedUBAOS.offer(ubaos);
     }
 
 
     private void cache0(byte[] ba) {
         if (ba != null && ba.length != 0)
-            synchronized (this) {
-                UniqueSimpleQueue<byte[]> usq = cachedByteArrays.get(ba.length);
-                if (usq == null) {
-                    usq = new UniqueSimpleQueue<byte[]>();
-                    cachedByteArrays.put(ba.length, usq);
-                }
-
-                if (usq.size() < CACHE_LIMIT) {
-                    Arrays.fill(ba, (byte) 0);
-                    usq.queue(ba);
-                }
-            }
+            cachedByteArrays.offer(ba);
     }
 
     private void cache0(ByteBuffer bb) {
-        synchronized (this) {
-            if (bb != null) {
-                SimpleQueue<ByteBuffer> sq = cachedBuffers.get(bb.capacity());
-
-                if (sq == null) {
-                    sq = new SimpleQueue<ByteBuffer>(false);
-                    cachedBuffers.put(bb.capacity(), sq);
-                }
-
-                if (sq.size() < CACHE_LIMIT) {
-                    ((Buffer) bb).clear();
-                    if (!sq.contains(bb)) {
-                        sq.queue(bb);
-                        availableCapacity += bb.capacity();
-                        count++;
-                    }
-                }
-            }
+        if (bb != null && !bb.isReadOnly()) {
+            if (bb.isDirect()) {
+                if (directPoolEnabled)
+                    directBuffers.offer(bb);
+            } else
+                heapBuffers.offer(bb);
         }
     }
 
@@ -131,14 +153,7 @@ public class ByteBufferUtil {
         if (length == 0)
             return Const.EMPTY_BYTE_ARRAY;
 
-        UniqueSimpleQueue<byte[]> usq = null;
-        byte[] ba = null;
-        synchronized (this) {
-            usq = cachedByteArrays.get(length);
-            if (usq != null) {
-                ba = usq.dequeue();
-            }
-        }
+        byte[] ba = cachedByteArrays.poll(length);
         if (ba == null)
             ba = new byte[length];
 
@@ -158,31 +173,20 @@ public class ByteBufferUtil {
     }
 
     private ByteBuffer toByteBuffer0(BufferType bType, byte[] buffer, int offset, int length, boolean copy) {
+        int capacity = length - offset;
         ByteBuffer bb = null;
-        SimpleQueue<ByteBuffer> sq = null;
-
-        synchronized (this) {
-            sq = cachedBuffers.get(length - offset);
-
-            if (sq != null) {
-                bb = sq.dequeue();
-                if (bb != null) {
-                    availableCapacity -= bb.capacity();
-                    count--;
-                }
-            }
-        }
-
-        if (bb == null) {
-            switch (bType) {
-                case DIRECT:
-                    bb = ByteBuffer.allocateDirect(length - offset);
-                    break;
-                case HEAP:
-                    bb = ByteBuffer.allocate(length - offset);
-                    break;
-            }
-            //log.info("["+ (counter++) + "]must create new buffer:" + bb.capacity() + " " + bb.getClass().getName());
+        switch (bType) {
+            case DIRECT:
+                if (directPoolEnabled)
+                    bb = directBuffers.poll(capacity);
+                if (bb == null)
+                    bb = ByteBuffer.allocateDirect(capacity);
+                break;
+            case HEAP:
+                bb = heapBuffers.poll(capacity);
+                if (bb == null)
+                    bb = ByteBuffer.allocate(capacity);
+                break;
         }
 
         if (copy) {
@@ -260,14 +264,9 @@ public class ByteBufferUtil {
 
     private UByteArrayOutputStream toUBAOS0(int capacity) {
         if (capacity <= 1024) {
-            synchronized (this) {
-                UByteArrayOutputStream ret = cachedUBAOS.dequeue();
-
-                if (ret != null) {
-                    availableCapacity -= ret.getInternalBuffer().length;
-                    return ret;
-                }
-            }
+            UByteArrayOutputStream ret = cachedUBAOS.poll(0);
+            if (ret != null)
+                return ret;
         }
 
         return new UByteArrayOutputStream(capacity);
@@ -297,6 +296,30 @@ public class ByteBufferUtil {
     }
 
 
+    /**
+     * Gathering write of read-mode buffers, loops until all the buffers are drained.
+     *
+     * @param gbc     the channel
+     * @param buffers the buffers to write in order
+     * @return the number of bytes written, -1 if the channel reached end of stream
+     * @throws IOException in case of channel error
+     */
+    public static long write(GatheringByteChannel gbc, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer bb : buffers)
+            remaining += bb.remaining();
+
+        long totalWritten = 0;
+        while (totalWritten < remaining) {
+            long written = gbc.write(buffers);
+            if (written == -1)
+                return -1;
+            totalWritten += written;
+        }
+        return totalWritten;
+    }
+
+
 //    public static int smartWrite(Lock lock, ByteChannel bc, ByteBuffer bb) throws IOException {
 //        return smartWrite(lock, bc, bb, true);
 //    }
@@ -435,20 +458,66 @@ public class ByteBufferUtil {
      * @return the number of byte buffers in the cache
      */
     public static int cacheCount() {
-        return SINGLETON.count;
+        return SINGLETON.heapBuffers.count() + SINGLETON.directBuffers.count();
     }
 
     public static int baosCount() {
-        return SINGLETON.cachedUBAOS.size();
+        return SINGLETON.cachedUBAOS.count();
     }
 
     /**
      * @return total bytes of the available byte buffers
      */
     public static int cacheCapacity() {
-        return SINGLETON.availableCapacity;
+        return (int) (SINGLETON.heapBuffers.capacity() + SINGLETON.directBuffers.capacity());
+    }
+
+    /**
+     * Override the default limit of a byte buffer size class.
+     *
+     * @param bType    buffer type
+     * @param capacity of the size class
+     * @param limit    the maximum number of pooled buffers of the size class
+     */
+    public static void setCacheLimit(BufferType bType, int capacity, int limit) {
+        (bType == BufferType.DIRECT ? SINGLETON.directBuffers : SINGLETON.heapBuffers).setLimit(capacity, limit);
     }
 
+    /**
+     * @param bType    buffer type
+     * @param capacity of the size class
+     * @return the limit of the size class
+     */
+    public static int getCacheLimit(BufferType bType, int capacity) {
+        return (bType == BufferType.DIRECT ? SINGLETON.directBuffers : SINGLETON.heapBuffers).getLimit(capacity);
+    }
 
-}
+    /**
+     * Enable or disable the pooling of direct byte buffers, when disabled a DIRECT allocation always
+     * creates a new buffer and cached direct buffers are left to the garbage collector.
+     *
+     * @param enabled true to pool direct buffers, the default
+     */
+    public static void setDirectPoolEnabled(boolean enabled) {
+        SINGLETON.directPoolEnabled = enabled;
+    }
+
+    public static boolean isDirectPoolEnabled() {
+        return SINGLETON.directPoolEnabled;
+    }
 
+    /**
+     * @param detailed if true the per size class stats are included
+     * @return the hit, miss, contention and drop counters of the caches
+     */
+    public static NVGenericMap cacheProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap("byte_buffer_util");
+        ret.build(new NVInt("cache_count", cacheCount()))
+                .build(new NVInt("cache_capacity", cacheCapacity()))
+                .build(SINGLETON.heapBuffers.toProperties(detailed))
+                .build(SINGLETON.directBuffers.toProperties(detailed))
+                .build(SINGLETON.cachedByteArrays.toProperties(detailed))
+                .build(SINGLETON.cachedUBAOS.toProperties(detailed));
+        return ret;
+    }
+}
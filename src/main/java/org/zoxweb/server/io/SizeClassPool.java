@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.io;
+
+import org.zoxweb.shared.util.*;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free pool of capacity keyed objects, the storage engine behind the {@link ByteBufferUtil} caches.
+ *
+ * <p>Every capacity maps to a size class: power-of-two capacities are indexed by their log2 in a
+ * fixed array, any other capacity gets an exact class created on first use. A pooled object keeps
+ * its exact capacity, the classes never round up since the callers rely on {@code capacity()}.</p>
+ *
+ * <p>Each size class is made of:</p>
+ * <ul>
+ *     <li>a per-thread magazine of up to {@link #MAGAZINE_SIZE} objects (at most half the class
+ *     limit), the hot path, touched only by its owner thread;</li>
+ *     <li>a shared lock-free (Treiber) stack; a full magazine spills half of its content to it and an
+ *     empty magazine refills from it.</li>
+ * </ul>
+ * The class limit bounds all the pooled objects of the class, the magazines content included. The
+ * magazine of a terminated thread is moved to the shared stack on the next miss or drop of the class.
+ *
+ * <p>An object must be recached once per allocation, a pooled object is flagged by a compare and set
+ * in a lock-free identity table, recaching it again from any thread is detected and ignored.</p>
+ *
+ * @param <T> type of the pooled object
+ * @author javaconsigliere@gmail.com
+ */
+public abstract class SizeClassPool<T>
+        implements GetName, ToNVProperties {
+
+    /**
+     * Number of objects per thread magazine
+     */
+    public static final int MAGAZINE_SIZE = 32;
+
+    // slots of the pooled objects table
+    private static final int POOLED_SLOTS = 4096;
+    private static final long RECLAIM_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final class Node<T> {
+        private final T item;
+        private Node<T> next;
+
+        private Node(T item) {
+            this.item = item;
+        }
+    }
+
+    private static final class Magazine {
+        private final Object[] items;
+        private final WeakReference<Thread> owner;
+        private int size;
+
+        private Magazine(int capacity) {
+            items = new Object[capacity];
+            owner = new WeakReference<>(Thread.currentThread());
+        }
+
+        private boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+    }
+
+    /**
+     * Objects sharing a slot of the pooled table, immutable.
+     */
+    private static final class Bucket {
+        private final Object[] items;
+
+        private Bucket(Object[] items) {
+            this.items = items;
+        }
+
+        private int indexOf(Object o) {
+            for (int i = 0; i < items.length; i++)
+                if (items[i] == o)
+                    return i;
+            return -1;
+        }
+    }
+
+    /**
+     * Lock-free identity set of the pooled objects. A slot holds null, the pooled object or a {@link Bucket} of the
+     * objects hashed to the slot, it is updated by compare and set, an object is added once.
+     */
+    private static final class PooledTable {
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(POOLED_SLOTS);
+
+        private static int index(Object o) {
+            int h = System.identityHashCode(o);
+            return (h ^ (h >>> 16)) & (POOLED_SLOTS - 1);
+        }
+
+        // false if o is already pooled
+        private boolean add(Object o) {
+            int i = index(o);
+            for (; ; ) {
+                Object current = slots.get(i);
+                Object update;
+                if (current == null)
+                    update = o;
+                else if (current == o)
+                    return false;
+                else if (current instanceof Bucket) {
+                    Object[] items = ((Bucket) current).items;
+                    if (((Bucket) current).indexOf(o) != -1)
+                        return false;
+                    Object[] added = new Object[items.length + 1];
+                    System.arraycopy(items, 0, added, 0, items.length);
+                    added[items.length] = o;
+                    update = new Bucket(added);
+                } else
+                    update = new Bucket(new Object[]{current, o});
+                if (slots.compareAndSet(i, current, update))
+                    return true;
+            }
+        }
+
+        private void remove(Object o) {
+            int i = index(o);
+            for (; ; ) {
+                Object current = slots.get(i);
+                Object update;
+                if (current == o)
+                    update = null;
+                else if (current instanceof Bucket) {
+                    Object[] items = ((Bucket) current).items;
+                    int index = ((Bucket) current).indexOf(o);
+                    if (index == -1)
+                        return;
+                    if (items.length == 2)
+                        update = items[1 - index];
+                    else {
+                        Object[] removed = new Object[items.length - 1];
+                        System.arraycopy(items, 0, removed, 0, index);
+                        System.arraycopy(items, index + 1, removed, index, removed.length - index);
+                        update = new Bucket(removed);
+                    }
+                } else
+                    return;
+                if (slots.compareAndSet(i, current, update))
+                    return;
+            }
+        }
+    }
+
+    private static final class SizeClass<T> {
+        private final int capacity;
+        private volatile int limit;
+        private final AtomicReference<Node<T>> head = new AtomicReference<>();
+        private final AtomicInteger sharedSize = new AtomicInteger();
+        // pooled objects, magazines and shared stack
+        private final AtomicInteger total = new AtomicInteger();
+        private final ThreadLocal<Magazine> magazine;
+        private final ConcurrentLinkedQueue<Magazine> magazines = new ConcurrentLinkedQueue<>();
+        private final AtomicLong lastReclaim = new AtomicLong(System.nanoTime() - RECLAIM_INTERVAL);
+        private final LongAdder reclaimed = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder contentions = new LongAdder();
+        private final LongAdder drops = new LongAdder();
+        private final LongAdder pooled = new LongAdder();
+        private final LongAdder doubleRecaches = new LongAdder();
+
+        private SizeClass(int capacity, int limit) {
+            this.capacity = capacity;
+            this.limit = limit;
+            // large classes have small limits, keep the per-thread hoard in proportion
+            int magazineSize = Math.max(2, Math.min(MAGAZINE_SIZE, limit / 2));
+            this.magazine = ThreadLocal.withInitial(() -> {
+                Magazine ret = new Magazine(magazineSize);
+                magazines.add(ret);
+                return ret;
+            });
+        }
+
+        // move the content of the magazines of the terminated threads to the shared stack, at most once per interval
+        @SuppressWarnings("unchecked")
+        private boolean reclaim() {
+            long now = System.nanoTime();
+            long last = lastReclaim.get();
+            if (now - last < RECLAIM_INTERVAL || !lastReclaim.compareAndSet(last, now))
+                return false;
+            boolean ret = false;
+            for (Magazine mag : magazines) {
+                // the removal elects the reclaiming thread
+                if (!mag.isOwnerAlive() && magazines.remove(mag)) {
+                    for (int i = 0; i < mag.size; i++) {
+                        push((T) mag.items[i]);
+                        mag.items[i] = null;
+                    }
+                    reclaimed.add(mag.size);
+                    ret |= mag.size > 0;
+                    mag.size = 0;
+                }
+            }
+            return ret;
+        }
+
+        private void push(T item) {
+            sharedSize.incrementAndGet();
+            Node<T> node = new Node<>(item);
+            for (; ; ) {
+                Node<T> h = head.get();
+                node.next = h;
+                if (head.compareAndSet(h, node))
+                    return;
+                contentions.increment();
+            }
+        }
+
+        private T pop() {
+            for (; ; ) {
+                Node<T> h = head.get();
+                if (h == null)
+                    return null;
+                if (head.compareAndSet(h, h.next)) {
+                    sharedSize.decrementAndGet();
+                    return h.item;
+                }
+                contentions.increment();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T poll() {
+            Magazine mag = magazine.get();
+            if (mag.size == 0) {
+                // refill half a magazine from the shared stack
+                T item;
+                while (mag.size < mag.items.length / 2 && (item = pop()) != null)
+                    mag.items[mag.size++] = item;
+                if (mag.size == 0 && reclaim() && (item = pop()) != null)
+                    mag.items[mag.size++] = item;
+            }
+            if (mag.size > 0) {
+                T ret = (T) mag.items[--mag.size];
+                mag.items[mag.size] = null;
+                total.decrementAndGet();
+                hits.increment();
+                pooled.decrement();
+                return ret;
+            }
+            misses.increment();
+            return null;
+        }
+
+        // the class is full
+        private boolean reserve() {
+            if (total.incrementAndGet() > limit) {
+                total.decrementAndGet();
+                drops.increment();
+                reclaim();
+                return false;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void offer(T item) {
+            Magazine mag = magazine.get();
+            if (mag.size == mag.items.length) {
+                // spill half of the magazine to the shared stack, oldest first
+                int spill = mag.items.length / 2;
+                for (int i = 0; i < spill; i++)
+                    push((T) mag.items[i]);
+                System.arraycopy(mag.items, spill, mag.items, 0, mag.size - spill);
+                for (int i = mag.size - spill; i < mag.size; i++)
+                    mag.items[i] = null;
+                mag.size -= spill;
+            }
+            mag.items[mag.size++] = item;
+            pooled.increment();
+        }
+
+        private NVGenericMap toProperties() {
+            NVGenericMap ret = new NVGenericMap("" + capacity);
+            ret.build(new NVInt("limit", limit))
+                    .build(new NVLong("pooled", pooled.sum()))
+                    .build(new NVInt("shared", sharedSize.get()))
+                    .build(new NVLong("double_recaches", doubleRecaches.sum()))
+                    .build(new NVLong("reclaimed", reclaimed.sum()))
+                    .build(new NVLong("hits", hits.sum()))
+                    .build(new NVLong("misses", misses.sum()))
+                    .build(new NVLong("contentions", contentions.sum()))
+                    .build(new NVLong("drops", drops.sum()));
+            return ret;
+        }
+    }
+
+    private final String name;
+    private final int defaultLimit;
+    @SuppressWarnings("unchecked")
+    private final SizeClass<T>[] pow2Classes = new SizeClass[31];
+    private final ConcurrentHashMap<Integer, SizeClass<T>> exactClasses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Integer> limits = new ConcurrentHashMap<>();
+    private final PooledTable pooledTable = new PooledTable();
+
+    /**
+     * @param name         of the pool
+     * @param defaultLimit the maximum number of pooled objects of a size class, unless overridden
+     *                     by {@link #setLimit(int, int)}
+     */
+    protected SizeClassPool(String name, int defaultLimit) {
+        if (defaultLimit < 0)
+            throw new IllegalArgumentException("Invalid limit " + defaultLimit);
+        this.name = name;
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * @param t the pooled object
+     * @return the size class capacity of t
+     */
+    protected abstract int capacityOf(T t);
+
+    /**
+     * Reset the state of t before it is pooled.
+     *
+     * @param t the object to reset
+     */
+    protected abstract void reset(T t);
+
+    /**
+     * @param capacity of the size class
+     * @return the default limit of the size class, the pool default limit
+     */
+    protected int defaultLimit(int capacity) {
+        return defaultLimit;
+    }
+
+    private static int pow2Index(int capacity) {
+        return capacity > 0 && (capacity & (capacity - 1)) == 0 ? Integer.numberOfTrailingZeros(capacity) : -1;
+    }
+
+    private SizeClass<T> sizeClass(int capacity, boolean create) {
+        int index = pow2Index(capacity);
+        SizeClass<T> ret = index != -1 ? pow2Classes[index] : exactClasses.get(capacity);
+        if (ret == null && create) {
+            Integer limit = limits.get(capacity);
+            SizeClass<T> sc = new SizeClass<>(capacity, limit != null ? limit : defaultLimit(capacity));
+            if (index != -1) {
+                synchronized (pow2Classes) {
+                    ret = pow2Classes[index];
+                    if (ret == null)
+                        ret = pow2Classes[index] = sc;
+                }
+            } else {
+                ret = exactClasses.putIfAbsent(capacity, sc);
+                if (ret == null)
+                    ret = sc;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Override the limit of a size class.
+     *
+     * @param capacity of the size class
+     * @param limit    maximum number of pooled objects of the size class, 0 disables the pooling
+     */
+    public void setLimit(int capacity, int limit) {
+        if (capacity < 0 || limit < 0)
+            throw new IllegalArgumentException("Invalid capacity or limit " + capacity + ", " + limit);
+        limits.put(capacity, limit);
+        SizeClass<T> sc = sizeClass(capacity, false);
+        if (sc != null)
+            sc.limit = limit;
+    }
+
+    /**
+     * @param capacity of the size class
+     * @return the limit of the size class
+     */
+    public int getLimit(int capacity) {
+        SizeClass<T> sc = sizeClass(capacity, false);
+        if (sc != null)
+            return sc.limit;
+        Integer limit = limits.get(capacity);
+        return limit != null ? limit : defaultLimit(capacity);
+    }
+
+    /**
+     * Poll an object from the size class.
+     *
+     * @param capacity of the size class
+     * @return a pooled object or null if the size class is empty, the caller must then create it
+     */
+    public T poll(int capacity) {
+        T ret = sizeClass(capacity, true).poll();
+        if (ret != null)
+            pooledTable.remove(ret);
+        return ret;
+    }
+
+    /**
+     * Reset and pool t.
+     *
+     * @param t the object to pool, null is ignored
+     * @return true if t was pooled, false if null, already pooled or the size class is full
+     */
+    public boolean offer(T t) {
+        if (t == null)
+            return false;
+        SizeClass<T> sc = sizeClass(capacityOf(t), true);
+        if (!pooledTable.add(t)) {
+            sc.doubleRecaches.increment();
+            return false;
+        }
+        if (!sc.reserve()) {
+            pooledTable.remove(t);
+            return false;
+        }
+        reset(t);
+        sc.offer(t);
+        return true;
+    }
+
+    private void forEach(Consumer<SizeClass<T>> visitor) {
+        for (SizeClass<T> sc : pow2Classes)
+            if (sc != null)
+                visitor.accept(sc);
+        for (SizeClass<T> sc : exactClasses.values())
+            visitor.accept(sc);
+    }
+
+    /**
+     * @return the number of pooled objects, magazines included
+     */
+    public int count() {
+        long[] ret = new long[1];
+        forEach(sc -> ret[0] += sc.pooled.sum());
+        return (int) ret[0];
+    }
+
+    /**
+     * @return the total capacity of the pooled objects
+     */
+    public long capacity() {
+        long[] ret = new long[1];
+        forEach(sc -> ret[0] += sc.pooled.sum() * sc.capacity);
+        return ret[0];
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        long[] totals = new long[6];
+        NVGenericMap classes = new NVGenericMap("size_classes");
+        forEach(sc -> {
+            totals[0] += sc.pooled.sum();
+            totals[1] += sc.hits.sum();
+            totals[2] += sc.misses.sum();
+            totals[3] += sc.contentions.sum();
+            totals[4] += sc.drops.sum();
+            totals[5] += sc.doubleRecaches.sum();
+            if (detailed)
+                classes.build(sc.toProperties());
+        });
+        NVGenericMap ret = new NVGenericMap(name);
+        ret.build(new NVLong("pooled", totals[0]))
+                .build(new NVLong("hits", totals[1]))
+                .build(new NVLong("misses", totals[2]))
+                .build(new NVLong("contentions", totals[3]))
+                .build(new NVLong("drops", totals[4]))
+                .build(new NVLong("double_recaches", totals[5]));
+        if (detailed)
+            ret.build(classes);
+        return ret;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.io;
+
+import java.io.Reader;
+
+/**
+ * Unsynchronized reader decoding utf-8 directly from a byte array range, without copying the data into a string.
+ * A malformed byte is decoded as U+FFFD.
+ */
+public final class UTF8Reader
+        extends Reader {
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+    // low surrogate of a supplementary char not yet returned
+    private char pending;
+
+    public UTF8Reader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public UTF8Reader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException("Invalid offset " + offset + " or length " + length);
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (pending == 0 && position >= end)
+            return -1;
+
+        int count = 0;
+        if (pending != 0) {
+            cbuf[off + count++] = pending;
+            pending = 0;
+        }
+
+        while (count < len && position < end) {
+            int b = data[position];
+            if (b >= 0) {
+                // ascii run
+                cbuf[off + count++] = (char) b;
+                position++;
+                continue;
+            }
+            int cp = decode();
+            if (cp < 0x10000) {
+                cbuf[off + count++] = (char) cp;
+            } else {
+                cbuf[off + count++] = Character.highSurrogate(cp);
+                if (count < len)
+                    cbuf[off + count++] = Character.lowSurrogate(cp);
+                else
+                    pending = Character.lowSurrogate(cp);
+            }
+        }
+        return count;
+    }
+
+    private int decode() {
+        int b0 = data[position] & 0xff;
+        int needed;
+        int cp;
+        int min;
+        if (b0 >= 0xc2 && b0 <= 0xdf) {
+            needed = 1;
+            cp = b0 & 0x1f;
+            min = 0x80;
+        } else if (b0 >= 0xe0 && b0 <= 0xef) {
+            needed = 2;
+            cp = b0 & 0x0f;
+            min = 0x800;
+        } else if (b0 >= 0xf0 && b0 <= 0xf4) {
+            needed = 3;
+            cp = b0 & 0x07;
+            min = 0x10000;
+        } else {
+            position++;
+            return 0xfffd;
+        }
+
+        if (position + needed >= end) {
+            // truncated sequence
+            position++;
+            return 0xfffd;
+        }
+        for (int i = 1; i <= needed; i++) {
+            int b = data[position + i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                position++;
+                return 0xfffd;
+            }
+            cp = (cp << 6) | (b & 0x3f);
+        }
+        if (cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff)) {
+            position++;
+            return 0xfffd;
+        }
+        position += needed + 1;
+        return cp;
+    }
+
+    @Override
+    public boolean ready() {
+        return pending != 0 || position < end;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Unsynchronized writer encoding utf-8 straight into an output stream through a small buffer.
+ * <p>
+ * It produces the same bytes as an {@link java.io.OutputStreamWriter} with the utf-8 charset, an unpaired surrogate
+ * is written as {@code '?'}, without the charset encoder and the 8 KB buffers allocated per instance, which dominate
+ * when short json documents are written to a {@link UByteArrayOutputStream}.
+ * </p>
+ * {@link #close()} flushes and closes the output stream.
+ */
+public final class UTF8Writer
+        extends Writer {
+
+    private final OutputStream os;
+    private final byte[] buffer;
+    private int position;
+    private char highSurrogate;
+
+    public UTF8Writer(OutputStream os) {
+        this(os, 512);
+    }
+
+    public UTF8Writer(OutputStream os, int bufferSize) {
+        this.os = os;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++)
+            encode(cbuf[i]);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++)
+            encode(str.charAt(i));
+    }
+
+    private void encode(char c) throws IOException {
+        if (buffer.length - position < 4)
+            flushBuffer();
+
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xf0 | (cp >> 18));
+                buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (cp & 0x3f));
+                return;
+            }
+            buffer[position++] = '?';
+            if (buffer.length - position < 3)
+                flushBuffer();
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xe0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            os.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Write the buffered bytes and flush the output stream, a pending high surrogate is kept until the next char.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (buffer.length - position < 1)
+                flushBuffer();
+            buffer[position++] = '?';
+        }
+        flush();
+        os.close();
+    }
+}
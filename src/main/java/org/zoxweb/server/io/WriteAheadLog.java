@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.io;
+
+import org.zoxweb.server.logging.LogWrapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of typed binary records.
+ * <p>
+ * Every record is framed as {@code [int length][byte type][payload][int crc32]}, the crc covers the type and the
+ * payload. {@link #replay(RecordHandler)} reads the records from the start and stops at the first torn or corrupted
+ * record, left by a crash in the middle of a write, the log is truncated there and new records are appended after
+ * the last valid one. With {@code syncOnWrite} every append is forced to the storage device, otherwise the records
+ * reach the OS on append and the device on {@link #sync()} or {@link #close()}.
+ * </p>
+ * The class is not thread safe, the caller serializes the appends.
+ */
+public class WriteAheadLog
+        implements Closeable {
+
+    public static final LogWrapper log = new LogWrapper(WriteAheadLog.class).setEnabled(false);
+
+    /**
+     * Maximum payload size of a record
+     */
+    public static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 5;
+    private static final int TRAILER_SIZE = 4;
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * @param type    the record type
+         * @param payload the record payload, only valid during the call
+         * @param length  payload length
+         * @throws IOException if the record can't be applied
+         */
+        void record(byte type, byte[] payload, int length) throws IOException;
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final boolean syncOnWrite;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long recordCount;
+
+    /**
+     * @param file        the log file, created if missing
+     * @param syncOnWrite force every append to the storage device
+     * @throws IOException if the file can't be opened
+     */
+    public WriteAheadLog(File file, boolean syncOnWrite) throws IOException {
+        this.file = file;
+        this.syncOnWrite = syncOnWrite;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Read all the valid records, the log is then positioned after the last one.
+     *
+     * @param handler of the records
+     * @return the number of records read
+     * @throws IOException in case of read error or handler error
+     */
+    public long replay(RecordHandler handler) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long count = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        byte[] payload = new byte[256];
+        while (position + HEADER_SIZE + TRAILER_SIZE <= size) {
+            ((Buffer) header).clear();
+            readFully(header, position);
+            ((Buffer) header).flip();
+            int length = header.getInt();
+            byte type = header.get();
+            if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length + TRAILER_SIZE > size)
+                break;
+            if (payload.length < length + TRAILER_SIZE)
+                payload = new byte[Math.max(length + TRAILER_SIZE, payload.length * 2)];
+            ByteBuffer body = ByteBuffer.wrap(payload, 0, length + TRAILER_SIZE);
+            readFully(body, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(type);
+            crc.update(payload, 0, length);
+            int stored = ((payload[length] & 0xff) << 24) | ((payload[length + 1] & 0xff) << 16) | ((payload[length + 2] & 0xff) << 8) | (payload[length + 3] & 0xff);
+            if ((int) crc.getValue() != stored)
+                break;
+            handler.record(type, payload, length);
+            position += HEADER_SIZE + length + TRAILER_SIZE;
+            count++;
+        }
+        if (position < size) {
+            log.getLogger().warning(file + " truncated at " + position + " of " + size + " after " + count + " records");
+            channel.truncate(position);
+        }
+        channel.position(position);
+        recordCount = count;
+        return count;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type    the record type
+     * @param payload the payload
+     * @throws IOException in case of write error
+     */
+    public void append(byte type, byte[] payload) throws IOException {
+        append(type, payload, 0, payload.length);
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type    the record type
+     * @param payload the payload
+     * @param offset  of the payload
+     * @param length  of the payload
+     * @throws IOException in case of write error
+     */
+    public void append(byte type, byte[] payload, int offset, int length) throws IOException {
+        if (length > MAX_RECORD_SIZE)
+            throw new IllegalArgumentException("Record too big " + length);
+        int frame = HEADER_SIZE + length + TRAILER_SIZE;
+        if (buffer.capacity() < frame)
+            buffer = ByteBuffer.allocate(Math.max(frame, buffer.capacity() * 2));
+        ((Buffer) buffer).clear();
+        crc.reset();
+        crc.update(type);
+        crc.update(payload, offset, length);
+        buffer.putInt(length).put(type).put(payload, offset, length).putInt((int) crc.getValue());
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        recordCount++;
+        if (syncOnWrite)
+            channel.force(false);
+    }
+
+    /**
+     * Remove all the records.
+     *
+     * @throws IOException in case of error
+     */
+    public void truncate() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        recordCount = 0;
+    }
+
+    /**
+     * Force the appended records to the storage device.
+     *
+     * @throws IOException in case of error
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @return the number of records since the last truncate
+     */
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the log size in bytes
+     * @throws IOException in case of error
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            int read = channel.read(bb, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of " + file);
+            position += read;
+        }
+    }
+}
@@ -225,6 +225,33 @@ public abstract class BaseChannelOutputStream extends OutputStream
     public abstract int write(ByteBuffer byteBuffer, boolean flip) throws IOException;
 
 
+    /**
+     * Sends several read-mode buffers in order, a frame header and its payload for example,
+     * without concatenating them.
+     * <p>
+     * The default implementation hands each buffer to {@link #write(ByteBuffer, boolean)} with
+     * {@code flip=false} under the stream lock; subclasses override it with a gathering channel
+     * write.
+     * </p>
+     *
+     * @param buffers read-mode buffers, drained by the call
+     * @return number of bytes transmitted to the channel
+     * @throws IOException on I/O error
+     */
+    public synchronized long write(ByteBuffer... buffers) throws IOException {
+        long ret = 0;
+        for (ByteBuffer bb : buffers) {
+            if (bb.hasRemaining()) {
+                int written = write(bb, false);
+                if (written < 0)
+                    return -1;
+                ret += written;
+            }
+        }
+        return ret;
+    }
+
+
     /**
      * Checks whether this output stream has been closed.
      *
@@ -47,6 +47,25 @@ public abstract class BaseSessionCallback<CF>
         return protocolHandler != null ? protocolHandler.interestOps() : SelectionKey.OP_READ;
     }
 
+    /**
+     * Non-blocking write mode backpressure hook, invoked once the session write queue pending
+     * bytes reach the high watermark. The default implementation does nothing.
+     *
+     * @param pendingBytes the bytes waiting to be written
+     */
+    public void writeHighWatermark(long pendingBytes) {
+    }
+
+    /**
+     * Non-blocking write mode backpressure hook, invoked once the session write queue drained
+     * back to the low watermark after a {@link #writeHighWatermark(long)}. The default
+     * implementation does nothing.
+     *
+     * @param pendingBytes the bytes waiting to be written
+     */
+    public void writeLowWatermark(long pendingBytes) {
+    }
+
     /**
      * @return the session instance id, null if never set
      */
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net;
+
+import java.util.Arrays;
+
+/**
+ * Binary radix trie of IPv4 and IPv6 network prefixes mapped to an int value.
+ * <p>
+ * The trie is filled with {@link #insert(byte[], int, int)} then published, after that it is only read, a lookup
+ * walks at most 32 (IPv4) or 128 (IPv6) nodes stored in flat int arrays, takes no lock and allocates nothing.
+ * When several prefixes match an address the lookup returns the lowest value, the callers use the value as a rule
+ * priority. To modify a published trie build a new one, copy-on-write.
+ * </p>
+ */
+public final class CIDRTrie {
+
+    public static final int NO_MATCH = -1;
+
+    private static final class Tree {
+        // children[2 * node] zero branch, children[2 * node + 1] one branch, 0 no child, the root is node 0
+        private int[] children = new int[32];
+        private int[] values = new int[16];
+        private int size = 1;
+
+        private Tree() {
+            Arrays.fill(values, Integer.MAX_VALUE);
+        }
+
+        private void insert(byte[] network, int prefix, int value) {
+            int node = 0;
+            for (int i = 0; i < prefix; i++) {
+                int branch = 2 * node + ((network[i >>> 3] >>> (7 - (i & 7))) & 1);
+                int next = children[branch];
+                if (next == 0) {
+                    next = newNode();
+                    children[branch] = next;
+                }
+                node = next;
+            }
+            if (value < values[node])
+                values[node] = value;
+        }
+
+        private int newNode() {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                Arrays.fill(values, size, values.length, Integer.MAX_VALUE);
+                children = Arrays.copyOf(children, size * 4);
+            }
+            return size++;
+        }
+
+        private int lookup(byte[] address) {
+            int best = values[0];
+            int node = 0;
+            int bits = address.length << 3;
+            for (int i = 0; i < bits; i++) {
+                node = children[2 * node + ((address[i >>> 3] >>> (7 - (i & 7))) & 1)];
+                if (node == 0)
+                    break;
+                if (values[node] < best)
+                    best = values[node];
+            }
+            return best;
+        }
+
+        private int lookup(int address) {
+            int best = values[0];
+            int node = 0;
+            for (int i = 31; i >= 0; i--) {
+                node = children[2 * node + ((address >>> i) & 1)];
+                if (node == 0)
+                    break;
+                if (values[node] < best)
+                    best = values[node];
+            }
+            return best;
+        }
+    }
+
+    private final Tree v4 = new Tree();
+    private final Tree v6 = new Tree();
+    private int count = 0;
+
+    /**
+     * Insert a network prefix, must not be called once the trie is published.
+     *
+     * @param network the network address, 4 or 16 bytes
+     * @param prefix  the prefix length in bits
+     * @param value   the value, if the prefix is already present the lowest value is kept
+     * @throws IllegalArgumentException if the network length or the prefix are invalid or value is negative
+     */
+    public void insert(byte[] network, int prefix, int value) {
+        if (network == null || (network.length != 4 && network.length != 16))
+            throw new IllegalArgumentException("Invalid network address");
+        if (prefix < 0 || prefix > network.length * 8 || value < 0 || value == Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid prefix or value " + prefix + ", " + value);
+        (network.length == 4 ? v4 : v6).insert(network, prefix, value);
+        count++;
+    }
+
+    /**
+     * @param address IPv4 or IPv6 address
+     * @return the lowest value of the prefixes containing the address, {@link #NO_MATCH} if none
+     */
+    public int lookup(byte[] address) {
+        int ret;
+        if (address.length == 4)
+            ret = v4.lookup(address);
+        else if (address.length == 16)
+            ret = v6.lookup(address);
+        else
+            return NO_MATCH;
+        return ret == Integer.MAX_VALUE ? NO_MATCH : ret;
+    }
+
+    /**
+     * @param address IPv4 address as big endian int
+     * @return the lowest value of the prefixes containing the address, {@link #NO_MATCH} if none
+     */
+    public int lookupV4(int address) {
+        int ret = v4.lookup(address);
+        return ret == Integer.MAX_VALUE ? NO_MATCH : ret;
+    }
+
+    /**
+     * @return number of inserted prefixes
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return number of trie nodes, IPv4 and IPv6
+     */
+    public int nodeCount() {
+        return v4.size + v6.size;
+    }
+
+    /**
+     * @param mask network mask bytes
+     * @return the prefix length of the mask, -1 if the mask is not contiguous
+     */
+    public static int prefixLength(byte[] mask) {
+        int ret = 0;
+        boolean zero = false;
+        for (byte b : mask) {
+            for (int bit = 7; bit >= 0; bit--) {
+                if (((b >>> bit) & 1) == 1) {
+                    if (zero)
+                        return -1;
+                    ret++;
+                } else
+                    zero = true;
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net;
+
+import org.zoxweb.server.io.ByteBufferUtil;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.shared.io.CloseableType;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-session bounded write queue backing the opt-in non-blocking write mode.
+ *
+ * <p>A write first tries the channel directly; whatever the socket does not take is copied into
+ * pooled {@link ByteBuffer}s, queued, and {@code OP_WRITE} is armed on the session key. When the
+ * key turns writable the handler calls {@link #drain()}, which flushes the queue with a single
+ * gathering write per dispatch. A writer never waits on the peer.</p>
+ *
+ * <p><b>Backpressure.</b> When the pending bytes reach the high watermark the session callback is
+ * notified via {@link BaseSessionCallback#writeHighWatermark(long)}; once the queue drains to
+ * the low watermark {@link BaseSessionCallback#writeLowWatermark(long)} follows. A write that would
+ * push the pending bytes beyond the queue capacity fails with an {@link IOException}, the output
+ * stream then closes the session.</p>
+ *
+ * <p><b>Key ownership.</b> Interest ops are still owned by the dispatch cycle (NET.md rule 2). The
+ * NIOSocket marks the dispatch start and end through this queue's monitor, so a writer on a
+ * foreign thread only arms {@code OP_WRITE} on an idle key; during a dispatch the re-arm at the
+ * end of the cycle picks the pending write up.</p>
+ *
+ * @author javaconsigliere@gmail.com
+ * @see org.zoxweb.server.net.common.CommonChannelOutputStream
+ */
+public class ChannelWriteQueue
+        implements CloseableType, ToNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(ChannelWriteQueue.class).setEnabled(false);
+
+    /**
+     * Default low watermark 32K
+     */
+    public static final int DEFAULT_LOW_WATERMARK = SharedIOUtil.K_32;
+    /**
+     * Default high watermark 128K
+     */
+    public static final int DEFAULT_HIGH_WATERMARK = SharedIOUtil.K_128;
+    /**
+     * Default capacity 1M
+     */
+    public static final int DEFAULT_CAPACITY = SharedIOUtil.K_1 * SharedIOUtil.K_1;
+
+    private final ProtocolHandler protocolHandler;
+    private final GatheringByteChannel channel;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final long lowWatermark;
+    private final long highWatermark;
+    private final long capacity;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private long pendingBytes = 0;
+    private boolean aboveHighWatermark = false;
+    private boolean dispatched = false;
+
+    // stats
+    private long directBytes = 0;
+    private long queuedBytes = 0;
+    private long drainCalls = 0;
+    private long maxPendingBytes = 0;
+    private long highWatermarkCount = 0;
+
+
+    /**
+     * @param protocolHandler the session protocol handler, owner of the selection key
+     * @param channel         the session channel
+     * @param lowWatermark    pending bytes at or below which writers are released
+     * @param highWatermark   pending bytes at or above which writers are throttled
+     * @param capacity        maximum pending bytes
+     */
+    public ChannelWriteQueue(ProtocolHandler protocolHandler, GatheringByteChannel channel, long lowWatermark, long highWatermark, long capacity) {
+        SUS.checkIfNulls("Null protocol handler or channel", protocolHandler, channel);
+        if (lowWatermark < 0 || highWatermark < lowWatermark || capacity < highWatermark)
+            throw new IllegalArgumentException("Invalid watermarks 0 <= low <= high <= capacity: " + lowWatermark + ", " + highWatermark + ", " + capacity);
+        this.protocolHandler = protocolHandler;
+        this.channel = channel;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Write or queue the byte buffer content, never blocks on the peer.
+     *
+     * @param bb   the data to write
+     * @param flip true if bb is in write-mode
+     * @return the number of bytes accepted, written to the channel or queued
+     * @throws IOException if the queue is closed, the capacity is exceeded or the channel fails
+     */
+    public int write(ByteBuffer bb, boolean flip) throws IOException {
+        int accepted;
+        boolean notifyHigh = false;
+        long pending;
+
+        synchronized (this) {
+            if (isClosed())
+                throw new IOException("Write queue closed");
+
+            if (flip)
+                ((Buffer) bb).flip();
+
+            accepted = bb.remaining();
+            if (queue.isEmpty()) {
+                // nothing pending, try the fast path
+                while (bb.hasRemaining()) {
+                    int written = channel.write(bb);
+                    if (written <= 0) {
+                        if (written < 0)
+                            throw new IOException("Channel closed");
+                        break;
+                    }
+                    directBytes += written;
+                }
+            }
+
+            notifyHigh = enqueue(bb);
+
+            if (flip)
+                bb.compact();
+
+            pending = pendingBytes;
+        }
+
+        if (notifyHigh)
+            notifyWatermark(true, pending);
+
+        return accepted;
+    }
+
+    /**
+     * Gathering write or queue of read-mode buffers, never blocks on the peer.
+     *
+     * @param buffers the data to write in order
+     * @return the number of bytes accepted, written to the channel or queued
+     * @throws IOException if the queue is closed, the capacity is exceeded or the channel fails
+     */
+    public long write(ByteBuffer[] buffers) throws IOException {
+        long accepted = 0;
+        boolean notifyHigh = false;
+        long pending;
+
+        synchronized (this) {
+            if (isClosed())
+                throw new IOException("Write queue closed");
+
+            for (ByteBuffer bb : buffers)
+                accepted += bb.remaining();
+
+            long remaining = accepted;
+            if (queue.isEmpty()) {
+                while (remaining > 0) {
+                    long written = channel.write(buffers);
+                    if (written <= 0) {
+                        if (written < 0)
+                            throw new IOException("Channel closed");
+                        break;
+                    }
+                    directBytes += written;
+                    remaining -= written;
+                }
+            }
+
+            if (remaining > 0) {
+                if (pendingBytes + remaining > capacity)
+                    throw new IOException("Write queue capacity exceeded " + (pendingBytes + remaining) + " > " + capacity);
+                for (ByteBuffer bb : buffers)
+                    notifyHigh |= enqueue(bb);
+            }
+            pending = pendingBytes;
+        }
+
+        if (notifyHigh)
+            notifyWatermark(true, pending);
+
+        return accepted;
+    }
+
+    /**
+     * Copy the remaining bytes of bb into pooled chunks and arm OP_WRITE.
+     *
+     * @param bb read-mode buffer
+     * @return true if the high watermark was crossed
+     * @throws IOException if the capacity is exceeded
+     */
+    private boolean enqueue(ByteBuffer bb) throws IOException {
+        if (!bb.hasRemaining())
+            return false;
+
+        if (pendingBytes + bb.remaining() > capacity)
+            throw new IOException("Write queue capacity exceeded " + (pendingBytes + bb.remaining()) + " > " + capacity);
+
+        boolean ret = false;
+        while (bb.hasRemaining()) {
+            ByteBuffer chunk = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4);
+            ((Buffer) chunk).clear();
+            int len = Math.min(chunk.remaining(), bb.remaining());
+            int limit = bb.limit();
+            ((Buffer) bb).limit(bb.position() + len);
+            chunk.put(bb);
+            ((Buffer) bb).limit(limit);
+            ((Buffer) chunk).flip();
+            queue.add(chunk);
+            pendingBytes += len;
+            queuedBytes += len;
+        }
+
+        if (pendingBytes > maxPendingBytes)
+            maxPendingBytes = pendingBytes;
+
+        if (!aboveHighWatermark && pendingBytes >= highWatermark) {
+            aboveHighWatermark = true;
+            highWatermarkCount++;
+            ret = true;
+        }
+        armWrite();
+        return ret;
+    }
+
+    /**
+     * Flush the queued buffers with a gathering write, invoked by the handler when the session
+     * key is writable.
+     *
+     * @return number of bytes written
+     * @throws IOException in case of channel error
+     */
+    public int drain() throws IOException {
+        int ret = 0;
+        boolean notifyLow = false;
+        long pending;
+        synchronized (this) {
+            drainCalls++;
+            if (!queue.isEmpty() && !isClosed()) {
+                ByteBuffer[] buffers = queue.toArray(new ByteBuffer[0]);
+                long written = channel.write(buffers);
+                if (written < 0)
+                    throw new IOException("Channel closed");
+
+                ret = (int) written;
+                pendingBytes -= written;
+                while (!queue.isEmpty() && !queue.peekFirst().hasRemaining())
+                    ByteBufferUtil.cache(queue.pollFirst());
+
+                if (aboveHighWatermark && pendingBytes <= lowWatermark) {
+                    aboveHighWatermark = false;
+                    notifyLow = true;
+                }
+            }
+            pending = pendingBytes;
+        }
+
+        if (notifyLow)
+            notifyWatermark(false, pending);
+
+        return ret;
+    }
+
+    private void notifyWatermark(boolean high, long pending) {
+        BaseSessionCallback<?> sc = protocolHandler.getSessionCallback();
+        if (sc != null) {
+            try {
+                if (high)
+                    sc.writeHighWatermark(pending);
+                else
+                    sc.writeLowWatermark(pending);
+            } catch (Exception e) {
+                if (log.isEnabled()) e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Arm OP_WRITE on the session key only if no dispatch owns it, the end of the dispatch cycle
+     * arms it otherwise.
+     */
+    private void armWrite() {
+        SelectionKey key = protocolHandler.phSK;
+        if (!dispatched && key != null && key.isValid()) {
+            key.interestOps(protocolHandler.interestOps());
+            if (protocolHandler.getSelectorController() != null)
+                protocolHandler.getSelectorController().wakeup();
+        }
+    }
+
+    /**
+     * Invoked by the NIOSocket on the selector thread before the session is handed to a worker.
+     *
+     * @param key the session key
+     */
+    synchronized void dispatchStarted(SelectionKey key) {
+        dispatched = true;
+        key.interestOps(0);
+    }
+
+    /**
+     * Invoked by the worker at the end of the dispatch cycle to restore the session interest ops.
+     *
+     * @param key the session key
+     */
+    synchronized void dispatchEnded(SelectionKey key) {
+        dispatched = false;
+        if (key.isValid())
+            key.interestOps(protocolHandler.interestOps());
+    }
+
+    /**
+     * Merge the pending write interest with the handler base interest ops.
+     *
+     * @param ops the handler interest ops
+     * @return ops with OP_WRITE set if data is pending
+     */
+    public synchronized int interestOps(int ops) {
+        return pendingBytes > 0 && !isClosed() ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written
+     */
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return true if the pending bytes reached the high watermark and did not yet drain to the low watermark
+     */
+    public synchronized boolean isAboveHighWatermark() {
+        return aboveHighWatermark;
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Discard the pending data and recache the queued buffers.
+     */
+    @Override
+    public void close() {
+        if (!closed.getAndSet(true)) {
+            synchronized (this) {
+                while (!queue.isEmpty())
+                    ByteBufferUtil.cache(queue.pollFirst());
+                pendingBytes = 0;
+            }
+        }
+    }
+
+    @Override
+    public synchronized NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap("write_queue");
+        ret.build(new NVLong("pending_bytes", pendingBytes))
+                .build(new NVLong("direct_bytes", directBytes))
+                .build(new NVLong("queued_bytes", queuedBytes))
+                .build(new NVLong("max_pending_bytes", maxPendingBytes))
+                .build(new NVLong("drain_calls", drainCalls))
+                .build(new NVLong("high_watermark_counts", highWatermarkCount));
+        return ret;
+    }
+}
@@ -1,6 +1,7 @@
 package org.zoxweb.server.net;
 
 import org.zoxweb.server.io.IOUtil;
+import org.zoxweb.server.task.TaskUtil;
 import org.zoxweb.server.util.GSONUtil;
 import org.zoxweb.shared.util.*;
 import org.zoxweb.shared.util.SharedBase64.Base64Type;
@@ -11,11 +12,13 @@ import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
- * This a very simple and basic Datagram relay single threaded definitely not performant must be upgraded
+ * This a very simple and basic Datagram relay single threaded definitely not performant, every client waits for
+ * the upstream reply of the previous one, use {@link NIODatagramRelay} instead.
  * how to use it
  * <code>
  * DatagramRelay dr = new DatagramRelay(53, "8.8.8.8", 53, 512);
@@ -71,6 +74,13 @@ public class DatagramRelay
             return new DatagramRelay(config.getValue((GetName) PORT), (String) config.getValue((GetName) REMOTE_HOST), config.getValue((GetName) REMOTE_PORT), config.getValue((GetName) PACKET_SIZE));
         }
 
+        public static NIODatagramRelay toNIODatagramRelay(NVGenericMap config, NIOSocket nioSocket) {
+            return new NIODatagramRelay(nioSocket,
+                    new InetSocketAddress((int) config.getValue((GetName) PORT)),
+                    new InetSocketAddress((String) config.getValue((GetName) REMOTE_HOST), (int) config.getValue((GetName) REMOTE_PORT)),
+                    config.getValue((GetName) PACKET_SIZE));
+        }
+
     }
 
 
@@ -193,14 +203,20 @@ public class DatagramRelay
             if (args.length == 1)
                 file = new File(args[index]);
 
-            DatagramRelay dr = null;
+            NVGenericMap config;
             if (file != null && file.exists())
-                dr = ConfigParam.toDatagramRelay(IOUtil.inputStreamToString(file));
+                config = GSONUtil.fromJSONGenericMap(IOUtil.inputStreamToString(file), null, Base64Type.URL);
             else
-                dr = new DatagramRelay(Integer.parseInt(args[index++]), args[index++], Integer.parseInt(args[index++]), Integer.parseInt(args[index++]));
+                config = new NVGenericMap()
+                        .build(new NVInt(ConfigParam.PORT.getName(), Integer.parseInt(args[index++])))
+                        .build(ConfigParam.REMOTE_HOST.getName(), args[index++])
+                        .build(new NVInt(ConfigParam.REMOTE_PORT.getName(), Integer.parseInt(args[index++])))
+                        .build(new NVInt(ConfigParam.PACKET_SIZE.getName(), Integer.parseInt(args[index++])));
 
             // start the relay
-            new Thread(dr).start();
+            NIOSocket nioSocket = new NIOSocket(TaskUtil.defaultTaskProcessor(), TaskUtil.defaultTaskScheduler());
+            NIODatagramRelay relay = ConfigParam.toNIODatagramRelay(config, nioSocket).start();
+            log.info("started " + relay.getLocalAddress() + "<->" + relay.getRemoteAddress());
         } catch (Exception e) {
             System.err.println("usage: <localPort> <remoteHostName> <remotePort> <packet buffer size>");
             System.err.println("or");
@@ -16,6 +16,7 @@
 package org.zoxweb.server.net;
 
 import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.net.security.IPBlockList;
 import org.zoxweb.shared.data.SetNameDAO;
 import org.zoxweb.shared.net.InetFilterDAO;
 import org.zoxweb.shared.net.SharedNetUtil;
@@ -28,10 +29,96 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Ordered list of network allow/deny rules, the first rule matching an address decides, if none matches the
+ * result is the opposite of the last rule action, an empty list allows everything.
+ * <p>
+ * The lookups run against an immutable {@link CIDRTrie} snapshot rebuilt on every rule change, they take no lock
+ * and do not allocate.
+ * </p>
+ * <p>
+ * An optional {@link IPBlockList} is checked before the rules, a blocked address is denied whatever the rules say,
+ * the block list is swapped with {@link #setBlockList(IPBlockList)} without stopping the lookups.
+ * </p>
+ */
 public class InetFilterRulesManager {
 
     public static final LogWrapper log = new LogWrapper(InetFilterRulesManager.class).setEnabled(false);
     private final List<InetFilterRule> set = new ArrayList<>();
+    private volatile RulesSnapshot snapshot = new RulesSnapshot(new InetFilterRule[0]);
+    private volatile IPBlockList blockList = IPBlockList.EMPTY;
+
+    /**
+     * Immutable lookup state, the trie value is the rule index in the list.
+     */
+    private static final class RulesSnapshot {
+        private final InetFilterRule[] rules;
+        private final SecConst.SecAction[] actions;
+        private final CIDRTrie trie = new CIDRTrie();
+        // rules with a non contiguous mask, matched linearly
+        private final int[] irregular;
+        private final SecConst.SecAction noMatch;
+
+        private RulesSnapshot(InetFilterRule[] rules) {
+            this.rules = rules;
+            actions = new SecConst.SecAction[rules.length];
+            int[] irregularTemp = new int[rules.length];
+            int irregularCount = 0;
+            SecConst.SecAction defaultAction = null;
+            for (int i = 0; i < rules.length; i++) {
+                InetFilterRule rule = rules[i];
+                SecConst.SecAction action = rule.getSecurityStatus();
+                if (action == null)
+                    continue;
+                switch (action) {
+                    case ALLOW:
+                        actions[i] = SecConst.SecAction.ALLOW;
+                        defaultAction = SecConst.SecAction.DENY;
+                        break;
+                    case REJECT:
+                    case DENY:
+                        actions[i] = SecConst.SecAction.DENY;
+                        defaultAction = SecConst.SecAction.ALLOW;
+                        break;
+                    default:
+                        continue;
+                }
+
+                byte[] network = rule.getNetworkBytes();
+                byte[] mask = rule.getNetMaskBytes();
+                if (network == null)
+                    continue;
+                int prefix = mask == null ? network.length * 8 : mask.length == network.length ? CIDRTrie.prefixLength(mask) : -1;
+                if (prefix >= 0 && (network.length == 4 || network.length == 16))
+                    trie.insert(network, prefix, i);
+                else
+                    irregularTemp[irregularCount++] = i;
+            }
+            irregular = Arrays.copyOf(irregularTemp, irregularCount);
+            // empty list default allow
+            noMatch = defaultAction != null ? defaultAction : SecConst.SecAction.ALLOW;
+        }
+
+        private SecConst.SecAction lookup(int match, byte[] ipAddress) {
+            if (irregular.length > 0) {
+                for (int index : irregular) {
+                    if (match != CIDRTrie.NO_MATCH && index > match)
+                        break;
+                    try {
+                        InetFilterRule rule = rules[index];
+                        if (ipAddress.length == rule.getNetworkBytes().length &&
+                                SharedNetUtil.belongsToNetwork(ipAddress, rule.getNetMaskBytes(), rule.getNetworkBytes())) {
+                            match = index;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return match != CIDRTrie.NO_MATCH ? actions[match] : noMatch;
+        }
+    }
 
     @SuppressWarnings("serial")
     public static class InetFilterRule
@@ -195,11 +282,21 @@ public class InetFilterRulesManager {
 
     public synchronized void addInetFilterProp(InetFilterRule ipfp) throws IOException {
         if (ipfp != null) {
-            ipfp.getInetFilterDAO().setNetwork(NetUtil.getNetworkIPV4(ipfp.getInetFilterDAO().getIP(), ipfp.getInetFilterDAO().getNetworkMask()));
-            set.add(ipfp);
+            addRule(ipfp);
+            rebuild();
         }
     }
 
+    private void addRule(InetFilterRule ipfp) throws IOException {
+        ipfp.getInetFilterDAO().setNetwork(NetUtil.getNetworkIPV4(ipfp.getInetFilterDAO().getIP(), ipfp.getInetFilterDAO().getNetworkMask()));
+        set.add(ipfp);
+    }
+
+    // caller holds the lock, publish a new snapshot
+    private void rebuild() {
+        snapshot = new RulesSnapshot(set.toArray(new InetFilterRule[0]));
+    }
+
 
 //	public static IPFilterManager load(String filename) throws IOException
 //	{
@@ -238,8 +335,8 @@ public class InetFilterRulesManager {
 
 
     public synchronized void removeInetFilterProp(InetFilterRule ipfp) {
-        if (ipfp != null)
-            set.remove(ipfp);
+        if (ipfp != null && set.remove(ipfp))
+            rebuild();
 
     }
 
@@ -253,7 +350,12 @@ public class InetFilterRulesManager {
 
         if (address instanceof Inet4Address) {
             if (log.isEnabled()) log.getLogger().info("Inet4Address to check:" + address);
-            return checkIPSecurityStatus(address.getAddress());
+            // Inet4Address hash code is the address, no byte array copy
+            if (blockList.containsV4(address.hashCode()))
+                return SecConst.SecAction.DENY;
+            RulesSnapshot rs = snapshot;
+            int match = rs.trie.lookupV4(address.hashCode());
+            return rs.irregular.length == 0 ? (match != CIDRTrie.NO_MATCH ? rs.actions[match] : rs.noMatch) : rs.lookup(match, address.getAddress());
         }
 
         if (address instanceof Inet6Address) {
@@ -285,61 +387,40 @@ public class InetFilterRulesManager {
     }
 
 
-    public synchronized SecConst.SecAction checkIPSecurityStatus(byte[] ipAddress) {
-
-        SecConst.SecAction ret = null;
-
-        for (InetFilterRule ipfp : set) {
-
-            switch (ipfp.getSecurityStatus()) {
-                case ALLOW:
-                    try {
-
-                        //.info(""+ipfp);
-                        ret = SecConst.SecAction.DENY;
-                        if (SharedNetUtil.belongsToNetwork(ipAddress, ipfp.getNetMaskBytes(), ipfp.getNetworkBytes())) {
-                            return SecConst.SecAction.ALLOW;
-                        }
-                    } catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-                    break;
-                case REJECT:
-                case DENY:
-                    try {
-                        if (log.isEnabled()) log.getLogger().info("" + ipfp);
-                        ret = SecConst.SecAction.ALLOW;
-                        if (SharedNetUtil.belongsToNetwork(ipAddress, ipfp.getNetMaskBytes(), ipfp.getNetworkBytes())) {
-                            if (log.isEnabled()) log.getLogger().info("deny:" + ipfp);
-                            return SecConst.SecAction.DENY;
-                        }
-                    } catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-                    break;
+    public SecConst.SecAction checkIPSecurityStatus(byte[] ipAddress) {
+        if (blockList.contains(ipAddress))
+            return SecConst.SecAction.DENY;
+        RulesSnapshot rs = snapshot;
+        return rs.lookup(rs.trie.lookup(ipAddress), ipAddress);
+    }
 
-            }
-        }
-        // we had an empty list
-        if (ret == null) {
-            // default allow
-            ret = SecConst.SecAction.ALLOW;
-        }
+    /**
+     * Swap the block list, the lookups in progress complete against the previous one.
+     *
+     * @param blockList the new block list, null to clear
+     */
+    public void setBlockList(IPBlockList blockList) {
+        this.blockList = blockList != null ? blockList : IPBlockList.EMPTY;
+    }
 
-        return ret;
+    public IPBlockList getBlockList() {
+        return blockList;
     }
 
     public List<InetFilterRule> getAll() {
-        return Arrays.asList(set.toArray(new InetFilterRule[0]));
+        return Arrays.asList(snapshot.rules.clone());
     }
 
 
     public synchronized void setAll(List<InetFilterRule> props) throws IOException {
         set.clear();
-        for (InetFilterRule ipfp : props) {
-            addInetFilterProp(ipfp);
+        try {
+            for (InetFilterRule ipfp : props) {
+                if (ipfp != null)
+                    addRule(ipfp);
+            }
+        } finally {
+            rebuild();
         }
 
     }
@@ -50,13 +50,23 @@ import static org.zoxweb.server.net.ssl.SSLContextInfo.Param.PROTOCOLS;
 
 /**
  * NIO config starts multi
+ * <p>
+ * The top level config properties may set the NIOSocket reactor mode:
+ * <ul>
+ * <li>reactors: number of reactor selectors, -1 one per core (default), 0 single selector</li>
+ * <li>reactor_balancer: ROUND_ROBIN (default) or LEAST_LOADED</li>
+ * </ul>
  *
  * @author mnael
  */
 public class NIOConfig
         extends AppCreatorDefault<NIOSocket, ConfigDAO> {
     public static final String RESOURCE_NAME = "NIOConfig";
+    public static final String REACTORS = "reactors";
+    public static final String REACTOR_BALANCER = "reactor_balancer";
     private NIOSocket nioSocket;
+    private int reactorCount = -1;
+    private NIOReactor.Balancer reactorBalancer = NIOReactor.Balancer.ROUND_ROBIN;
 
 
     public static final LogWrapper log = new LogWrapper(NIOConfig.class).setEnabled(false);
@@ -88,6 +98,33 @@ public class NIOConfig
         return nioSocket;
     }
 
+    /**
+     * @return the number of reactors used when the NIOSocket is created by this config
+     */
+    public int getReactorCount() {
+        return reactorCount;
+    }
+
+    /**
+     * Set the number of reactors used if the NIOSocket is created by {@link #createApp()}
+     *
+     * @param reactorCount negative one reactor per available processor (default), 0 single selector mode
+     * @return this
+     */
+    public NIOConfig setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+        return this;
+    }
+
+    public NIOReactor.Balancer getReactorBalancer() {
+        return reactorBalancer;
+    }
+
+    public NIOConfig setReactorBalancer(NIOReactor.Balancer reactorBalancer) {
+        this.reactorBalancer = reactorBalancer;
+        return this;
+    }
+
     public String getName() {
         return RESOURCE_NAME;
     }
@@ -95,7 +132,7 @@ public class NIOConfig
 
     public synchronized NIOSocket createApp() throws IOException {
         if (nioSocket == null)
-            nioSocket = new NIOSocket(TaskUtil.defaultTaskProcessor(), TaskUtil.defaultTaskScheduler());
+            nioSocket = new NIOSocket(TaskUtil.defaultTaskProcessor(), TaskUtil.defaultTaskScheduler(), reactorCount, reactorBalancer);
         services.add(nioSocket);
 
         for (NVEntity nve : getAppConfig().getContent().values()) {
@@ -306,6 +343,14 @@ public class NIOConfig
     @Override
     public NIOConfig setAppConfig(ConfigDAO appConfig) {
         // TODO Auto-generated method stub
+        if (appConfig != null && appConfig.getProperties() != null) {
+            Number reactors = appConfig.getProperties().getValue(REACTORS, null);
+            if (reactors != null)
+                setReactorCount(reactors.intValue());
+            String balancer = appConfig.getProperties().getValue(REACTOR_BALANCER, null);
+            if (balancer != null)
+                setReactorBalancer(NIOReactor.Balancer.valueOf(balancer.toUpperCase()));
+        }
         return (NIOConfig) super.setAppConfig(parse(appConfig));
     }
 
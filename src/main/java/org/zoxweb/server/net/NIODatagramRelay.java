@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net;
+
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.net.common.UDPSessionCallback;
+import org.zoxweb.server.net.ssl.SSLConfigInt;
+import org.zoxweb.shared.io.CloseableType;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking datagram relay running on a {@link NIOSocket}, replaces the single threaded {@link DatagramRelay}.
+ * <p>
+ * Every client address is mapped, NAT style, to its own session with a datagram channel connected to the remote
+ * host. Client datagrams are forwarded upstream without waiting for the reply, and the replies of each session are
+ * dispatched by the NIOSocket executor and sent back to the client, so a slow upstream reply only delays its own
+ * client. Each selector dispatch drains all the pending datagrams of the channel into pooled buffers, the datagrams
+ * are sent one {@code send} call each since NIO has no multi datagram send. Sessions idle longer than the idle
+ * timeout are closed.
+ * </p>
+ * <code>
+ * NIODatagramRelay relay = new NIODatagramRelay(nioSocket, new InetSocketAddress(53), new InetSocketAddress("8.8.8.8", 53), 512);
+ * relay.start();
+ * </code>
+ */
+public class NIODatagramRelay
+        implements CloseableType, ToNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(NIODatagramRelay.class).setEnabled(false);
+
+    private abstract static class RelayCallback
+            extends UDPSessionCallback {
+
+        private RelayCallback(int port, int bufferSize) {
+            // no executor, the datagrams are relayed on the NIOSocket dispatch thread with non-blocking sends
+            super(null, port, bufferSize);
+        }
+
+        @Override
+        public void sslHandshakeSuccessful(SSLConfigInt sci) {
+            throw new UnsupportedOperationException("UDP relay has no TLS handshake");
+        }
+    }
+
+    /**
+     * Client facing channel, forwards the client datagrams to the client session.
+     */
+    private class FrontEnd
+            extends RelayCallback {
+
+        private FrontEnd(int port, int bufferSize) {
+            super(port, bufferSize);
+        }
+
+        @Override
+        public void accept(DataPacket<?> dataPacket) {
+            InetSocketAddress client = dataPacket.getAddress();
+            ByteBuffer bb = dataPacket.getIOBuffers().getInBuffer();
+            RelaySession session = sessions.get(client);
+            // the front end dispatch is serialized, the only creator of the sessions
+            if (session == null || session.isClosed()) {
+                if (sessions.size() >= maxSessions) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                try {
+                    session = new RelaySession(client);
+                    nioSocket.addDatagramSocket(new InetSocketAddress(0), session);
+                    sessions.put(client, session);
+                    sessionsCreated.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    if (log.isEnabled()) log.getLogger().info("session creation failed " + client + " " + e);
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+            try {
+                int length = bb.remaining();
+                session.send(bb, remote, false);
+                session.touch();
+                session.packetsForwarded.incrementAndGet();
+                session.bytesForwarded.addAndGet(length);
+                packetsForwarded.incrementAndGet();
+                bytesForwarded.addAndGet(length);
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                removeSession(session);
+            }
+        }
+
+        @Override
+        public void exception(Throwable e) {
+            if (log.isEnabled()) log.getLogger().info("front end error " + e);
+        }
+    }
+
+    /**
+     * Session of a client, its channel is connected to the remote host and returns the replies to the client.
+     */
+    private class RelaySession
+            extends RelayCallback {
+        private final InetSocketAddress client;
+        private final long createdTime = System.currentTimeMillis();
+        private volatile long lastActivity = createdTime;
+        private final AtomicLong packetsForwarded = new AtomicLong();
+        private final AtomicLong packetsReturned = new AtomicLong();
+        private final AtomicLong bytesForwarded = new AtomicLong();
+        private final AtomicLong bytesReturned = new AtomicLong();
+
+        private RelaySession(InetSocketAddress client) {
+            super(0, packetSize);
+            this.client = client;
+        }
+
+        private void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        public int connected(SelectionKey key) {
+            // connected to the remote host, only its replies are received
+            try {
+                ((DatagramChannel) key.channel()).connect(remote);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return super.connected(key);
+        }
+
+        @Override
+        public void accept(DataPacket<?> dataPacket) {
+            ByteBuffer bb = dataPacket.getIOBuffers().getInBuffer();
+            int length = bb.remaining();
+            try {
+                frontEnd.send(bb, client, false);
+                touch();
+                packetsReturned.incrementAndGet();
+                bytesReturned.addAndGet(length);
+                NIODatagramRelay.this.packetsReturned.incrementAndGet();
+                NIODatagramRelay.this.bytesReturned.addAndGet(length);
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void exception(Throwable e) {
+            removeSession(this);
+        }
+
+        private NVGenericMap toProperties() {
+            NVGenericMap ret = new NVGenericMap(client.getAddress().getHostAddress() + ":" + client.getPort());
+            ret.build(new NVLong("packets_forwarded", packetsForwarded.get()))
+                    .build(new NVLong("packets_returned", packetsReturned.get()))
+                    .build(new NVLong("bytes_forwarded", bytesForwarded.get()))
+                    .build(new NVLong("bytes_returned", bytesReturned.get()))
+                    .build(new NVLong("created", createdTime))
+                    .build(new NVLong("last_activity", lastActivity));
+            return ret;
+        }
+    }
+
+    private final NIOSocket nioSocket;
+    private final InetSocketAddress local;
+    private final InetSocketAddress remote;
+    private final int packetSize;
+    private final FrontEnd frontEnd;
+    private final Map<InetSocketAddress, RelaySession> sessions = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long idleTimeout = Const.TimeInMillis.MINUTE.MILLIS;
+    private volatile int maxSessions = 4096;
+    private volatile ScheduledFuture<?> expiryTask;
+
+    private final AtomicLong sessionsCreated = new AtomicLong();
+    private final AtomicLong sessionsExpired = new AtomicLong();
+    private final AtomicLong packetsForwarded = new AtomicLong();
+    private final AtomicLong packetsReturned = new AtomicLong();
+    private final AtomicLong bytesForwarded = new AtomicLong();
+    private final AtomicLong bytesReturned = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Create a relay.
+     *
+     * @param nioSocket  the NIOSocket running the channels
+     * @param local      the local address the clients send to
+     * @param remote     the remote host address
+     * @param packetSize in bytes of the datagram buffers
+     */
+    public NIODatagramRelay(NIOSocket nioSocket, InetSocketAddress local, InetSocketAddress remote, int packetSize) {
+        SUS.checkIfNulls("Null parameters", nioSocket, local, remote);
+        SharedUtil.illegalCondition("Invalid packet size " + packetSize, (packetSize > 0 && packetSize < 65535));
+        this.nioSocket = nioSocket;
+        this.local = local;
+        this.remote = remote;
+        this.packetSize = packetSize;
+        this.frontEnd = new FrontEnd(local.getPort(), packetSize);
+    }
+
+    /**
+     * Bind the local address and start relaying.
+     *
+     * @return this
+     * @throws IOException if the local address can't be bound
+     */
+    public synchronized NIODatagramRelay start()
+            throws IOException {
+        if (closed.get())
+            throw new IOException("Relay closed");
+        if (expiryTask == null) {
+            nioSocket.addDatagramSocket(local, frontEnd);
+            scheduleExpiry();
+            if (log.isEnabled()) log.getLogger().info("started@" + getLocalAddress() + "<->" + remote);
+        }
+        return this;
+    }
+
+    private void scheduleExpiry() {
+        long period = Math.max(idleTimeout / 2, 100);
+        expiryTask = nioSocket.getScheduler().scheduleWithFixedDelay(this::expireSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the bound local address, the local address before start
+     */
+    public InetSocketAddress getLocalAddress() {
+        DatagramChannel dc = frontEnd.getChannel();
+        try {
+            if (dc != null)
+                return (InetSocketAddress) dc.getLocalAddress();
+        } catch (IOException e) {
+            // fall back to the configured address
+        }
+        return local;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remote;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout in millis after which an idle session is closed, the expiry task is rescheduled if started
+     * @return this
+     */
+    public synchronized NIODatagramRelay setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 1)
+            throw new IllegalArgumentException("Invalid idle timeout " + idleTimeout);
+        this.idleTimeout = idleTimeout;
+        ScheduledFuture<?> task = expiryTask;
+        if (task != null && !closed.get()) {
+            task.cancel(false);
+            scheduleExpiry();
+        }
+        return this;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @param maxSessions the maximum number of client sessions, datagrams of new clients are dropped beyond it
+     * @return this
+     */
+    public NIODatagramRelay setMaxSessions(int maxSessions) {
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("Invalid max sessions " + maxSessions);
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    /**
+     * @return the number of active client sessions
+     */
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+        Iterator<RelaySession> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            RelaySession session = it.next();
+            if (now - session.lastActivity > idleTimeout) {
+                it.remove();
+                sessionsExpired.incrementAndGet();
+                SharedIOUtil.close(session);
+            }
+        }
+    }
+
+    private void removeSession(RelaySession session) {
+        sessions.remove(session.client, session);
+        SharedIOUtil.close(session);
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            if (log.isEnabled()) log.getLogger().info("closing@" + getLocalAddress() + "<->" + remote + " " + toProperties(false));
+            // synchronized with setIdleTimeout to cancel the rescheduled task
+            synchronized (this) {
+                if (expiryTask != null)
+                    expiryTask.cancel(false);
+            }
+            SharedIOUtil.close(frontEnd);
+            for (RelaySession session : sessions.values())
+                SharedIOUtil.close(session);
+            sessions.clear();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap("datagram_relay");
+        ret.build(new NVInt("active_sessions", sessions.size()))
+                .build(new NVLong("sessions_created", sessionsCreated.get()))
+                .build(new NVLong("sessions_expired", sessionsExpired.get()))
+                .build(new NVLong("packets_forwarded", packetsForwarded.get()))
+                .build(new NVLong("packets_returned", packetsReturned.get()))
+                .build(new NVLong("bytes_forwarded", bytesForwarded.get()))
+                .build(new NVLong("bytes_returned", bytesReturned.get()))
+                .build(new NVLong("dropped", dropped.get()));
+        if (detailed) {
+            NVGenericMap sessionsStats = new NVGenericMap("sessions");
+            for (RelaySession session : sessions.values())
+                sessionsStats.build(session.toProperties());
+            ret.build(sessionsStats);
+        }
+        return ret;
+    }
+}
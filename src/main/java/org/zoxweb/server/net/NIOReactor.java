@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net;
+
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A secondary selector loop owned by a {@link NIOSocket} running in multi-reactor mode.
+ *
+ * <p>The owning NIOSocket keeps accepting on its own "NIO-SOCKET" thread and hands every accepted
+ * channel to one of its reactors; from then on the session's read dispatch, re-arming and
+ * cancellation all go through the reactor's {@link SelectorController}. The dispatch contract is
+ * identical to the single selector mode: the key interest ops are zeroed before the session is handed
+ * to a worker and restored once the handler cycle completes.</p>
+ *
+ * @author javaconsigliere@gmail.com
+ * @see NIOSocket
+ */
+public class NIOReactor
+        implements Runnable, Closeable, GetName, ToNVProperties {
+
+    /**
+     * Strategy used by the NIOSocket to pick a reactor for a newly accepted channel.
+     */
+    public enum Balancer {
+        /**
+         * Cycle through the reactors in order.
+         */
+        ROUND_ROBIN,
+        /**
+         * Pick the reactor with the fewest registered selection keys.
+         */
+        LEAST_LOADED
+    }
+
+    private final String name;
+    private final NIOSocket nioSocket;
+    private final SelectorController selectorController;
+    private final AtomicBoolean live = new AtomicBoolean(true);
+    private final AtomicLong assignedCount = new AtomicLong();
+    private final RateCounter callsCounter;
+    private volatile long selectedCountTotal = 0;
+
+    NIOReactor(NIOSocket nioSocket, int index, TaskSchedulerProcessor tsp) throws IOException {
+        this.nioSocket = nioSocket;
+        this.name = "NIO-REACTOR-" + index;
+        this.selectorController = new SelectorController(Selector.open(), tsp);
+        this.callsCounter = new RateCounter("nio-reactor-calls-counter");
+    }
+
+    NIOReactor start() {
+        TaskUtil.startRunnable(this, name);
+        return this;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the selector controller of this reactor
+     */
+    public SelectorController getSelectorController() {
+        return selectorController;
+    }
+
+    /**
+     * @return the current number of selection keys registered with this reactor
+     */
+    public int load() {
+        return selectorController.keysCount();
+    }
+
+    /**
+     * @return the total number of channels that were assigned to this reactor
+     */
+    public long assignedCount() {
+        return assignedCount.get();
+    }
+
+    long assigned() {
+        return assignedCount.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        while (live.get()) {
+            try {
+                if (selectorController.isOpen()) {
+                    int selectedCount = selectorController.select(0);
+                    long delta = System.nanoTime();
+                    if (selectedCount > 0) {
+                        Set<SelectionKey> selectedKeys = selectorController.selectedKeys();
+                        Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+                        selectedCountTotal += selectedCount;
+                        while (keyIterator.hasNext()) {
+                            SelectionKey key = keyIterator.next();
+                            keyIterator.remove();
+                            try {
+                                if ((key.isReadable() || key.isWritable())
+                                        && key.isValid()
+                                        && key.channel().isOpen()) {
+                                    nioSocket.processReadable(selectorController, key);
+                                } else if (key.isValid()
+                                        && key.channel().isOpen()
+                                        && key.isConnectable()) {
+                                    nioSocket.processConnectable(selectorController, key);
+                                }
+                            } catch (Exception e) {
+                                if (!(e instanceof CancelledKeyException || e instanceof ConnectException)) {
+                                    e.printStackTrace();
+                                }
+                            }
+
+                            try {
+                                // key clean up
+                                if (!key.isValid()
+                                        || !key.channel().isOpen()) {
+                                    key.cancel();
+                                    key.channel().close();
+                                }
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            }
+                        }
+                        delta = System.nanoTime() - delta;
+                        callsCounter.register(delta);
+                    }
+                }
+            } catch (Exception e) {
+                if (live.get())
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return true if the reactor loop was stopped
+     */
+    public boolean isClosed() {
+        return !live.get();
+    }
+
+    /**
+     * Close all the channels registered with this reactor and its selector.
+     *
+     * @throws IOException in case of error
+     */
+    @Override
+    public void close() throws IOException {
+        if (live.getAndSet(false)) {
+            for (SelectionKey sk : selectorController.keys()) {
+                if (sk.channel() != null)
+                    SharedIOUtil.close(sk.channel());
+                try {
+                    selectorController.cancelSelectionKey(sk);
+                } catch (Exception e) {
+                }
+            }
+            SharedIOUtil.close(selectorController);
+        }
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap(name);
+        ret.build(new NVLong("assigned_counts", assignedCount())).
+                build(new NVLong("select_calls_counts", selectedCountTotal)).
+                build(new NVLong("selection_key_registration_count", selectorController.registrationCount())).
+                build(new NVLong("total_selection_keys", selectorController.selectionKeysCount())).
+                build(callsCounter);
+        return ret;
+    }
+}
@@ -81,6 +81,11 @@ import java.util.concurrent.atomic.AtomicLong;
  * I/O processing is offloaded to the executor's thread pool. Selection key interest ops are
  * temporarily disabled during processing to prevent concurrent access issues.</p>
  *
+ * <p>In multi-reactor mode, the default (see {@link #NIOSocket(Executor, TaskSchedulerProcessor, int, NIOReactor.Balancer)}),
+ * the "NIO-SOCKET" thread keeps the server, client and datagram channels, but every accepted
+ * channel is sharded onto one of N {@link NIOReactor} selector loops ("NIO-REACTOR-i"), picked
+ * round-robin or least-loaded. A session stays on its reactor for its whole life.</p>
+ *
  * <h2>Usage Example:</h2>
  * <pre>{@code
  * Executor executor = TaskUtil.defaultTaskProcessor();
@@ -108,6 +113,9 @@ public class NIOSocket
     public static final LogWrapper logger = new LogWrapper(NIOSocket.class).setEnabled(false);
     private final AtomicBoolean live = new AtomicBoolean(true);
     private final SelectorController selectorController;
+    private final NIOReactor[] reactors;
+    private final NIOReactor.Balancer balancer;
+    private final AtomicLong reactorCounter = new AtomicLong();
     private final Executor executor;
     private final TaskSchedulerProcessor taskSchedulerProcessor;
     private final AtomicLong connectionCount = new AtomicLong(0);
@@ -125,8 +133,9 @@ public class NIOSocket
      * Creates a new NIOSocket and starts the selector loop thread.
      *
      * <p>The constructor initializes the NIO Selector and immediately starts the selector
-     * loop on a dedicated thread named "NIO-SOCKET". The socket is ready to accept
-     * server and client socket registrations after construction.</p>
+     * loop on a dedicated thread named "NIO-SOCKET", with one reactor selector per available
+     * processor for the accepted connections. The socket is ready to accept server and client
+     * socket registrations after construction.</p>
      *
      * @param exec the executor for offloading I/O processing; if null, processing occurs
      *             on the selector thread (not recommended for production use)
@@ -135,10 +144,45 @@ public class NIOSocket
      * @throws IOException if the Selector cannot be opened
      */
     public NIOSocket(Executor exec, TaskSchedulerProcessor tsp) throws IOException {
+        this(exec, tsp, -1, null);
+    }
+
+    /**
+     * Creates a new NIOSocket with a group of reactor selectors for the accepted connections.
+     *
+     * <p>The "NIO-SOCKET" thread accepts the incoming connections and assigns each one to a
+     * reactor according to the balancer; the reactor's selector then drives the session's
+     * read dispatch. Client and datagram sockets stay on the "NIO-SOCKET" selector.</p>
+     *
+     * @param exec         the executor for offloading I/O processing
+     * @param tsp          the task scheduler for connection timeout monitoring and delayed operations
+     * @param reactorCount number of reactor selectors; 0 single selector mode (legacy), negative one
+     *                     reactor per available processor
+     * @param balancer     the reactor selection strategy, null defaults to {@link NIOReactor.Balancer#ROUND_ROBIN}
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NIOSocket(Executor exec, TaskSchedulerProcessor tsp, int reactorCount, NIOReactor.Balancer balancer) throws IOException {
         logger.getLogger().info("Executor: " + exec);
-        selectorController = new SelectorController(Selector.open());
+        selectorController = new SelectorController(Selector.open(), tsp);
         this.executor = exec;
         this.taskSchedulerProcessor = tsp;
+        this.balancer = balancer != null ? balancer : NIOReactor.Balancer.ROUND_ROBIN;
+        if (reactorCount < 0)
+            reactorCount = Runtime.getRuntime().availableProcessors();
+
+        reactors = new NIOReactor[reactorCount];
+        try {
+            for (int i = 0; i < reactors.length; i++)
+                reactors[i] = new NIOReactor(this, i, tsp);
+        } catch (IOException e) {
+            for (NIOReactor reactor : reactors)
+                SharedIOUtil.close(reactor);
+            SharedIOUtil.close(selectorController);
+            throw e;
+        }
+
+        for (NIOReactor reactor : reactors)
+            reactor.start();
 
         TaskUtil.startRunnable(this, "NIO-SOCKET");
     }
@@ -285,7 +329,7 @@ public class NIOSocket
             if (channel.connect(sa)) {
                 // we connected ULTRA fast connection (loopback)
                 SelectionKey selectionKey = selectorController.register(channel, 0, scheduledAttachment, false);
-                processConnectable(selectionKey);
+                processConnectable(selectorController, selectionKey);
                 return selectionKey;
             }
             // connection is pending, register for OP_CONNECT
@@ -564,11 +608,11 @@ public class NIOSocket
 
                             try {
 
-                                // read case
-                                if (key.isReadable()
+                                // read case, or pending writes in non-blocking write mode
+                                if ((key.isReadable() || key.isWritable())
                                         && key.isValid()
                                         && key.channel().isOpen()) {
-                                    processReadable(key);
+                                    processReadable(selectorController, key);
 
                                 } // server socket waiting for incoming connection
                                 else if (key.isAcceptable()
@@ -641,7 +685,7 @@ public class NIOSocket
                                         // create a protocol instance
                                         ProtocolHandler protocolHandler = protocolFactory.newInstance();
 
-                                        protocolHandler.setSelectorController(selectorController);
+                                        protocolHandler.setSelectorController(nextSelectorController());
                                         protocolHandler.setExecutor(executor);
                                         protocolHandler.setOutgoingInetFilterRulesManager(protocolFactory.getOutgoingInetFilterRulesManager());
 
@@ -677,7 +721,7 @@ public class NIOSocket
                                         && key.channel().isOpen()
                                         && key.isConnectable()) {
                                     // this is used by client connection
-                                    processConnectable(key);
+                                    processConnectable(selectorController, key);
 
                                 }
 
@@ -724,20 +768,63 @@ public class NIOSocket
     }
 
 
-    private void processReadable(SelectionKey key) {
+    /**
+     * Select the selector controller for a newly accepted channel.
+     *
+     * @return the NIO-SOCKET selector controller in single selector mode, otherwise the controller
+     * of the reactor picked by the balancer
+     */
+    private SelectorController nextSelectorController() {
+        if (reactors.length == 0)
+            return selectorController;
+
+        NIOReactor reactor;
+        if (balancer == NIOReactor.Balancer.LEAST_LOADED) {
+            reactor = reactors[0];
+            int minLoad = reactor.load();
+            for (int i = 1; i < reactors.length && minLoad > 0; i++) {
+                int load = reactors[i].load();
+                if (load < minLoad) {
+                    minLoad = load;
+                    reactor = reactors[i];
+                }
+            }
+        } else
+            reactor = reactors[(int) (reactorCounter.getAndIncrement() % reactors.length)];
+
+        reactor.assigned();
+        return reactor.getSelectorController();
+    }
+
+    /**
+     * @return the number of reactors, 0 in single selector mode
+     */
+    public int reactorCount() {
+        return reactors.length;
+    }
+
+    void processReadable(SelectorController selectorController, SelectionKey key) {
         // channel has data to read
         // this is the reading part of the process
         SKHandler skHandler = (SKHandler) key.attachment();
-        if (skHandler instanceof ProtocolHandler)
+        // non-blocking write mode, the write queue guards the key interest ops
+        ChannelWriteQueue writeQueue = null;
+        if (skHandler instanceof ProtocolHandler) {
             ((ProtocolHandler) skHandler).updateUsage();
+            writeQueue = ((ProtocolHandler) skHandler).getWriteQueue();
+        }
 
 
         // very,very,very crucial setup prior to processing
         // we are disabling the key operations by the selector
         // for the current selection key
         //int keyOPs = key.interestOps();
-        key.interestOps(0);
+        if (writeQueue != null)
+            writeQueue.dispatchStarted(key);
+        else
+            key.interestOps(0);
 
+        ChannelWriteQueue wq = writeQueue;
         // a channel is ready for reading
         if (executor != null) {
             // we have an executor
@@ -750,11 +837,7 @@ public class NIOSocket
                     e.printStackTrace();
                 }
                 // very crucial step
-                if (key.isValid()) {
-                    // restoring selection ops for the selection key
-                    key.interestOps(skHandler.interestOps());
-                    selectorController.wakeup();
-                }
+                restoreInterestOps(selectorController, key, skHandler, wq);
             });
         } else {
             // no executor set so the current thread must process the incoming data
@@ -764,14 +847,22 @@ public class NIOSocket
                 e.printStackTrace();
             }
             // very crucial step
-            if (key.isValid()) {
+            restoreInterestOps(selectorController, key, skHandler, wq);
+        }
+    }
+
+    private static void restoreInterestOps(SelectorController selectorController, SelectionKey key, SKHandler skHandler, ChannelWriteQueue writeQueue) {
+        if (key.isValid()) {
+            // restoring selection ops for the selection key
+            if (writeQueue != null)
+                writeQueue.dispatchEnded(key);
+            else
                 key.interestOps(skHandler.interestOps());
-                selectorController.wakeup();
-            }
+            selectorController.wakeup();
         }
     }
 
-    private void processConnectable(SelectionKey key) throws IOException {
+    void processConnectable(SelectorController selectorController, SelectionKey key) throws IOException {
 
         // this is used by client connection
         // stop key interest first
@@ -1003,6 +1094,9 @@ public class NIOSocket
             }
 
             SharedIOUtil.close(selectorController);
+
+            for (NIOReactor reactor : reactors)
+                SharedIOUtil.close(reactor);
         }
 
     }
@@ -1082,6 +1176,7 @@ public class NIOSocket
      *   <li><b>selection_key_registration_count:</b> Total SelectionKey registrations</li>
      *   <li><b>total_selection_keys:</b> Current number of registered SelectionKeys</li>
      *   <li><b>nio-calls-counter:</b> Rate counter with timing statistics</li>
+     *   <li><b>reactors:</b> In multi-reactor mode, the per reactor statistics</li>
      * </ul>
      *
      * @return an NVGenericMap containing the current statistics
@@ -1096,6 +1191,14 @@ public class NIOSocket
                 build(new NVLong("selection_key_registration_count", selectorController.registrationCount())).
                 build(new NVLong("total_selection_keys", selectorController.selectionKeysCount())).
                 build(callsCounter);
+        if (reactors.length > 0) {
+            ret.build(new NVInt("reactor_count", reactors.length)).
+                    build("reactor_balancer", balancer.name());
+            NVGenericMap reactorsStats = new NVGenericMap("reactors");
+            for (NIOReactor reactor : reactors)
+                reactorsStats.build(reactor.toProperties(detailed));
+            ret.build(reactorsStats);
+        }
         return ret;
     }
 
@@ -35,7 +35,12 @@ public class NIOSocketHandler
 
     public static final LogWrapper log = new LogWrapper(ProtocolHandler.class).setEnabled(false);
 
-    private volatile ByteBuffer phBB = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4);
+    private volatile ByteBuffer phBB = null;
+    private ByteBufferUtil.BufferType bufferType = ByteBufferUtil.BufferType.HEAP;
+    private boolean asyncWrite = false;
+    private long writeLowWatermark;
+    private long writeHighWatermark;
+    private long writeQueueCapacity;
 
 
     public NIOSocketHandler(BaseSessionCallback<BaseChannelOutputStream> psc) {
@@ -47,6 +52,33 @@ public class NIOSocketHandler
         this.sessionCallback = psc;
     }
 
+    /**
+     * Enable the non-blocking write mode, must be set before the connection setup.
+     *
+     * @param lowWatermark  write queue low watermark
+     * @param highWatermark write queue high watermark
+     * @param capacity      write queue capacity
+     * @return this
+     */
+    public NIOSocketHandler setAsyncWrite(long lowWatermark, long highWatermark, long capacity) {
+        this.writeLowWatermark = lowWatermark;
+        this.writeHighWatermark = highWatermark;
+        this.writeQueueCapacity = capacity;
+        this.asyncWrite = true;
+        return this;
+    }
+
+    /**
+     * Set the read buffer type, must be set before the connection setup.
+     *
+     * @param bufferType HEAP or DIRECT
+     * @return this
+     */
+    public NIOSocketHandler setBufferType(ByteBufferUtil.BufferType bufferType) {
+        this.bufferType = bufferType;
+        return this;
+    }
+
     @Override
     public String getName() {
         return "NIOSocketHandler";
@@ -59,7 +91,7 @@ public class NIOSocketHandler
 
     @Override
     protected void close_internal() throws IOException {
-        SharedIOUtil.close(phSChannel, sessionCallback);
+        SharedIOUtil.close(phSChannel, sessionCallback, writeQueue);
         ByteBufferUtil.cache(phBB);
     }
 
@@ -73,6 +105,8 @@ public class NIOSocketHandler
                 synchronized (this) {
                     if (sessionCallback.getConfig() == null) {
                         CommonChannelOutputStream cco = new CommonChannelOutputStream(this, phSChannel);
+                        if (writeQueue != null)
+                            cco.setWriteQueue(writeQueue);
                         sessionCallback.setOutputStream(cco);
                         ((BaseSessionCallback<BaseChannelOutputStream>) sessionCallback).setConfig(cco);
                         // need to notify session callback in case waiting for connection
@@ -81,6 +115,9 @@ public class NIOSocketHandler
                 }
             }
 
+            if (writeQueue != null && key.isValid() && key.isWritable())
+                writeQueue.drain();
+
             int read;
             do {
                 ((Buffer) phBB).clear();
@@ -112,7 +149,10 @@ public class NIOSocketHandler
     @Override
     public void setupConnection(AbstractSelectableChannel asc, boolean isBlocking) throws IOException {
         phSChannel = (SocketChannel) asc;
-        getSelectorController().register(phSChannel, SelectionKey.OP_READ, this, isBlocking);
+        phBB = ByteBufferUtil.allocateByteBuffer(bufferType, SharedIOUtil.K_4);
+        if (asyncWrite)
+            writeQueue = new ChannelWriteQueue(this, phSChannel, writeLowWatermark, writeHighWatermark, writeQueueCapacity);
+        phSK = getSelectorController().register(phSChannel, SelectionKey.OP_READ, this, isBlocking);
         sessionCallback.setProtocolHandler(this);
         sessionCallback.setRemoteAddress((InetSocketAddress) phSChannel.getRemoteAddress());
 
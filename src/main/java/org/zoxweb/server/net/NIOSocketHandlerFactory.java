@@ -1,6 +1,7 @@
 package org.zoxweb.server.net;
 
 
+import org.zoxweb.server.io.ByteBufferUtil;
 import org.zoxweb.shared.util.InstanceFactory;
 
 public class NIOSocketHandlerFactory
@@ -40,7 +41,11 @@ public class NIOSocketHandlerFactory
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return new NIOSocketHandler(sc, timeout);
+        NIOSocketHandler ret = new NIOSocketHandler(sc, timeout);
+        if (isAsyncWrite())
+            ret.setAsyncWrite(getWriteLowWatermark(), getWriteHighWatermark(), getWriteQueueCapacity());
+        ret.setBufferType(getBufferType());
+        return ret;
     }
 
     @Override
@@ -54,6 +59,12 @@ public class NIOSocketHandlerFactory
             if (getProperties().getValue("session_callback") != null) {
                 cbClass = (Class<BaseSessionCallback<BaseChannelOutputStream>>) Class.forName(getProperties().getValue("session_callback"));
             }
+            Boolean asyncWrite = getProperties().getValue("async_write", null);
+            if (asyncWrite != null)
+                setAsyncWrite(asyncWrite);
+            String bufferType = getProperties().getValue("buffer_type", null);
+            if (bufferType != null)
+                setBufferType(ByteBufferUtil.BufferType.valueOf(bufferType.toUpperCase()));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -16,6 +16,7 @@
 package org.zoxweb.server.net;
 
 
+import org.zoxweb.server.io.ByteBufferUtil;
 import org.zoxweb.shared.util.NVGMProperties;
 
 
@@ -28,6 +29,11 @@ public abstract class ProtocolFactoryBase<P extends ProtocolHandler>
 
 
     protected boolean complexSetup = false;
+    private volatile boolean asyncWrite = false;
+    private volatile long writeLowWatermark = ChannelWriteQueue.DEFAULT_LOW_WATERMARK;
+    private volatile long writeHighWatermark = ChannelWriteQueue.DEFAULT_HIGH_WATERMARK;
+    private volatile long writeQueueCapacity = ChannelWriteQueue.DEFAULT_CAPACITY;
+    private volatile ByteBufferUtil.BufferType bufferType = ByteBufferUtil.BufferType.HEAP;
 
     protected ProtocolFactoryBase() {
         super(true);
@@ -70,4 +76,72 @@ public abstract class ProtocolFactoryBase<P extends ProtocolHandler>
         return complexSetup;
     }
 
+    /**
+     * @return true if the sessions use the non-blocking write mode
+     */
+    public boolean isAsyncWrite() {
+        return asyncWrite;
+    }
+
+    /**
+     * Enable the non-blocking write mode with the default watermarks.
+     *
+     * @param asyncWrite true to enable
+     * @return this
+     */
+    public ProtocolFactoryBase<P> setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+        return this;
+    }
+
+    /**
+     * Enable the non-blocking write mode.
+     *
+     * @param lowWatermark  pending bytes at which the session callback is released
+     * @param highWatermark pending bytes at which the session callback is throttled
+     * @param capacity      the maximum pending bytes per session
+     * @return this
+     */
+    public ProtocolFactoryBase<P> setAsyncWrite(long lowWatermark, long highWatermark, long capacity) {
+        if (lowWatermark < 0 || highWatermark < lowWatermark || capacity < highWatermark)
+            throw new IllegalArgumentException("Invalid watermarks 0 <= low <= high <= capacity: " + lowWatermark + ", " + highWatermark + ", " + capacity);
+        this.writeLowWatermark = lowWatermark;
+        this.writeHighWatermark = highWatermark;
+        this.writeQueueCapacity = capacity;
+        this.asyncWrite = true;
+        return this;
+    }
+
+    public long getWriteLowWatermark() {
+        return writeLowWatermark;
+    }
+
+    public long getWriteHighWatermark() {
+        return writeHighWatermark;
+    }
+
+    public long getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    /**
+     * @return the type of the session network buffers, HEAP by default
+     */
+    public ByteBufferUtil.BufferType getBufferType() {
+        return bufferType;
+    }
+
+    /**
+     * Set the type of the session network buffers. With DIRECT the channel reads and writes skip
+     * the JDK temporary direct buffer copy; the buffers are pooled and handed to the session
+     * callbacks, which then must not rely on {@code ByteBuffer.array()}.
+     *
+     * @param bufferType HEAP or DIRECT
+     * @return this
+     */
+    public ProtocolFactoryBase<P> setBufferType(ByteBufferUtil.BufferType bufferType) {
+        this.bufferType = bufferType != null ? bufferType : ByteBufferUtil.BufferType.HEAP;
+        return this;
+    }
+
 }
@@ -17,6 +17,7 @@ package org.zoxweb.server.net;
 
 import org.zoxweb.server.logging.LogWrapper;
 import org.zoxweb.server.net.common.SKHandler;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
 import org.zoxweb.server.task.TaskUtil;
 import org.zoxweb.shared.io.CloseableType;
 import org.zoxweb.shared.io.SharedIOUtil;
@@ -40,9 +41,9 @@ public abstract class ProtocolHandler
         protected final Appointment timeout;
         protected final ProtocolHandler ph;
 
-        PHTimeout(ProtocolHandler ph, long duration) {
+        PHTimeout(ProtocolHandler ph, long duration, TaskSchedulerProcessor tsp) {
             this.ph = ph;
-            timeout = TaskUtil.defaultTaskScheduler().queue(duration, this);
+            timeout = tsp.queue(duration, this);
         }
 
         public void run() {
@@ -75,7 +76,9 @@ public abstract class ProtocolHandler
     protected final AtomicBoolean isClosed = new AtomicBoolean(false);
 
     protected volatile BaseSessionCallback<?> sessionCallback;
-    private final PHTimeout phTimeout;
+    protected volatile ChannelWriteQueue writeQueue;
+    private final long sessionTimeout;
+    private volatile PHTimeout phTimeout;
 
 
     protected ProtocolHandler(boolean enableTimeout) {
@@ -84,11 +87,7 @@ public abstract class ProtocolHandler
 
     protected ProtocolHandler(long timeout) {
         updateUsage();
-        if (timeout > 0)
-            phTimeout = new PHTimeout(this, timeout);
-        else
-            phTimeout = null;
-
+        sessionTimeout = timeout;
     }
 
 
@@ -131,10 +130,17 @@ public abstract class ProtocolHandler
 
 
     /**
+     * Set the selector controller, the session timeout if enabled is started on the selector controller scheduler
+     * or on the default one if the selector controller has none.
+     *
      * @param selectorController the selector to set
      */
-    public void setSelectorController(SelectorController selectorController) {
+    public synchronized void setSelectorController(SelectorController selectorController) {
         this.selectorController = selectorController;
+        if (sessionTimeout > 0 && phTimeout == null && !isClosed.get()) {
+            TaskSchedulerProcessor tsp = selectorController != null ? selectorController.getScheduler() : null;
+            phTimeout = new PHTimeout(this, sessionTimeout, tsp != null ? tsp : TaskUtil.defaultTaskScheduler());
+        }
     }
 
 
@@ -183,8 +189,9 @@ public abstract class ProtocolHandler
                 close_internal();
             }
             finally {
-                if (phTimeout != null)
-                    phTimeout.timeout.cancel();
+                PHTimeout toCancel = phTimeout;
+                if (toCancel != null)
+                    toCancel.timeout.cancel();
             }
 
         }
@@ -200,7 +207,15 @@ public abstract class ProtocolHandler
         throw  new UnsupportedOperationException("UpgradeToTLS not supported");
     }
 
+    /**
+     * @return the non-blocking write queue, null if the session writes synchronously
+     */
+    public ChannelWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
     public int interestOps() {
-        return interestOps;
+        ChannelWriteQueue wq = writeQueue;
+        return wq != null ? wq.interestOps(interestOps) : interestOps;
     }
 }
@@ -15,6 +15,8 @@
  */
 package org.zoxweb.server.net;
 
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.channels.SelectableChannel;
@@ -37,6 +39,7 @@ public class SelectorController
     private final Lock selectLock = new ReentrantLock();
     private final Lock lock = new ReentrantLock();
     private final AtomicLong registrationCounter = new AtomicLong();
+    private final TaskSchedulerProcessor scheduler;
 
 
     /**
@@ -45,7 +48,25 @@ public class SelectorController
      * @param selector the selector object
      */
     public SelectorController(Selector selector) {
+        this(selector, null);
+    }
+
+    /**
+     * Create a Selector Controller
+     *
+     * @param selector  the selector object
+     * @param scheduler the scheduler for the timeouts of the registered sessions, null for the default one
+     */
+    public SelectorController(Selector selector, TaskSchedulerProcessor scheduler) {
         this.selector = selector;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the scheduler for the timeouts of the registered sessions, null if not set
+     */
+    public TaskSchedulerProcessor getScheduler() {
+        return scheduler;
     }
 
 
@@ -2,6 +2,7 @@ package org.zoxweb.server.net.common;
 
 import org.zoxweb.server.io.ByteBufferUtil;
 import org.zoxweb.server.net.BaseChannelOutputStream;
+import org.zoxweb.server.net.ChannelWriteQueue;
 import org.zoxweb.server.net.ProtocolHandler;
 import org.zoxweb.server.net.ssl.SSLConfigInt;
 import org.zoxweb.server.net.ssl.SSLSessionConfig;
@@ -13,6 +14,7 @@ import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
@@ -22,6 +24,7 @@ public class CommonChannelOutputStream
 
     private transient SSLConfigInt sslConfig;
     private final AtomicBoolean sslMode = new AtomicBoolean(false);
+    private volatile ChannelWriteQueue writeQueue;
 
 
     public CommonChannelOutputStream(ByteChannel byteChannel) throws IOException {
@@ -49,6 +52,24 @@ public class CommonChannelOutputStream
         return sslConfig;
     }
 
+    /**
+     * Switch the plaintext path to the non-blocking write mode, the SSL path stays synchronous.
+     *
+     * @param writeQueue the session write queue, null restores the synchronous mode
+     * @return this
+     */
+    public synchronized CommonChannelOutputStream setWriteQueue(ChannelWriteQueue writeQueue) {
+        this.writeQueue = writeQueue;
+        return this;
+    }
+
+    /**
+     * @return the session write queue, null in synchronous write mode
+     */
+    public ChannelWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
 
     /**
      * Sends the contents of a {@link ByteBuffer} to the underlying channel,
@@ -73,6 +94,57 @@ public class CommonChannelOutputStream
     }
 
 
+    /**
+     * Gathering write of read-mode buffers.
+     * <p>
+     * In plaintext mode the buffers go to the channel, or the {@link ChannelWriteQueue}, with a
+     * single gathering write. In SSL mode they are coalesced into one pooled buffer first, the
+     * encryption copies the plaintext anyway and a single TLS record is cheaper than one record
+     * per buffer.
+     * </p>
+     *
+     * @param buffers read-mode buffers, drained by the call
+     * @return number of bytes transmitted to the channel
+     * @throws IOException on channel error; the stream is closed before the exception propagates
+     */
+    @Override
+    public synchronized long write(ByteBuffer... buffers) throws IOException {
+        if (isSSLMode())
+            return sslCoalescedWrite(buffers);
+
+        if (writeQueue == null && !(dataChannel instanceof GatheringByteChannel))
+            return super.write(buffers);
+
+        try {
+            long ret = writeQueue != null ? writeQueue.write(buffers) : ByteBufferUtil.write((GatheringByteChannel) dataChannel, buffers);
+            if (usageTracker != null) usageTracker.updateUsage();
+            return ret;
+        } catch (IOException e) {
+            SharedIOUtil.close(this);
+            throw e;
+        }
+    }
+
+    private int sslCoalescedWrite(ByteBuffer[] buffers) throws IOException {
+        int length = 0;
+        for (ByteBuffer bb : buffers)
+            length += bb.remaining();
+
+        int capacity = SharedIOUtil.K_4;
+        while (capacity < length)
+            capacity <<= 1;
+
+        ByteBuffer coalesced = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, capacity);
+        try {
+            for (ByteBuffer bb : buffers)
+                coalesced.put(bb);
+            return SSLUtil.sslChunkedWrite(sslConfig, dataChannel, coalesced, usageTracker, this, true);
+        } finally {
+            ByteBufferUtil.cache(coalesced);
+        }
+    }
+
+
     /**
      * Drains a plaintext {@link ByteBuffer} to the underlying channel via
      * {@link ByteBufferUtil#smartWrite}.
@@ -84,6 +156,10 @@ public class CommonChannelOutputStream
      * <p>
      * On I/O error the stream is closed before rethrowing.
      * </p>
+     * <p>
+     * With a {@link ChannelWriteQueue} set, the bytes the socket does not take right away are
+     * queued instead of spinning on the channel, and the return value counts them as written.
+     * </p>
      *
      * @param bb   payload
      * @param flip {@code true} if {@code bb} is in write-mode, {@code false} if already read-mode
@@ -92,7 +168,7 @@ public class CommonChannelOutputStream
      */
     private synchronized int plainWrite(ByteBuffer bb, boolean flip) throws IOException {
         try {
-            int ret = ByteBufferUtil.smartWrite(null, dataChannel, bb, flip);
+            int ret = writeQueue != null ? writeQueue.write(bb, flip) : ByteBufferUtil.smartWrite(null, dataChannel, bb, flip);
             if (usageTracker != null) usageTracker.updateUsage();
             return ret;
         } catch (IOException e) {
@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net.security;
+
+import org.zoxweb.shared.util.GetNVProperties;
+import org.zoxweb.shared.util.NVGenericMap;
+import org.zoxweb.shared.util.NVInt;
+import org.zoxweb.shared.util.NVLong;
+
+import java.io.*;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable compact set of blocked IPv4 and IPv6 addresses, built in bulk from threat feeds.
+ * <p>
+ * The addresses, networks and ranges are merged into sorted disjoint ranges, IPv4 ranges are kept in two
+ * {@code int[]} and IPv6 ranges as {@code long} pairs, a lookup is a binary search, takes no lock and allocates
+ * nothing for IPv4. A list is never modified, a new one is built with a {@link Builder} and swapped in.
+ * </p>
+ * The {@link Builder} accepts one entry per line:
+ * <ul>
+ *     <li>an address: {@code 192.0.2.1}, {@code 2001:db8::1}</li>
+ *     <li>a CIDR network: {@code 192.0.2.0/24}, {@code 2001:db8::/32}</li>
+ *     <li>a range: {@code 192.0.2.10-192.0.2.20}</li>
+ * </ul>
+ * IPv4 mapped IPv6 entries, {@code ::ffff:192.0.2.1}, are stored as IPv4.
+ * Blank lines and lines starting with {@code #} or {@code ;} are skipped, anything after the first entry token
+ * (white space, comma, {@code #} or {@code ;}) is ignored, host names are rejected, no DNS lookup is ever done.
+ */
+public final class IPBlockList
+        implements GetNVProperties {
+
+    public static final IPBlockList EMPTY = new Builder().build();
+
+    // IPv4 ranges, unsigned values flipped to signed order
+    private final int[] v4Starts;
+    private final int[] v4Ends;
+    // IPv6 ranges, 4 longs per range: start high, start low, end high, end low
+    private final long[] v6Ranges;
+    private final long entries;
+    private final long rejected;
+
+    private IPBlockList(int[] v4Starts, int[] v4Ends, long[] v6Ranges, long entries, long rejected) {
+        this.v4Starts = v4Starts;
+        this.v4Ends = v4Ends;
+        this.v6Ranges = v6Ranges;
+        this.entries = entries;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @param address IPv4 address as big endian int
+     * @return true if blocked
+     */
+    public boolean containsV4(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = v4Starts.length - 1;
+        // last range starting at or before the key
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (v4Starts[mid] <= key)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high >= 0 && key <= v4Ends[high];
+    }
+
+    /**
+     * @param hi the IPv6 address high 64 bits
+     * @param lo the IPv6 address low 64 bits
+     * @return true if blocked
+     */
+    public boolean containsV6(long hi, long lo) {
+        int low = 0;
+        int high = v6Ranges.length / 4 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(v6Ranges[mid * 4], v6Ranges[mid * 4 + 1], hi, lo) <= 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high >= 0 && compare(hi, lo, v6Ranges[high * 4 + 2], v6Ranges[high * 4 + 3]) <= 0;
+    }
+
+    /**
+     * @param address 4 or 16 bytes address
+     * @return true if blocked
+     */
+    public boolean contains(byte[] address) {
+        if (address == null)
+            return false;
+        if (address.length == 4 || isV4Mapped(address))
+            return containsV4(toInt(address, address.length - 4));
+        if (address.length == 16)
+            return containsV6(toLong(address, 0), toLong(address, 8));
+        return false;
+    }
+
+    /**
+     * @param address to check
+     * @return true if blocked
+     */
+    public boolean contains(InetAddress address) {
+        if (address instanceof Inet4Address)
+            // Inet4Address hash code is the address, no byte array copy
+            return containsV4(address.hashCode());
+        return address != null && v6Ranges.length > 0 && contains(address.getAddress());
+    }
+
+    /**
+     * @return number of disjoint IPv4 ranges
+     */
+    public int v4RangeCount() {
+        return v4Starts.length;
+    }
+
+    /**
+     * @return number of disjoint IPv6 ranges
+     */
+    public int v6RangeCount() {
+        return v6Ranges.length / 4;
+    }
+
+    /**
+     * @return number of entries accepted by the builder
+     */
+    public long entryCount() {
+        return entries;
+    }
+
+    /**
+     * @return number of entries rejected by the builder
+     */
+    public long rejectedCount() {
+        return rejected;
+    }
+
+    public boolean isEmpty() {
+        return v4Starts.length == 0 && v6Ranges.length == 0;
+    }
+
+    @Override
+    public NVGenericMap getProperties() {
+        NVGenericMap ret = new NVGenericMap("ip_block_list");
+        ret.build(new NVInt("v4_ranges", v4RangeCount()))
+                .build(new NVInt("v6_ranges", v6RangeCount()))
+                .build(new NVLong("entries", entries))
+                .build(new NVLong("rejected", rejected));
+        return ret;
+    }
+
+    public String toString() {
+        return "IPBlockList[v4_ranges=" + v4RangeCount() + ", v6_ranges=" + v6RangeCount() + ", entries=" + entries + ", rejected=" + rejected + "]";
+    }
+
+    /**
+     * Load a block list from a text stream, the stream is read line by line and not closed.
+     *
+     * @param is the UTF-8 text stream
+     * @return the block list
+     * @throws IOException in case of read error
+     */
+    public static IPBlockList load(InputStream is) throws IOException {
+        return new Builder().load(is).build();
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int ret = Long.compareUnsigned(aHi, bHi);
+        return ret != 0 ? ret : Long.compareUnsigned(aLo, bLo);
+    }
+
+    /**
+     * @param address the address bytes
+     * @return true for an IPv4 mapped IPv6 address {@code ::ffff:a.b.c.d}
+     */
+    private static boolean isV4Mapped(byte[] address) {
+        if (address.length != 16 || address[10] != (byte) 0xff || address[11] != (byte) 0xff)
+            return false;
+        for (int i = 0; i < 10; i++)
+            if (address[i] != 0)
+                return false;
+        return true;
+    }
+
+    private static int toInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    private static long toLong(byte[] b, int offset) {
+        return ((long) toInt(b, offset) << 32) | (toInt(b, offset + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Streaming block list builder, not thread safe.
+     */
+    public static final class Builder {
+        // packed unsigned start << 32 | unsigned end, sign flipped to sort as signed
+        private long[] v4 = new long[1024];
+        private int v4Size;
+        private long[] v6 = new long[64];
+        private int v6Size;
+        private long entries;
+        private long rejected;
+
+        /**
+         * Read the entries line by line.
+         *
+         * @param reader the text source, not closed
+         * @return this
+         * @throws IOException in case of read error
+         */
+        public Builder load(Reader reader) throws IOException {
+            BufferedReader br = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+            String line;
+            while ((line = br.readLine()) != null)
+                add(line);
+            return this;
+        }
+
+        /**
+         * @param is UTF-8 text stream, not closed
+         * @return this
+         * @throws IOException in case of read error
+         */
+        public Builder load(InputStream is) throws IOException {
+            return load(new InputStreamReader(is, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Add a line, comments and blank lines are ignored.
+         *
+         * @param line the entry
+         * @return true if an entry was added, false if the line is a comment, blank or invalid
+         */
+        public boolean add(String line) {
+            if (line == null)
+                return false;
+            int start = 0;
+            int len = line.length();
+            while (start < len && Character.isWhitespace(line.charAt(start)))
+                start++;
+            if (start == len || line.charAt(start) == '#' || line.charAt(start) == ';')
+                return false;
+            int end = start;
+            while (end < len) {
+                char c = line.charAt(end);
+                if (Character.isWhitespace(c) || c == ',' || c == '#' || c == ';')
+                    break;
+                end++;
+            }
+            String token = line.substring(start, end);
+            try {
+                int slash = token.indexOf('/');
+                int dash = token.indexOf('-');
+                if (slash != -1) {
+                    addNetwork(parse(token.substring(0, slash)), Integer.parseInt(token.substring(slash + 1)));
+                } else if (dash != -1) {
+                    addRange(parse(token.substring(0, dash)), parse(token.substring(dash + 1)));
+                } else {
+                    byte[] address = parse(token);
+                    addRange(address, address);
+                }
+                return true;
+            } catch (IllegalArgumentException | IOException e) {
+                rejected++;
+                return false;
+            }
+        }
+
+        /**
+         * @param network the network address
+         * @param prefix  the prefix length
+         * @return this
+         */
+        public Builder addNetwork(byte[] network, int prefix) {
+            if (network == null || (network.length != 4 && network.length != 16) || prefix < 0 || prefix > network.length * 8)
+                throw new IllegalArgumentException("Invalid network");
+            if (isV4Mapped(network) && prefix >= 96)
+                // stored as IPv4, matched by the Inet4Address lookups
+                return addNetwork(Arrays.copyOfRange(network, 12, 16), prefix - 96);
+            byte[] first = network.clone();
+            byte[] last = network.clone();
+            for (int i = prefix; i < network.length * 8; i++) {
+                int mask = 1 << (7 - (i & 7));
+                first[i >>> 3] &= (byte) ~mask;
+                last[i >>> 3] |= (byte) mask;
+            }
+            return addRange(first, last);
+        }
+
+        /**
+         * @param first first address of the range
+         * @param last  last address of the range, same family as first
+         * @return this
+         */
+        public Builder addRange(byte[] first, byte[] last) {
+            if (first == null || last == null || first.length != last.length)
+                throw new IllegalArgumentException("Invalid range");
+            if (isV4Mapped(first) && isV4Mapped(last)) {
+                first = Arrays.copyOfRange(first, 12, 16);
+                last = Arrays.copyOfRange(last, 12, 16);
+            }
+            if (first.length == 4) {
+                long s = toInt(first, 0) & 0xffffffffL;
+                long e = toInt(last, 0) & 0xffffffffL;
+                if (s > e)
+                    throw new IllegalArgumentException("Invalid range");
+                if (v4Size == v4.length)
+                    v4 = Arrays.copyOf(v4, v4.length * 2);
+                v4[v4Size++] = ((s << 32) | e) ^ Long.MIN_VALUE;
+            } else if (first.length == 16) {
+                long sHi = toLong(first, 0), sLo = toLong(first, 8);
+                long eHi = toLong(last, 0), eLo = toLong(last, 8);
+                if (compare(sHi, sLo, eHi, eLo) > 0)
+                    throw new IllegalArgumentException("Invalid range");
+                if (v6Size + 4 > v6.length)
+                    v6 = Arrays.copyOf(v6, v6.length * 2);
+                v6[v6Size++] = sHi;
+                v6[v6Size++] = sLo;
+                v6[v6Size++] = eHi;
+                v6[v6Size++] = eLo;
+            } else
+                throw new IllegalArgumentException("Invalid address length " + first.length);
+            entries++;
+            return this;
+        }
+
+        /**
+         * Sort and merge the ranges.
+         *
+         * @return the immutable block list
+         */
+        public IPBlockList build() {
+            // IPv4, sort by start then merge the overlapping and adjacent ranges
+            long[] sorted = Arrays.copyOf(v4, v4Size);
+            Arrays.sort(sorted);
+            int[] starts = new int[sorted.length];
+            int[] ends = new int[sorted.length];
+            int count = 0;
+            long curStart = -1, curEnd = -1;
+            for (long r : sorted) {
+                r ^= Long.MIN_VALUE;
+                long s = r >>> 32;
+                long e = r & 0xffffffffL;
+                if (curStart != -1 && s <= curEnd + 1) {
+                    if (e > curEnd)
+                        curEnd = e;
+                } else {
+                    if (curStart != -1) {
+                        starts[count] = (int) curStart ^ Integer.MIN_VALUE;
+                        ends[count++] = (int) curEnd ^ Integer.MIN_VALUE;
+                    }
+                    curStart = s;
+                    curEnd = e;
+                }
+            }
+            if (curStart != -1) {
+                starts[count] = (int) curStart ^ Integer.MIN_VALUE;
+                ends[count++] = (int) curEnd ^ Integer.MIN_VALUE;
+            }
+
+            // IPv6
+            long[] r6 = Arrays.copyOf(v6, v6Size);
+            sort6(r6, 0, r6.length / 4 - 1);
+            int n = 0;
+            for (int i = 0; i < r6.length; i += 4) {
+                if (n > 0) {
+                    int last = n - 4;
+                    // adjacent if start <= end + 1
+                    long nextHi = r6[last + 2], nextLo = r6[last + 3] + 1;
+                    if (nextLo == 0)
+                        nextHi++;
+                    boolean endIsMax = r6[last + 2] == -1L && r6[last + 3] == -1L;
+                    if (endIsMax || compare(r6[i], r6[i + 1], nextHi, nextLo) <= 0) {
+                        if (compare(r6[i + 2], r6[i + 3], r6[last + 2], r6[last + 3]) > 0) {
+                            r6[last + 2] = r6[i + 2];
+                            r6[last + 3] = r6[i + 3];
+                        }
+                        continue;
+                    }
+                }
+                System.arraycopy(r6, i, r6, n, 4);
+                n += 4;
+            }
+
+            return new IPBlockList(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(r6, n), entries, rejected);
+        }
+
+        private static void sort6(long[] a, int low, int high) {
+            while (low < high) {
+                if (high - low < 16) {
+                    // insertion sort
+                    for (int i = low + 1; i <= high; i++)
+                        for (int j = i; j > low && compare(a[j * 4], a[j * 4 + 1], a[(j - 1) * 4], a[(j - 1) * 4 + 1]) < 0; j--)
+                            swap6(a, j, j - 1);
+                    return;
+                }
+                int mid = (low + high) >>> 1;
+                long pHi = a[mid * 4], pLo = a[mid * 4 + 1];
+                int i = low, j = high;
+                while (i <= j) {
+                    while (compare(a[i * 4], a[i * 4 + 1], pHi, pLo) < 0)
+                        i++;
+                    while (compare(a[j * 4], a[j * 4 + 1], pHi, pLo) > 0)
+                        j--;
+                    if (i <= j)
+                        swap6(a, i++, j--);
+                }
+                // recurse on the smaller half
+                if (j - low < high - i) {
+                    sort6(a, low, j);
+                    low = i;
+                } else {
+                    sort6(a, i, high);
+                    high = j;
+                }
+            }
+        }
+
+        private static void swap6(long[] a, int i, int j) {
+            for (int k = 0; k < 4; k++) {
+                long t = a[i * 4 + k];
+                a[i * 4 + k] = a[j * 4 + k];
+                a[j * 4 + k] = t;
+            }
+        }
+
+        private static byte[] parse(String address) throws IOException {
+            if (address.isEmpty())
+                throw new IllegalArgumentException("Empty address");
+            if (address.indexOf(':') == -1) {
+                // IPv4 dotted quad
+                byte[] ret = new byte[4];
+                int part = 0, value = -1;
+                for (int i = 0; i < address.length(); i++) {
+                    char c = address.charAt(i);
+                    if (c >= '0' && c <= '9') {
+                        value = (value == -1 ? 0 : value * 10) + (c - '0');
+                        if (value > 255)
+                            throw new IllegalArgumentException("Invalid IPv4 " + address);
+                    } else if (c == '.' && value != -1 && part < 3) {
+                        ret[part++] = (byte) value;
+                        value = -1;
+                    } else
+                        throw new IllegalArgumentException("Invalid IPv4 " + address);
+                }
+                if (part != 3 || value == -1)
+                    throw new IllegalArgumentException("Invalid IPv4 " + address);
+                ret[3] = (byte) value;
+                return ret;
+            }
+
+            // IPv6 literal only, never resolve host names
+            for (int i = 0; i < address.length(); i++) {
+                char c = address.charAt(i);
+                if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == ':' || c == '.'))
+                    throw new IllegalArgumentException("Invalid IPv6 " + address);
+            }
+            byte[] ret = InetAddress.getByName(address).getAddress();
+            if (ret.length == 4) {
+                // IPv4 mapped address
+                byte[] mapped = new byte[16];
+                mapped[10] = (byte) 0xff;
+                mapped[11] = (byte) 0xff;
+                System.arraycopy(ret, 0, mapped, 12, 4);
+                ret = mapped;
+            }
+            return ret;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package org.zoxweb.server.net.security;
 
 import org.zoxweb.server.io.FileMonitor;
+import org.zoxweb.server.net.InetFilterRulesManager;
 import org.zoxweb.server.task.TaskSchedulerProcessor;
 import org.zoxweb.server.task.TaskUtil;
 import org.zoxweb.server.util.RuntimeUtil;
@@ -30,8 +31,8 @@ import org.zoxweb.shared.util.SUS;
 import org.zoxweb.shared.util.SharedStringUtil;
 import org.zoxweb.shared.util.SharedUtil;
 
-import java.io.Closeable;
-import java.io.IOException;
+import java.io.*;
+import java.net.InetAddress;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -106,6 +107,8 @@ public class IPBlockerListener
     private Map<IPAddress, RemoteIPInfo> ripiMap = new LinkedHashMap<IPAddress, RemoteIPInfo>();
     private IPBlockerConfig ipbc;
     private Lock lock = new ReentrantLock();
+    private volatile IPBlockList blockList = IPBlockList.EMPTY;
+    private volatile InetFilterRulesManager inetFilterRulesManager = null;
 
     public IPBlockerListener(IPBlockerConfig ipbc, TaskSchedulerProcessor tsp) {
         this.ipbc = ipbc;
@@ -251,6 +254,71 @@ public class IPBlockerListener
         return ipbc;
     }
 
+    /**
+     * Load a bulk block list feed, one address, CIDR network or range per line, and swap it in.
+     * The list is built on the calling thread, the accept path keeps using the previous list till the swap.
+     *
+     * @param is the UTF-8 feed stream, not closed
+     * @return the new block list
+     * @throws IOException in case of read error
+     */
+    public IPBlockList loadBlockList(InputStream is) throws IOException {
+        IPBlockList ret = IPBlockList.load(is);
+        setBlockList(ret);
+        return ret;
+    }
+
+    /**
+     * @param file the feed file
+     * @return the new block list
+     * @throws IOException in case of read error
+     */
+    public IPBlockList loadBlockList(File file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return loadBlockList(is);
+        } finally {
+            SharedIOUtil.close(is);
+        }
+    }
+
+    /**
+     * Swap the block list and push it to the inet filter rules manager if set.
+     *
+     * @param blockList the new block list, null to clear
+     */
+    public void setBlockList(IPBlockList blockList) {
+        this.blockList = blockList != null ? blockList : IPBlockList.EMPTY;
+        InetFilterRulesManager ifrm = inetFilterRulesManager;
+        if (ifrm != null)
+            ifrm.setBlockList(this.blockList);
+        log.info("block list loaded " + this.blockList);
+    }
+
+    public IPBlockList getBlockList() {
+        return blockList;
+    }
+
+    /**
+     * @param address to check
+     * @return true if the address is in the block list
+     */
+    public boolean isBlocked(InetAddress address) {
+        return blockList.contains(address);
+    }
+
+    /**
+     * Set the rules manager of the incoming connections, it receives the current and all the future block lists.
+     *
+     * @param inetFilterRulesManager the rules manager, usually the protocol factory incoming rules manager
+     */
+    public void setInetFilterRulesManager(InetFilterRulesManager inetFilterRulesManager) {
+        this.inetFilterRulesManager = inetFilterRulesManager;
+        if (inetFilterRulesManager != null)
+            inetFilterRulesManager.setBlockList(blockList);
+    }
+
 
 //	@Override
 //	public void executeTask(TaskEvent event)
@@ -114,6 +114,7 @@ public class SSLNIOSocketHandler
     //private final SSLSessionCallback sessionCallback;
     private final boolean simpleStateMachine;
     private transient boolean trustAll = false;
+    private ByteBufferUtil.BufferType netBufferType = ByteBufferUtil.BufferType.HEAP;
 
     ///private StaticSSLStateMachine staticSSLStateMachine = null;
 
@@ -155,6 +156,17 @@ public class SSLNIOSocketHandler
     }
 
 
+    /**
+     * Set the type of the session net buffers, must be set before the connection setup.
+     *
+     * @param bufferType HEAP or DIRECT
+     * @return this
+     */
+    public SSLNIOSocketHandler setNetBufferType(ByteBufferUtil.BufferType bufferType) {
+        this.netBufferType = bufferType;
+        return this;
+    }
+
     @Override
     public String getName() {
         return "SSLNIOSocket";
@@ -265,6 +277,7 @@ public class SSLNIOSocketHandler
             if (log.isEnabled()) log.getLogger().info("SSLStateMachine");
         }
         sessionCallback.setRemoteAddress((InetSocketAddress) ((SocketChannel) asc).getRemoteAddress());
+        sslConfig.setNetBufferType(netBufferType);
         sslConfig.beginHandshake(null);
         // not sure about
         //config.beginHandshake(false);
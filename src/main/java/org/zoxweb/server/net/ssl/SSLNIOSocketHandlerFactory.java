@@ -1,6 +1,7 @@
 package org.zoxweb.server.net.ssl;
 
 
+import org.zoxweb.server.io.ByteBufferUtil;
 import org.zoxweb.server.net.BaseSessionCallback;
 import org.zoxweb.server.net.ProtocolFactoryBase;
 import org.zoxweb.shared.data.ConfigDAO;
@@ -54,7 +55,8 @@ public class SSLNIOSocketHandlerFactory
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return new SSLNIOSocketHandler(sslContext, sc, getProperties().getValue("simple_state_machine", true), remoteConnection);
+        return new SSLNIOSocketHandler(sslContext, sc, getProperties().getValue("simple_state_machine", true), remoteConnection)
+                .setNetBufferType(getBufferType());
     }
 
     @Override
@@ -71,6 +73,9 @@ public class SSLNIOSocketHandlerFactory
             if (getProperties().getValue("session_callback") != null) {
                 scClass = (Class<BaseSessionCallback<SSLSessionConfig>>) Class.forName(getProperties().getValue("session_callback"));
             }
+            String bufferType = getProperties().getValue("buffer_type", null);
+            if (bufferType != null)
+                setBufferType(ByteBufferUtil.BufferType.valueOf(bufferType.toUpperCase()));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -31,6 +31,8 @@ public class SSLSessionConfig
     //public volatile ByteBuffer outSSLNetData = null;
     // Decrypted data application data
     private volatile ByteBuffer inDecryptionBuffer = null;
+    // type of the pooled net buffers, the decrypted buffer is always HEAP since it is handed to the callbacks
+    private volatile ByteBufferUtil.BufferType netBufferType = ByteBufferUtil.BufferType.HEAP;
     // the encrypted channel
     public volatile SocketChannel sslChannel = null;
     public volatile BaseChannelOutputStream sslOutputStream = null;
@@ -96,6 +98,20 @@ public class SSLSessionConfig
         this.sslConnectionHelper = sslConnectionHelper;
     }
 
+    /**
+     * Set the type of the pooled net buffers allocated by {@link #beginHandshake(IOBuffers)}, must be
+     * set before the handshake begins.
+     *
+     * @param bufferType HEAP or DIRECT
+     */
+    public void setNetBufferType(ByteBufferUtil.BufferType bufferType) {
+        this.netBufferType = bufferType != null ? bufferType : ByteBufferUtil.BufferType.HEAP;
+    }
+
+    public ByteBufferUtil.BufferType getNetBufferType() {
+        return netBufferType;
+    }
+
     public void forceCloseEnabled(boolean force) {
         this.forcedClose = force;
     }
@@ -185,11 +201,11 @@ public class SSLSessionConfig
                 // set the ssl engine mode client or sever
                 sslEngine.setUseClientMode(clientMode);
                 if (sslIOBuffers.getInBuffer() == null || sslIOBuffers.getInBuffer().capacity() < getPacketBufferSize()) {
-                    sslIOBuffers.setInBuffer(ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, getPacketBufferSize()));
+                    sslIOBuffers.setInBuffer(ByteBufferUtil.allocateByteBuffer(netBufferType, getPacketBufferSize()));
                 }
 
                 if (sslIOBuffers.getOutBuffer() == null || sslIOBuffers.getOutBuffer().capacity() < getPacketBufferSize()) {
-                    sslIOBuffers.setOutBuffer(ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, getPacketBufferSize()));
+                    sslIOBuffers.setOutBuffer(ByteBufferUtil.allocateByteBuffer(netBufferType, getPacketBufferSize()));
                 }
 
                 inDecryptionBuffer = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, getApplicationBufferSize());
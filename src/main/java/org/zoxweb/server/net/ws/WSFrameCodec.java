@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net.ws;
+
+import org.zoxweb.shared.http.HTTPWSProto;
+import org.zoxweb.shared.util.ProtocolException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RFC 6455 frame codec working directly over {@link ByteBuffer}s.
+ * <p>
+ * Unlike {@link org.zoxweb.shared.http.HTTPWSFrame} it does not copy: a {@link Frame} is a reusable
+ * header parsed at an absolute buffer index, the payload is unmasked in place eight bytes at a time
+ * and handed out as a view of the same buffer. Headers are encoded into a separate small buffer so
+ * the header and the payload can be sent with one gathering write. 64 bit payload lengths are
+ * supported up to {@link Integer#MAX_VALUE}.
+ * </p>
+ */
+public final class WSFrameCodec {
+
+    /**
+     * The largest frame header, 2 bytes, 8 bytes extended length and 4 bytes masking key
+     */
+    public static final int MAX_HEADER_SIZE = 14;
+    /**
+     * The largest control frame payload
+     */
+    public static final int MAX_CONTROL_PAYLOAD = 125;
+
+    public static final int OP_CONTINUATION = 0x0;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_GOING_AWAY = 1001;
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_NO_STATUS = 1005;
+    public static final int CLOSE_INVALID_DATA = 1007;
+    public static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+    private WSFrameCodec() {
+    }
+
+    /**
+     * A frame header parsed from a buffer, reused from frame to frame.
+     */
+    public static final class Frame {
+        private boolean fin;
+        private int rsv;
+        private int opCode;
+        private boolean masked;
+        private int mask;
+        private int offset;
+        private int headerLength;
+        private int payloadLength;
+
+        /**
+         * Parse the frame header starting at the absolute index offset.
+         *
+         * @param bb             the buffer, its position and limit are not modified
+         * @param offset         absolute index of the frame
+         * @param limit          absolute index of the end of the data
+         * @param maxPayloadSize the largest accepted payload
+         * @return true if the header is complete, the payload may still be partial
+         * @throws ProtocolException if the payload length exceeds maxPayloadSize or is malformed
+         */
+        public boolean parse(ByteBuffer bb, int offset, int limit, int maxPayloadSize) {
+            if (limit - offset < 2)
+                return false;
+            int b0 = bb.get(offset) & 0xff;
+            int b1 = bb.get(offset + 1) & 0xff;
+            int len = b1 & 0x7f;
+            int header = 2;
+            long payload;
+            if (len < 126) {
+                payload = len;
+            } else if (len == 126) {
+                if (limit - offset < 4)
+                    return false;
+                payload = bb.getShort(offset + 2) & 0xffff;
+                if (bb.order() != ByteOrder.BIG_ENDIAN)
+                    payload = Short.reverseBytes((short) payload) & 0xffff;
+                header = 4;
+            } else {
+                if (limit - offset < 10)
+                    return false;
+                payload = bb.getLong(offset + 2);
+                if (bb.order() != ByteOrder.BIG_ENDIAN)
+                    payload = Long.reverseBytes(payload);
+                if (payload < 0)
+                    throw new ProtocolException("Invalid payload length " + payload);
+                header = 10;
+            }
+            if (payload > maxPayloadSize)
+                throw new MessageTooBigException("Frame payload " + payload + " > " + maxPayloadSize);
+
+            boolean isMasked = (b1 & 0x80) != 0;
+            if (isMasked) {
+                if (limit - offset < header + 4)
+                    return false;
+                int m = bb.getInt(offset + header);
+                mask = bb.order() == ByteOrder.BIG_ENDIAN ? m : Integer.reverseBytes(m);
+                header += 4;
+            } else
+                mask = 0;
+
+            this.fin = (b0 & 0x80) != 0;
+            this.rsv = b0 & 0x70;
+            this.opCode = b0 & 0x0f;
+            this.masked = isMasked;
+            this.offset = offset;
+            this.headerLength = header;
+            this.payloadLength = (int) payload;
+            return true;
+        }
+
+        public boolean isFin() {
+            return fin;
+        }
+
+        /**
+         * @return the RSV bits, 0 unless an extension was negotiated
+         */
+        public int rsv() {
+            return rsv;
+        }
+
+        /**
+         * @return the raw 4 bit opcode
+         */
+        public int opCode() {
+            return opCode;
+        }
+
+        public boolean isControl() {
+            return (opCode & 0x08) != 0;
+        }
+
+        public boolean isMasked() {
+            return masked;
+        }
+
+        /**
+         * @return the masking key as a big endian int, 0 if not masked
+         */
+        public int mask() {
+            return mask;
+        }
+
+        /**
+         * @return absolute index of the payload
+         */
+        public int payloadOffset() {
+            return offset + headerLength;
+        }
+
+        public int payloadLength() {
+            return payloadLength;
+        }
+
+        /**
+         * @return absolute index after the end of the frame
+         */
+        public int endOffset() {
+            return offset + headerLength + payloadLength;
+        }
+
+        /**
+         * Unmask the payload in place, once.
+         *
+         * @param bb the buffer the frame was parsed from
+         */
+        public void unmask(ByteBuffer bb) {
+            if (masked) {
+                WSFrameCodec.unmask(bb, payloadOffset(), payloadLength, mask);
+                masked = false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Frame{fin=" + fin + ", opCode=" + opCode + ", masked=" + masked + ", offset=" + offset +
+                    ", headerLength=" + headerLength + ", payloadLength=" + payloadLength + "}";
+        }
+    }
+
+    /**
+     * Frame or message payload larger than the session limit, the session closes with
+     * {@link #CLOSE_MESSAGE_TOO_BIG}.
+     */
+    public static class MessageTooBigException
+            extends ProtocolException {
+        public MessageTooBigException(String str) {
+            super(str);
+        }
+    }
+
+    /**
+     * Xor a payload range with the masking key in place, masking and unmasking are the same operation.
+     *
+     * @param bb     the buffer, its position and limit are not modified
+     * @param offset absolute index of the payload start, the key phase is 0 at offset
+     * @param length of the range
+     * @param mask   the masking key as a big endian int
+     */
+    public static void unmask(ByteBuffer bb, int offset, int length, int mask) {
+        if (mask == 0 || length <= 0)
+            return;
+
+        int end = offset + length;
+        int i = offset;
+        if (length >= 8) {
+            long m = ((long) mask << 32) | (mask & 0xffffffffL);
+            if (bb.order() != ByteOrder.BIG_ENDIAN)
+                m = Long.reverseBytes(m);
+            for (int last = end - 8; i <= last; i += 8)
+                bb.putLong(i, bb.getLong(i) ^ m);
+        }
+        for (; i < end; i++)
+            bb.put(i, (byte) (bb.get(i) ^ (mask >>> (24 - 8 * ((i - offset) & 3)))));
+    }
+
+    /**
+     * Encode a frame header.
+     *
+     * @param header        the destination, at least {@link #MAX_HEADER_SIZE} bytes remaining
+     * @param fin           true for the last frame of a message
+     * @param opCode        the opcode, {@link #OP_CONTINUATION} for a continuation frame
+     * @param payloadLength the payload length
+     * @param mask          the masking key as a big endian int, 0 for an unmasked server frame
+     * @return the header length
+     */
+    public static int encodeHeader(ByteBuffer header, boolean fin, int opCode, long payloadLength, int mask) {
+        int start = header.position();
+        header.put((byte) ((fin ? 0x80 : 0) | (opCode & 0x0f)));
+        int maskBit = mask != 0 ? 0x80 : 0;
+        if (payloadLength < 126) {
+            header.put((byte) (maskBit | (int) payloadLength));
+        } else if (payloadLength <= 0xffff) {
+            header.put((byte) (maskBit | 126));
+            header.put((byte) (payloadLength >>> 8));
+            header.put((byte) payloadLength);
+        } else {
+            header.put((byte) (maskBit | 127));
+            for (int shift = 56; shift >= 0; shift -= 8)
+                header.put((byte) (payloadLength >>> shift));
+        }
+        if (mask != 0) {
+            header.put((byte) (mask >>> 24));
+            header.put((byte) (mask >>> 16));
+            header.put((byte) (mask >>> 8));
+            header.put((byte) mask);
+        }
+        return header.position() - start;
+    }
+
+    /**
+     * @param opCode the opcode enum
+     * @return the raw opcode
+     */
+    public static int opCode(HTTPWSProto.OpCode opCode) {
+        return opCode.opCode() & 0x0f;
+    }
+}
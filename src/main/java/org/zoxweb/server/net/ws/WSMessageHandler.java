@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net.ws;
+
+import org.zoxweb.shared.http.HTTPWSProto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Application side of a {@link WSSessionCallback}, invoked on the session dispatch thread.
+ */
+public interface WSMessageHandler {
+
+    /**
+     * Invoked once the session is upgraded.
+     *
+     * @param session the websocket session
+     */
+    default void onOpen(WSSessionCallback<?> session) {
+    }
+
+    /**
+     * Invoked per complete text or binary message. The payload buffers are views of the session
+     * receive buffer, one per frame of a fragmented message, they are only valid during the call.
+     *
+     * @param session the websocket session
+     * @param opCode  {@link HTTPWSProto.OpCode#TEXT} or {@link HTTPWSProto.OpCode#BINARY}
+     * @param payload the unmasked message fragments
+     */
+    void onMessage(WSSessionCallback<?> session, HTTPWSProto.OpCode opCode, ByteBuffer[] payload);
+
+    /**
+     * Invoked once when the session closes, by a close frame or an error.
+     *
+     * @param session the websocket session
+     * @param code    the close status code
+     * @param reason  the close reason, may be empty
+     */
+    default void onClose(WSSessionCallback<?> session, int code, String reason) {
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.net.ws;
+
+import org.zoxweb.server.http.HTTPRequestParser;
+import org.zoxweb.server.http.HTTPUtil;
+import org.zoxweb.server.io.ByteBufferUtil;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.net.BaseChannelOutputStream;
+import org.zoxweb.server.net.BaseSessionCallback;
+import org.zoxweb.shared.http.HTTPHeader;
+import org.zoxweb.shared.http.HTTPMethod;
+import org.zoxweb.shared.http.HTTPWSProto;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server side websocket session, plugs into a {@link org.zoxweb.server.net.NIOSocketHandler} or an
+ * {@link org.zoxweb.server.net.ssl.SSLNIOSocketHandler} as their session callback.
+ * <p>
+ * Complete frames are parsed, unmasked in place and dispatched straight from the transport buffer.
+ * Only a partial frame tail, or the frames of a fragmented message, are copied into a pooled
+ * session buffer where the fragments stay in place until the final frame, the message is then
+ * delivered as one payload view per fragment. Outbound frames are written with a gathering write
+ * of the header and the payload.
+ * </p>
+ * By default the session performs the HTTP upgrade handshake itself, a session created with
+ * {@code handshake=false} expects frames from the first byte.
+ *
+ * @param <CF> the session configuration type
+ */
+public class WSSessionCallback<CF>
+        extends BaseSessionCallback<CF> {
+
+    public static final LogWrapper log = new LogWrapper(WSSessionCallback.class).setEnabled(false);
+
+    /**
+     * Default maximum message size 1M
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = SharedIOUtil.K_1 * SharedIOUtil.K_1;
+    /**
+     * Maximum size of the upgrade request
+     */
+    public static final int MAX_HANDSHAKE_SIZE = SharedIOUtil.K_8;
+
+    private static final byte[] CRLFCRLF = {'\r', '\n', '\r', '\n'};
+    private static final ByteBuffer[] NO_PAYLOAD = new ByteBuffer[0];
+
+    private final WSMessageHandler handler;
+    private final WSFrameCodec.Frame frame = new WSFrameCodec.Frame();
+    private final ByteBuffer header = ByteBuffer.allocate(WSFrameCodec.MAX_HEADER_SIZE);
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    private final AtomicBoolean closeNotified = new AtomicBoolean();
+    private volatile boolean upgraded;
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+    // write-mode, data in [0, position), consumed up to readIndex
+    private ByteBuffer inBuffer;
+    private int readIndex;
+    // payload offset and length pairs of the pending message fragments in inBuffer
+    private int[] fragments = new int[16];
+    private int fragmentCount;
+    private int messageOpCode = -1;
+    private int messageLength;
+
+    /**
+     * Create a session performing the upgrade handshake.
+     *
+     * @param handler the application message handler
+     */
+    public WSSessionCallback(WSMessageHandler handler) {
+        this(handler, true);
+    }
+
+    /**
+     * @param handler   the application message handler
+     * @param handshake true to perform the HTTP upgrade handshake, false if the connection is already upgraded
+     */
+    public WSSessionCallback(WSMessageHandler handler, boolean handshake) {
+        SUS.checkIfNulls("Null message handler", handler);
+        this.handler = handler;
+        this.upgraded = !handshake;
+        boolean stat = closeableDelegate.setDelegate(() -> {
+            notifyClose(WSFrameCodec.CLOSE_GOING_AWAY, "");
+            SharedIOUtil.close(getOutputStream());
+            synchronized (this) {
+                ByteBufferUtil.cache(inBuffer);
+                inBuffer = null;
+            }
+        });
+        if (!stat)
+            throw new IllegalStateException("Cannot set delegate to WSSessionCallback");
+    }
+
+    /**
+     * @return the maximum message size
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * @param maxMessageSize the maximum message size, all fragments included
+     * @return this
+     */
+    public WSSessionCallback<CF> setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < WSFrameCodec.MAX_CONTROL_PAYLOAD)
+            throw new IllegalArgumentException("Invalid max message size " + maxMessageSize);
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    /**
+     * @return true once the upgrade handshake completed
+     */
+    public boolean isUpgraded() {
+        return upgraded;
+    }
+
+    /**
+     * Process the transport data, bb is in write-mode and is fully consumed.
+     *
+     * @param bb the received data
+     */
+    @Override
+    public synchronized void accept(ByteBuffer bb) {
+        try {
+            ((Buffer) bb).flip();
+            if (!upgraded) {
+                append(bb);
+                if (!handshake())
+                    return;
+            } else if (bufferedBytes() == 0 && messageOpCode == -1) {
+                // fast path, no pending data nor fragments, dispatch straight from the transport buffer
+                ((Buffer) bb).position(process(bb, bb.position(), bb.limit(), true));
+                if (bb.hasRemaining())
+                    append(bb);
+            } else
+                append(bb);
+
+            if (bufferedBytes() > 0) {
+                readIndex = process(inBuffer, readIndex, inBuffer.position(), false);
+                compact();
+            }
+        } catch (WSFrameCodec.MessageTooBigException e) {
+            close(WSFrameCodec.CLOSE_MESSAGE_TOO_BIG, e.getMessage());
+        } catch (ProtocolException e) {
+            close(WSFrameCodec.CLOSE_PROTOCOL_ERROR, e.getMessage());
+        } catch (Exception e) {
+            exception(e);
+        } finally {
+            ((Buffer) bb).clear();
+        }
+    }
+
+    /**
+     * Dispatch the complete frames in [offset, limit) of buf.
+     *
+     * @param buf    the buffer
+     * @param offset absolute index of the first frame
+     * @param limit  absolute index of the end of the data
+     * @param direct true if buf is the transport buffer, the fragments of a message must be retained in the session buffer
+     * @return the index of the first frame not processed
+     * @throws IOException in case of a write error
+     */
+    private int process(ByteBuffer buf, int offset, int limit, boolean direct) throws IOException {
+        while (!isClosed() && frame.parse(buf, offset, limit, maxMessageSize)) {
+            if (frame.endOffset() > limit)
+                break;
+            if (frame.rsv() != 0)
+                throw new ProtocolException("RSV bits set without extension");
+            if (!frame.isMasked())
+                throw new ProtocolException("Client frame not masked");
+
+            if (frame.isControl()) {
+                if (!frame.isFin() || frame.payloadLength() > WSFrameCodec.MAX_CONTROL_PAYLOAD)
+                    throw new ProtocolException("Invalid control frame " + frame);
+                frame.unmask(buf);
+                control(buf);
+            } else {
+                if (direct && !frame.isFin())
+                    break;
+                frame.unmask(buf);
+                data(buf);
+            }
+            offset = frame.endOffset();
+        }
+        return offset;
+    }
+
+    private void control(ByteBuffer buf) throws IOException {
+        ByteBuffer payload = view(buf, frame.payloadOffset(), frame.payloadLength());
+        switch (frame.opCode()) {
+            case 0x8:
+                int code = WSFrameCodec.CLOSE_NO_STATUS;
+                String reason = "";
+                if (payload.remaining() >= 2) {
+                    code = payload.getShort(0) & 0xffff;
+                    reason = toText(view(payload, 2, payload.remaining() - 2));
+                } else if (payload.hasRemaining())
+                    throw new ProtocolException("Invalid close payload");
+                notifyClose(code, reason);
+                close(code == WSFrameCodec.CLOSE_NO_STATUS ? WSFrameCodec.CLOSE_NORMAL : code, null);
+                break;
+            case 0x9:
+                send(true, HTTPWSProto.OpCode.PONG.opCode(), payload);
+                break;
+            case 0xA:
+                break;
+            default:
+                throw new ProtocolException("Invalid opcode " + frame.opCode());
+        }
+    }
+
+    private void data(ByteBuffer buf) {
+        int opCode = frame.opCode();
+        if (opCode == WSFrameCodec.OP_CONTINUATION) {
+            if (messageOpCode == -1)
+                throw new ProtocolException("Continuation frame without message");
+        } else if (opCode == 0x1 || opCode == 0x2) {
+            if (messageOpCode != -1)
+                throw new ProtocolException("New message before the final fragment");
+        } else
+            throw new ProtocolException("Invalid opcode " + opCode);
+
+        if (frame.isFin() && messageOpCode == -1) {
+            // single frame message
+            handler.onMessage(this, HTTPWSProto.OpCode.decode(opCode), new ByteBuffer[]{view(buf, frame.payloadOffset(), frame.payloadLength())});
+            return;
+        }
+
+        if ((long) messageLength + frame.payloadLength() > maxMessageSize)
+            throw new WSFrameCodec.MessageTooBigException("Message size " + ((long) messageLength + frame.payloadLength()) + " > " + maxMessageSize);
+        if (messageOpCode == -1)
+            messageOpCode = opCode;
+        if (fragmentCount * 2 == fragments.length) {
+            int[] temp = new int[fragments.length * 2];
+            System.arraycopy(fragments, 0, temp, 0, fragments.length);
+            fragments = temp;
+        }
+        fragments[fragmentCount * 2] = frame.payloadOffset();
+        fragments[fragmentCount * 2 + 1] = frame.payloadLength();
+        fragmentCount++;
+        messageLength += frame.payloadLength();
+
+        if (frame.isFin()) {
+            ByteBuffer[] payload = new ByteBuffer[fragmentCount];
+            for (int i = 0; i < fragmentCount; i++)
+                payload[i] = view(buf, fragments[i * 2], fragments[i * 2 + 1]);
+            HTTPWSProto.OpCode messageType = HTTPWSProto.OpCode.decode(messageOpCode);
+            fragmentCount = 0;
+            messageOpCode = -1;
+            messageLength = 0;
+            handler.onMessage(this, messageType, payload);
+        }
+    }
+
+    private boolean handshake() throws IOException {
+        int end = indexOf(inBuffer, readIndex, inBuffer.position(), CRLFCRLF);
+        if (end == -1) {
+            if (bufferedBytes() > MAX_HANDSHAKE_SIZE)
+                throw new IOException("Upgrade request too large " + bufferedBytes());
+            return false;
+        }
+        end += CRLFCRLF.length;
+
+        // only the headers used by the handshake are materialised, a request with a body is rejected
+        HTTPRequestParser.Request request = null;
+        try {
+            HTTPRequestParser parser = new HTTPRequestParser(MAX_HANDSHAKE_SIZE, 0);
+            if (parser.feed(inBuffer.array(), inBuffer.arrayOffset() + readIndex, end - readIndex) == 1)
+                request = parser.poll();
+        } catch (IllegalArgumentException e) {
+            if (log.isEnabled()) log.getLogger().info("Invalid upgrade request " + e);
+        }
+        String key = request != null ? request.getHeaderValue(HTTPHeader.SEC_WEBSOCKET_KEY.getName()) : null;
+        String upgrade = request != null ? request.getHeaderValue(HTTPHeader.UPGRADE.getName()) : null;
+        String version = request != null ? request.getHeaderValue(HTTPHeader.SEC_WEBSOCKET_VERSION.getName()) : null;
+        if (request == null || request.getMethod() != HTTPMethod.GET || key == null || upgrade == null || version == null ||
+                !"websocket".equalsIgnoreCase(upgrade.trim()) || !"13".equals(version.trim())) {
+            getOutputStream().write("HTTP/1.1 400 Bad Request\r\nConnection: close\r\nSec-WebSocket-Version: 13\r\nContent-Length: 0\r\n\r\n");
+            SharedIOUtil.close(this);
+            return false;
+        }
+
+        getOutputStream().write("HTTP/1.1 101 Switching Protocols\r\n" +
+                HTTPHeader.UPGRADE.getName() + ": websocket\r\n" +
+                HTTPHeader.CONNECTION.getName() + ": Upgrade\r\n" +
+                HTTPHeader.SEC_WEBSOCKET_ACCEPT.getName() + ": " + HTTPUtil.toWebSocketAcceptValue(key.trim()) + "\r\n\r\n");
+        readIndex = end;
+        upgraded = true;
+        handler.onOpen(this);
+        return true;
+    }
+
+    /**
+     * Send a complete text message.
+     *
+     * @param text the message
+     * @return the number of bytes transmitted
+     * @throws IOException in case of error
+     */
+    public long sendText(String text) throws IOException {
+        return send(true, HTTPWSProto.OpCode.TEXT.opCode(), ByteBuffer.wrap(SharedStringUtil.getBytes(text)));
+    }
+
+    /**
+     * Send a complete binary message.
+     *
+     * @param data   the message
+     * @param offset in data
+     * @param length of the message
+     * @return the number of bytes transmitted
+     * @throws IOException in case of error
+     */
+    public long sendBinary(byte[] data, int offset, int length) throws IOException {
+        return send(true, HTTPWSProto.OpCode.BINARY.opCode(), ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Send a message frame, the header and the payload buffers are written with one gathering write.
+     *
+     * @param opCode  the message opcode
+     * @param payload read-mode buffers, drained by the call
+     * @return the number of bytes transmitted
+     * @throws IOException in case of error
+     */
+    public long send(HTTPWSProto.OpCode opCode, ByteBuffer... payload) throws IOException {
+        return send(true, opCode.opCode(), payload);
+    }
+
+    /**
+     * Send a frame, use {@link WSFrameCodec#OP_CONTINUATION} for the frames following the first of a
+     * fragmented message.
+     *
+     * @param fin     true for the last frame of the message
+     * @param opCode  the raw opcode
+     * @param payload read-mode buffers, drained by the call
+     * @return the number of bytes transmitted
+     * @throws IOException in case of error
+     */
+    public long send(boolean fin, int opCode, ByteBuffer... payload) throws IOException {
+        if (!upgraded)
+            throw new IOException("Session not upgraded");
+        if (payload == null)
+            payload = NO_PAYLOAD;
+
+        long length = 0;
+        for (ByteBuffer bb : payload)
+            length += bb.remaining();
+
+        BaseChannelOutputStream os = getOutputStream();
+        if (os == null || os.isClosed())
+            throw new IOException("Session closed");
+
+        ByteBuffer[] buffers = new ByteBuffer[payload.length + 1];
+        System.arraycopy(payload, 0, buffers, 1, payload.length);
+        // the stream lock keeps the header buffer and the frame bytes together
+        synchronized (os) {
+            ((Buffer) header).clear();
+            WSFrameCodec.encodeHeader(header, fin, opCode, length, 0);
+            ((Buffer) header).flip();
+            buffers[0] = header;
+            return os.write(buffers);
+        }
+    }
+
+    /**
+     * Send a close frame once and close the session.
+     *
+     * @param code   the close status code
+     * @param reason the close reason, may be null
+     */
+    public void close(int code, String reason) {
+        try {
+            if (upgraded && !closeSent.getAndSet(true) && getOutputStream() != null && !getOutputStream().isClosed()) {
+                byte[] reasonBytes = reason != null ? SharedStringUtil.getBytes(reason) : new byte[0];
+                int reasonLength = Math.min(reasonBytes.length, WSFrameCodec.MAX_CONTROL_PAYLOAD - 2);
+                ByteBuffer payload = ByteBuffer.allocate(2 + reasonLength);
+                payload.putShort((short) code).put(reasonBytes, 0, reasonLength);
+                ((Buffer) payload).flip();
+                send(true, HTTPWSProto.OpCode.CLOSE.opCode(), payload);
+            }
+        } catch (Exception e) {
+            if (log.isEnabled()) log.getLogger().info("close frame failed " + e);
+        }
+        notifyClose(code, reason != null ? reason : "");
+        SharedIOUtil.close(this);
+    }
+
+    @Override
+    public void exception(Throwable e) {
+        if (log.isEnabled()) log.getLogger().info("session error " + e);
+        close(WSFrameCodec.CLOSE_GOING_AWAY, null);
+    }
+
+    private void notifyClose(int code, String reason) {
+        if (upgraded && !closeNotified.getAndSet(true)) {
+            try {
+                handler.onClose(this, code, reason);
+            } catch (Exception e) {
+                if (log.isEnabled()) e.printStackTrace();
+            }
+        }
+    }
+
+    private int bufferedBytes() {
+        return inBuffer != null ? inBuffer.position() - readIndex : 0;
+    }
+
+    /**
+     * Append the remaining bytes of bb to the session buffer, compacting or growing it.
+     */
+    private void append(ByteBuffer bb) {
+        if (inBuffer == null) {
+            inBuffer = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, capacityFor(bb.remaining()));
+            readIndex = 0;
+        }
+        if (inBuffer.remaining() < bb.remaining()) {
+            compact();
+            if (inBuffer.remaining() < bb.remaining()) {
+                ByteBuffer temp = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, capacityFor(inBuffer.position() + bb.remaining()));
+                ((Buffer) inBuffer).flip();
+                temp.put(inBuffer);
+                ByteBufferUtil.cache(inBuffer);
+                inBuffer = temp;
+            }
+        }
+        inBuffer.put(bb);
+    }
+
+    /**
+     * Discard the consumed bytes, the pending fragments are kept and their offsets shifted.
+     */
+    private void compact() {
+        if (inBuffer == null)
+            return;
+        int keep = fragmentCount > 0 ? Math.min(fragments[0], readIndex) : readIndex;
+        if (keep == 0)
+            return;
+
+        if (keep == inBuffer.position()) {
+            ((Buffer) inBuffer).clear();
+        } else {
+            byte[] array = inBuffer.array();
+            int base = inBuffer.arrayOffset();
+            System.arraycopy(array, base + keep, array, base, inBuffer.position() - keep);
+            ((Buffer) inBuffer).position(inBuffer.position() - keep);
+        }
+        readIndex -= keep;
+        for (int i = 0; i < fragmentCount; i++)
+            fragments[i * 2] -= keep;
+
+        if (inBuffer.position() == 0 && inBuffer.capacity() > SharedIOUtil.K_4) {
+            // release a buffer grown for a large message
+            ByteBufferUtil.cache(inBuffer);
+            inBuffer = null;
+            readIndex = 0;
+        }
+    }
+
+    private static int capacityFor(int length) {
+        int ret = SharedIOUtil.K_4;
+        while (ret < length && ret > 0)
+            ret <<= 1;
+        return ret > 0 ? ret : Integer.MAX_VALUE;
+    }
+
+    private static ByteBuffer view(ByteBuffer buf, int offset, int length) {
+        ByteBuffer ret = buf.duplicate();
+        ((Buffer) ret).limit(offset + length).position(offset);
+        return ret.slice();
+    }
+
+    private static int indexOf(ByteBuffer buf, int from, int to, byte[] match) {
+        for (int i = from, last = to - match.length; i <= last; i++) {
+            int j = 0;
+            while (j < match.length && buf.get(i + j) == match[j])
+                j++;
+            if (j == match.length)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Decode utf-8 message fragments.
+     *
+     * @param payload the message fragments
+     * @return the text
+     */
+    public static String toText(ByteBuffer... payload) {
+        if (payload.length == 1 && payload[0].hasArray())
+            return new String(payload[0].array(), payload[0].arrayOffset() + payload[0].position(), payload[0].remaining(), StandardCharsets.UTF_8);
+
+        int length = 0;
+        for (ByteBuffer bb : payload)
+            length += bb.remaining();
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (ByteBuffer bb : payload) {
+            int n = bb.remaining();
+            bb.duplicate().get(bytes, offset, n);
+            offset += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
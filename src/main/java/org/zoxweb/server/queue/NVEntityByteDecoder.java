@@ -1,6 +1,7 @@
 package org.zoxweb.server.queue;
 
 import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.NVBinaryCodec;
 import org.zoxweb.shared.api.APIException;
 import org.zoxweb.shared.security.AccessException;
 import org.zoxweb.shared.util.DataDecoder;
@@ -9,13 +10,31 @@ import org.zoxweb.shared.util.SharedBase64.Base64Type;
 
 public class NVEntityByteDecoder implements DataDecoder<byte[], NVEntityQueueEvent> {
 
+	private final boolean binary;
+
+	/**
+	 * Decode the base64 url encoded json produced by {@link NVEntityQueueEvent#toBytes()}
+	 */
+	public NVEntityByteDecoder()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param binary if true decode the {@link NVBinaryCodec} format instead of json
+	 */
+	public NVEntityByteDecoder(boolean binary)
+	{
+		this.binary = binary;
+	}
+
 	@Override
 	public NVEntityQueueEvent decode(byte[] input) 
 	{
 		try 
 		{
-			NVEntity content = GSONUtil.fromJSON(input, Base64Type.URL);
-			return new NVEntityQueueEvent(this, content);
+			NVEntity content = binary ? NVBinaryCodec.decodeNVEntity(input) : GSONUtil.fromJSON(input, Base64Type.URL);
+			return new NVEntityQueueEvent(this, content, binary);
 		} catch (AccessException | APIException | NullPointerException
 				| IllegalArgumentException e) {
 			// TODO Auto-generated catch block
@@ -15,11 +15,12 @@
  */
 package org.zoxweb.server.queue;
 
+import org.zoxweb.server.io.UByteArrayOutputStream;
 import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.NVBinaryCodec;
 import org.zoxweb.shared.queue.QueueEvent;
 import org.zoxweb.shared.util.NVEntity;
 import org.zoxweb.shared.util.SharedBase64.Base64Type;
-import org.zoxweb.shared.util.SharedStringUtil;
 
 import java.io.IOException;
 import java.util.Date;
@@ -27,11 +28,22 @@ import java.util.Date;
 
 public class NVEntityQueueEvent extends QueueEvent<NVEntity> {
 
+    private boolean binary;
 
     public NVEntityQueueEvent(Object source, NVEntity content) {
         this(source, false, 0, null, null, null, content);
     }
 
+    /**
+     * @param source  of the event
+     * @param content of the event
+     * @param binary  if true {@link #toBytes()} encodes the {@link NVBinaryCodec} format instead of json
+     */
+    public NVEntityQueueEvent(Object source, NVEntity content, boolean binary) {
+        this(source, content);
+        this.binary = binary;
+    }
+
     public NVEntityQueueEvent(Object source, boolean persistent, int priority, Date timestamp, String correlationID, String replyTo, NVEntity content) {
         super(source, persistent, priority, timestamp, correlationID, replyTo, content);
         // TODO Auto-generated constructor stub
@@ -44,13 +56,15 @@ public class NVEntityQueueEvent extends QueueEvent<NVEntity> {
 
 
     /**
-     * Convert the object to base64 url encoded json byte array
-     * @return byte array as JSON
+     * Convert the object to base64 url encoded json byte array, or to the binary codec format
+     * @return byte array as JSON or binary
      */
     @Override
     public byte[] toBytes() {
+        if (binary)
+            return NVBinaryCodec.encode((NVEntity) getContent());
         try {
-            return SharedStringUtil.getBytes(GSONUtil.toJSON(getContent(), false, false, true, Base64Type.URL));
+            return GSONUtil.toJSON(new UByteArrayOutputStream(), getContent(), false, false, true, Base64Type.URL).toByteArray();
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -58,4 +72,10 @@ public class NVEntityQueueEvent extends QueueEvent<NVEntity> {
         }
     }
 
+    /**
+     * @return true if {@link #toBytes()} encodes the {@link NVBinaryCodec} format
+     */
+    public boolean isBinary() {
+        return binary;
+    }
 }
@@ -1,6 +1,7 @@
 package org.zoxweb.server.queue;
 
 import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.NVBinaryCodec;
 import org.zoxweb.shared.api.APIException;
 import org.zoxweb.shared.security.AccessException;
 import org.zoxweb.shared.util.DataDecoder;
@@ -10,11 +11,28 @@ import org.zoxweb.shared.util.SharedStringUtil;
 
 public class NVGenericMapByteDecoder implements DataDecoder<byte[], NVGenericMapQueueEvent> {
 
+    private final boolean binary;
+
+    /**
+     * Decode the json produced by {@link NVGenericMapQueueEvent#toBytes()}
+     */
+    public NVGenericMapByteDecoder() {
+        this(false);
+    }
+
+    /**
+     * @param binary if true decode the {@link NVBinaryCodec} format instead of json
+     */
+    public NVGenericMapByteDecoder(boolean binary) {
+        this.binary = binary;
+    }
+
     @Override
     public NVGenericMapQueueEvent decode(byte[] input) {
         try {
-            NVGenericMap content = GSONUtil.fromJSONGenericMap(SharedStringUtil.toString(input), null, Base64Type.URL);
-            return new NVGenericMapQueueEvent(this, content);
+            NVGenericMap content = binary ? NVBinaryCodec.decodeNVGenericMap(input) :
+                    GSONUtil.fromJSONGenericMap(SharedStringUtil.toString(input), null, Base64Type.URL);
+            return new NVGenericMapQueueEvent(this, content, binary);
         } catch (AccessException | APIException | NullPointerException | IllegalArgumentException e) {
             // TODO Auto-generated catch block
             throw new IllegalArgumentException(e.getMessage());
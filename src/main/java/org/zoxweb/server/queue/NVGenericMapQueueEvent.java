@@ -15,10 +15,11 @@
  */
 package org.zoxweb.server.queue;
 
+import org.zoxweb.server.io.UByteArrayOutputStream;
 import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.NVBinaryCodec;
 import org.zoxweb.shared.queue.QueueEvent;
 import org.zoxweb.shared.util.NVGenericMap;
-import org.zoxweb.shared.util.SharedStringUtil;
 
 import java.io.IOException;
 import java.util.Date;
@@ -26,11 +27,22 @@ import java.util.Date;
 
 public class NVGenericMapQueueEvent extends QueueEvent<NVGenericMap> {
 
+    private boolean binary;
 
     public NVGenericMapQueueEvent(Object source, NVGenericMap content) {
         this(source, false, 0, null, null, null, content);
     }
 
+    /**
+     * @param source  of the event
+     * @param content of the event
+     * @param binary  if true {@link #toBytes()} encodes the {@link NVBinaryCodec} format instead of json
+     */
+    public NVGenericMapQueueEvent(Object source, NVGenericMap content, boolean binary) {
+        this(source, content);
+        this.binary = binary;
+    }
+
     public NVGenericMapQueueEvent(Object source, boolean persistent, int priority, Date timestamp, String correlationID, String replyTo, NVGenericMap content) {
         super(source, persistent, priority, timestamp, correlationID, replyTo, content);
         // TODO Auto-generated constructor stub
@@ -43,12 +55,14 @@ public class NVGenericMapQueueEvent extends QueueEvent<NVGenericMap> {
 
     @Override
     /**
-     * Convert the object to base64 url encoded json byte array
-     * @return the json byte array
+     * Convert the object to base64 url encoded json byte array, or to the binary codec format
+     * @return the json or binary byte array
      */
     public byte[] toBytes() {
+        if (binary)
+            return NVBinaryCodec.encode((NVGenericMap) getContent());
         try {
-            return SharedStringUtil.getBytes(GSONUtil.toJSONGenericMap(getContent(), false, false, true));
+            return GSONUtil.toJSONGenericMap(new UByteArrayOutputStream(), getContent(), false, false, true).toByteArray();
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -56,4 +70,10 @@ public class NVGenericMapQueueEvent extends QueueEvent<NVGenericMap> {
         }
     }
 
+    /**
+     * @return true if {@link #toBytes()} encodes the {@link NVBinaryCodec} format
+     */
+    public boolean isBinary() {
+        return binary;
+    }
 }
@@ -711,9 +711,7 @@ public class CryptoUtil {
             case HS384:
             case HS512:
                 SUS.checkIfNulls("Null key", key);
-                Mac hmac = HashUtil.getMac(jwtAlgo.getSignatureAlgo());
-                SecretKeySpec secret_key = new SecretKeySpec(key, jwtAlgo.getSignatureAlgo().getName());
-                hmac.init(secret_key);
+                Mac hmac = HashUtil.getCachedMac(jwtAlgo.getSignatureAlgo(), key);
                 b64Hash = SharedBase64.encodeAsString(Base64Type.URL,
                         hmac.doFinal(SharedStringUtil.getBytes(sb.toString())));
                 break;
@@ -894,7 +892,7 @@ public class CryptoUtil {
      * The PSS algorithms must be requested as RSASSA-PSS with explicit parameters, their
      * SignatureAlgo name is a BouncyCastle alias that the stock JCE providers do not resolve.
      */
-    private static Signature toSignature(CryptoConst.SignatureAlgo sa)
+    static Signature toSignature(CryptoConst.SignatureAlgo sa)
             throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
         PSSParameterSpec pssSpec = toPSSParameterSpec(sa);
 
@@ -36,10 +36,13 @@ import org.zoxweb.shared.util.*;
 import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 
 /*
  * PBKDF2 salted password hashing.
@@ -176,6 +179,64 @@ public class HashUtil {
         return Mac.getInstance(algo);
     }
 
+    private static final int MAC_CACHE_SIZE = 8;
+
+    private static final class CachedMac {
+        private final String algo;
+        private final byte[] key;
+        private final Mac mac;
+
+        private CachedMac(String algo, byte[] key, Mac mac) {
+            this.algo = algo;
+            this.key = key;
+            this.mac = mac;
+        }
+    }
+
+    private static final class MacCache {
+        private final CachedMac[] entries = new CachedMac[MAC_CACHE_SIZE];
+        private int next;
+    }
+
+    private static final ThreadLocal<MacCache> MAC_CACHE = ThreadLocal.withInitial(MacCache::new);
+
+    /**
+     * Return a Mac initialized with the key from a small per thread cache, the key setup is done once per
+     * thread, algorithm and key. The Mac is reset and must be used by the calling thread only, up to doFinal.
+     *
+     * @param algo the mac algorithm
+     * @param key  the secret key
+     * @return the initialized Mac
+     * @throws GeneralSecurityException if the algorithm is not supported or the key is invalid
+     */
+    public static Mac getCachedMac(CryptoConst.SignatureAlgo algo, byte[] key) throws GeneralSecurityException {
+        return getCachedMac(algo.getName(), key);
+    }
+
+    /**
+     * Return a Mac initialized with the key from a small per thread cache, the key setup is done once per
+     * thread, algorithm and key. The Mac is reset and must be used by the calling thread only, up to doFinal.
+     *
+     * @param algo the mac algorithm
+     * @param key  the secret key
+     * @return the initialized Mac
+     * @throws GeneralSecurityException if the algorithm is not supported or the key is invalid
+     */
+    public static Mac getCachedMac(String algo, byte[] key) throws GeneralSecurityException {
+        MacCache cache = MAC_CACHE.get();
+        for (CachedMac cm : cache.entries) {
+            if (cm != null && cm.algo.equals(algo) && Arrays.equals(cm.key, key)) {
+                cm.mac.reset();
+                return cm.mac;
+            }
+        }
+        Mac mac = getMac(algo);
+        mac.init(new SecretKeySpec(key, algo));
+        cache.entries[cache.next] = new CachedMac(algo, key.clone(), mac);
+        cache.next = (cache.next + 1) % MAC_CACHE_SIZE;
+        return mac;
+    }
+
     public static MessageDigest getMessageDigestSilent(String algorithm) {
         try {
             return getMessageDigest(algorithm);
@@ -32,12 +32,9 @@ public final class JWTProvider
 
     @Override
     public JWT decode(byte[] key, String b64urlToken) throws AccessSecurityException {
-        // TODO Auto-generated method stub
         try {
-            return SecUtil.decodeJWT(key, b64urlToken);
-        } catch (SecurityException | IOException | GeneralSecurityException e) {
-
-            e.printStackTrace();
+            return JWTVerifier.SINGLETON.decode(key, b64urlToken);
+        } catch (SecurityException e) {
             throw new AccessSecurityException(e.getMessage());
         }
     }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.security;
+
+import org.zoxweb.server.util.GSONUtil;
+import org.zoxweb.server.util.cache.ConcurrentKVMapStore;
+import org.zoxweb.shared.crypto.CryptoConst;
+import org.zoxweb.shared.security.JWT;
+import org.zoxweb.shared.security.JWTHeader;
+import org.zoxweb.shared.util.*;
+
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * JWT signature verification fast path for gateways validating a token per request.
+ * <p>
+ * The signature is checked over the raw token bytes before any JSON parsing of the payload: the header algorithm is
+ * resolved through a bounded cache keyed by the encoded header, the HMAC is computed with a per thread
+ * {@link HashUtil#getCachedMac(CryptoConst.SignatureAlgo, byte[]) cached Mac} and compared in constant time, the
+ * RSA/ECDSA public keys are parsed once and the {@link Signature} instances are kept per thread. The claims are
+ * parsed only when {@link VerifiedJWT#getJWT()} is called.
+ * </p>
+ * The verification rules are those of {@link SecUtil#decodeJWT(byte[], String)}: 3 segments, the {@code none}
+ * algorithm is rejected.
+ */
+public final class JWTVerifier
+        implements GetNVProperties {
+
+    public static final JWTVerifier SINGLETON = new JWTVerifier();
+
+    /**
+     * A token with a verified signature, the claims are parsed on demand
+     */
+    public static final class VerifiedJWT {
+        private final String token;
+        private final int payloadEnd;
+        private final CryptoConst.JWTAlgo algorithm;
+        private volatile JWT jwt;
+
+        private VerifiedJWT(String token, int payloadEnd, CryptoConst.JWTAlgo algorithm) {
+            this.token = token;
+            this.payloadEnd = payloadEnd;
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * @return the token as received
+         */
+        public String getToken() {
+            return token;
+        }
+
+        public CryptoConst.JWTAlgo getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * @return the base64url signature, the value of {@link JWT#getHash()}
+         */
+        public String getHash() {
+            return token.substring(payloadEnd + 1);
+        }
+
+        /**
+         * Parse the header and the claims on first call.
+         *
+         * @return the parsed jwt
+         * @throws SecurityException if the token can't be parsed
+         */
+        public JWT getJWT() {
+            JWT ret = jwt;
+            if (ret == null) {
+                try {
+                    ret = SecUtil.parseJWT(token);
+                } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                    throw new SecurityException("Invalid token");
+                }
+                jwt = ret;
+            }
+            return ret;
+        }
+    }
+
+    private static final class ThreadState {
+        private byte[] buffer = new byte[512];
+        private final Map<CryptoConst.SignatureAlgo, Signature> signatures = new EnumMap<>(CryptoConst.SignatureAlgo.class);
+    }
+
+    private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+    // encoded header -> algorithm, a handful of distinct headers in practice
+    private final ConcurrentKVMapStore<String, CryptoConst.JWTAlgo> headers = new ConcurrentKVMapStore<>("jwt-headers", 1024);
+    private final ConcurrentKVMapStore<String, PublicKey> publicKeys = new ConcurrentKVMapStore<>("jwt-public-keys", 256);
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Verify the token signature.
+     *
+     * @param key   the HMAC secret or the X.509 encoded public key
+     * @param token the base64url token
+     * @return the verified token
+     * @throws SecurityException if the token is malformed or the signature invalid
+     */
+    public VerifiedJWT verify(byte[] key, String token) {
+        try {
+            VerifiedJWT ret = verify0(key, token);
+            verified.increment();
+            return ret;
+        } catch (SecurityException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Verify the token signature and parse it.
+     *
+     * @param key   the HMAC secret or the X.509 encoded public key
+     * @param token the base64url token
+     * @return the verified and parsed jwt
+     * @throws SecurityException if the token is malformed or the signature invalid
+     */
+    public JWT decode(byte[] key, String token) {
+        return verify(key, token).getJWT();
+    }
+
+    /**
+     * Verify all the tokens in the queue with the same key.
+     *
+     * @param key        the HMAC secret or the X.509 encoded public key
+     * @param tokens     the tokens, polled until empty
+     * @param onVerified called for every valid token
+     * @param onRejected called for every invalid token, can be null
+     * @return the number of valid tokens
+     */
+    public int verifyBatch(byte[] key, Queue<String> tokens, Consumer<VerifiedJWT> onVerified, BiConsumer<String, SecurityException> onRejected) {
+        SUS.checkIfNulls("Null parameter", tokens, onVerified);
+        int ret = 0;
+        String token;
+        while ((token = tokens.poll()) != null) {
+            VerifiedJWT vjwt;
+            try {
+                vjwt = verify(key, token);
+            } catch (SecurityException e) {
+                if (onRejected != null)
+                    onRejected.accept(token, e);
+                continue;
+            }
+            ret++;
+            onVerified.accept(vjwt);
+        }
+        return ret;
+    }
+
+    private VerifiedJWT verify0(byte[] key, String token) {
+        if (token == null || key == null)
+            throw new SecurityException("Null key or token");
+        int length = token.length();
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd > 0 ? token.indexOf('.', headerEnd + 1) : -1;
+        if (payloadEnd < 0 || payloadEnd == length - 1 || token.indexOf('.', payloadEnd + 1) != -1)
+            throw new SecurityException("Invalid token");
+
+        CryptoConst.JWTAlgo algo = algorithm(token.substring(0, headerEnd));
+
+        ThreadState ts = threadState.get();
+        if (ts.buffer.length < length)
+            ts.buffer = new byte[Math.max(length, ts.buffer.length * 2)];
+        byte[] buffer = ts.buffer;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c > 0x7f)
+                throw new SecurityException("Invalid token");
+            buffer[i] = (byte) c;
+        }
+
+        String encodedSignature = token.substring(payloadEnd + 1);
+        byte[] signature;
+        try {
+            signature = SharedBase64.decode(SharedBase64.Base64Type.URL, encodedSignature);
+        } catch (RuntimeException e) {
+            throw new SecurityException("Invalid token");
+        }
+        // only the canonical encoding is accepted, the signature string identifies the token in the replay caches
+        if (!encodedSignature.equals(SharedBase64.encodeAsString(SharedBase64.Base64Type.URL, signature)))
+            throw new SecurityException("Invalid token");
+
+        try {
+            switch (algo) {
+                case HS256:
+                case HS384:
+                case HS512:
+                    Mac mac = HashUtil.getCachedMac(algo.getSignatureAlgo(), key);
+                    mac.update(buffer, 0, payloadEnd);
+                    if (!MessageDigest.isEqual(mac.doFinal(), signature))
+                        throw new SecurityException("Invalid token");
+                    break;
+                case RS256:
+                case RS384:
+                case RS512:
+                case PS256:
+                case PS384:
+                case PS512:
+                case ES256:
+                case ES384:
+                case ES512:
+                    Signature sig = ts.signatures.get(algo.getSignatureAlgo());
+                    if (sig == null) {
+                        sig = CryptoUtil.toSignature(algo.getSignatureAlgo());
+                        ts.signatures.put(algo.getSignatureAlgo(), sig);
+                    }
+                    sig.initVerify(publicKey(algo, key));
+                    sig.update(buffer, 0, payloadEnd);
+                    if (!sig.verify(signature))
+                        throw new SecurityException("Invalid token");
+                    break;
+                case none:
+                    throw new SecurityException("none JWT Algo not supported");
+                default:
+                    throw new SecurityException(algo.getName() + " JWT Algo not supported");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new SecurityException("Invalid token");
+        }
+        return new VerifiedJWT(token, payloadEnd, algo);
+    }
+
+    private CryptoConst.JWTAlgo algorithm(String encodedHeader) {
+        CryptoConst.JWTAlgo ret = headers.get(encodedHeader);
+        if (ret == null) {
+            try {
+                NVGenericMap nvgm = GSONUtil.fromJSONGenericMap(SharedBase64.decodeAsString(SharedBase64.Base64Type.URL, encodedHeader),
+                        JWTHeader.NVC_JWT_HEADER, SharedBase64.Base64Type.URL);
+                JWTHeader jwtHeader = new JWT().getHeader();
+                jwtHeader.setProperties(nvgm);
+                ret = jwtHeader.getJWTAlgorithm();
+            } catch (Exception e) {
+                throw new SecurityException("Invalid token header");
+            }
+            if (ret == null)
+                throw new SecurityException("Invalid token header");
+            headers.put(encodedHeader, ret);
+        }
+        return ret;
+    }
+
+    private PublicKey publicKey(CryptoConst.JWTAlgo algo, byte[] key) throws GeneralSecurityException {
+        String cacheKey = algo.name() + ":" + SharedBase64.encodeAsString(SharedBase64.Base64Type.DEFAULT, key);
+        PublicKey ret = publicKeys.get(cacheKey);
+        if (ret == null) {
+            ret = CryptoUtil.generatePublicKey(algo.getSignatureAlgo().getCryptoAlgo().getName(), key);
+            publicKeys.put(cacheKey, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public NVGenericMap getProperties() {
+        NVGenericMap ret = new NVGenericMap("jwt-verifier");
+        ret.build(new NVLong("verified", verified.sum()))
+                .build(new NVLong("rejected", rejected.sum()))
+                .build(headers.getProperties())
+                .build(publicKeys.getProperties());
+        return ret;
+    }
+}
@@ -12,7 +12,6 @@ import org.zoxweb.shared.security.*;
 import org.zoxweb.shared.util.*;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -129,9 +128,7 @@ public final class SecUtil {
                 if (tokens.length != JWT.JWTField.values().length) {
                     throw new SecurityException("Invalid token");
                 }
-                Mac shaHMAC = HashUtil.getMac(jwtAlgo.getSignatureAlgo());
-                SecretKeySpec secret_key = new SecretKeySpec(key, jwtAlgo.getSignatureAlgo().getName());
-                shaHMAC.init(secret_key);
+                Mac shaHMAC = HashUtil.getCachedMac(jwtAlgo.getSignatureAlgo(), key);
                 shaHMAC.update(SharedStringUtil.getBytes(tokens[JWT.JWTField.HEADER.ordinal()]));
 
                 shaHMAC.update((byte) '.');
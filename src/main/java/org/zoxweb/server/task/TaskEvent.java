@@ -38,6 +38,8 @@ public class TaskEvent
     private String guid = null;
     private final AtomicLong execCount = new AtomicLong();
     private final boolean exceptionStackTrace;
+    // set by the TaskProcessor when the event is queued, used for the wait time stats
+    volatile long queuedNanos;
 
     /**
      * Create a task event with appointment
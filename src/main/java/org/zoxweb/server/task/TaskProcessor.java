@@ -16,6 +16,8 @@
 package org.zoxweb.server.task;
 
 import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.server.util.Log2Histogram;
+import org.zoxweb.server.util.MPMCQueue;
 import org.zoxweb.server.util.ThresholdQueue;
 import org.zoxweb.shared.util.*;
 
@@ -24,14 +26,19 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * The task executor object must be used when multiple worker thread are required to execute tasks in parallel
  * The number of worker thread should not exceed 2 times the numbers of cores of hardware thread on which the
  * application is running.
- *
+ * <p>
+ * Two dispatch modes are supported, see {@link DispatchMode}, both block the queuing thread once the task queue
+ * capacity is reached till the pending tasks drop to 75% of the capacity.
+ * </p>
  */
 public class TaskProcessor
         implements Runnable, DaemonController, ExecutorService, GetNVProperties {
@@ -39,12 +46,46 @@ public class TaskProcessor
     public final static LogWrapper log = new LogWrapper(TaskProcessor.class).setEnabled(false);
 
     public static final long WAIT_TIME = TimeUnit.MILLISECONDS.toMillis(500);
+    /**
+     * Number of empty polls an idle ring worker yields before parking
+     */
+    public static final int SPIN_ROUNDS = 64;
+
+    /**
+     * How the queued tasks reach the worker threads
+     */
+    public enum DispatchMode {
+        /**
+         * A dispatcher thread dequeues the tasks from a {@link ThresholdQueue} and hands them one by one to the idle
+         * worker threads, the default.
+         */
+        THRESHOLD_QUEUE,
+        /**
+         * No dispatcher thread, the worker threads poll the tasks directly from a lock-free bounded {@link MPMCQueue},
+         * idle workers spin for {@link #SPIN_ROUNDS} polls then park till a task is queued.
+         */
+        MPMC_RING
+    }
+
     private static final AtomicLong instanceCounter = new AtomicLong();
     private final long counterID = instanceCounter.incrementAndGet();
     private final Thread thread;
     private final AtomicBoolean live = new AtomicBoolean(true);
     private final AtomicBoolean stopQueueing = new AtomicBoolean(false);
     private final ThresholdQueue<TaskEvent> tasksQueue;
+    private final DispatchMode dispatchMode;
+
+    // MPMC_RING mode only
+    private final MPMCQueue<TaskEvent> ring;
+    private final RingWorker[] ringWorkers;
+    private final int ringCapacity;
+    private final int ringThreshold;
+    private volatile boolean ringThresholdEnabled = false;
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicInteger parkedWorkers = new AtomicInteger();
+
+    private final Log2Histogram queueDepthHistogram;
+    private final Log2Histogram waitTimeHistogram = new Log2Histogram("wait_time_histogram", "us", 32);
 
 
     /**
@@ -92,42 +133,8 @@ public class TaskProcessor
             while (innerLive) {
                 if (event != null) {
                     // do the work
-                    TaskExecutor te = event.getTaskExecutor();
                     long delta = System.currentTimeMillis();
-
-
-                    //execute the task;
-                    if (te != null) {
-                        try {
-                            te.executeTask(event);
-                        } catch (Throwable e) {
-                            if (e instanceof Exception)
-                                event.setExecutionException((Exception) e);
-                            if (event.isStackTraceEnabled()) e.printStackTrace();
-                        }
-
-                        // call the task finish task method
-                        try {
-                            te.finishTask(event);
-                        } catch (Throwable e) {
-                            if (event.isStackTraceEnabled()) e.printStackTrace();
-                        } finally {
-                            event.incExecCount();
-                            if (te instanceof Future)
-                                synchronized (te) {
-                                    te.notifyAll();
-                                }
-
-                            tasksExecutedCounter.getAndIncrement();
-                        }
-
-                        if (executorNotify) {
-                            synchronized (te) {
-                                te.notify();
-                            }
-                        }
-                    }
-
+                    runTask(event);
 
                     delta = System.currentTimeMillis() - delta;
                     totalExecutionTime += delta;
@@ -179,6 +186,73 @@ public class TaskProcessor
         }
     }
 
+    /**
+     * This is the MPMC_RING mode worker thread, it polls the tasks directly from the ring
+     */
+    protected class RingWorker
+            implements Runnable {
+
+        protected final int counter = ++executorsCounter;
+        private final Thread thread;
+        private final AtomicBoolean parked = new AtomicBoolean(false);
+
+        protected RingWorker(ThreadGroup tg, String parentID, int priority) {
+            thread = new Thread(tg, this, parentID + "-RW-" + counter);
+            thread.setPriority(priority);
+        }
+
+        @Override
+        public void run() {
+            int idleRounds = 0;
+            while (live.get()) {
+                TaskEvent event = null;
+                if (!ring.isEmpty()) {
+                    // must be counted as active before the poll, the shutdown check relies on it
+                    activeWorkers.incrementAndGet();
+                    try {
+                        event = ring.poll();
+                        if (event != null) {
+                            releaseThreshold();
+                            runTask(event);
+                        }
+                    } finally {
+                        activeWorkers.decrementAndGet();
+                    }
+                }
+
+                if (event != null) {
+                    idleRounds = 0;
+                } else if (stopQueueing.get() && notWorkingAtAll()) {
+                    close();
+                } else if (++idleRounds < SPIN_ROUNDS) {
+                    Thread.yield();
+                } else {
+                    idleRounds = 0;
+                    park();
+                }
+            }
+        }
+
+        private void park() {
+            parkedWorkers.incrementAndGet();
+            parked.set(true);
+            // check again after announcing, a task queued before the announcement did not wake us up
+            if (ring.isEmpty() && live.get() && !stopQueueing.get())
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(WAIT_TIME));
+            if (parked.compareAndSet(true, false))
+                parkedWorkers.decrementAndGet();
+        }
+
+        private boolean unpark() {
+            if (parked.compareAndSet(true, false)) {
+                parkedWorkers.decrementAndGet();
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+    }
+
     /**
      * Create a task processor with default count of worker thread if the <code>core count > 1 core count*1.5 if core == 1 then it is 2</code>
      *
@@ -215,29 +289,74 @@ public class TaskProcessor
                          int threadPriority,
                          boolean executorNotify)
             throws IllegalArgumentException {
+        this(defaultPrefix, taskQueueMaxSize, executorThreadCount, threadPriority, executorNotify, DispatchMode.THRESHOLD_QUEUE);
+    }
+
+    /**
+     *
+     * Create a task processor
+     *
+     * @param defaultPrefix       thread prefix name tag
+     * @param taskQueueMaxSize    task queue max size
+     * @param executorThreadCount number of worker threads
+     * @param threadPriority      the thread priority
+     * @param executorNotify      notify the task executor
+     * @param dispatchMode        how the tasks are dispatched to the worker threads, null defaults to THRESHOLD_QUEUE
+     * @throws IllegalArgumentException if taskQueueMaxSize is less than 2 or executorThreadCount is less than 2, or executorThreadCount is greater than taskQueueMaxSize
+     */
+    public TaskProcessor(String defaultPrefix,
+                         int taskQueueMaxSize,
+                         int executorThreadCount,
+                         int threadPriority,
+                         boolean executorNotify,
+                         DispatchMode dispatchMode)
+            throws IllegalArgumentException {
         //super("TaskProcessor", "with", false);
         if (taskQueueMaxSize < 2 || executorThreadCount < 2 || executorThreadCount > taskQueueMaxSize) {
             throw new IllegalArgumentException("Invalid number of [taskQueueMaxSize,executorThreadCount] " +
                     "[" + taskQueueMaxSize + "," + executorThreadCount + "]");
         }
 
-        tasksQueue = new ThresholdQueue<TaskEvent>((taskQueueMaxSize * 75) / 100, taskQueueMaxSize);
+        this.dispatchMode = dispatchMode != null ? dispatchMode : DispatchMode.THRESHOLD_QUEUE;
+        int threshold = (taskQueueMaxSize * 75) / 100;
+        // one bucket per power of two up to the capacity
+        queueDepthHistogram = new Log2Histogram("queue_depth_histogram", "", 34 - Integer.numberOfLeadingZeros(taskQueueMaxSize));
         if (SUS.isEmpty(defaultPrefix)) {
             defaultPrefix = "TP";
         }
         String tpID = defaultPrefix + "-" + TP_COUNTER.incrementAndGet();
-        workersQueue = new ArrayQueue<ExecutorThread>(executorThreadCount);
         threadGroup = new ThreadGroup(tpID);
-        for (int i = 0; i < executorThreadCount; i++) {
-            // create and queue the executor threads
-            workersQueue.queue(new ExecutorThread(threadGroup, tpID, threadPriority));
-        }
-        // start the task processor
         this.executorNotify = executorNotify;
-        thread = new Thread(threadGroup, this, tpID + "-TP");
-
-
-        thread.start();
+        if (this.dispatchMode == DispatchMode.MPMC_RING) {
+            tasksQueue = null;
+            workersQueue = null;
+            thread = null;
+            ring = new MPMCQueue<TaskEvent>(taskQueueMaxSize);
+            // the ring is rounded up to a power of two
+            ringCapacity = ring.capacity();
+            ringThreshold = (ringCapacity * 75) / 100;
+            ringWorkers = new RingWorker[executorThreadCount];
+            for (int i = 0; i < executorThreadCount; i++) {
+                ringWorkers[i] = new RingWorker(threadGroup, tpID, threadPriority);
+            }
+            for (RingWorker rw : ringWorkers) {
+                rw.thread.start();
+            }
+        } else {
+            ring = null;
+            ringWorkers = null;
+            ringCapacity = 0;
+            ringThreshold = 0;
+            tasksQueue = new ThresholdQueue<TaskEvent>(threshold, taskQueueMaxSize);
+            workersQueue = new ArrayQueue<ExecutorThread>(executorThreadCount);
+            for (int i = 0; i < executorThreadCount; i++) {
+                // create and queue the executor threads
+                workersQueue.queue(new ExecutorThread(threadGroup, tpID, threadPriority));
+            }
+            // start the task processor
+            thread = new Thread(threadGroup, this, tpID + "-TP");
+            thread.start();
+        }
         log.getLogger().info("Started:" + this);
     }
 
@@ -255,14 +374,20 @@ public class TaskProcessor
         if (live.get() && !stopQueueing.get()) {
             // if the task is not null
             if (task != null) {
-                // queue the task if it hasn't reached  tasksQueue.getHighMark()
-                // if we have reached the tasksQueue.getHighMark() we will block till we reach
-                // tasksQueue.getLowMark()
-                tasksQueue.queue(task);
-
-                synchronized (this) {
-                    // notify the TaskProcessor
-                    notifyAll();
+                task.queuedNanos = System.nanoTime();
+                if (ring != null) {
+                    queueRingTask(task);
+                } else {
+                    // queue the task if it hasn't reached  tasksQueue.getHighMark()
+                    // if we have reached the tasksQueue.getHighMark() we will block till we reach
+                    // tasksQueue.getLowMark()
+                    tasksQueue.queue(task);
+                    queueDepthHistogram.record(tasksQueue.size());
+
+                    synchronized (this) {
+                        // notify the TaskProcessor
+                        notifyAll();
+                    }
                 }
             }
         } else
@@ -270,6 +395,104 @@ public class TaskProcessor
     }
 
 
+    /**
+     * Same contract as the ThresholdQueue, once the capacity is reached the queuing threads block till
+     * the workers drain the ring to the threshold.
+     */
+    private void queueRingTask(TaskEvent task) {
+        if (ringThresholdEnabled)
+            awaitThreshold();
+
+        while (!ring.offer(task)) {
+            // only a burst of concurrent producers can fill it past the threshold check
+            if (!live.get())
+                throw new IllegalArgumentException("Can't queue task with a terminated TaskProcessor");
+            ringThresholdEnabled = true;
+            awaitThreshold();
+        }
+
+        int size = ring.size();
+        queueDepthHistogram.record(size);
+        if (size >= ringCapacity)
+            ringThresholdEnabled = true;
+
+        // wake up one parked worker if any
+        if (parkedWorkers.get() > 0) {
+            for (RingWorker rw : ringWorkers)
+                if (rw.unpark())
+                    break;
+        }
+    }
+
+    private void awaitThreshold() {
+        synchronized (ring) {
+            try {
+                while (ringThresholdEnabled && live.get()) {
+                    if (ring.size() <= ringThreshold) {
+                        ringThresholdEnabled = false;
+                        ring.notifyAll();
+                        break;
+                    }
+                    ring.wait(250);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void releaseThreshold() {
+        if (ringThresholdEnabled && ring.size() <= ringThreshold) {
+            synchronized (ring) {
+                if (ringThresholdEnabled) {
+                    ringThresholdEnabled = false;
+                    ring.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute the task in the calling worker thread
+     *
+     * @param event to execute
+     */
+    private void runTask(TaskEvent event) {
+        waitTimeHistogram.record((System.nanoTime() - event.queuedNanos) / 1000);
+        TaskExecutor te = event.getTaskExecutor();
+        //execute the task;
+        if (te != null) {
+            try {
+                te.executeTask(event);
+            } catch (Throwable e) {
+                if (e instanceof Exception)
+                    event.setExecutionException((Exception) e);
+                if (event.isStackTraceEnabled()) e.printStackTrace();
+            }
+
+            // call the task finish task method
+            try {
+                te.finishTask(event);
+            } catch (Throwable e) {
+                if (event.isStackTraceEnabled()) e.printStackTrace();
+            } finally {
+                event.incExecCount();
+                if (te instanceof Future)
+                    synchronized (te) {
+                        te.notifyAll();
+                    }
+
+                tasksExecutedCounter.getAndIncrement();
+            }
+
+            if (executorNotify) {
+                synchronized (te) {
+                    te.notify();
+                }
+            }
+        }
+    }
+
     @Override
     public void run() {
         try {
@@ -345,27 +568,39 @@ public class TaskProcessor
      * @return count of pending tasks
      */
     public int pendingTasks() {
-        return tasksQueue.size();
+        return ring != null ? ring.size() : tasksQueue.size();
     }
 
     public long totalQueued() {
-        return tasksQueue.totalQueued();
+        return ring != null ? ring.totalQueued() : tasksQueue.totalQueued();
+    }
+
+    /**
+     * @return the dispatch mode
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
     }
 
     public String toString() {
         //return "TaskProcessor[" +executorsCounter+","+ tasksQueue.getHighMark() +"," +tasksQueue.getLowMark()+"]";
-        return "TaskProcessor[" + counterID + "," + live + "," + executorsCounter + "," + availableExecutorThreads() + "," + tasksQueue + "]";
+        return "TaskProcessor[" + counterID + "," + live + "," + executorsCounter + "," + availableExecutorThreads() + "," +
+                (ring != null ? SUS.toCanonicalID(',', ringCapacity, ringThreshold, ring.size(), ringThresholdEnabled) : tasksQueue) + "]";
     }
 
     /**
      * @return Return true if there is pending tasks or any worker thread is executing a task
      */
     public boolean isBusy() {
+        if (ring != null)
+            return !ring.isEmpty() || activeWorkers.get() > 0;
         return (!tasksQueue.isEmpty() || workersQueue.size() < executorsCounter);
     }
 
 
     private boolean notWorkingAtAll() {
+        if (ring != null)
+            return ring.isEmpty() && activeWorkers.get() == 0;
         if (log.isEnabled())
             log.getLogger().info(SUS.toCanonicalID(',', tasksQueue.size(), workersQueue.capacity(), workersQueue.size()));
         return tasksQueue.isEmpty() && workersQueue.size() == workersQueue.capacity();
@@ -377,12 +612,12 @@ public class TaskProcessor
      * @return available threads
      */
     public int availableExecutorThreads() {
-        return workersQueue.size();
+        return ring != null ? ringWorkers.length - activeWorkers.get() : workersQueue.size();
     }
 
 
     public int workersThreadCapacity() {
-        return workersQueue.capacity();
+        return ring != null ? ringWorkers.length : workersQueue.capacity();
     }
 
 
@@ -394,6 +629,16 @@ public class TaskProcessor
             synchronized (this) {
                 notifyAll();
             }
+            if (ring != null) {
+                // release the blocked producers and the parked workers
+                synchronized (ring) {
+                    ring.notifyAll();
+                }
+                for (RingWorker rw : ringWorkers)
+                    LockSupport.unpark(rw.thread);
+                // the tasks not executed are discarded
+                ring.clear();
+            }
         }
     }
 
@@ -402,7 +647,7 @@ public class TaskProcessor
     }
 
     public int getQueueMaxSize() {
-        return tasksQueue.capacity();
+        return ring != null ? ringCapacity : tasksQueue.capacity();
     }
 
     public ThreadGroup getThreadGroup() {
@@ -698,13 +943,18 @@ public class TaskProcessor
         NVGenericMap ret = new NVGenericMap();
         ret.setName("task-processor");
         ret.add(new NVLong("instance_id", counterID));
-        ret.add(new NVInt("workers_capacity", workersQueue.capacity()));
-        ret.add(new NVInt("workers_available", workersQueue.size()));
-        ret.add(new NVInt("tasks_capacity", tasksQueue.capacity()));
-        ret.add(new NVInt("tasks_capacity_threshold", tasksQueue.getThreshold()));
-        ret.add(new NVInt("tasks_pending", tasksQueue.size()));
+        ret.add(new NVEnum("dispatch_mode", dispatchMode));
+        ret.add(new NVInt("workers_capacity", workersThreadCapacity()));
+        ret.add(new NVInt("workers_available", availableExecutorThreads()));
+        ret.add(new NVInt("tasks_capacity", getQueueMaxSize()));
+        ret.add(new NVInt("tasks_capacity_threshold", ring != null ? ringThreshold : tasksQueue.getThreshold()));
+        ret.add(new NVInt("tasks_pending", pendingTasks()));
         ret.add(new NVLong("total_queued", totalQueued()));
         ret.add(new NVLong("total_executed", totalExecutedTasks()));
+        if (ring != null)
+            ret.add(new NVInt("workers_parked", parkedWorkers.get()));
+        ret.add(queueDepthHistogram.toProperties(false));
+        ret.add(waitTimeHistogram.toProperties(false));
         return ret;
     }
 
@@ -27,6 +27,10 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Appointment based task scheduler, the appointments are kept either in a sorted set, the default, or in a
+ * {@link TimingWheel} when created with a tick precision, the latter makes appointment reset and cancel O(1).
+ */
 public class TaskSchedulerProcessor
         implements Runnable, DaemonController, GetNVProperties, ScheduledExecutorService {
 
@@ -37,6 +41,7 @@ public class TaskSchedulerProcessor
         private final Appointment appointment;
         private final long repeatDelay;
         private final boolean fixedRate;
+        private final TimingWheel.Entry<TaskSchedulerAppointment<?>> wheelEntry = wheel != null ? new TimingWheel.Entry<>(this) : null;
 
         private TaskSchedulerAppointment(Appointment appointment, TaskEvent te) {
             super(te);
@@ -122,16 +127,24 @@ public class TaskSchedulerProcessor
         public void finishTask(TaskEvent e) {
             super.finishTask(e);
             if (!fixedRate && repeatDelay > 0)
-                setDelayInNanos(repeatDelay, 0);
+                requeue();
         }
 
         @Override
         public void executeTask(TaskEvent e) throws Exception {
             if (fixedRate && repeatDelay > 0)
-                setDelayInNanos(repeatDelay, 0);
+                requeue();
             super.executeTask(e);
         }
 
+        /**
+         * Queue the next run of a repeating task, under the same lock as close() so a cancelled task stays cancelled.
+         */
+        private synchronized void requeue() {
+            if (!isClosed())
+                setDelayInNanos(repeatDelay, 0);
+        }
+
         @Override
         public synchronized boolean reset(boolean runOnce) {
             if (runOnce && taskEvent.execCount() > 0 || isClosed())
@@ -181,8 +194,13 @@ public class TaskSchedulerProcessor
          * {@code true} otherwise
          */
         @Override
-        public boolean cancel(boolean mayInterruptIfRunning) {
-            return cancel();
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (isClosed())
+                return false;
+            boolean removed = cancel();
+            // close it, a running repeating task must not queue itself again
+            close();
+            return removed || repeatDelay > 0;
         }
 
         /**
@@ -226,6 +244,7 @@ public class TaskSchedulerProcessor
     private static final AtomicLong TSP_COUNTER = new AtomicLong(0);
     private final long counterID = TSP_COUNTER.incrementAndGet();
     private final ConcurrentSkipListSet<TaskSchedulerAppointment<?>> queue;
+    private final TimingWheel<TaskSchedulerAppointment<?>> wheel;
 
     private final AtomicLong totalQueued = new AtomicLong(0);
 
@@ -239,9 +258,29 @@ public class TaskSchedulerProcessor
         this(Appointment.EQUAL_COMPARATOR, tp);
     }
 
+    /**
+     * Create a timing wheel based scheduler.
+     *
+     * @param tp         the task processor executing the tasks, if null the tasks are executed by the scheduler thread
+     * @param tickMillis the scheduling precision in millis, if less than 1 the sorted set is used
+     */
+    public TaskSchedulerProcessor(TaskProcessor tp, long tickMillis) {
+        this(tickMillis > 0 ? null : Appointment.EQUAL_COMPARATOR, tp, tickMillis);
+    }
+
     private TaskSchedulerProcessor(Comparator<Appointment> tsc, TaskProcessor tp) {
-        SUS.checkIfNulls("TaskSchedulerComparator can't be null", tsc);
-        queue = new ConcurrentSkipListSet<>(tsc);
+        this(tsc, tp, 0);
+    }
+
+    private TaskSchedulerProcessor(Comparator<Appointment> tsc, TaskProcessor tp, long tickMillis) {
+        if (tickMillis > 0) {
+            queue = null;
+            wheel = new TimingWheel<>(tickMillis);
+        } else {
+            SUS.checkIfNulls("TaskSchedulerComparator can't be null", tsc);
+            queue = new ConcurrentSkipListSet<>(tsc);
+            wheel = null;
+        }
         taskProcessor = tp;
         TaskUtil.startRunnable(tp != null ? tp.getThreadGroup() : null, this, "TSP-" + counterID);
     }
@@ -251,8 +290,10 @@ public class TaskSchedulerProcessor
             synchronized (this) {
                     notify();
             }
-            synchronized (queue) {
-                queue.notify();
+            if (queue != null) {
+                synchronized (queue) {
+                    queue.notify();
+                }
             }
         }
     }
@@ -318,6 +359,12 @@ public class TaskSchedulerProcessor
             throw new IllegalArgumentException("TaskSchedulerProcessor is dead");
         }
 
+        if (wheel != null) {
+            wheel.schedule(te.wheelEntry, te.getExpirationInMillis());
+            totalQueued.incrementAndGet();
+            return te;
+        }
+
         synchronized (queue) {
             while (!queue.add(te)) {
                 te.appointment.setDelayInNanos(te.appointment.getDelayInMillis(), System.nanoTime());
@@ -341,6 +388,10 @@ public class TaskSchedulerProcessor
     }
 
     public boolean remove(Appointment tsa) {
+        if (wheel != null)
+            return tsa instanceof TaskSchedulerAppointment && ((TaskSchedulerAppointment<?>) tsa).wheelEntry != null &&
+                    wheel.cancel(((TaskSchedulerAppointment<?>) tsa).wheelEntry);
+
         synchronized (queue) {
             return queue.remove(tsa);
         }
@@ -351,6 +402,11 @@ public class TaskSchedulerProcessor
      */
     @Override
     public void run() {
+        if (wheel != null) {
+            runWheel();
+            return;
+        }
+
         while (live.get()) {
             long timeToWait = 0;
 
@@ -368,22 +424,7 @@ public class TaskSchedulerProcessor
                 }
 
                 if (tSchedulerEvent != null) {
-                    if (taskProcessor != null) {
-                        taskProcessor.queueTask(tSchedulerEvent.taskEvent);
-                    } else {
-                        // we need to execute task locally
-                        try {
-                            tSchedulerEvent.taskEvent.getTaskExecutor().executeTask(tSchedulerEvent.taskEvent);
-                        } catch (Throwable e) {
-                            e.printStackTrace();
-                        }
-
-                        try {
-                            tSchedulerEvent.taskEvent.getTaskExecutor().finishTask(tSchedulerEvent.taskEvent);
-                        } catch (Throwable e) {
-                            e.printStackTrace();
-                        }
-                    }
+                    dispatch(tSchedulerEvent);
                 }
 
             } while (timeToWait == 0);
@@ -405,8 +446,50 @@ public class TaskSchedulerProcessor
         log.getLogger().info("TaskSchedulerProcessor is terminated");
     }
 
+    private void runWheel() {
+        while (live.get()) {
+            try {
+                wheel.advance(DEFAULT_TIMEOUT, this::dispatch);
+                long next = wheel.nextExpiration();
+                expiryTimestamp = next > 0 ? next : System.currentTimeMillis() + DEFAULT_TIMEOUT;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } catch (Throwable e) {
+                // the wheel thread must survive a failing dispatch
+                e.printStackTrace();
+            }
+        }
+        log.getLogger().info("TaskSchedulerProcessor is terminated");
+    }
+
+    private void dispatch(TaskSchedulerAppointment<?> tSchedulerEvent) {
+        if (taskProcessor != null) {
+            taskProcessor.queueTask(tSchedulerEvent.taskEvent);
+        } else {
+            // we need to execute task locally
+            try {
+                tSchedulerEvent.taskEvent.getTaskExecutor().executeTask(tSchedulerEvent.taskEvent);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+
+            try {
+                tSchedulerEvent.taskEvent.getTaskExecutor().finishTask(tSchedulerEvent.taskEvent);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public int pendingTasks() {
-        return queue.size();
+        return wheel != null ? wheel.size() : queue.size();
+    }
+
+    /**
+     * @return the timing wheel tick in millis, 0 if the sorted set is used
+     */
+    public long getTickMillis() {
+        return wheel != null ? wheel.getTickMillis() : 0;
     }
 
 
@@ -437,7 +520,11 @@ public class TaskSchedulerProcessor
         NVGenericMap ret = new NVGenericMap();
         ret.setName("task-scheduler");
         ret.add(new NVLong("instance_id", counterID));
-        ret.add(new NVInt("pending_tasks", queue.size()));
+        ret.add(new NVInt("pending_tasks", pendingTasks()));
+        if (wheel != null) {
+            ret.add(new NVLong("tick_millis", wheel.getTickMillis()));
+            ret.add(new NVInt("wheel_levels", wheel.levelCount()));
+        }
 
         ret.add("current_wait", Const.TimeInMillis.toString(waitTime()));
         ret.add(new NVLong("total_queued", totalQueued.get()));
@@ -448,7 +535,7 @@ public class TaskSchedulerProcessor
 
     public String toString() {
         return (getExecutor() != null ? getExecutor().toString() + ", TaskSchedulerProcessor[ " : "TaskSchedulerProcessor[") +
-                SUS.toCanonicalID(',', counterID, live, queue.size(), Const.TimeInMillis.toString(waitTime())) + "]";
+                SUS.toCanonicalID(',', counterID, live, pendingTasks(), Const.TimeInMillis.toString(waitTime())) + "]";
     }
 
 
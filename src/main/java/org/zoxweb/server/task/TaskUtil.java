@@ -40,6 +40,8 @@ public class TaskUtil {
     private static int threadMultiplier = 4;
     private static int minTPThreadCount = 16;
     private static int tpThreadCount = -1;
+    private static TaskProcessor.DispatchMode tpDispatchMode = TaskProcessor.DispatchMode.THRESHOLD_QUEUE;
+    private static long tsTickMillis = 0;
     public static final long START_TIME_MILLIS = System.currentTimeMillis();
 
 
@@ -98,6 +100,37 @@ public class TaskUtil {
         }
     }
 
+    public static void setTaskProcessorDispatchMode(TaskProcessor.DispatchMode dispatchMode) {
+        if (TASK_PROCESSOR == null) {
+            try {
+                ServerUtil.LOCK.lock();
+                if (TASK_PROCESSOR == null && dispatchMode != null) {
+                    tpDispatchMode = dispatchMode;
+                }
+            } finally {
+                ServerUtil.LOCK.unlock();
+            }
+        }
+    }
+
+    /**
+     * Set the default task scheduler timing wheel precision, 0 the default uses a sorted set.
+     *
+     * @param tickMillis the timing wheel tick in millis
+     */
+    public static void setTaskSchedulerTickMillis(long tickMillis) {
+        if (TASK_SCHEDULER == null) {
+            try {
+                ServerUtil.LOCK.lock();
+                if (TASK_SCHEDULER == null && tickMillis >= 0) {
+                    tsTickMillis = tickMillis;
+                }
+            } finally {
+                ServerUtil.LOCK.unlock();
+            }
+        }
+    }
+
     public static void sleep(long millis) {
         try {
             Thread.sleep(millis);
@@ -119,7 +152,7 @@ public class TaskUtil {
                             threadCount = minTPThreadCount;
                         }
                     }
-                    TASK_PROCESSOR = new TaskProcessor("DE", maxTasks, threadCount, Thread.NORM_PRIORITY, false);
+                    TASK_PROCESSOR = new TaskProcessor("DE", maxTasks, threadCount, Thread.NORM_PRIORITY, false, tpDispatchMode);
                 }
             } finally {
                 ServerUtil.LOCK.unlock();
@@ -135,7 +168,7 @@ public class TaskUtil {
                 ServerUtil.LOCK.lock();
 
                 if (TASK_SCHEDULER == null) {
-                    TASK_SCHEDULER = new TaskSchedulerProcessor(defaultTaskProcessor());
+                    TASK_SCHEDULER = new TaskSchedulerProcessor(defaultTaskProcessor(), tsTickMillis);
                 }
             } finally {
                 ServerUtil.LOCK.unlock();
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.task;
+
+import java.util.ArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Hashed hierarchical timing wheel, schedule, reschedule and cancel are O(1).
+ * <p>
+ * The first level has {@code wheelSize} buckets of {@code tickMillis} each, every next level is created on
+ * demand with a tick equal to the interval of the level below it. An entry is hashed into the bucket covering its
+ * expiration, when a bucket of an upper level expires its entries cascade down to the lower levels. Only the
+ * non-empty buckets are kept in a {@link DelayQueue}, the driver thread sleeps till the next bucket expires and
+ * there is no ticking over empty buckets.
+ * </p>
+ * <p>
+ * The entries never expire early, they expire at most one tick late. Scheduling threads only share a read lock and
+ * the lock of the target bucket, the single driver thread calling {@link #advance(long, Consumer)} takes the write
+ * lock while it moves the clock.
+ * </p>
+ *
+ * @param <T> type of the scheduled value
+ */
+public class TimingWheel<T> {
+
+    /**
+     * Default number of buckets per level
+     */
+    public static final int WHEEL_SIZE = 512;
+
+    /**
+     * A schedulable entry, one per scheduled value, it can be rescheduled as many times as needed.
+     *
+     * @param <T> type of the value
+     */
+    public static final class Entry<T> {
+        private final T value;
+        private volatile long expiration;
+        private volatile Bucket<T> bucket;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        public Entry(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the expiration in millis of the last schedule
+         */
+        public long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * @return true if the entry is waiting to expire
+         */
+        public boolean isScheduled() {
+            return bucket != null;
+        }
+    }
+
+    private static final class Bucket<T>
+            implements Delayed {
+        private final AtomicLong expiration = new AtomicLong(-1);
+        private final Entry<T> root = new Entry<>(null);
+
+        private Bucket() {
+            root.next = root;
+            root.prev = root;
+        }
+
+        /**
+         * @return true if the expiration changed, the bucket must then be queued
+         */
+        private boolean setExpiration(long exp) {
+            return expiration.getAndSet(exp) != exp;
+        }
+
+        // caller holds the bucket lock
+        private void link(Entry<T> e) {
+            e.next = root;
+            e.prev = root.prev;
+            root.prev.next = e;
+            root.prev = e;
+            e.bucket = this;
+        }
+
+        // caller holds the bucket lock
+        private void unlink(Entry<T> e) {
+            e.prev.next = e.next;
+            e.next.prev = e.prev;
+            e.prev = null;
+            e.next = null;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0, expiration.get() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expiration.get(), ((Bucket<?>) o).expiration.get());
+        }
+    }
+
+    private final class Level {
+        private final long tick;
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        private final boolean first;
+        private long currentTime;
+        private volatile Level overflow;
+
+        @SuppressWarnings("unchecked")
+        private Level(long tick, long startTime, boolean first) {
+            this.tick = tick;
+            this.interval = tick * wheelSize;
+            this.first = first;
+            buckets = new Bucket[wheelSize];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new Bucket<>();
+            currentTime = startTime - (startTime % tick);
+        }
+
+        /**
+         * @param e    the entry
+         * @param time the entry expiration rounded up to the first level tick
+         * @return false if the entry is already expired
+         */
+        private boolean add(Entry<T> e, long time) {
+            if (first && time <= currentTime)
+                return false;
+            if (time < currentTime + interval) {
+                // an upper level bucket expires before its entries and cascades them down
+                long slot = time / tick;
+                place(e, slot, slot * tick);
+                return true;
+            }
+            return overflow().add(e, time);
+        }
+
+        private void place(Entry<T> e, long slot, long bucketTime) {
+            Bucket<T> b = buckets[(int) (slot % buckets.length)];
+            synchronized (b) {
+                b.link(e);
+            }
+            if (b.setExpiration(bucketTime))
+                delayQueue.offer(b);
+        }
+
+        private Level overflow() {
+            Level ret = overflow;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = overflow;
+                    if (ret == null) {
+                        ret = overflow = new Level(interval, currentTime, false);
+                        levelCount.incrementAndGet();
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private void advanceClock(long time) {
+            if (time >= currentTime + tick) {
+                currentTime = time - (time % tick);
+                Level o = overflow;
+                if (o != null)
+                    o.advanceClock(currentTime);
+            }
+        }
+    }
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final DelayQueue<Bucket<T>> delayQueue = new DelayQueue<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Level level;
+    // holds the entries already expired when scheduled
+    private final Bucket<T> readyBucket = new Bucket<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger levelCount = new AtomicInteger(1);
+    private final ArrayList<Entry<T>> expired = new ArrayList<>();
+
+    /**
+     * @param tickMillis the precision of the wheel in millis
+     */
+    public TimingWheel(long tickMillis) {
+        this(tickMillis, WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis the precision of the wheel in millis
+     * @param wheelSize  number of buckets per level
+     */
+    public TimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis < 1 || wheelSize < 2)
+            throw new IllegalArgumentException("Invalid tick or wheel size " + tickMillis + ", " + wheelSize);
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        level = new Level(tickMillis, System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Schedule or reschedule an entry.
+     *
+     * @param e          the entry
+     * @param expiration in millis
+     */
+    public void schedule(Entry<T> e, long expiration) {
+        synchronized (e) {
+            boolean rescheduled = unlink(e);
+            e.expiration = expiration;
+            lock.readLock().lock();
+            try {
+                if (!add(e)) {
+                    synchronized (readyBucket) {
+                        readyBucket.link(e);
+                    }
+                    if (readyBucket.setExpiration(0))
+                        delayQueue.offer(readyBucket);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!rescheduled)
+                size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cancel an entry.
+     *
+     * @param e the entry
+     * @return true if the entry was scheduled and is cancelled, false if not scheduled or already expired
+     */
+    public boolean cancel(Entry<T> e) {
+        synchronized (e) {
+            if (unlink(e)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // round up, the first level bucket of an entry expires after the entry
+    private boolean add(Entry<T> e) {
+        return level.add(e, ((e.expiration + tickMillis - 1) / tickMillis) * tickMillis);
+    }
+
+    private boolean unlink(Entry<T> e) {
+        for (; ; ) {
+            Bucket<T> b = e.bucket;
+            if (b == null)
+                return false;
+            synchronized (b) {
+                // the driver may have moved the entry meanwhile
+                if (e.bucket == b) {
+                    b.unlink(e);
+                    e.bucket = null;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the next bucket to expire, advance the clock and pass the values of the expired entries to the
+     * consumer. Must be called by a single driver thread.
+     *
+     * @param timeoutMillis the maximum wait time
+     * @param consumer      of the expired values, invoked outside the wheel locks
+     * @return the number of expired entries
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int advance(long timeoutMillis, Consumer<T> consumer) throws InterruptedException {
+        Bucket<T> b = delayQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        lock.writeLock().lock();
+        try {
+            if (b == null) {
+                // idle, keep the clock close to the current time
+                level.advanceClock(System.currentTimeMillis());
+                return 0;
+            }
+            do {
+                level.advanceClock(b.expiration.get());
+                flush(b);
+            } while ((b = delayQueue.poll()) != null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        int ret = expired.size();
+        try {
+            for (int i = 0; i < ret; i++)
+                consumer.accept(expired.get(i).value);
+        } finally {
+            expired.clear();
+        }
+        return ret;
+    }
+
+    // caller holds the write lock
+    private void flush(Bucket<T> b) {
+        synchronized (b) {
+            b.expiration.set(-1);
+            Entry<T> e = b.root.next;
+            // detach the chain, the entries keep pointing to b till they are placed
+            b.root.next = b.root;
+            b.root.prev = b.root;
+            while (e != b.root) {
+                Entry<T> next = e.next;
+                if (!add(e)) {
+                    e.prev = null;
+                    e.next = null;
+                    e.bucket = null;
+                    size.decrementAndGet();
+                    expired.add(e);
+                }
+                e = next;
+            }
+        }
+    }
+
+    /**
+     * @return the number of scheduled entries
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the expiration in millis of the next bucket, -1 if none
+     */
+    public long nextExpiration() {
+        Bucket<T> b = delayQueue.peek();
+        return b != null ? b.expiration.get() : -1;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getWheelSize() {
+        return wheelSize;
+    }
+
+    /**
+     * @return the number of levels created so far
+     */
+    public int levelCount() {
+        return levelCount.get();
+    }
+}
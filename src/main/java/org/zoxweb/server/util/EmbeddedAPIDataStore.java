@@ -0,0 +1,902 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util;
+
+import org.zoxweb.server.io.WriteAheadLog;
+import org.zoxweb.server.logging.LogWrapper;
+import org.zoxweb.shared.api.*;
+import org.zoxweb.shared.data.LongSequence;
+import org.zoxweb.shared.db.QueryMarker;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded persistent {@link APIDataStore} for deployments without a database.
+ * <p>
+ * The entities are kept in memory, grouped in collections by {@link NVConfigEntity} name and keyed by GUID, like
+ * {@link MockAPIDataStore}. Every change is appended to a {@link WriteAheadLog} before it is applied, once the log
+ * holds {@code snapshotThreshold} records the whole store is written to a snapshot file, atomically renamed, and
+ * the log is truncated. On start the snapshot is loaded and the log replayed, a record torn by a crash is dropped.
+ * </p>
+ * <p>
+ * Secondary indexes are declared per {@link NVConfigEntity} field with {@link #addIndex(NVConfigEntity, String, IndexType)}:
+ * a {@link IndexType#HASH} index answers {@code EQUAL} criteria, a {@link IndexType#SORTED} index also answers
+ * {@code GT, GTE, LT, LTE}. The criteria are compiled by {@link QueryPredicate}, the most selective indexed
+ * required term selects the candidates which are then checked against the whole predicate, a query without indexed
+ * term scans the collection, {@link #explain(NVConfigEntity, QueryMarker...)} shows the chosen access path. Indexes are not persisted, they are declared at startup and built from the loaded
+ * entities. An entity modified in memory must be passed to {@link #update(NVEntity)} to be persisted and reindexed.
+ * </p>
+ * Dynamic enum maps and batch searches are not supported.
+ */
+public class EmbeddedAPIDataStore
+        implements APIDataStore<Void, Void>, GetNVProperties {
+
+    public static final LogWrapper log = new LogWrapper(EmbeddedAPIDataStore.class).setEnabled(false);
+
+    public static final String WAL_FILE = "store.wal";
+    public static final String SNAPSHOT_FILE = "store.snapshot";
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD = 10_000;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte SEQUENCE = 3;
+    private static final byte DELETE_SEQUENCE = 4;
+
+    public enum IndexType {
+        /**
+         * Equality lookups
+         */
+        HASH,
+        /**
+         * Equality and range lookups
+         */
+        SORTED
+    }
+
+    /**
+     * Secondary index of one field, values are matched like {@link MockAPIDataStore}: equality is checked on the
+     * case-insensitive string form, ranges on values of the same class.
+     */
+    private static final class FieldIndex {
+        private final String field;
+        private final IndexType type;
+        // guid -> indexed value, to unindex the value even if the entity was modified in memory
+        private final Map<String, Object> values = new HashMap<>();
+        private final Map<String, Set<String>> hash = new HashMap<>();
+        private final Map<Class<?>, TreeMap<Object, Set<String>>> sorted = new HashMap<>();
+
+        private FieldIndex(String field, IndexType type) {
+            this.field = field;
+            this.type = type;
+        }
+
+        private static String key(Object value) {
+            return value != null ? value.toString().toLowerCase() : null;
+        }
+
+        private static boolean isRangeValue(Object value) {
+            return value instanceof Comparable && !(value instanceof String);
+        }
+
+        private void add(NVEntity nve) {
+            Object value = QueryPredicate.fieldValue(nve, field);
+            values.put(nve.getGUID(), value);
+            hash.computeIfAbsent(key(value), k -> new HashSet<>()).add(nve.getGUID());
+            if (type == IndexType.SORTED && isRangeValue(value))
+                sorted.computeIfAbsent(value.getClass(), k -> new TreeMap<>()).computeIfAbsent(value, k -> new HashSet<>()).add(nve.getGUID());
+        }
+
+        private void remove(String guid) {
+            if (!values.containsKey(guid))
+                return;
+            Object value = values.remove(guid);
+            removeFrom(hash, key(value), guid);
+            if (type == IndexType.SORTED && isRangeValue(value)) {
+                TreeMap<Object, Set<String>> tm = sorted.get(value.getClass());
+                if (tm != null)
+                    removeFrom(tm, value, guid);
+            }
+        }
+
+        private static <K> void removeFrom(Map<K, Set<String>> map, K key, String guid) {
+            Set<String> set = map.get(key);
+            if (set != null && set.remove(guid) && set.isEmpty())
+                map.remove(key);
+        }
+
+        /**
+         * @return the candidate guids, a superset of the matches, null if the index can't answer
+         */
+        private Collection<String> candidates(QueryPredicate.Term term) {
+            Object expected = term.getValue();
+            Set<String> equal = hash.get(key(expected));
+            switch (term.getOperator()) {
+                case EQUAL:
+                    return equal != null ? equal : Collections.emptySet();
+                case GT:
+                case GTE:
+                case LT:
+                case LTE:
+                    if (type != IndexType.SORTED || !isRangeValue(expected))
+                        return null;
+                    List<String> ret = new ArrayList<>();
+                    // string values are compared for equality
+                    if (equal != null)
+                        ret.addAll(equal);
+                    TreeMap<Object, Set<String>> tm = sorted.get(expected.getClass());
+                    if (tm != null) {
+                        SortedMap<Object, Set<String>> range;
+                        switch (term.getOperator()) {
+                            case GT:
+                                range = tm.tailMap(expected, false);
+                                break;
+                            case GTE:
+                                range = tm.tailMap(expected, true);
+                                break;
+                            case LT:
+                                range = tm.headMap(expected, false);
+                                break;
+                            default:
+                                range = tm.headMap(expected, true);
+                                break;
+                        }
+                        for (Set<String> guids : range.values())
+                            ret.addAll(guids);
+                    }
+                    return ret;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class EntityCollection {
+        private NVConfigEntity nvce;
+        private final Map<String, NVEntity> entities = new LinkedHashMap<>();
+        private final Map<String, FieldIndex> indexes = new HashMap<>();
+
+        private void put(NVEntity nve) {
+            NVEntity old = entities.put(nve.getGUID(), nve);
+            for (FieldIndex fi : indexes.values()) {
+                if (old != null)
+                    fi.remove(nve.getGUID());
+                fi.add(nve);
+            }
+        }
+
+        private NVEntity remove(String guid) {
+            NVEntity ret = entities.remove(guid);
+            if (ret != null)
+                for (FieldIndex fi : indexes.values())
+                    fi.remove(guid);
+            return ret;
+        }
+    }
+
+    private final File dir;
+    private final long snapshotThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, EntityCollection> collections = new LinkedHashMap<>();
+    // class name and simple class name -> collection name
+    private final Map<String, String> classCollections = new HashMap<>();
+    private final Map<String, Long> sequences = new HashMap<>();
+    private final WriteAheadLog wal;
+    private final AtomicLong indexQueries = new AtomicLong();
+    private final AtomicLong scanQueries = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private volatile long lastAccessTS = System.currentTimeMillis();
+
+    private String name = "embedded-data-store";
+    private String description;
+    private APIConfigInfo configInfo;
+    private APIExceptionHandler exceptionHandler;
+
+    /**
+     * @param dir the store directory, created if missing
+     * @throws IOException if the store can't be loaded
+     */
+    public EmbeddedAPIDataStore(File dir) throws IOException {
+        this(dir, false, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * @param dir               the store directory, created if missing
+     * @param syncOnWrite       force every change to the storage device before returning
+     * @param snapshotThreshold number of log records that triggers a snapshot
+     * @throws IOException if the store can't be loaded
+     */
+    public EmbeddedAPIDataStore(File dir, boolean syncOnWrite, long snapshotThreshold) throws IOException {
+        if (snapshotThreshold < 1)
+            throw new IllegalArgumentException("Invalid snapshot threshold " + snapshotThreshold);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create " + dir);
+        this.dir = dir;
+        this.snapshotThreshold = snapshotThreshold;
+
+        long ts = System.currentTimeMillis();
+        File snapshot = new File(dir, SNAPSHOT_FILE);
+        long loaded = 0;
+        if (snapshot.exists()) {
+            WriteAheadLog snapshotLog = new WriteAheadLog(snapshot, false);
+            try {
+                loaded = snapshotLog.replay(this::apply);
+            } finally {
+                SharedIOUtil.close(snapshotLog);
+            }
+        }
+        wal = new WriteAheadLog(new File(dir, WAL_FILE), syncOnWrite);
+        long replayed = wal.replay(this::apply);
+        if (log.isEnabled())
+            log.getLogger().info(dir + " loaded " + loaded + " snapshot records " + replayed + " log records in " + (System.currentTimeMillis() - ts) + " millis");
+    }
+
+    // ------------------------------------------------------------------
+    // persistence
+    // ------------------------------------------------------------------
+
+    // caller holds the write lock or is the constructor
+    private void apply(byte type, byte[] payload, int length) throws IOException {
+        String data = new String(payload, 0, length, StandardCharsets.UTF_8);
+        switch (type) {
+            case PUT:
+                NVEntity nve = GSONUtil.fromJSON(data);
+                collection(nve).put(nve);
+                break;
+            case DELETE: {
+                int index = data.indexOf('\n');
+                EntityCollection col = collections.get(data.substring(0, index));
+                if (col != null)
+                    col.remove(data.substring(index + 1));
+                break;
+            }
+            case SEQUENCE: {
+                int index = data.indexOf('\n');
+                sequences.put(data.substring(0, index), Long.parseLong(data.substring(index + 1)));
+                break;
+            }
+            case DELETE_SEQUENCE:
+                sequences.remove(data);
+                break;
+            default:
+                throw new IOException("Invalid record type " + type);
+        }
+    }
+
+    // caller holds the write lock
+    private void append(byte type, String data) {
+        try {
+            wal.append(type, data.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new APIException(e);
+        }
+    }
+
+    // caller holds the write lock, the change must be applied in memory before the snapshot
+    private void snapshotIfNeeded() {
+        if (wal.recordCount() >= snapshotThreshold)
+            snapshot();
+    }
+
+    private static String toJSON(NVEntity nve) {
+        try {
+            return GSONUtil.toJSON(nve, false, false, true);
+        } catch (IOException e) {
+            throw new APIException(e);
+        }
+    }
+
+    /**
+     * Write all the entities and sequences to a new snapshot and truncate the log.
+     *
+     * @throws APIException if the snapshot can't be written
+     */
+    public void snapshot() {
+        lock.writeLock().lock();
+        try {
+            File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+            WriteAheadLog snapshotLog = new WriteAheadLog(tmp, false);
+            try {
+                snapshotLog.truncate();
+                for (EntityCollection col : collections.values())
+                    for (NVEntity nve : col.entities.values())
+                        snapshotLog.append(PUT, toJSON(nve).getBytes(StandardCharsets.UTF_8));
+                for (Map.Entry<String, Long> e : sequences.entrySet())
+                    snapshotLog.append(SEQUENCE, (e.getKey() + "\n" + e.getValue()).getBytes(StandardCharsets.UTF_8));
+            } finally {
+                SharedIOUtil.close(snapshotLog);
+            }
+            // replaying the log over the new snapshot is harmless, crash safe in this order
+            Files.move(tmp.toPath(), new File(dir, SNAPSHOT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            wal.truncate();
+            snapshots.incrementAndGet();
+        } catch (IOException e) {
+            throw new APIException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // indexes
+    // ------------------------------------------------------------------
+
+    /**
+     * Declare a secondary index, the existing entities are indexed.
+     *
+     * @param nvce      the entity type
+     * @param fieldName the field name, dotted names supported
+     * @param type      the index type
+     */
+    public void addIndex(NVConfigEntity nvce, String fieldName, IndexType type) {
+        SUS.checkIfNulls("Null parameter", nvce, fieldName, type);
+        lock.writeLock().lock();
+        try {
+            EntityCollection col = collection(nvce.getName());
+            col.nvce = nvce;
+            FieldIndex fi = new FieldIndex(fieldName, type);
+            for (NVEntity nve : col.entities.values())
+                fi.add(nve);
+            col.indexes.put(fieldName, fi);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param nvce  the entity type
+     * @param field the field
+     * @param type  the index type
+     */
+    public void addIndex(NVConfigEntity nvce, GetNVConfig field, IndexType type) {
+        addIndex(nvce, field.getNVConfig().getName(), type);
+    }
+
+    // caller holds a lock, returns the chosen index and its candidates, null for a scan
+    private static Map.Entry<FieldIndex, Collection<String>> plan(EntityCollection col, QueryPredicate predicate) {
+        Map.Entry<FieldIndex, Collection<String>> best = null;
+        for (QueryPredicate.Term term : predicate.requiredTerms()) {
+            FieldIndex fi = col.indexes.get(term.getName());
+            Collection<String> candidates = fi != null ? fi.candidates(term) : null;
+            if (candidates != null && (best == null || candidates.size() < best.getValue().size()))
+                best = new AbstractMap.SimpleEntry<>(fi, candidates);
+        }
+        return best;
+    }
+
+    // caller holds a lock
+    private Collection<NVEntity> matching(String collectionName, QueryMarker... queryCriteria) {
+        EntityCollection col = collections.get(collectionName);
+        if (col == null)
+            return Collections.emptyList();
+        QueryPredicate predicate = QueryPredicate.compile(col.nvce, queryCriteria);
+        Map.Entry<FieldIndex, Collection<String>> best = plan(col, predicate);
+
+        List<NVEntity> ret = new ArrayList<>();
+        if (best != null) {
+            indexQueries.incrementAndGet();
+            // a range candidate list may hold a guid twice
+            Set<String> seen = best.getValue() instanceof Set ? null : new HashSet<>();
+            for (String guid : best.getValue()) {
+                NVEntity nve = col.entities.get(guid);
+                if (nve != null && (seen == null || seen.add(guid)) && predicate.test(nve))
+                    ret.add(nve);
+            }
+        } else {
+            scanQueries.incrementAndGet();
+            for (NVEntity nve : col.entities.values())
+                if (predicate.test(nve))
+                    ret.add(nve);
+        }
+        return ret;
+    }
+
+    /**
+     * Describe how a query would be executed: the access path, index or scan, followed by the compiled predicate.
+     *
+     * @param nvce          the entity type
+     * @param queryCriteria the criteria
+     * @return the query plan
+     */
+    public String explain(NVConfigEntity nvce, QueryMarker... queryCriteria) {
+        lock.readLock().lock();
+        try {
+            EntityCollection col = collections.get(nvce.getName());
+            QueryPredicate predicate = QueryPredicate.compile(col != null && col.nvce != null ? col.nvce : nvce, queryCriteria);
+            Map.Entry<FieldIndex, Collection<String>> best = col != null ? plan(col, predicate) : null;
+            StringBuilder sb = new StringBuilder();
+            if (best != null)
+                sb.append("INDEX ").append(best.getKey().field).append(' ').append(best.getKey().type)
+                        .append(" candidates ").append(best.getValue().size());
+            else
+                sb.append("SCAN ").append(col != null ? col.entities.size() : 0);
+            return sb.append('\n').append(predicate.explain()).toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // CRUD
+    // ------------------------------------------------------------------
+
+    private EntityCollection collection(String collectionName) {
+        return collections.computeIfAbsent(collectionName, k -> new EntityCollection());
+    }
+
+    private EntityCollection collection(NVEntity nve) {
+        NVConfigEntity nvce = (NVConfigEntity) nve.getNVConfig();
+        classCollections.put(nve.getClass().getName(), nvce.getName());
+        classCollections.put(nve.getClass().getSimpleName(), nvce.getName());
+        EntityCollection ret = collection(nvce.getName());
+        if (ret.nvce == null)
+            ret.nvce = nvce;
+        return ret;
+    }
+
+    private String collectionForClassName(String className) {
+        String ret = classCollections.get(className);
+        if (ret == null)
+            ret = classCollections.get(SharedStringUtil.valueAfterRightToken(className, "."));
+        return ret != null ? ret : className;
+    }
+
+    private <V extends NVEntity> V put(V nve) {
+        String json = toJSON(nve);
+        lock.writeLock().lock();
+        try {
+            append(PUT, json);
+            collection(nve).put(nve);
+            snapshotIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        lastAccessTS = System.currentTimeMillis();
+        return nve;
+    }
+
+    /**
+     * The entity is stored by reference, not copied. A later change to it, or to an entity returned by a search, is
+     * reindexed and persisted only once passed to {@link #update(NVEntity)}.
+     *
+     * @param nve the entity, a GUID is assigned if missing
+     * @return the stored entity
+     */
+    @Override
+    public <V extends NVEntity> V insert(V nve) {
+        SUS.checkIfNulls("Null entity", nve);
+        if (SUS.isEmpty(nve.getGUID()))
+            nve.setGUID(UUID.randomUUID().toString());
+        return put(nve);
+    }
+
+    @Override
+    public <V extends NVEntity> V update(V nve) {
+        SUS.checkIfNulls("Null entity", nve);
+        if (SUS.isEmpty(nve.getGUID()))
+            throw new IllegalArgumentException("Entity has no GUID");
+        return put(nve);
+    }
+
+    @Override
+    public <V extends NVEntity> V patch(V nve, boolean updateTS, boolean sync, boolean updateRefOnly,
+                                        boolean includeParam, String... nvConfigNames) {
+        // the whole entity is replaced
+        return update(nve);
+    }
+
+    @Override
+    public <V extends NVEntity> boolean delete(V nve, boolean withReference) {
+        if (nve == null || SUS.isEmpty(nve.getGUID()))
+            return false;
+        lock.writeLock().lock();
+        try {
+            return delete(nve.getNVConfig().getName(), nve.getGUID());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caller holds the write lock
+    private boolean delete(String collectionName, String guid) {
+        EntityCollection col = collections.get(collectionName);
+        if (col == null || !col.entities.containsKey(guid))
+            return false;
+        append(DELETE, collectionName + "\n" + guid);
+        col.remove(guid);
+        snapshotIfNeeded();
+        return true;
+    }
+
+    @Override
+    public <V extends NVEntity> boolean delete(NVConfigEntity nvce, QueryMarker... queryCriteria) {
+        lock.writeLock().lock();
+        try {
+            boolean removed = false;
+            for (NVEntity nve : matching(nvce.getName(), queryCriteria))
+                removed |= delete(nvce.getName(), nve.getGUID());
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // search
+    // ------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private <V extends NVEntity> List<V> search0(String collectionName, QueryMarker... queryCriteria) {
+        lock.readLock().lock();
+        try {
+            lastAccessTS = System.currentTimeMillis();
+            return (List<V>) new ArrayList<>(matching(collectionName, queryCriteria));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> search(NVConfigEntity nvce, List<String> fieldNames, QueryMarker... queryCriteria) {
+        return search0(nvce.getName(), queryCriteria);
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> search(String className, List<String> fieldNames, QueryMarker... queryCriteria) {
+        lock.readLock().lock();
+        try {
+            return search0(collectionForClassName(className), queryCriteria);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V extends NVEntity> List<V> byID(String collectionName, String... ids) {
+        List<V> ret = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            EntityCollection col = collections.get(collectionName);
+            if (col != null && ids != null)
+                for (String id : ids) {
+                    NVEntity nve = col.entities.get(id);
+                    if (nve != null)
+                        ret.add((V) nve);
+                }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> searchByID(NVConfigEntity nvce, String... ids) {
+        return byID(nvce.getName(), ids);
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> searchByID(String className, String... ids) {
+        lock.readLock().lock();
+        try {
+            return byID(collectionForClassName(className), ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countMatch(NVConfigEntity nvce, QueryMarker... queryCriteria) {
+        lock.readLock().lock();
+        try {
+            return matching(nvce.getName(), queryCriteria).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <NT, RT> NT lookupByReferenceID(String metaTypeName, RT objectId) {
+        List<NVEntity> ret = byID(metaTypeName, String.valueOf(objectId));
+        return ret.isEmpty() ? null : (NT) ret.get(0);
+    }
+
+    @Override
+    public <NT, RT, NIT> NT lookupByReferenceID(String metaTypeName, RT objectId, NIT projection) {
+        return lookupByReferenceID(metaTypeName, objectId);
+    }
+
+    @Override
+    public boolean isValidReferenceID(String refID) {
+        return SUS.isNotEmpty(refID);
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> userSearch(String userID, NVConfigEntity nvce, List<String> fieldNames, QueryMarker... queryCriteria) {
+        return search(nvce, fieldNames, queryCriteria);
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> userSearch(String userID, String className, List<String> fieldNames, QueryMarker... queryCriteria) {
+        return search(className, fieldNames, queryCriteria);
+    }
+
+    @Override
+    public <V extends NVEntity> List<V> userSearchByID(String userID, NVConfigEntity nvce, String... ids) {
+        return searchByID(nvce, ids);
+    }
+
+    // ------------------------------------------------------------------
+    // sequences
+    // ------------------------------------------------------------------
+
+    @Override
+    public LongSequence createSequence(String sequenceName) {
+        return createSequence(sequenceName, 0, 1);
+    }
+
+    @Override
+    public LongSequence createSequence(String sequenceName, long startValue, long defaultIncrement) {
+        lock.writeLock().lock();
+        try {
+            if (!sequences.containsKey(sequenceName)) {
+                append(SEQUENCE, sequenceName + "\n" + startValue);
+                sequences.put(sequenceName, startValue);
+                snapshotIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public void deleteSequence(String sequenceName) {
+        lock.writeLock().lock();
+        try {
+            if (sequences.containsKey(sequenceName)) {
+                append(DELETE_SEQUENCE, sequenceName);
+                sequences.remove(sequenceName);
+                snapshotIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long currentSequenceValue(String sequenceName) {
+        lock.readLock().lock();
+        try {
+            Long ret = sequences.get(sequenceName);
+            if (ret == null)
+                throw new IllegalArgumentException("No such sequence: " + sequenceName);
+            return ret;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long nextSequenceValue(String sequenceName) {
+        return nextSequenceValue(sequenceName, 1);
+    }
+
+    @Override
+    public long nextSequenceValue(String sequenceName, long increment) {
+        lock.writeLock().lock();
+        try {
+            long ret = sequences.getOrDefault(sequenceName, 0L) + increment;
+            append(SEQUENCE, sequenceName + "\n" + ret);
+            sequences.put(sequenceName, ret);
+            snapshotIfNeeded();
+            return ret;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // store identity, lifecycle and config
+    // ------------------------------------------------------------------
+
+    @Override
+    public String getStoreName() {
+        return name;
+    }
+
+    @Override
+    public Set<String> getStoreTables() {
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(collections.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public NVGenericMap getProperties() {
+        NVGenericMap ret = new NVGenericMap(name);
+        lock.readLock().lock();
+        try {
+            long entities = 0;
+            for (EntityCollection col : collections.values())
+                entities += col.entities.size();
+            ret.build(new NVInt("collections", collections.size()))
+                    .build(new NVLong("entities", entities))
+                    .build(new NVLong("wal_records", wal.recordCount()))
+                    .build(new NVLong("snapshots", snapshots.get()))
+                    .build(new NVLong("index_queries", indexQueries.get()))
+                    .build(new NVLong("scan_queries", scanQueries.get()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public APIConfigInfo getAPIConfigInfo() {
+        return configInfo;
+    }
+
+    @Override
+    public void setAPIConfigInfo(APIConfigInfo configInfo) {
+        this.configInfo = configInfo;
+    }
+
+    @Override
+    public Void connect() {
+        return null;
+    }
+
+    @Override
+    public Void newConnection() {
+        return null;
+    }
+
+    /**
+     * Snapshot the store if the log is not empty and close the log.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (wal.recordCount() > 0)
+                snapshot();
+        } finally {
+            SharedIOUtil.close(wal);
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isProviderActive() {
+        return true;
+    }
+
+    @Override
+    public APIExceptionHandler getAPIExceptionHandler() {
+        return exceptionHandler;
+    }
+
+    @Override
+    public void setAPIExceptionHandler(APIExceptionHandler exceptionHandler) {
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    @Override
+    public <T> T lookupProperty(GetName propertyName) {
+        return null;
+    }
+
+    @Override
+    public long lastTimeAccessed() {
+        return lastAccessTS;
+    }
+
+    @Override
+    public long inactivityDuration() {
+        return System.currentTimeMillis() - lastAccessTS;
+    }
+
+    @Override
+    public boolean isBusy() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    @Override
+    public String toCanonicalID() {
+        return name;
+    }
+
+    // ------------------------------------------------------------------
+    // unsupported surface
+    // ------------------------------------------------------------------
+
+    @Override
+    public <T> APISearchResult<T> batchSearch(NVConfigEntity nvce, QueryMarker... queryCriteria) {
+        throw new UnsupportedOperationException("batchSearch not supported by the embedded data store");
+    }
+
+    @Override
+    public <T> APISearchResult<T> batchSearch(String className, QueryMarker... queryCriteria) {
+        throw new UnsupportedOperationException("batchSearch not supported by the embedded data store");
+    }
+
+    @Override
+    public <T, V extends NVEntity> APIBatchResult<V> nextBatch(APISearchResult<T> results, int startIndex, int batchSize) {
+        throw new UnsupportedOperationException("nextBatch not supported by the embedded data store");
+    }
+
+    @Override
+    public DynamicEnumMap insertDynamicEnumMap(DynamicEnumMap dynamicEnumMap) {
+        throw new UnsupportedOperationException("DynamicEnumMap not supported by the embedded data store");
+    }
+
+    @Override
+    public DynamicEnumMap updateDynamicEnumMap(DynamicEnumMap dynamicEnumMap) {
+        throw new UnsupportedOperationException("DynamicEnumMap not supported by the embedded data store");
+    }
+
+    @Override
+    public DynamicEnumMap searchDynamicEnumMapByName(String name) {
+        throw new UnsupportedOperationException("DynamicEnumMap not supported by the embedded data store");
+    }
+
+    @Override
+    public void deleteDynamicEnumMap(String name) {
+        throw new UnsupportedOperationException("DynamicEnumMap not supported by the embedded data store");
+    }
+
+    @Override
+    public List<DynamicEnumMap> getAllDynamicEnumMap(String domainID, String userID) {
+        throw new UnsupportedOperationException("DynamicEnumMap not supported by the embedded data store");
+    }
+
+    @Override
+    public <NID> IDGenerator<String, NID> getIDGenerator() {
+        return null;
+    }
+}
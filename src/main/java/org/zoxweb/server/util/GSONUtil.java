@@ -16,9 +16,15 @@
 package org.zoxweb.server.util;
 
 import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
 import com.google.gson.internal.bind.JsonTreeWriter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import org.zoxweb.server.filters.TimestampFilter;
+import org.zoxweb.server.io.UTF8Reader;
+import org.zoxweb.server.io.UTF8Writer;
 import org.zoxweb.server.logging.LogWrapper;
 import org.zoxweb.shared.api.APIException;
 import org.zoxweb.shared.db.*;
@@ -32,13 +38,12 @@ import org.zoxweb.shared.util.Const.LogicalOperator;
 import org.zoxweb.shared.util.ExceptionReason.Reason;
 import org.zoxweb.shared.util.SharedBase64.Base64Type;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringWriter;
+import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.format.DateTimeParseException;
@@ -369,6 +374,32 @@ public final class GSONUtil {
     }
 
 
+    /**
+     * Write the json of the object to the output stream, the output is the utf-8 encoding of {@link #toJSONDefault(Object)}.
+     * NVGenericMap and NVEntity are written directly to the stream instead of going through the json tree of their
+     * type adapters.
+     *
+     * @param os output stream, flushed but not closed
+     * @param o  to be encoded
+     * @return os
+     * @throws IOException in case of write error
+     */
+    public static <O extends OutputStream> O toJSONDefault(O os, Object o) throws IOException {
+        counter.incrementAndGet();
+        JsonWriter writer = DEFAULT_GSON.newJsonWriter(new UTF8Writer(os));
+        if (o == null)
+            DEFAULT_GSON.toJson(JsonNull.INSTANCE, writer);
+        else if (o.getClass() == NVGenericMap.class)
+            toJSONGenericMap(writer, (NVGenericMap) o, false, false);
+        else if (o instanceof NVEntity)
+            toJSON(writer, ((NVEntity) o).getClass(), (NVEntity) o, false, true, null);
+        else
+            DEFAULT_GSON.toJson(o, o.getClass(), writer);
+        writer.flush();
+        return os;
+    }
+
+
     public static class NVEntitySerDeserializer implements JsonSerializer<NVEntity>, JsonDeserializer<NVEntity> {
 
         @Override
@@ -581,6 +612,28 @@ public final class GSONUtil {
     }
 
 
+    /**
+     * Write the json of the entity to the output stream, the output is the utf-8 encoding of
+     * {@link #toJSON(NVEntity, boolean, boolean, boolean, Base64Type)} without the intermediate string.
+     *
+     * @param os             output stream, flushed but not closed
+     * @param nve            to be encoded
+     * @param indent         pretty print
+     * @param printNull      print null values
+     * @param printClassType print the class type
+     * @param b64Type        base64 type of the binary attributes
+     * @return os
+     * @throws IOException in case of write error
+     */
+    public static <O extends OutputStream> O toJSON(O os, NVEntity nve, boolean indent, boolean printNull, boolean printClassType, Base64Type b64Type)
+            throws IOException {
+        JsonWriter writer = createJsonWriter(os, indent);
+        toJSON(writer, nve.getClass(), nve, printNull, printClassType, b64Type);
+        writer.flush();
+        return os;
+    }
+
+
     public static String toJSONWrapper(String wrapName,
                                        NVEntity nve,
                                        boolean indent,
@@ -956,6 +1009,33 @@ public final class GSONUtil {
         return sw.toString();
     }
 
+    /**
+     * Write the json of the map to the output stream, the output is the utf-8 encoding of
+     * {@link #toJSONGenericMap(NVGenericMap, boolean, boolean, boolean)} without the intermediate string.
+     *
+     * @param os             output stream, flushed but not closed
+     * @param nvgm           to be encoded
+     * @param indent         pretty print
+     * @param printNull      print null and default values
+     * @param printClassType print the class type of nested entities
+     * @return os
+     * @throws IOException in case of write error
+     */
+    public static <O extends OutputStream> O toJSONGenericMap(O os, NVGenericMap nvgm, boolean indent, boolean printNull, boolean printClassType) throws IOException {
+        JsonWriter writer = createJsonWriter(os, indent);
+        toJSONGenericMap(writer, nvgm, printNull, printClassType);
+        writer.flush();
+        return os;
+    }
+
+    private static JsonWriter createJsonWriter(OutputStream os, boolean indent) {
+        JsonWriter writer = new JsonWriter(new UTF8Writer(os));
+        writer.setSerializeNulls(true);
+        writer.setHtmlSafe(false);
+        writer.setIndent(indent ? "  " : "");
+        return writer;
+    }
+
     private static JsonWriter toJSONGenericMapArray(JsonWriter writer, NVGenericMapList nvgmList, boolean printNull, boolean printClassType) throws IOException {
         writer.beginArray();
         for (NVGenericMap nvgm : nvgmList.getValue()) {
@@ -1131,11 +1211,50 @@ public final class GSONUtil {
     }
 
     public static NVGenericMap fromJSONGenericMap(byte[] data, NVConfigEntity nvce, Base64Type btype) {
-        return fromJSONGenericMap(SharedStringUtil.toString(data), nvce, btype);
+        return fromJSONGenericMap(data, nvce, btype, false);
     }
 
     public static NVGenericMap fromJSONGenericMap(byte[] data, NVConfigEntity nvce, Base64Type btype, boolean nvgPrimitiveAsString) {
-        return fromJSONGenericMap(SharedStringUtil.toString(data), nvce, btype, nvgPrimitiveAsString);
+        return fromJSONGenericMap(new UTF8Reader(data), nvce, btype, nvgPrimitiveAsString);
+    }
+
+    /**
+     * Decode a json object read from the input stream without building the intermediate json tree.
+     *
+     * @param is                   utf-8 json input stream, not closed
+     * @param nvce                 optional meta data of the top level attributes
+     * @param btype                base64 type of the embedded binary data
+     * @param nvgPrimitiveAsString primitive as string
+     * @return the decoded map, null if the json is not an object
+     */
+    public static NVGenericMap fromJSONGenericMap(InputStream is, NVConfigEntity nvce, Base64Type btype, boolean nvgPrimitiveAsString) {
+        return fromJSONGenericMap(new InputStreamReader(is, StandardCharsets.UTF_8), nvce, btype, nvgPrimitiveAsString);
+    }
+
+    private static NVGenericMap fromJSONGenericMap(Reader json, NVConfigEntity nvce, Base64Type btype, boolean nvgPrimitiveAsString) {
+        JsonReader reader = new JsonReader(json);
+        reader.setStrictness(Strictness.LENIENT);
+        try {
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // empty document
+                return null;
+            }
+            if (token != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                return null;
+            }
+            NVGenericMap ret = fromJSONGenericMap(reader, nvce, btype, nvgPrimitiveAsString);
+            if (reader.peek() != JsonToken.END_DOCUMENT)
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            return ret;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
 
@@ -1165,58 +1284,153 @@ public final class GSONUtil {
                 continue;
             JsonElement jne = element.getValue();
             if (jne.isJsonArray()) {
-                JsonArray ja = jne.getAsJsonArray();
-                NVBase<?> nvb = guessNVBaseArray(ja);
-                if (nvb != null) {
-                    nvb.setName(element.getKey());
-                    ret.add(nvb);
-                    for (int i = 0; i < ja.size(); i++) {
-                        if (nvb instanceof NVPairList) {
-                            ((NVPairList) nvb).add(toNVPair((JsonObject) ja.get(i)));
-                        } else if (nvb instanceof NVIntList) {
-                            ((NVIntList) nvb).getValue().add(ja.get(i).getAsInt());
-                        } else if (nvb instanceof NVLongList) {
-                            ((NVLongList) nvb).getValue().add(ja.get(i).getAsLong());
-                        } else if (nvb instanceof NVFloatList) {
-                            ((NVFloatList) nvb).getValue().add(ja.get(i).getAsFloat());
-                        } else if (nvb instanceof NVDoubleList) {
-                            ((NVDoubleList) nvb).getValue().add(ja.get(i).getAsDouble());
-                        } else if (nvb instanceof NVStringList) {
-                            ((NVStringList) nvb).getValue().add(ja.get(i).getAsString());
-                        } else if (nvb instanceof NVStringSet) {
-                            ((NVStringSet) nvb).getValue().add(ja.get(i).getAsString());
-                        } else if (nvb instanceof NVGenericMapList) {
-                            ((NVGenericMapList) nvb).add(fromJSONGenericMap((JsonObject) ja.get(i), null, b64Type, nvgmPrimitiveAsString));
-                        }
-                    }
-                } else {
-                    log.getLogger().info("Array guess failed " + jne + " for  " + element.getKey());
-                    ret.add(new NVStringList(element.getKey()));
-                }
-
-
+                ret.add(fromJSONArray(element.getKey(), jne.getAsJsonArray(), b64Type, nvgmPrimitiveAsString));
             } else if (jne.isJsonPrimitive()) {
                 ret.add(guessPrimitive(element.getKey(), nvce != null ? nvce.lookup(element.getKey()) : null, (JsonPrimitive) jne, nvgmPrimitiveAsString));
             } else if (jne.isJsonObject()) {
-                GetNameValue<?> nvpMaybe = guessNVPairEnum(element.getKey(), (JsonObject) jne);
-                if (nvpMaybe != null) {
-                    ret.add(nvpMaybe);
-                } else {
-                    try {
-                        ret.add(new NVEntityReference(element.getKey(),
-                                (NVEntity) fromJSON(jne.getAsJsonObject(), null, b64Type, nvgmPrimitiveAsString)));
-                    } catch (Exception e) {
-                        NVGenericMap toAdd = fromJSONGenericMap(jne.getAsJsonObject(), null, b64Type, nvgmPrimitiveAsString);
-                        toAdd.setName(element.getKey());
-                        ret.add(toAdd);
-                    }
+                ret.add(fromJSONObject(element.getKey(), (JsonObject) jne, b64Type, nvgmPrimitiveAsString));
+            }
+        }
+
+        return ret;
+
+
+    }
+
+    private static NVBase<?> fromJSONArray(String name, JsonArray ja, Base64Type b64Type, boolean nvgmPrimitiveAsString) {
+        NVBase<?> nvb = guessNVBaseArray(ja);
+        if (nvb != null) {
+            nvb.setName(name);
+            for (int i = 0; i < ja.size(); i++) {
+                if (nvb instanceof NVPairList) {
+                    ((NVPairList) nvb).add(toNVPair((JsonObject) ja.get(i)));
+                } else if (nvb instanceof NVIntList) {
+                    ((NVIntList) nvb).getValue().add(ja.get(i).getAsInt());
+                } else if (nvb instanceof NVLongList) {
+                    ((NVLongList) nvb).getValue().add(ja.get(i).getAsLong());
+                } else if (nvb instanceof NVFloatList) {
+                    ((NVFloatList) nvb).getValue().add(ja.get(i).getAsFloat());
+                } else if (nvb instanceof NVDoubleList) {
+                    ((NVDoubleList) nvb).getValue().add(ja.get(i).getAsDouble());
+                } else if (nvb instanceof NVStringList) {
+                    ((NVStringList) nvb).getValue().add(ja.get(i).getAsString());
+                } else if (nvb instanceof NVStringSet) {
+                    ((NVStringSet) nvb).getValue().add(ja.get(i).getAsString());
+                } else if (nvb instanceof NVGenericMapList) {
+                    ((NVGenericMapList) nvb).add(fromJSONGenericMap((JsonObject) ja.get(i), null, b64Type, nvgmPrimitiveAsString));
                 }
             }
+            return nvb;
         }
 
+        log.getLogger().info("Array guess failed " + ja + " for  " + name);
+        return new NVStringList(name);
+    }
+
+    private static GetNameValue<?> fromJSONObject(String name, JsonObject jo, Base64Type b64Type, boolean nvgmPrimitiveAsString) {
+        GetNameValue<?> nvpMaybe = guessNVPairEnum(name, jo);
+        if (nvpMaybe != null)
+            return nvpMaybe;
+
+        try {
+            return new NVEntityReference(name, (NVEntity) fromJSON(jo, null, b64Type, nvgmPrimitiveAsString));
+        } catch (Exception e) {
+            NVGenericMap ret = fromJSONGenericMap(jo, null, b64Type, nvgmPrimitiveAsString);
+            ret.setName(name);
+            return ret;
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #fromJSONGenericMap(JsonObject, NVConfigEntity, Base64Type, boolean)}, the
+     * reader is positioned on the object start.
+     * The members and the map list elements are decoded one at a time, a nested object is read as a tree since its
+     * meta tokens (value_filter, enum_type or class_type) can be anywhere in it, the result is the same as the tree
+     * decoder.
+     */
+    private static NVGenericMap fromJSONGenericMap(JsonReader reader, NVConfigEntity nvce, Base64Type b64Type, boolean nvgmPrimitiveAsString)
+            throws IOException {
+        NVGenericMap ret = new NVGenericMap();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(MetaToken.CLASS_TYPE.getName())) {
+                reader.skipValue();
+                continue;
+            }
+            switch (reader.peek()) {
+                case BEGIN_ARRAY:
+                    ret.add(fromJSONArray(name, reader, b64Type, nvgmPrimitiveAsString));
+                    break;
+                case BEGIN_OBJECT:
+                    ret.add(fromJSONObject(name, reader, b64Type, nvgmPrimitiveAsString));
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    break;
+                default:
+                    ret.add(guessPrimitive(name, nvce != null ? nvce.lookup(name) : null, nextPrimitive(reader), nvgmPrimitiveAsString));
+            }
+        }
+        reader.endObject();
         return ret;
+    }
 
+    private static JsonPrimitive nextPrimitive(JsonReader reader)
+            throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return new JsonPrimitive(reader.nextBoolean());
+            case NUMBER:
+                // same representation as the tree parser
+                return new JsonPrimitive(new LazilyParsedNumber(reader.nextString()));
+            default:
+                return new JsonPrimitive(reader.nextString());
+        }
+    }
 
+    private static GetNameValue<?> fromJSONObject(String name, JsonReader reader, Base64Type b64Type, boolean nvgmPrimitiveAsString)
+            throws IOException {
+        // the meta tokens can be anywhere in the object, the nested object is read as a tree and decoded as the
+        // tree decoder does
+        return fromJSONObject(name, JsonParser.parseReader(reader).getAsJsonObject(), b64Type, nvgmPrimitiveAsString);
+    }
+
+    /**
+     * Streaming counterpart of {@link #fromJSONArray(String, JsonArray, Base64Type, boolean)}, the elements of a map
+     * list are decoded one at a time, the other arrays are small and decoded with the same type guessing rules.
+     */
+    private static NVBase<?> fromJSONArray(String name, JsonReader reader, Base64Type b64Type, boolean nvgmPrimitiveAsString)
+            throws IOException {
+        reader.beginArray();
+        JsonArray ja = new JsonArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            JsonObject first = JsonParser.parseReader(reader).getAsJsonObject();
+            if (first.size() > 1) {
+                NVGenericMapList ret = new NVGenericMapList();
+                ret.setName(name);
+                ret.add(fromJSONGenericMap(first, null, b64Type, nvgmPrimitiveAsString));
+                while (reader.hasNext())
+                    ret.add(fromJSONGenericMap(reader, null, b64Type, nvgmPrimitiveAsString));
+                reader.endArray();
+                return ret;
+            }
+            ja.add(first);
+        }
+
+        while (reader.hasNext()) {
+            switch (reader.peek()) {
+                case BOOLEAN:
+                case NUMBER:
+                case STRING:
+                    ja.add(nextPrimitive(reader));
+                    break;
+                default:
+                    ja.add(JsonParser.parseReader(reader));
+            }
+        }
+        reader.endArray();
+        return fromJSONArray(name, ja, b64Type, nvgmPrimitiveAsString);
     }
 
     private static NVBase<?> guessNVBaseArray(JsonArray ja) {
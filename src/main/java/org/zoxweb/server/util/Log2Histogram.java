@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util;
+
+import org.zoxweb.shared.util.*;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with power-of-two buckets, bucket i counts the values in [2^(i-1), 2^i),
+ * bucket 0 counts the values &lt;= 0. Cheap enough to record on hot paths.
+ */
+public class Log2Histogram
+        implements GetName, ToNVProperties {
+
+    private final String name;
+    private final String unit;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param name       of the histogram
+     * @param unit       unit suffix of the bucket names, ex: "us"
+     * @param maxBuckets number of buckets, the last one holds every larger value
+     */
+    public Log2Histogram(String name, String unit, int maxBuckets) {
+        if (maxBuckets < 2 || maxBuckets > 64)
+            throw new IllegalArgumentException("Invalid bucket count " + maxBuckets);
+        this.name = name;
+        this.unit = unit != null ? unit : "";
+        buckets = new LongAdder[maxBuckets];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param value to record
+     */
+    public void record(long value) {
+        int index = value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+        buckets[Math.min(index, buckets.length - 1)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @param index of the bucket
+     * @return the bucket count
+     */
+    public long bucket(int index) {
+        return buckets[index].sum();
+    }
+
+    public int bucketCount() {
+        return buckets.length;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap(name);
+        long c = count.sum();
+        ret.build(new NVLong("count", c))
+                .build(new NVLong("average", c > 0 ? sum.sum() / c : 0));
+        for (int i = 0; i < buckets.length; i++) {
+            long bucketCount = buckets[i].sum();
+            if (bucketCount > 0 || detailed) {
+                String bucketName = i == buckets.length - 1 ? ">=" + (1L << (i - 1)) + unit : "<" + (1L << i) + unit;
+                ret.build(new NVLong(bucketName, bucketCount));
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi producer multi consumer ring (D. Vyukov's sequenced ring).
+ * <p>
+ * Every slot carries a sequence number: a producer claims the slot whose sequence equals the
+ * tail position, stores the element and publishes it by advancing the sequence; a consumer
+ * claims the slot whose sequence equals head + 1, takes the element and frees the slot for the
+ * next lap. Neither side ever blocks, {@link #offer(Object)} fails on a full ring and
+ * {@link #poll()} returns null on an empty one.
+ * </p>
+ *
+ * @param <E> the type of the queued elements
+ */
+public class MPMCQueue<E> {
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity the minimum capacity, rounded up to a power of two
+     */
+    public MPMCQueue(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        buffer = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * Queue an element.
+     *
+     * @param e the element, not null
+     * @return false if the ring is full
+     */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException("Can't queue a null object");
+        for (; ; ) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[index] = e;
+                    // publish
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the slot of the previous lap is not consumed yet
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Dequeue an element.
+     *
+     * @return the oldest element or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        for (; ; ) {
+            long pos = head.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E ret = (E) buffer[index];
+                    buffer[index] = null;
+                    // free the slot for the next lap
+                    sequences.set(index, pos + mask + 1);
+                    return ret;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the approximate number of queued elements
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, buffer.length);
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * @return the ring capacity, a power of two
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return total number of elements ever queued
+     */
+    public long totalQueued() {
+        return tail.get();
+    }
+
+    /**
+     * Discard all the queued elements.
+     */
+    public void clear() {
+        while (poll() != null) ;
+    }
+}
@@ -19,20 +19,29 @@ package org.zoxweb.server.util;
 import org.zoxweb.shared.util.*;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MetaUtil {
     //public static final MetaUtil SINGLETON = new MetaUtil();
 
-    private static HashMap<String, NVConfigEntity> classNameToNVCE = new HashMap<String, NVConfigEntity>();
+    private static final Map<String, NVConfigEntity> classNameToNVCE = new ConcurrentHashMap<String, NVConfigEntity>();
+    // the NVConfigEntity of a class, resolved on first use
+    private static final ClassValue<AtomicReference<NVConfigEntity>> classToNVCE = new ClassValue<AtomicReference<NVConfigEntity>>() {
+        @Override
+        protected AtomicReference<NVConfigEntity> computeValue(Class<?> type) {
+            return new AtomicReference<>();
+        }
+    };
     //private static MetaUtil tempObj = new MetaUtil();
 
     private MetaUtil() {
 
     }
 
-    public static synchronized NVConfigEntity fromClass(String className)
+    public static NVConfigEntity fromClass(String className)
             throws ClassNotFoundException,
             InstantiationException,
             IllegalAccessException,
@@ -53,11 +62,18 @@ public class MetaUtil {
     public static NVConfigEntity fromClass(Class<?> clazz)
             throws InstantiationException, IllegalAccessException, NullPointerException, IllegalArgumentException, NoSuchMethodException, SecurityException, InvocationTargetException {
         SUS.checkIfNulls("Null class name", clazz);
+        AtomicReference<NVConfigEntity> cached = classToNVCE.get(clazz);
+        NVConfigEntity ret = cached.get();
+        if (ret != null)
+            return ret;
+
         Object obj = clazz.getConstructor().newInstance();
 
         if (obj instanceof NVEntity) {
             NVEntity nve = (NVEntity) obj;
-            return (NVConfigEntity) nve.getNVConfig();
+            ret = (NVConfigEntity) nve.getNVConfig();
+            cached.set(ret);
+            return ret;
         }
 
         throw new IllegalArgumentException("class:" + clazz.getName() + " is not derived from NVEntity");
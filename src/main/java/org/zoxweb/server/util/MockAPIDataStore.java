@@ -8,7 +8,6 @@ import org.zoxweb.shared.api.APISearchResult;
 import org.zoxweb.shared.db.QueryMarker;
 import org.zoxweb.shared.db.QueryMatch;
 import org.zoxweb.shared.data.LongSequence;
-import org.zoxweb.shared.util.Const.RelationalOperator;
 import org.zoxweb.shared.util.DynamicEnumMap;
 import org.zoxweb.shared.util.GetName;
 import org.zoxweb.shared.util.IDGenerator;
@@ -35,8 +34,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * by its GUID. {@link #insert(NVEntity)} auto-assigns a random-UUID GUID when the entity
  * has none. {@code search}, {@code searchByID}, {@code update}, {@code delete} and
  * {@code countMatch} operate against those collections; {@code search} evaluates
- * {@link QueryMatch} criteria with {@link NVEntity#lookupValue(String) field lookups}
- * (dotted/canonical names supported) and AND semantics.</p>
+ * {@link QueryMatch} criteria compiled by {@link QueryPredicate}, with AND/OR semantics.</p>
  *
  * <p>Everything outside that core CRUD/query surface (sequences, dynamic enum maps,
  * batch/user search, connection lifecycle) is intentionally unsupported and throws
@@ -104,7 +102,7 @@ public class MockAPIDataStore
 
     @Override
     public <V extends NVEntity> boolean delete(NVConfigEntity nvce, QueryMarker... queryCriteria) {
-        List<NVEntity> matches = matching(collectionOf(nvce), queryCriteria);
+        List<NVEntity> matches = matching(nvce, collectionOf(nvce), queryCriteria);
         Map<String, NVEntity> col = collection(collectionOf(nvce));
         boolean removed = false;
         for (NVEntity nve : matches) {
@@ -120,13 +118,13 @@ public class MockAPIDataStore
     @Override
     @SuppressWarnings("unchecked")
     public <V extends NVEntity> List<V> search(NVConfigEntity nvce, List<String> fieldNames, QueryMarker... queryCriteria) {
-        return (List<V>) matching(collectionOf(nvce), queryCriteria);
+        return (List<V>) matching(nvce, collectionOf(nvce), queryCriteria);
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <V extends NVEntity> List<V> search(String className, List<String> fieldNames, QueryMarker... queryCriteria) {
-        return (List<V>) matching(collectionForClassName(className), queryCriteria);
+        return (List<V>) matching(null, collectionForClassName(className), queryCriteria);
     }
 
     @Override
@@ -143,7 +141,7 @@ public class MockAPIDataStore
 
     @Override
     public long countMatch(NVConfigEntity nvce, QueryMarker... queryCriteria) {
-        return matching(collectionOf(nvce), queryCriteria).size();
+        return matching(nvce, collectionOf(nvce), queryCriteria).size();
     }
 
     @Override
@@ -180,60 +178,21 @@ public class MockAPIDataStore
         return ret;
     }
 
-    private List<NVEntity> matching(String collectionName, QueryMarker... queryCriteria) {
+    private List<NVEntity> matching(NVConfigEntity nvce, String collectionName, QueryMarker... queryCriteria) {
         List<NVEntity> ret = new ArrayList<>();
-        for (NVEntity nve : collection(collectionName).values()) {
-            if (matchesAll(nve, queryCriteria)) {
+        Map<String, NVEntity> col = collection(collectionName);
+        if (nvce == null && !col.isEmpty()) {
+            nvce = (NVConfigEntity) col.values().iterator().next().getNVConfig();
+        }
+        QueryPredicate predicate = QueryPredicate.compile(nvce, queryCriteria);
+        for (NVEntity nve : col.values()) {
+            if (predicate.test(nve)) {
                 ret.add(nve);
             }
         }
         return ret;
     }
 
-    private static boolean matchesAll(NVEntity nve, QueryMarker... queryCriteria) {
-        if (queryCriteria == null) {
-            return true;
-        }
-        for (QueryMarker qm : queryCriteria) {
-            if (qm instanceof QueryMatch && !matches(nve, (QueryMatch<?>) qm)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private static boolean matches(NVEntity nve, QueryMatch<?> qm) {
-        Object actual = nve.lookupValue(qm.getName());
-        Object expected = qm.getValue();
-        RelationalOperator op = qm.getOperator();
-
-        if (actual instanceof String || expected instanceof String) {
-            boolean equal = SharedStringUtil.equals(
-                    actual != null ? actual.toString() : null,
-                    expected != null ? expected.toString() : null,
-                    true);
-            return op == RelationalOperator.NOT_EQUAL ? !equal : equal;
-        }
-
-        if (op == RelationalOperator.EQUAL || op == RelationalOperator.NOT_EQUAL) {
-            boolean equal = actual == null ? expected == null : actual.equals(expected);
-            return op == RelationalOperator.NOT_EQUAL ? !equal : equal;
-        }
-
-        if (actual instanceof Comparable && expected != null) {
-            int cmp = ((Comparable) actual).compareTo(expected);
-            switch (op) {
-                case GT:  return cmp > 0;
-                case GTE: return cmp >= 0;
-                case LT:  return cmp < 0;
-                case LTE: return cmp <= 0;
-                default:  return false;
-            }
-        }
-        return false;
-    }
-
     private String collectionForClassName(String className) {
         // Map a fully-qualified/simple class name to a stored collection by matching
         // any entity already present whose concrete class name matches.
@@ -0,0 +1,1146 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util;
+
+import org.zoxweb.shared.filters.FilterType;
+import org.zoxweb.shared.filters.ValueFilter;
+import org.zoxweb.shared.util.*;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary codec for NVEntity and NVGenericMap, an alternative to the json of {@link GSONUtil} for service to
+ * service transfers.
+ * <p>
+ * The entity encoding is driven by the {@link NVConfigEntity} meta data: an attribute is identified by its position
+ * in {@link NVConfigEntity#getAttributes()} instead of its name, integers are zigzag varints, floating points are
+ * fixed width, binary attributes are raw bytes and enums are ordinals. Null values and empty collections are omitted.
+ * A class name is written once per payload, later occurrences are table references, and a nested entity of its
+ * declared type carries no class at all. The generic map entries, which have no meta data, are tagged with their type.
+ * </p>
+ * Both ends must run the same versions of the entity classes, the attributes count is checked when decoding.
+ * <pre>
+ * entity    := class-ref attributes-count { field-id value } 0
+ * class-ref := 0 (null) | 1 (declared type) | 2 class-name (new) | 3 + table-index
+ * map       := name { tag name value } 0
+ * string    := varint(utf8-length + 1) utf8-bytes, 0 for null
+ * </pre>
+ * {@link #register()} adds both codecs to {@link DataCodecRegistrar} under NVEntity.class and NVGenericMap.class,
+ * the lookup of an entity subclass resolves to the NVEntity codec.
+ */
+public final class NVBinaryCodec {
+
+    public static final DataCodec<NVEntity, byte[]> NVENTITY_CODEC = new DataCodec<NVEntity, byte[]>() {
+        @Override
+        public byte[] encode(NVEntity input) {
+            return NVBinaryCodec.encode(input);
+        }
+
+        @Override
+        public NVEntity decode(byte[] input) {
+            return NVBinaryCodec.decodeNVEntity(input);
+        }
+    };
+
+    public static final DataCodec<NVGenericMap, byte[]> NVGENERIC_MAP_CODEC = new DataCodec<NVGenericMap, byte[]>() {
+        @Override
+        public byte[] encode(NVGenericMap input) {
+            return NVBinaryCodec.encode(input);
+        }
+
+        @Override
+        public NVGenericMap decode(byte[] input) {
+            return NVBinaryCodec.decodeNVGenericMap(input);
+        }
+    };
+
+    /**
+     * Register the codecs in {@link DataCodecRegistrar#SINGLETON}, to be invoked at application startup before the
+     * codecs are looked up.
+     */
+    public static void register() {
+        DataCodecRegistrar.SINGLETON.register(NVEntity.class, NVENTITY_CODEC);
+        DataCodecRegistrar.SINGLETON.register(NVGenericMap.class, NVGENERIC_MAP_CODEC);
+    }
+
+    // class references
+    private static final int CLASS_NULL = 0;
+    private static final int CLASS_DECLARED = 1;
+    private static final int CLASS_NEW = 2;
+    private static final int CLASS_TABLE = 3;
+
+    // generic map entry tags
+    private static final int END = 0;
+    private static final int PAIR = 1;
+    private static final int PAIR_FILTER = 2;
+    private static final int INT = 3;
+    private static final int LONG = 4;
+    private static final int FLOAT = 5;
+    private static final int DOUBLE = 6;
+    private static final int BOOLEAN = 7;
+    private static final int ENUM = 8;
+    private static final int BLOB = 9;
+    private static final int ENTITY = 10;
+    private static final int MAP = 11;
+    private static final int MAP_LIST = 12;
+    private static final int STRING_LIST = 13;
+    private static final int STRING_SET = 14;
+    private static final int INT_LIST = 15;
+    private static final int LONG_LIST = 16;
+    private static final int FLOAT_LIST = 17;
+    private static final int DOUBLE_LIST = 18;
+    private static final int PAIR_LIST = 19;
+    private static final int NAMED_VALUE = 20;
+    private static final int BIG_DECIMAL = 21;
+    private static final int NUMBER = 22;
+    private static final int ENUM_LIST = 23;
+    private static final int BIG_DECIMAL_LIST = 24;
+    // any other value is carried as the json of a single entry map
+    private static final int JSON = 25;
+    // dynamic values only
+    private static final int NULL = 26;
+    private static final int STRING = 27;
+
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<Output> OUTPUTS = ThreadLocal.withInitial(Output::new);
+    private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Constructor<?>> CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    private NVBinaryCodec() {
+    }
+
+    /**
+     * @param nve to encode
+     * @return the binary encoding of the entity
+     */
+    public static byte[] encode(NVEntity nve) {
+        SUS.checkIfNulls("Null entity", nve);
+        Output out = output();
+        try {
+            writeEntity(out, nve, null);
+            return out.toByteArray();
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * @param nvgm to encode
+     * @return the binary encoding of the map
+     */
+    public static byte[] encode(NVGenericMap nvgm) {
+        SUS.checkIfNulls("Null map", nvgm);
+        Output out = output();
+        try {
+            writeMap(out, nvgm);
+            return out.toByteArray();
+        } finally {
+            out.release();
+        }
+    }
+
+    public static <V extends NVEntity> V decodeNVEntity(byte[] data) {
+        return decodeNVEntity(data, 0, data.length);
+    }
+
+    /**
+     * @param data   encoded entity
+     * @param offset of the encoding
+     * @param length of the encoding
+     * @return the decoded entity
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    @SuppressWarnings("unchecked")
+    public static <V extends NVEntity> V decodeNVEntity(byte[] data, int offset, int length) {
+        Input in = new Input(data, offset, length);
+        try {
+            return (V) in.done(readEntity(in, null));
+        } catch (ArrayIndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Invalid encoding " + e);
+        }
+    }
+
+    public static NVGenericMap decodeNVGenericMap(byte[] data) {
+        return decodeNVGenericMap(data, 0, data.length);
+    }
+
+    /**
+     * @param data   encoded map
+     * @param offset of the encoding
+     * @param length of the encoding
+     * @return the decoded map
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    public static NVGenericMap decodeNVGenericMap(byte[] data, int offset, int length) {
+        Input in = new Input(data, offset, length);
+        try {
+            return in.done(readMap(in, new NVGenericMap()));
+        } catch (ArrayIndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Invalid encoding " + e);
+        }
+    }
+
+    private static Output output() {
+        Output out = OUTPUTS.get();
+        if (out.inUse)
+            // nested call from a value toString or a filter, never expected
+            out = new Output();
+        out.inUse = true;
+        return out;
+    }
+
+    // ---------------------------------------------------------------- entity
+
+    @SuppressWarnings("unchecked")
+    private static void writeEntity(Output out, NVEntity nve, Class<?> declared) {
+        if (nve == null) {
+            out.writeVarInt(CLASS_NULL);
+            return;
+        }
+        if (nve.getClass() == declared)
+            out.writeVarInt(CLASS_DECLARED);
+        else
+            writeClass(out, nve.getClass());
+
+        List<NVConfig> attributes = ((NVConfigEntity) nve.getNVConfig()).getAttributes();
+        out.writeVarInt(attributes.size());
+        for (int i = 0; i < attributes.size(); i++) {
+            NVConfig nvc = attributes.get(i);
+            NVBase<?> nvb = nve.lookup(i);
+            Object value = nvb != null ? nvb.getValue() : null;
+            if (value == null)
+                continue;
+            int id = i + 1;
+            Class<?> metaType = nvc.getMetaType();
+            Class<?> base = nvc.getMetaTypeBase();
+
+            if (nvc.isArray()) {
+                if (byte[].class.equals(metaType)) {
+                    out.writeVarInt(id);
+                    out.writeBytes((byte[]) value);
+                } else if (NVEntity.class.isAssignableFrom(base)) {
+                    NVEntity[] values = ((ArrayValues<NVEntity>) nvb).values();
+                    if (values.length > 0) {
+                        out.writeVarInt(id);
+                        out.writeVarInt(values.length);
+                        for (NVEntity v : values)
+                            writeEntity(out, v, base);
+                    }
+                } else if (base.isEnum()) {
+                    List<Enum<?>> values = (List<Enum<?>>) value;
+                    if (!values.isEmpty()) {
+                        out.writeVarInt(id);
+                        out.writeVarInt(values.size());
+                        for (Enum<?> e : values)
+                            out.writeVarInt(e != null ? e.ordinal() + 1 : 0);
+                    }
+                } else if (String[].class.equals(metaType)) {
+                    GetNameValue<String>[] values = ((ArrayValues<GetNameValue<String>>) nvb).values();
+                    if (values.length > 0) {
+                        out.writeVarInt(id);
+                        out.writeVarInt(values.length);
+                        for (GetNameValue<String> nvp : values)
+                            writePair(out, nvp);
+                    }
+                } else if (value instanceof List && !((List<?>) value).isEmpty()) {
+                    List<?> values = (List<?>) value;
+                    if (Long[].class.equals(metaType) || Date[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        writeLongs(out, (List<Long>) values);
+                    } else if (Integer[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        writeInts(out, (List<Integer>) values);
+                    } else if (Float[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        writeFloats(out, (List<Float>) values);
+                    } else if (Double[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        writeDoubles(out, (List<Double>) values);
+                    } else if (Boolean[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        out.writeVarInt(values.size());
+                        for (Object b : values)
+                            out.writeByte(Boolean.TRUE.equals(b) ? 1 : 0);
+                    } else if (BigDecimal[].class.equals(metaType)) {
+                        out.writeVarInt(id);
+                        writeBigDecimals(out, (List<BigDecimal>) values);
+                    }
+                }
+            } else if (nvc instanceof NVConfigEntity) {
+                out.writeVarInt(id);
+                writeEntity(out, (NVEntity) value, metaType);
+            } else if (nvc.isEnum()) {
+                out.writeVarInt(id);
+                if (value instanceof Enum)
+                    out.writeVarInt(((Enum<?>) value).ordinal() + 1);
+                else {
+                    // dynamic enum value
+                    out.writeVarInt(0);
+                    out.writeString(value.toString());
+                }
+            } else if (String.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeString((String) value);
+            } else if (Long.class.equals(metaType) || Date.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeZigZagLong(value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue());
+            } else if (Integer.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeZigZagInt((Integer) value);
+            } else if (Boolean.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeByte((Boolean) value ? 1 : 0);
+            } else if (Float.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeInt(Float.floatToIntBits((Float) value));
+            } else if (Double.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeLong(Double.doubleToLongBits((Double) value));
+            } else if (BigDecimal.class.equals(metaType)) {
+                out.writeVarInt(id);
+                out.writeString(value.toString());
+            } else if (Number.class.equals(metaType)) {
+                out.writeVarInt(id);
+                writeDynamic(out, value);
+            } else if (NamedValue.class.equals(metaType)) {
+                out.writeVarInt(id);
+                writeDynamic(out, value);
+                writeMap(out, ((NamedValue<?>) nvb).getProperties());
+            } else if (NVGenericMap.class.equals(metaType)) {
+                if (((NVGenericMap) nvb).size() > 0) {
+                    out.writeVarInt(id);
+                    writeMap(out, (NVGenericMap) nvb);
+                }
+            } else if (NVStringList.class.equals(metaType) || NVStringSet.class.equals(metaType)) {
+                Collection<String> values = (Collection<String>) value;
+                if (!values.isEmpty()) {
+                    out.writeVarInt(id);
+                    writeStrings(out, values);
+                }
+            }
+        }
+        out.writeVarInt(END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NVEntity readEntity(Input in, Class<?> declared) {
+        Class<?> clazz = readClass(in, declared);
+        if (clazz == null)
+            return null;
+
+        NVEntity nve = newInstance(clazz);
+        List<NVConfig> attributes = ((NVConfigEntity) nve.getNVConfig()).getAttributes();
+        int count = in.readVarInt();
+        if (count != attributes.size())
+            throw new IllegalArgumentException(clazz.getName() + " attributes mismatch expected " + attributes.size() + " found " + count);
+
+        int id;
+        while ((id = in.readVarInt()) != END) {
+            if (id > count)
+                throw new IllegalArgumentException("Invalid attribute id " + id);
+            NVConfig nvc = attributes.get(id - 1);
+            NVBase<Object> nvb = nve.lookup(id - 1);
+            Class<?> metaType = nvc.getMetaType();
+            Class<?> base = nvc.getMetaTypeBase();
+
+            if (nvc.isArray()) {
+                if (byte[].class.equals(metaType)) {
+                    nve.setValue(nvc, in.readBytes());
+                } else if (NVEntity.class.isAssignableFrom(base)) {
+                    ArrayValues<NVEntity> values = (ArrayValues<NVEntity>) (ArrayValues<?>) nvb;
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        values.add(readEntity(in, base));
+                } else if (base.isEnum()) {
+                    List<Enum<?>> values = (List<Enum<?>>) nvb.getValue();
+                    for (int n = in.readVarInt(); n > 0; n--) {
+                        int ordinal = in.readVarInt();
+                        values.add(ordinal > 0 ? enumConstant(base, ordinal - 1) : null);
+                    }
+                } else if (String[].class.equals(metaType)) {
+                    ArrayValues<NVPair> values = (ArrayValues<NVPair>) (ArrayValues<?>) nvb;
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        values.add(readPair(in));
+                } else if (Long[].class.equals(metaType) || Date[].class.equals(metaType)) {
+                    readLongs(in, (List<Long>) nvb.getValue());
+                } else if (Integer[].class.equals(metaType)) {
+                    readInts(in, (List<Integer>) nvb.getValue());
+                } else if (Float[].class.equals(metaType)) {
+                    readFloats(in, (List<Float>) nvb.getValue());
+                } else if (Double[].class.equals(metaType)) {
+                    readDoubles(in, (List<Double>) nvb.getValue());
+                } else if (Boolean[].class.equals(metaType)) {
+                    List<Boolean> values = (List<Boolean>) nvb.getValue();
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        values.add(in.readByte() != 0);
+                } else if (BigDecimal[].class.equals(metaType)) {
+                    readBigDecimals(in, (List<BigDecimal>) nvb.getValue());
+                } else
+                    throw new IllegalArgumentException("Unsupported attribute " + nvc.getName());
+            } else if (nvc instanceof NVConfigEntity) {
+                nvb.setValue(readEntity(in, metaType));
+            } else if (nvc.isEnum()) {
+                int ordinal = in.readVarInt();
+                if (ordinal > 0)
+                    nvb.setValue(enumConstant(metaType, ordinal - 1));
+                else
+                    nvb.setValue(SharedUtil.enumValue(metaType, in.readString()));
+            } else if (String.class.equals(metaType)) {
+                nvb.setValue(in.readString());
+            } else if (Long.class.equals(metaType) || Date.class.equals(metaType)) {
+                nvb.setValue(in.readZigZagLong());
+            } else if (Integer.class.equals(metaType)) {
+                nvb.setValue(in.readZigZagInt());
+            } else if (Boolean.class.equals(metaType)) {
+                nvb.setValue(in.readByte() != 0);
+            } else if (Float.class.equals(metaType)) {
+                nvb.setValue(Float.intBitsToFloat(in.readInt()));
+            } else if (Double.class.equals(metaType)) {
+                nvb.setValue(Double.longBitsToDouble(in.readLong()));
+            } else if (BigDecimal.class.equals(metaType)) {
+                nvb.setValue(new BigDecimal(in.readString()));
+            } else if (Number.class.equals(metaType)) {
+                nvb.setValue(readDynamic(in));
+            } else if (NamedValue.class.equals(metaType)) {
+                nvb.setValue(readDynamic(in));
+                NVGenericMap properties = readMap(in, new NVGenericMap());
+                NVGenericMap.copy(properties, ((NamedValue<?>) (NVBase<?>) nvb).getProperties(), false);
+            } else if (NVGenericMap.class.equals(metaType)) {
+                readMap(in, (NVGenericMap) (NVBase<?>) nvb);
+            } else if (NVStringList.class.equals(metaType) || NVStringSet.class.equals(metaType)) {
+                readStrings(in, (Collection<String>) nvb.getValue());
+            } else
+                throw new IllegalArgumentException("Unsupported attribute " + nvc.getName());
+        }
+
+        return nve;
+    }
+
+    private static void writeClass(Output out, Class<?> clazz) {
+        List<Class<?>> classes = out.classes;
+        for (int i = 0; i < classes.size(); i++) {
+            if (classes.get(i) == clazz) {
+                out.writeVarInt(CLASS_TABLE + i);
+                return;
+            }
+        }
+        classes.add(clazz);
+        out.writeVarInt(CLASS_NEW);
+        out.writeString(clazz.getName());
+    }
+
+    private static Class<?> readClass(Input in, Class<?> declared) {
+        int ref = in.readVarInt();
+        switch (ref) {
+            case CLASS_NULL:
+                return null;
+            case CLASS_DECLARED:
+                if (declared == null)
+                    throw new IllegalArgumentException("No declared type");
+                return declared;
+            case CLASS_NEW:
+                Class<?> clazz = loadClass(in.readString());
+                in.classes.add(clazz);
+                return clazz;
+            default:
+                int index = ref - CLASS_TABLE;
+                if (index < 0 || index >= in.classes.size())
+                    throw new IllegalArgumentException("Invalid class reference " + ref);
+                return in.classes.get(index);
+        }
+    }
+
+    private static Class<?> loadClass(String name) {
+        Class<?> ret = CLASSES.get(name);
+        if (ret == null) {
+            try {
+                ret = Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Class not found " + name);
+            }
+            CLASSES.put(name, ret);
+        }
+        return ret;
+    }
+
+    private static NVEntity newInstance(Class<?> clazz) {
+        if (!NVEntity.class.isAssignableFrom(clazz))
+            throw new IllegalArgumentException(clazz.getName() + " is not an NVEntity");
+        try {
+            Constructor<?> constructor = CONSTRUCTORS.get(clazz);
+            if (constructor == null) {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                CONSTRUCTORS.put(clazz, constructor);
+            }
+            return (NVEntity) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can't create " + clazz.getName() + " " + e);
+        }
+    }
+
+    // ---------------------------------------------------------------- generic map
+
+    @SuppressWarnings("unchecked")
+    private static void writeMap(Output out, NVGenericMap nvgm) {
+        out.writeString(nvgm.getName());
+        for (GetNameValue<?> gnv : nvgm.values()) {
+            String name = gnv.getName();
+            Object value = gnv.getValue();
+            if (gnv instanceof NVPair) {
+                ValueFilter<String, String> vf = ((NVPair) gnv).getValueFilter();
+                if (vf != null && vf != FilterType.CLEAR) {
+                    out.writeVarInt(PAIR_FILTER);
+                    out.writeString(name);
+                    out.writeString((String) value);
+                    out.writeString(vf.toCanonicalID());
+                } else {
+                    out.writeVarInt(PAIR);
+                    out.writeString(name);
+                    out.writeString((String) value);
+                }
+            } else if (gnv instanceof NVInt) {
+                out.writeVarInt(INT);
+                out.writeString(name);
+                out.writeZigZagInt((Integer) value);
+            } else if (gnv instanceof NVLong) {
+                out.writeVarInt(LONG);
+                out.writeString(name);
+                out.writeZigZagLong((Long) value);
+            } else if (gnv instanceof NVFloat) {
+                out.writeVarInt(FLOAT);
+                out.writeString(name);
+                out.writeInt(Float.floatToIntBits((Float) value));
+            } else if (gnv instanceof NVDouble) {
+                out.writeVarInt(DOUBLE);
+                out.writeString(name);
+                out.writeLong(Double.doubleToLongBits((Double) value));
+            } else if (gnv instanceof NVBoolean) {
+                out.writeVarInt(BOOLEAN);
+                out.writeString(name);
+                out.writeByte(Boolean.TRUE.equals(value) ? 1 : 0);
+            } else if (gnv instanceof NVEnum) {
+                out.writeVarInt(ENUM);
+                out.writeString(name);
+                writeEnum(out, (Enum<?>) value);
+            } else if (gnv instanceof NVBlob) {
+                out.writeVarInt(BLOB);
+                out.writeString(name);
+                out.writeBytes((byte[]) value);
+            } else if (gnv instanceof NVEntityReference) {
+                out.writeVarInt(ENTITY);
+                out.writeString(name);
+                writeEntity(out, (NVEntity) value, null);
+            } else if (gnv instanceof NVGenericMap) {
+                out.writeVarInt(MAP);
+                writeMap(out, (NVGenericMap) gnv);
+            } else if (gnv instanceof NVGenericMapList) {
+                out.writeVarInt(MAP_LIST);
+                out.writeString(name);
+                List<NVGenericMap> values = (List<NVGenericMap>) value;
+                out.writeVarInt(values.size());
+                for (NVGenericMap v : values)
+                    writeMap(out, v);
+            } else if (gnv instanceof NVStringList) {
+                out.writeVarInt(STRING_LIST);
+                out.writeString(name);
+                writeStrings(out, (Collection<String>) value);
+            } else if (gnv instanceof NVStringSet) {
+                out.writeVarInt(STRING_SET);
+                out.writeString(name);
+                writeStrings(out, (Collection<String>) value);
+            } else if (gnv instanceof NVIntList) {
+                out.writeVarInt(INT_LIST);
+                out.writeString(name);
+                writeInts(out, (List<Integer>) value);
+            } else if (gnv instanceof NVLongList) {
+                out.writeVarInt(LONG_LIST);
+                out.writeString(name);
+                writeLongs(out, (List<Long>) value);
+            } else if (gnv instanceof NVFloatList) {
+                out.writeVarInt(FLOAT_LIST);
+                out.writeString(name);
+                writeFloats(out, (List<Float>) value);
+            } else if (gnv instanceof NVDoubleList) {
+                out.writeVarInt(DOUBLE_LIST);
+                out.writeString(name);
+                writeDoubles(out, (List<Double>) value);
+            } else if (gnv instanceof NVBigDecimalList) {
+                out.writeVarInt(BIG_DECIMAL_LIST);
+                out.writeString(name);
+                writeBigDecimals(out, (List<BigDecimal>) value);
+            } else if (gnv instanceof NVPairList) {
+                out.writeVarInt(PAIR_LIST);
+                out.writeString(name);
+                List<NVPair> values = (List<NVPair>) value;
+                out.writeVarInt(values.size());
+                for (NVPair nvp : values)
+                    writePair(out, nvp);
+            } else if (gnv instanceof NVEnumList) {
+                out.writeVarInt(ENUM_LIST);
+                out.writeString(name);
+                List<Enum<?>> values = (List<Enum<?>>) value;
+                out.writeVarInt(values.size());
+                for (Enum<?> e : values)
+                    writeEnum(out, e);
+            } else if (gnv instanceof NVBigDecimal) {
+                out.writeVarInt(BIG_DECIMAL);
+                out.writeString(name);
+                out.writeString(value != null ? value.toString() : null);
+            } else if (gnv instanceof NVNumber) {
+                out.writeVarInt(NUMBER);
+                out.writeString(name);
+                writeDynamic(out, value);
+            } else if (gnv.getClass() == NamedValue.class) {
+                out.writeVarInt(NAMED_VALUE);
+                out.writeString(name);
+                writeDynamic(out, value);
+                writeMap(out, ((NamedValue<?>) gnv).getProperties());
+            } else {
+                try {
+                    out.writeVarInt(JSON);
+                    out.writeString(GSONUtil.toJSONGenericMap(new NVGenericMap().build(gnv), false, true, true));
+                } catch (java.io.IOException e) {
+                    throw new IllegalArgumentException("Can't encode " + name + " " + e);
+                }
+            }
+        }
+        out.writeVarInt(END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NVGenericMap readMap(Input in, NVGenericMap ret) {
+        String mapName = in.readString();
+        if (mapName != null && ret.getName() == null)
+            ret.setName(mapName);
+
+        int tag;
+        while ((tag = in.readVarInt()) != END) {
+            if (tag == MAP) {
+                ret.add(readMap(in, new NVGenericMap()));
+                continue;
+            }
+            if (tag == JSON) {
+                NVGenericMap json = GSONUtil.fromJSONGenericMap(in.readString(), null, SharedBase64.Base64Type.DEFAULT);
+                if (json != null)
+                    for (GetNameValue<?> gnv : json.values())
+                        ret.add(gnv);
+                continue;
+            }
+
+            String name = in.readString();
+            switch (tag) {
+                case PAIR:
+                    ret.add(new NVPair(name, in.readString()));
+                    break;
+                case PAIR_FILTER:
+                    ret.add(new NVPair(name, in.readString(), toValueFilter(in.readString())));
+                    break;
+                case INT:
+                    ret.add(new NVInt(name, in.readZigZagInt()));
+                    break;
+                case LONG:
+                    ret.add(new NVLong(name, in.readZigZagLong()));
+                    break;
+                case FLOAT:
+                    ret.add(new NVFloat(name, Float.intBitsToFloat(in.readInt())));
+                    break;
+                case DOUBLE:
+                    ret.add(new NVDouble(name, Double.longBitsToDouble(in.readLong())));
+                    break;
+                case BOOLEAN:
+                    ret.add(new NVBoolean(name, in.readByte() != 0));
+                    break;
+                case ENUM:
+                    ret.add(new NVEnum(name, readEnum(in)));
+                    break;
+                case BLOB:
+                    ret.add(new NVBlob(name, in.readBytes()));
+                    break;
+                case ENTITY:
+                    ret.add(new NVEntityReference(name, readEntity(in, null)));
+                    break;
+                case MAP_LIST: {
+                    NVGenericMapList list = new NVGenericMapList(name);
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        list.add(readMap(in, new NVGenericMap()));
+                    ret.add(list);
+                }
+                break;
+                case STRING_LIST: {
+                    NVStringList list = new NVStringList(name);
+                    readStrings(in, list.getValue());
+                    ret.add(list);
+                }
+                break;
+                case STRING_SET: {
+                    NVStringSet set = new NVStringSet(name);
+                    readStrings(in, set.getValue());
+                    ret.add(set);
+                }
+                break;
+                case INT_LIST:
+                    ret.add(new NVIntList(name, readInts(in, new ArrayList<>())));
+                    break;
+                case LONG_LIST:
+                    ret.add(new NVLongList(name, readLongs(in, new ArrayList<>())));
+                    break;
+                case FLOAT_LIST:
+                    ret.add(new NVFloatList(name, readFloats(in, new ArrayList<>())));
+                    break;
+                case DOUBLE_LIST:
+                    ret.add(new NVDoubleList(name, readDoubles(in, new ArrayList<>())));
+                    break;
+                case BIG_DECIMAL_LIST:
+                    ret.add(new NVBigDecimalList(name, readBigDecimals(in, new ArrayList<>())));
+                    break;
+                case PAIR_LIST: {
+                    List<NVPair> values = new ArrayList<>();
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        values.add(readPair(in));
+                    ret.add(new NVPairList(name, values));
+                }
+                break;
+                case ENUM_LIST: {
+                    List<Enum<?>> values = new ArrayList<>();
+                    for (int n = in.readVarInt(); n > 0; n--)
+                        values.add(readEnum(in));
+                    ret.add(new NVEnumList(name, values));
+                }
+                break;
+                case BIG_DECIMAL: {
+                    String value = in.readString();
+                    ret.add(new NVBigDecimal(name, value != null ? new BigDecimal(value) : null));
+                }
+                break;
+                case NUMBER:
+                    ret.add(new NVNumber(name, (Number) readDynamic(in)));
+                    break;
+                case NAMED_VALUE: {
+                    NamedValue<Object> nv = new NamedValue<>(name, readDynamic(in));
+                    NVGenericMap.copy(readMap(in, new NVGenericMap()), nv.getProperties(), false);
+                    ret.add(nv);
+                }
+                break;
+                default:
+                    throw new IllegalArgumentException("Invalid tag " + tag);
+            }
+        }
+        return ret;
+    }
+
+    private static ValueFilter<String, String> toValueFilter(String canonicalID) {
+        if (canonicalID == null)
+            return null;
+        ValueFilter<String, String> ret = SharedUtil.enumValue(FilterType.class, canonicalID);
+        if (ret == null)
+            ret = DynamicEnumMapManager.SINGLETON.lookup(canonicalID);
+        return ret;
+    }
+
+    private static void writePair(Output out, GetNameValue<String> nvp) {
+        out.writeString(nvp.getName());
+        out.writeString(nvp.getValue());
+        ValueFilter<String, String> vf = nvp instanceof NVPair ? ((NVPair) nvp).getValueFilter() : null;
+        out.writeString(vf != null && vf != FilterType.CLEAR ? vf.toCanonicalID() : null);
+    }
+
+    private static NVPair readPair(Input in) {
+        NVPair ret = new NVPair();
+        ret.setName(in.readString());
+        String value = in.readString();
+        ValueFilter<String, String> vf = toValueFilter(in.readString());
+        if (vf != null)
+            ret.setValueFilter(vf);
+        ret.setValue(value);
+        return ret;
+    }
+
+    private static void writeEnum(Output out, Enum<?> e) {
+        if (e == null) {
+            out.writeVarInt(CLASS_NULL);
+            return;
+        }
+        writeClass(out, e.getDeclaringClass());
+        out.writeVarInt(e.ordinal());
+    }
+
+    private static Enum<?> readEnum(Input in) {
+        Class<?> clazz = readClass(in, null);
+        if (clazz == null)
+            return null;
+        return enumConstant(clazz, in.readVarInt());
+    }
+
+    private static Enum<?> enumConstant(Class<?> clazz, int ordinal) {
+        Object[] constants = clazz.getEnumConstants();
+        if (constants == null)
+            throw new IllegalArgumentException(clazz.getName() + " is not an enum");
+        if (ordinal < 0 || ordinal >= constants.length)
+            throw new IllegalArgumentException("Invalid " + clazz.getName() + " ordinal " + ordinal);
+        return (Enum<?>) constants[ordinal];
+    }
+
+    private static void writeDynamic(Output out, Object value) {
+        if (value == null) {
+            out.writeVarInt(NULL);
+        } else if (value instanceof String) {
+            out.writeVarInt(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeVarInt(BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeVarInt(INT);
+            out.writeZigZagInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeVarInt(LONG);
+            out.writeZigZagLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeVarInt(FLOAT);
+            out.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.writeVarInt(DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Number) {
+            out.writeVarInt(BIG_DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof NVGenericMap) {
+            out.writeVarInt(MAP);
+            writeMap(out, (NVGenericMap) value);
+        } else if (value instanceof byte[]) {
+            out.writeVarInt(BLOB);
+            out.writeBytes((byte[]) value);
+        } else if (value instanceof Enum) {
+            out.writeVarInt(ENUM);
+            writeEnum(out, (Enum<?>) value);
+        } else if (value instanceof NVEntity) {
+            out.writeVarInt(ENTITY);
+            writeEntity(out, (NVEntity) value, null);
+        } else
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+    }
+
+    private static Object readDynamic(Input in) {
+        int tag = in.readVarInt();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readString();
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case INT:
+                return in.readZigZagInt();
+            case LONG:
+                return in.readZigZagLong();
+            case FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readString());
+            case MAP:
+                return readMap(in, new NVGenericMap());
+            case BLOB:
+                return in.readBytes();
+            case ENUM:
+                return readEnum(in);
+            case ENTITY:
+                return readEntity(in, null);
+            default:
+                throw new IllegalArgumentException("Invalid value tag " + tag);
+        }
+    }
+
+    // ---------------------------------------------------------------- collections
+
+    private static void writeStrings(Output out, Collection<String> values) {
+        out.writeVarInt(values.size());
+        for (String v : values)
+            out.writeString(v);
+    }
+
+    private static <C extends Collection<String>> C readStrings(Input in, C values) {
+        for (int n = in.readVarInt(); n > 0; n--)
+            values.add(in.readString());
+        return values;
+    }
+
+    private static void writeInts(Output out, List<Integer> values) {
+        out.writeVarInt(values.size());
+        for (Integer v : values)
+            out.writeZigZagInt(v);
+    }
+
+    private static List<Integer> readInts(Input in, List<Integer> values) {
+        for (int n = in.readVarInt(); n > 0; n--)
+            values.add(in.readZigZagInt());
+        return values;
+    }
+
+    private static void writeLongs(Output out, List<Long> values) {
+        out.writeVarInt(values.size());
+        for (Long v : values)
+            out.writeZigZagLong(v);
+    }
+
+    private static List<Long> readLongs(Input in, List<Long> values) {
+        for (int n = in.readVarInt(); n > 0; n--)
+            values.add(in.readZigZagLong());
+        return values;
+    }
+
+    private static void writeFloats(Output out, List<Float> values) {
+        out.writeVarInt(values.size());
+        for (Float v : values)
+            out.writeInt(Float.floatToIntBits(v));
+    }
+
+    private static List<Float> readFloats(Input in, List<Float> values) {
+        for (int n = in.readVarInt(); n > 0; n--)
+            values.add(Float.intBitsToFloat(in.readInt()));
+        return values;
+    }
+
+    private static void writeDoubles(Output out, List<Double> values) {
+        out.writeVarInt(values.size());
+        for (Double v : values)
+            out.writeLong(Double.doubleToLongBits(v));
+    }
+
+    private static List<Double> readDoubles(Input in, List<Double> values) {
+        for (int n = in.readVarInt(); n > 0; n--)
+            values.add(Double.longBitsToDouble(in.readLong()));
+        return values;
+    }
+
+    private static void writeBigDecimals(Output out, List<BigDecimal> values) {
+        out.writeVarInt(values.size());
+        for (BigDecimal v : values)
+            out.writeString(v != null ? v.toString() : null);
+    }
+
+    private static List<BigDecimal> readBigDecimals(Input in, List<BigDecimal> values) {
+        for (int n = in.readVarInt(); n > 0; n--) {
+            String v = in.readString();
+            values.add(v != null ? new BigDecimal(v) : null);
+        }
+        return values;
+    }
+
+    // ---------------------------------------------------------------- buffers
+
+    private static final class Output {
+        private byte[] buffer = new byte[512];
+        private int position;
+        private final List<Class<?>> classes = new ArrayList<>();
+        private boolean inUse;
+
+        private void ensure(int n) {
+            if (buffer.length - position < n)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + n));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buffer[position++] = (byte) v;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buffer[position++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buffer[position++] = (byte) v;
+        }
+
+        void writeZigZagInt(int v) {
+            writeVarInt((v << 1) ^ (v >> 31));
+        }
+
+        void writeZigZagLong(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buffer[position++] = (byte) (v >>> 24);
+            buffer[position++] = (byte) (v >>> 16);
+            buffer[position++] = (byte) (v >>> 8);
+            buffer[position++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeBytes(byte[] b) {
+            if (b == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(b.length + 1);
+            ensure(b.length);
+            System.arraycopy(b, 0, buffer, position, b.length);
+            position += b.length;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    // non ascii, let the jdk encoder handle it
+                    writeBytes(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            writeVarInt(length + 1);
+            ensure(length);
+            for (int i = 0; i < length; i++)
+                buffer[position++] = (byte) s.charAt(i);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        void release() {
+            position = 0;
+            classes.clear();
+            inUse = false;
+            if (buffer.length > MAX_CACHED_BUFFER)
+                buffer = new byte[512];
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private final List<Class<?>> classes = new ArrayList<>(4);
+
+        Input(byte[] data, int offset, int length) {
+            SUS.checkIfNulls("Null data", data);
+            if (offset < 0 || length < 0 || offset + length > data.length)
+                throw new IllegalArgumentException("Invalid offset " + offset + " or length " + length);
+            this.data = data;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        <V> V done(V v) {
+            if (position != end)
+                throw new IllegalArgumentException("Trailing bytes " + (end - position));
+            return v;
+        }
+
+        private void check(int n) {
+            if (end - position < n)
+                throw new IllegalArgumentException("Truncated encoding");
+        }
+
+        int readByte() {
+            check(1);
+            return data[position++];
+        }
+
+        int readVarInt() {
+            int ret = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                ret |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return ret;
+            }
+            throw new IllegalArgumentException("Invalid varint");
+        }
+
+        long readVarLong() {
+            long ret = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                ret |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return ret;
+            }
+            throw new IllegalArgumentException("Invalid varlong");
+        }
+
+        int readZigZagInt() {
+            int v = readVarInt();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readZigZagLong() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readInt() {
+            check(4);
+            int ret = ((data[position] & 0xff) << 24) |
+                    ((data[position + 1] & 0xff) << 16) |
+                    ((data[position + 2] & 0xff) << 8) |
+                    (data[position + 3] & 0xff);
+            position += 4;
+            return ret;
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        byte[] readBytes() {
+            int length = readVarInt() - 1;
+            if (length < 0)
+                return null;
+            check(length);
+            byte[] ret = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return ret;
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0)
+                return null;
+            check(length);
+            String ret = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util;
+
+import org.zoxweb.shared.db.QueryMarker;
+import org.zoxweb.shared.db.QueryMatch;
+import org.zoxweb.shared.db.QueryRequest;
+import org.zoxweb.shared.util.Const.LogicalOperator;
+import org.zoxweb.shared.util.Const.RelationalOperator;
+import org.zoxweb.shared.util.NVConfig;
+import org.zoxweb.shared.util.NVConfigEntity;
+import org.zoxweb.shared.util.NVEntity;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Compiled form of {@link QueryMarker} criteria, built once per query and evaluated per entity by the
+ * {@link org.zoxweb.shared.api.APIDataStore} implementations that filter in memory.
+ * <p>
+ * The criteria are parsed into a predicate tree, {@link LogicalOperator#AND} binds tighter than
+ * {@link LogicalOperator#OR} and adjacent matches without an operator are AND-ed. Every {@link QueryMatch} is
+ * resolved against the {@link NVConfigEntity} at compile time: the field {@link NVConfig} is looked up with the exact
+ * name case, a dotted name "a.b" is resolved through the entity references like {@link NVEntity#setValue(String, Object)}, the
+ * comparison kind is chosen from the field meta type and the expected value is converted to the field type, a
+ * {@code Integer} criterion on a {@code Long} field is compared as a {@code Long}. The children of each AND/OR node
+ * are ordered by estimated selectivity so the evaluation short-circuits early.
+ * </p>
+ * Matching semantics: a string field or a string value is compared for case-insensitive equality, with
+ * {@code NOT_EQUAL} negating it; other values are compared with {@code equals} for {@code EQUAL/NOT_EQUAL} and
+ * {@code compareTo} for the range operators, a null field only matches {@code EQUAL null} and {@code NOT_EQUAL}.
+ * {@link #explain()} prints the compiled tree.
+ */
+public final class QueryPredicate
+        implements Predicate<NVEntity> {
+
+    /**
+     * Matches every entity
+     */
+    public static final QueryPredicate MATCH_ALL = new QueryPredicate(null, null);
+
+    private enum Kind {
+        // case-insensitive string equality
+        STRING,
+        // numeric value converted to the field type
+        NUMBER,
+        // type decided per entity
+        DYNAMIC
+    }
+
+    private interface Node {
+        boolean test(NVEntity nve);
+
+        double selectivity();
+
+        void explain(StringBuilder sb, int depth);
+    }
+
+    /**
+     * A single compiled {@link QueryMatch}.
+     */
+    public static final class Term
+            implements Node {
+        private final String name;
+        // dotted name segments, null for a top level field
+        private final String[] path;
+        private final NVConfig nvc;
+        private final RelationalOperator operator;
+        private final Object value;
+        private final String lowerValue;
+        private final Kind kind;
+        private final double selectivity;
+
+        private Term(NVConfigEntity nvce, QueryMatch<?> qm) {
+            name = qm.getName();
+            operator = qm.getOperator() != null ? qm.getOperator() : RelationalOperator.EQUAL;
+            path = name.indexOf('.') != -1 ? name.split("\\.") : null;
+            nvc = lookupField(nvce, name, path);
+            Class<?> fieldType = nvc != null && !nvc.isArray() ? nvc.getMetaType() : null;
+            Object converted = qm.getValue() instanceof Number ? toFieldType(fieldType, (Number) qm.getValue()) : null;
+
+            if (qm.getValue() instanceof String || fieldType == String.class) {
+                kind = Kind.STRING;
+                value = qm.getValue();
+            } else if (converted != null) {
+                kind = Kind.NUMBER;
+                value = converted;
+            } else {
+                kind = Kind.DYNAMIC;
+                value = qm.getValue();
+            }
+            lowerValue = value != null ? SharedStringUtil.toLowerCase(value.toString()) : null;
+
+            switch (kind == Kind.STRING && operator != RelationalOperator.NOT_EQUAL ? RelationalOperator.EQUAL : operator) {
+                case EQUAL:
+                    selectivity = nvc != null && nvc.isUnique() ? 0.001 : 0.1;
+                    break;
+                case NOT_EQUAL:
+                    selectivity = 0.9;
+                    break;
+                default:
+                    selectivity = 0.33;
+            }
+        }
+
+        // the field config matching the name case, the lookup of the config entity ignores the case
+        private static NVConfig lookupField(NVConfigEntity nvce, String name, String[] path) {
+            NVConfig ret = nvce != null ? nvce.lookup(name) : null;
+            String leaf = path != null ? path[path.length - 1] : name;
+            return ret != null && ret.getName().equals(leaf) ? ret : null;
+        }
+
+        private static Object toFieldType(Class<?> fieldType, Number n) {
+            if (fieldType == Long.class || fieldType == long.class) {
+                if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte)
+                    return n.longValue();
+            } else if (fieldType == Integer.class || fieldType == int.class) {
+                if ((n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) &&
+                        n.longValue() == n.intValue())
+                    return n.intValue();
+            } else if (fieldType == Double.class || fieldType == double.class) {
+                return n.doubleValue();
+            } else if (fieldType == Float.class || fieldType == float.class) {
+                if (n instanceof Float || n instanceof Integer || n instanceof Short || n instanceof Byte)
+                    return n.floatValue();
+            }
+            return null;
+        }
+
+        /**
+         * @return the field name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the field config, null if the field is not declared by the entity
+         */
+        public NVConfig getNVConfig() {
+            return nvc;
+        }
+
+        public RelationalOperator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return the expected value converted to the field type
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public double selectivity() {
+            return selectivity;
+        }
+
+        @Override
+        public boolean test(NVEntity nve) {
+            Object actual = path != null ? fieldValue(nve, path) : nvc != null ? nve.lookupValue(nvc) : nve.lookupValue(name);
+            switch (kind) {
+                case STRING:
+                    return stringMatch(actual);
+                case NUMBER:
+                    return compare(actual);
+                default:
+                    if (actual instanceof String)
+                        return stringMatch(actual);
+                    return compare(actual);
+            }
+        }
+
+        private boolean stringMatch(Object actual) {
+            boolean equal = actual == null ? lowerValue == null :
+                    lowerValue != null && lowerValue.equals(SharedStringUtil.toLowerCase(actual.toString()));
+            return operator == RelationalOperator.NOT_EQUAL ? !equal : equal;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private boolean compare(Object actual) {
+            switch (operator) {
+                case EQUAL:
+                    return Objects.equals(actual, value);
+                case NOT_EQUAL:
+                    return !Objects.equals(actual, value);
+            }
+            if (actual instanceof Comparable && value != null) {
+                int cmp = ((Comparable) actual).compareTo(value);
+                switch (operator) {
+                    case GT:
+                        return cmp > 0;
+                    case GTE:
+                        return cmp >= 0;
+                    case LT:
+                        return cmp < 0;
+                    case LTE:
+                        return cmp <= 0;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void explain(StringBuilder sb, int depth) {
+            indent(sb, depth).append(name).append(' ').append(operator).append(' ');
+            if (value instanceof String)
+                sb.append('"').append(value).append('"');
+            else
+                sb.append(value).append(value != null ? " (" + value.getClass().getSimpleName() + ")" : "");
+            sb.append(" [").append(kind.name().toLowerCase()).append(nvc == null ? ", undeclared field" : "")
+                    .append(", est ").append(format(selectivity)).append("]\n");
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + operator + " " + value;
+        }
+    }
+
+    private static final class Junction
+            implements Node {
+        private final boolean and;
+        private final Node[] children;
+        private final double selectivity;
+
+        private Junction(boolean and, List<Node> nodes) {
+            this.and = and;
+            children = nodes.toArray(new Node[0]);
+            // AND: most selective first, OR: least selective first, both short-circuit soonest
+            Arrays.sort(children, and ? Comparator.comparingDouble(Node::selectivity) :
+                    Comparator.comparingDouble(Node::selectivity).reversed());
+            double s = 1;
+            for (Node n : children)
+                s *= and ? n.selectivity() : 1 - n.selectivity();
+            selectivity = and ? s : 1 - s;
+        }
+
+        @Override
+        public boolean test(NVEntity nve) {
+            if (and) {
+                for (Node n : children)
+                    if (!n.test(nve))
+                        return false;
+                return true;
+            }
+            for (Node n : children)
+                if (n.test(nve))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public double selectivity() {
+            return selectivity;
+        }
+
+        @Override
+        public void explain(StringBuilder sb, int depth) {
+            indent(sb, depth).append(and ? "AND" : "OR").append(" [est ").append(format(selectivity)).append("]\n");
+            for (Node n : children)
+                n.explain(sb, depth + 1);
+        }
+    }
+
+    private final Node root;
+    private final List<Term> requiredTerms;
+
+    private QueryPredicate(Node root, List<Term> requiredTerms) {
+        this.root = root;
+        this.requiredTerms = requiredTerms != null ? Collections.unmodifiableList(requiredTerms) : Collections.emptyList();
+    }
+
+    /**
+     * Compile the query criteria.
+     *
+     * @param nvce          the entity type, if null the field types are resolved per entity
+     * @param queryCriteria the criteria, null or empty matches every entity
+     * @return the compiled predicate
+     */
+    public static QueryPredicate compile(NVConfigEntity nvce, QueryMarker... queryCriteria) {
+        if (queryCriteria == null || queryCriteria.length == 0)
+            return MATCH_ALL;
+
+        List<List<Node>> groups = new ArrayList<>();
+        List<Node> group = new ArrayList<>();
+        for (QueryMarker qm : queryCriteria) {
+            if (qm instanceof QueryMatch) {
+                group.add(new Term(nvce, (QueryMatch<?>) qm));
+            } else if (qm == LogicalOperator.OR && !group.isEmpty()) {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+        }
+        if (!group.isEmpty())
+            groups.add(group);
+
+        if (groups.isEmpty())
+            return MATCH_ALL;
+        if (groups.size() == 1) {
+            List<Term> terms = new ArrayList<>();
+            for (Node n : groups.get(0))
+                terms.add((Term) n);
+            Node root = terms.size() == 1 ? terms.get(0) : new Junction(true, groups.get(0));
+            terms.sort(Comparator.comparingDouble(Term::selectivity));
+            return new QueryPredicate(root, terms);
+        }
+        List<Node> or = new ArrayList<>();
+        for (List<Node> g : groups)
+            or.add(g.size() == 1 ? g.get(0) : new Junction(true, g));
+        return new QueryPredicate(new Junction(false, or), null);
+    }
+
+    /**
+     * Compile the query of a request.
+     *
+     * @param nvce the entity type, if null the field types are resolved per entity
+     * @param qr   the query request
+     * @return the compiled predicate
+     */
+    public static QueryPredicate compile(NVConfigEntity nvce, QueryRequest qr) {
+        List<QueryMarker> query = qr != null ? qr.getQuery() : null;
+        return query != null ? compile(nvce, query.toArray(new QueryMarker[0])) : MATCH_ALL;
+    }
+
+    /**
+     * @param nve the entity
+     * @return true if the entity matches the criteria
+     */
+    @Override
+    public boolean test(NVEntity nve) {
+        return root == null || root.test(nve);
+    }
+
+    /**
+     * @return true if every entity matches
+     */
+    public boolean isMatchAll() {
+        return root == null;
+    }
+
+    /**
+     * The terms every matching entity must satisfy, ordered by estimated selectivity. A store with secondary
+     * indexes can select its candidates with any of them, then verify them with {@link #test(NVEntity)}.
+     *
+     * @return the required terms, empty if the criteria contain an OR
+     */
+    public List<Term> requiredTerms() {
+        return requiredTerms;
+    }
+
+    /**
+     * @return the estimated fraction of the entities matching
+     */
+    public double selectivity() {
+        return root != null ? root.selectivity() : 1;
+    }
+
+    /**
+     * @return the compiled tree in evaluation order
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        if (root == null)
+            sb.append("MATCH_ALL\n");
+        else
+            root.explain(sb, 0);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    /**
+     * Read a field value, a dotted name "a.b" reads the field b of the entity referenced by the field a.
+     *
+     * @param nve  the entity
+     * @param name the field name
+     * @return the value, null if the field or an intermediate entity is missing
+     */
+    public static Object fieldValue(NVEntity nve, String name) {
+        return name.indexOf('.') != -1 ? fieldValue(nve, name.split("\\.")) : nve.lookupValue(name);
+    }
+
+    private static Object fieldValue(NVEntity nve, String[] path) {
+        Object ret = nve;
+        for (String segment : path) {
+            if (!(ret instanceof NVEntity))
+                return null;
+            ret = ((NVEntity) ret).lookupValue(segment);
+        }
+        return ret;
+    }
+
+    private static StringBuilder indent(StringBuilder sb, int depth) {
+        for (int i = 0; i < depth; i++)
+            sb.append("  ");
+        return sb;
+    }
+
+    private static String format(double d) {
+        return String.format(Locale.ROOT, "%.3f", d);
+    }
+}
@@ -22,8 +22,11 @@ import org.zoxweb.shared.util.Const;
 import org.zoxweb.shared.util.SUS;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -32,6 +35,12 @@ import java.util.*;
  * signature matching and parameter-compatibility checks; annotation-driven and
  * positional method invocation with automatic argument arrangement; and bean
  * instantiation supporting singleton factory methods and fields.
+ * <p>
+ * The class annotation scans and the method invokers are cached per class through {@link ClassValue}, lock free
+ * after the first scan. A {@link MethodInvoker} calls its method through a call site generated once, faster than
+ * {@link Method#invoke(Object, Object...)}, and {@link MethodInvoker#bind(Class)} binds it to a typed functional
+ * interface called at direct call speed.
+ * </p>
  *
  * @author javaconsigliere
  */
@@ -40,11 +49,349 @@ public class ReflectionUtil {
     public static LogWrapper log = new LogWrapper(ReflectionUtil.class);
     private static final String[] DEFAULT_SINGLETON_METHOD_NAMES = {"singleton", "onlyInstance"};
 
+    // scanned annotation types -> annotation map, NO_ANNOTATIONS if nothing matched
+    private static final ClassValue<ConcurrentMap<List<Class<? extends Annotation>>, AnnotationMap>> ANNOTATION_MAPS = new ClassValue<ConcurrentMap<List<Class<? extends Annotation>>, AnnotationMap>>() {
+        @Override
+        protected ConcurrentMap<List<Class<? extends Annotation>>, AnnotationMap> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final AnnotationMap NO_ANNOTATIONS = new AnnotationMap(Void.class);
+
+    private static final ClassValue<ConcurrentMap<Method, MethodInvoker>> METHOD_INVOKERS = new ClassValue<ConcurrentMap<Method, MethodInvoker>>() {
+        @Override
+        protected ConcurrentMap<Method, MethodInvoker> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final ClassValue<Set<Method>> PUBLIC_METHODS = new ClassValue<Set<Method>>() {
+        @Override
+        protected Set<Method> computeValue(Class<?> type) {
+            return new HashSet<>(Arrays.asList(type.getMethods()));
+        }
+    };
+
+
+    // call sites generated per method, the receiver of an instance method is the first argument
+    interface Call0 {
+        Object call();
+    }
+
+    interface Call1 {
+        Object call(Object a0);
+    }
+
+    interface Call2 {
+        Object call(Object a0, Object a1);
+    }
+
+    interface Call3 {
+        Object call(Object a0, Object a1, Object a2);
+    }
+
+    interface Call4 {
+        Object call(Object a0, Object a1, Object a2, Object a3);
+    }
+
+    interface Call5 {
+        Object call(Object a0, Object a1, Object a2, Object a3, Object a4);
+    }
+
+    interface Call6 {
+        Object call(Object a0, Object a1, Object a2, Object a3, Object a4, Object a5);
+    }
+
+    interface Run0 {
+        void call();
+    }
+
+    interface Run1 {
+        void call(Object a0);
+    }
+
+    interface Run2 {
+        void call(Object a0, Object a1);
+    }
+
+    interface Run3 {
+        void call(Object a0, Object a1, Object a2);
+    }
+
+    interface Run4 {
+        void call(Object a0, Object a1, Object a2, Object a3);
+    }
+
+    interface Run5 {
+        void call(Object a0, Object a1, Object a2, Object a3, Object a4);
+    }
+
+    interface Run6 {
+        void call(Object a0, Object a1, Object a2, Object a3, Object a4, Object a5);
+    }
+
+    private static final Class<?>[] CALLS = {Call0.class, Call1.class, Call2.class, Call3.class, Call4.class, Call5.class, Call6.class};
+    private static final Class<?>[] RUNS = {Run0.class, Run1.class, Run2.class, Run3.class, Run4.class, Run5.class, Run6.class};
+
+    // spreads the receiver and the argument array over a Call or Run site, selected once per method
+    interface Dispatch {
+        Object call(Object r, Object[] a) throws Throwable;
+    }
+
+
+    /**
+     * Invoke a method through a call site generated once by {@link LambdaMetafactory}, with the
+     * {@link Method#invoke(Object, Object...)} semantics. A call whose arguments are not exactly of the parameter
+     * types, a primitive widening for example, a method with more than {@value #MAX_CALL_ARGUMENTS} arguments
+     * counting the receiver, or a method the lookup can't access go through {@link Method#invoke(Object, Object...)}.
+     * A method whose classes are not visible from the ReflectionUtil class loader, ie loaded by a plugin class
+     * loader, is called through its {@link MethodHandle}.
+     */
+    public static final class MethodInvoker {
+        public static final int MAX_CALL_ARGUMENTS = 6;
+
+        public final Method method;
+        private final Class<?>[] parameterTypes;
+        // boxed parameter types
+        private final Class<?>[] argumentTypes;
+        private final boolean isStatic;
+        private final boolean isVoid;
+        // null if not generated
+        private final Dispatch call;
+        // functional interface -> bound implementation
+        private final ConcurrentMap<Class<?>, Object> bindings = new ConcurrentHashMap<>();
+
+        private MethodInvoker(Method method) {
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+            this.argumentTypes = new Class<?>[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++)
+                argumentTypes[i] = Const.wrap(parameterTypes[i]);
+            this.isStatic = Modifier.isStatic(method.getModifiers());
+            this.isVoid = method.getReturnType() == void.class;
+            this.call = generate();
+        }
+
+        private Dispatch generate() {
+            int arity = parameterTypes.length + (isStatic ? 0 : 1);
+            if (arity > MAX_CALL_ARGUMENTS)
+                return null;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle impl = lookup.unreflect(method);
+                if (!isVisible(method.getDeclaringClass(), method.getReturnType()) || !isVisible(parameterTypes))
+                    return handleDispatch(impl, arity);
+                MethodType implType = impl.type();
+                MethodType instantiated = implType.wrap();
+                MethodType sam = MethodType.genericMethodType(arity);
+                Class<?> callType = CALLS[arity];
+                if (isVoid) {
+                    instantiated = instantiated.changeReturnType(void.class);
+                    sam = sam.changeReturnType(void.class);
+                    callType = RUNS[arity];
+                }
+                CallSite site = LambdaMetafactory.metafactory(lookup, "call", MethodType.methodType(callType), sam, impl, instantiated);
+                Object c = site.getTarget().invoke();
+                return isVoid ? runDispatch(c, arity) : callDispatch(c, arity);
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        // the generated classes are defined in the ReflectionUtil class loader, a class loaded by a child loader, ie a
+        // plugin, is called through its method handle
+        private Dispatch handleDispatch(MethodHandle impl, int arity) {
+            MethodHandle mh = impl.asFixedArity().asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, parameterTypes.length);
+            if (isStatic)
+                return (r, a) -> (Object) mh.invokeExact(a);
+            return (r, a) -> (Object) mh.invokeExact(r, a);
+        }
+
+        private static boolean isVisible(Class<?>... types) {
+            ClassLoader cl = ReflectionUtil.class.getClassLoader();
+            for (Class<?> type : types) {
+                while (type.isArray())
+                    type = type.getComponentType();
+                if (type.isPrimitive())
+                    continue;
+                try {
+                    if (Class.forName(type.getName(), false, cl) != type)
+                        return false;
+                } catch (ClassNotFoundException | LinkageError e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Dispatch callDispatch(Object c, int arity) {
+            if (isStatic) {
+                switch (arity) {
+                    case 0: return (r, a) -> ((Call0) c).call();
+                    case 1: return (r, a) -> ((Call1) c).call(a[0]);
+                    case 2: return (r, a) -> ((Call2) c).call(a[0], a[1]);
+                    case 3: return (r, a) -> ((Call3) c).call(a[0], a[1], a[2]);
+                    case 4: return (r, a) -> ((Call4) c).call(a[0], a[1], a[2], a[3]);
+                    case 5: return (r, a) -> ((Call5) c).call(a[0], a[1], a[2], a[3], a[4]);
+                    default: return (r, a) -> ((Call6) c).call(a[0], a[1], a[2], a[3], a[4], a[5]);
+                }
+            }
+            switch (arity) {
+                case 1: return (r, a) -> ((Call1) c).call(r);
+                case 2: return (r, a) -> ((Call2) c).call(r, a[0]);
+                case 3: return (r, a) -> ((Call3) c).call(r, a[0], a[1]);
+                case 4: return (r, a) -> ((Call4) c).call(r, a[0], a[1], a[2]);
+                case 5: return (r, a) -> ((Call5) c).call(r, a[0], a[1], a[2], a[3]);
+                default: return (r, a) -> ((Call6) c).call(r, a[0], a[1], a[2], a[3], a[4]);
+            }
+        }
+
+        private Dispatch runDispatch(Object c, int arity) {
+            if (isStatic) {
+                switch (arity) {
+                    case 0: return (r, a) -> { ((Run0) c).call(); return null; };
+                    case 1: return (r, a) -> { ((Run1) c).call(a[0]); return null; };
+                    case 2: return (r, a) -> { ((Run2) c).call(a[0], a[1]); return null; };
+                    case 3: return (r, a) -> { ((Run3) c).call(a[0], a[1], a[2]); return null; };
+                    case 4: return (r, a) -> { ((Run4) c).call(a[0], a[1], a[2], a[3]); return null; };
+                    case 5: return (r, a) -> { ((Run5) c).call(a[0], a[1], a[2], a[3], a[4]); return null; };
+                    default: return (r, a) -> { ((Run6) c).call(a[0], a[1], a[2], a[3], a[4], a[5]); return null; };
+                }
+            }
+            switch (arity) {
+                case 1: return (r, a) -> { ((Run1) c).call(r); return null; };
+                case 2: return (r, a) -> { ((Run2) c).call(r, a[0]); return null; };
+                case 3: return (r, a) -> { ((Run3) c).call(r, a[0], a[1]); return null; };
+                case 4: return (r, a) -> { ((Run4) c).call(r, a[0], a[1], a[2]); return null; };
+                case 5: return (r, a) -> { ((Run5) c).call(r, a[0], a[1], a[2], a[3]); return null; };
+                default: return (r, a) -> { ((Run6) c).call(r, a[0], a[1], a[2], a[3], a[4]); return null; };
+            }
+        }
+
+        /**
+         * Bind the method to a public functional interface, the single abstract method takes the receiver first for
+         * an instance method followed by the method parameters, ie {@code String profile(EndPoint e, String id)} for
+         * {@code EndPoint.profile(String id)}. The implementation is generated once per interface and calls the
+         * method without argument array, boxing or type checks, at direct call speed.
+         *
+         * @param functionalInterface the interface matching the method signature
+         * @param <T>                 the interface type
+         * @return the bound implementation, shared by the callers
+         * @throws IllegalArgumentException if the interface is not a functional interface or doesn't match the method
+         */
+        public <T> T bind(Class<T> functionalInterface) {
+            Object ret = bindings.get(functionalInterface);
+            if (ret == null) {
+                ret = generate(functionalInterface);
+                Object current = bindings.putIfAbsent(functionalInterface, ret);
+                if (current != null)
+                    ret = current;
+            }
+            return functionalInterface.cast(ret);
+        }
+
+        private Object generate(Class<?> functionalInterface) {
+            SUS.checkIfNulls("Null functional interface", functionalInterface);
+            Method sam = null;
+            if (functionalInterface.isInterface()) {
+                for (Method m : functionalInterface.getMethods()) {
+                    if (!Modifier.isAbstract(m.getModifiers()) || isObjectMethod(m))
+                        continue;
+                    if (sam != null) {
+                        sam = null;
+                        break;
+                    }
+                    sam = m;
+                }
+            }
+            if (sam == null)
+                throw new IllegalArgumentException(functionalInterface.getName() + " is not a functional interface");
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodType samType = MethodType.methodType(sam.getReturnType(), sam.getParameterTypes());
+                if (!isVisible(functionalInterface, method.getDeclaringClass(), method.getReturnType()) ||
+                        !isVisible(parameterTypes) || !isVisible(sam.getParameterTypes()) || !isVisible(sam.getReturnType()))
+                    return MethodHandleProxies.asInterfaceInstance(functionalInterface, lookup.unreflect(method).asFixedArity().asType(samType));
+                CallSite site = LambdaMetafactory.metafactory(lookup, sam.getName(), MethodType.methodType(functionalInterface),
+                        samType, lookup.unreflect(method), samType);
+                return site.getTarget().invoke();
+            } catch (Throwable e) {
+                throw new IllegalArgumentException(functionalInterface.getName() + " can't be bound to " + method + ": " + e, e);
+            }
+        }
+
+        private static boolean isObjectMethod(Method m) {
+            try {
+                Object.class.getMethod(m.getName(), m.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return a copy of the method parameter types
+         */
+        public Class<?>[] getParameterTypes() {
+            return parameterTypes.clone();
+        }
+
+        /**
+         * Invoke the method.
+         *
+         * @param source the instance, ignored for a static method
+         * @param args   the method arguments
+         * @return the method result, null for void
+         * @throws InvocationTargetException if the method throws
+         * @throws IllegalAccessException    if the method is not accessible
+         */
+        @SuppressWarnings("unchecked")
+        public <V> V invoke(Object source, Object... args)
+                throws InvocationTargetException, IllegalAccessException {
+            if (call == null || (args != null ? args.length : 0) != parameterTypes.length)
+                return (V) method.invoke(source, args);
+
+            try {
+                return (V) call.call(source, args);
+            } catch (ClassCastException | NullPointerException e) {
+                // the generated call site casts and unboxes the arguments before the method is entered,
+                // a mismatch is handed to Method.invoke for widening and the reflection exceptions
+                if (!isExactCall(source, args))
+                    return (V) method.invoke(source, args);
+                throw new InvocationTargetException(e);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        private boolean isExactCall(Object source, Object[] args) {
+            if (!isStatic && !method.getDeclaringClass().isInstance(source))
+                return false;
+            int length = args != null ? args.length : 0;
+            if (length != parameterTypes.length)
+                return false;
+            for (int i = 0; i < length; i++) {
+                Object arg = args[i];
+                if (arg == null ? parameterTypes[i].isPrimitive() : !argumentTypes[i].isInstance(arg))
+                    return false;
+            }
+            return true;
+        }
+
+        public String toString() {
+            return "invoker:" + method;
+        }
+    }
+
 
     public static class MethodAnnotations {
         private final Map<Class<? extends Annotation>, Annotation> methodAnnotations = new LinkedHashMap<>();
         public final Map<Parameter, Annotation> parametersAnnotations;
         public final Method method;
+        // ParamProp name per parameter
+        private final String[] parameterNames;
+        private final Class<?>[] parameterTypes;
+        private volatile MethodInvoker invoker;
 
         public MethodAnnotations(Method method, Annotation[] methodAnnotations, Map<Parameter, Annotation> parametersAnnotations) {
             this.method = method;
@@ -52,6 +399,26 @@ public class ReflectionUtil {
                 add(a);
 
             this.parametersAnnotations = parametersAnnotations;
+            Parameter[] parameters = method.getParameters();
+            parameterNames = new String[parameters.length];
+            parameterTypes = new Class<?>[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                Annotation a = parametersAnnotations != null ? parametersAnnotations.get(parameters[i]) : null;
+                parameterNames[i] = a instanceof ParamProp ? ((ParamProp) a).name() : null;
+                parameterTypes[i] = parameters[i].getType();
+            }
+        }
+
+        /**
+         * @return the cached invoker of the method
+         */
+        public MethodInvoker getInvoker() {
+            MethodInvoker ret = invoker;
+            if (ret == null) {
+                ret = lookupInvoker(method);
+                invoker = ret;
+            }
+            return ret;
         }
 
         public String toString() {
@@ -80,6 +447,7 @@ public class ReflectionUtil {
         private Annotation[] classAnnotations;
         private final Map<Method, MethodAnnotations> methodsAnnotations = new LinkedHashMap<>();
         //private Map<Class< ?extends Annotation>, Method[]> matchingMethods = new HashMap<>();
+        private final ConcurrentMap<Class<? extends Annotation>, MethodAnnotations[]> byType = new ConcurrentHashMap<>();
 
         public AnnotationMap(Class<?> c) {
             SUS.checkIfNulls("class can't be null", c);
@@ -94,8 +462,11 @@ public class ReflectionUtil {
             return classAnnotations;
         }
 
+        /**
+         * @return a copy of the annotated methods map, the map of the instance is shared by the cached scans
+         */
         public Map<Method, MethodAnnotations> getMethodsAnnotations() {
-            return methodsAnnotations;
+            return new LinkedHashMap<>(methodsAnnotations);
         }
 
         public boolean equals(Object o) {
@@ -105,13 +476,28 @@ public class ReflectionUtil {
         }
 
 
-        public synchronized Method[] findMethodsByType(Class<? extends Annotation> annotationType) {
-            List<Method> match = new ArrayList<>();
-            for (MethodAnnotations ma : methodsAnnotations.values()) {
-                if (ma.isMethodAnnotatedBy(annotationType))
-                    match.add(ma.method);
+        public Method[] findMethodsByType(Class<? extends Annotation> annotationType) {
+            MethodAnnotations[] match = matchByType(annotationType);
+            if (match.length == 0)
+                return null;
+            Method[] ret = new Method[match.length];
+            for (int i = 0; i < match.length; i++)
+                ret[i] = match[i].method;
+            return ret;
+        }
+
+        private MethodAnnotations[] matchByType(Class<? extends Annotation> type) {
+            MethodAnnotations[] ret = byType.get(type);
+            if (ret == null) {
+                List<MethodAnnotations> match = new ArrayList<>();
+                for (MethodAnnotations ma : methodsAnnotations.values()) {
+                    if (ma.isMethodAnnotatedBy(type))
+                        match.add(ma);
+                }
+                ret = match.toArray(new MethodAnnotations[0]);
+                byType.put(type, ret);
             }
-            return match.isEmpty() ? null : match.toArray(new Method[0]);
+            return ret;
         }
 
         public String toString() {
@@ -131,15 +517,9 @@ public class ReflectionUtil {
             return methodsAnnotations.get(method);
         }
 
-        public synchronized MethodAnnotations[] findMethodAnnotationsByType(Class<? extends Annotation> type) {
-            MethodAnnotations[] all = methodsAnnotations.values().toArray(new MethodAnnotations[0]);
-            List<MethodAnnotations> ret = new ArrayList<>();
-            for (MethodAnnotations ma : all) {
-                if (ma.isMethodAnnotatedBy(type))
-                    ret.add(ma);
-            }
-
-            return ret.isEmpty() ? null : ret.toArray(new MethodAnnotations[0]);
+        public MethodAnnotations[] findMethodAnnotationsByType(Class<? extends Annotation> type) {
+            MethodAnnotations[] ret = matchByType(type);
+            return ret.length == 0 ? null : ret.clone();
         }
 
 
@@ -211,7 +591,50 @@ public class ReflectionUtil {
         return ret;
     }
 
+    /**
+     * Scan the class and its public methods for the annotation types, the result is cached per class and
+     * annotation types.
+     *
+     * @param c               the class to scan
+     * @param annotationTypes the annotation types to match
+     * @return the annotation map, null if nothing matched
+     */
     public static AnnotationMap scanClassAnnotations(Class<?> c, Class<? extends Annotation>... annotationTypes) {
+        SUS.checkIfNulls("class can't be null", c);
+        ConcurrentMap<List<Class<? extends Annotation>>, AnnotationMap> scans = ANNOTATION_MAPS.get(c);
+        List<Class<? extends Annotation>> key = annotationTypes != null ? Arrays.asList(annotationTypes) : Collections.emptyList();
+        AnnotationMap ret = scans.get(key);
+        if (ret == null) {
+            ret = scan(c, annotationTypes);
+            if (ret == null)
+                ret = NO_ANNOTATIONS;
+            AnnotationMap previous = scans.putIfAbsent(new ArrayList<>(key), ret);
+            if (previous != null)
+                ret = previous;
+        }
+        return ret != NO_ANNOTATIONS ? ret : null;
+    }
+
+    /**
+     * Return the cached invoker of the method.
+     *
+     * @param method to invoke
+     * @return the method invoker
+     */
+    public static MethodInvoker lookupInvoker(Method method) {
+        SUS.checkIfNulls("Null method", method);
+        ConcurrentMap<Method, MethodInvoker> invokers = METHOD_INVOKERS.get(method.getDeclaringClass());
+        MethodInvoker ret = invokers.get(method);
+        if (ret == null) {
+            ret = new MethodInvoker(method);
+            MethodInvoker previous = invokers.putIfAbsent(method, ret);
+            if (previous != null)
+                ret = previous;
+        }
+        return ret;
+    }
+
+    private static AnnotationMap scan(Class<?> c, Class<? extends Annotation>... annotationTypes) {
         AnnotationMap ret = new AnnotationMap(c);
         ret.classAnnotations = matchAnnotations(c.getAnnotations(), annotationTypes);
         Method[] methods = c.getMethods();
@@ -384,23 +807,21 @@ public class ReflectionUtil {
 
     public static boolean hasMethod(Class<?> clazz, Method method) {
         SUS.checkIfNulls("Instance or method can't be null", clazz, method);
-        for (Method m : clazz.getMethods()) {
-            if (m.equals(method))
-                return true;
-        }
-        return false;
+        return PUBLIC_METHODS.get(clazz).contains(method);
     }
 
 
     public static int parameterIndex(Method m, int startIndex, Class<?> parameterType) {
+        return parameterIndex(lookupInvoker(m).parameterTypes, startIndex, parameterType);
+    }
 
-        Parameter[] parameters = m.getParameters();
+    private static int parameterIndex(Class<?>[] parameters, int startIndex, Class<?> parameterType) {
         if (parameters.length != 0) {
             if (startIndex < 0 || startIndex > parameters.length) {
                 throw new IndexOutOfBoundsException(parameters.length + " startIndex " + startIndex);
             }
             for (int i = startIndex; i < parameters.length; i++) {
-                Class<?> toCheck = parameters[i].getType();
+                Class<?> toCheck = parameters[i];
                 if (toCheck.isPrimitive() && !parameterType.isPrimitive()) {
                     toCheck = Const.wrap(toCheck);
                 }
@@ -522,16 +943,17 @@ public class ReflectionUtil {
             throws InvocationTargetException, IllegalAccessException {
         Object result = null;
         //List<Object> parameterValues = new ArrayList<Object>();
-        Parameter[] parameters = methodAnnotations.method.getParameters();
-        Object[] values = new Object[parameters.length];
+        String[] names = methodAnnotations.parameterNames;
+        Object[] values = new Object[names.length];
 
         for (int i = 0; i < values.length; i++) {
-            ParamProp pp = (ParamProp) methodAnnotations.parametersAnnotations.get(parameters[i]);
-            Object tempValue = incomingData.get(pp.name());
+            if (names[i] == null)
+                throw new NullPointerException("Parameter " + i + " of " + methodAnnotations.method.getName() + " has no ParamProp");
+            Object tempValue = incomingData.get(names[i]);
             if (tempValue instanceof List) {
                 List<?> list = (List<?>) tempValue;
                 if (!list.isEmpty()) {
-                    tempValue = ArrayCopier.copy(parameters[i].getType(), list.toArray());
+                    tempValue = ArrayCopier.copy(methodAnnotations.parameterTypes[i], list.toArray());
                 } else
                     tempValue = null;
             }
@@ -540,14 +962,15 @@ public class ReflectionUtil {
 
 
         //log.info("" +  methodAnnotations.method + " " + Arrays.toString(values));
-        result = methodAnnotations.method.invoke(source, values);
+        result = methodAnnotations.getInvoker().invoke(source, values);
 
         return result;
     }
 
 
     public static Object[] arrangeMethodParameters(boolean strict, Method method, Object... inputValues) {
-        Object[] values = new Object[method.getParameters().length];
+        Class<?>[] parameterTypes = lookupInvoker(method).parameterTypes;
+        Object[] values = new Object[parameterTypes.length];
         if (inputValues.length > values.length && strict)
             throw new IndexOutOfBoundsException("Too many parameters " + inputValues.length + " > " + values.length);
 
@@ -555,7 +978,7 @@ public class ReflectionUtil {
         int fromIndex = 0;
         for (int i = 0; i < inputValues.length; i++) {
             if (inputValues[i] != null) {
-                int mappedIndex = parameterIndex(method, fromIndex, inputValues[i].getClass());
+                int mappedIndex = parameterIndex(parameterTypes, fromIndex, inputValues[i].getClass());
 
                 if (mappedIndex != -1) {
                     if (values[mappedIndex] == null) {
@@ -578,7 +1001,7 @@ public class ReflectionUtil {
     @SuppressWarnings("unchecked")
     public static <T> T invokeMethod(boolean strict, Object source, Method method, Object... inputValues)
             throws InvocationTargetException, IllegalAccessException {
-        return (T)method.invoke(source, arrangeMethodParameters(strict, method, inputValues));
+        return lookupInvoker(method).invoke(source, arrangeMethodParameters(strict, method, inputValues));
     }
 
     public static <T> T createBean(String className,final String... staticMethodNoParamNames)
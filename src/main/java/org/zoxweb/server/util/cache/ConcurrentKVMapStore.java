@@ -0,0 +1,776 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.server.util.cache;
+
+import org.zoxweb.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent bounded {@link KVMapStore} with W-TinyLFU eviction and per entry expiration.
+ * <p>
+ * The entries live in a {@link ConcurrentHashMap}, reads are lock-free and the map writes are striped by the map
+ * bins. The eviction policy is maintained by a single thread at a time: reads are recorded in striped lossy ring
+ * buffers and writes in a queue, both drained under a try-lock by the thread that fills them, a read never waits.
+ * </p>
+ * <p>
+ * The capacity is bounded by entry count, by data size in bytes measured by a {@link DataSizeReader}, or both.
+ * The policy is W-TinyLFU: a new entry enters a small LRU window (1% of the capacity), an entry leaving the window
+ * competes with the LRU victim of the main segmented LRU and is admitted only if its estimated access frequency,
+ * kept by a 4-bit count-min sketch, is higher. A hit in the probation segment promotes the entry to the
+ * protected segment (80% of the main space). Expired entries are never returned, they are removed when found by
+ * a read, by the eviction or by {@link #cleanUp()}.
+ * </p>
+ * Statistics: hits, misses, puts, evictions and expirations via {@link #getProperties()}.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ConcurrentKVMapStore<K, V>
+        implements KVMapStore<K, V>, GetNVProperties {
+
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+    private static final int RETIRED = 4;
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        final long expiresAt;
+        // policy state, guarded by the eviction lock except RETIRED which is also read lock-free
+        volatile int queue = NONE;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now >= expiresAt;
+        }
+    }
+
+    /**
+     * Access ordered doubly linked list, first is the least recently used
+     */
+    private static final class AccessOrder<K, V> {
+        private final Node<K, V> head = new Node<>(null, null, 0, 0);
+
+        AccessOrder() {
+            head.prev = head.next = head;
+        }
+
+        Node<K, V> first() {
+            return head.next != head ? head.next : null;
+        }
+
+        void addLast(Node<K, V> n) {
+            n.prev = head.prev;
+            n.next = head;
+            head.prev.next = n;
+            head.prev = n;
+        }
+
+        void unlink(Node<K, V> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+        }
+
+        void moveToLast(Node<K, V> n) {
+            unlink(n);
+            addLast(n);
+        }
+    }
+
+    /**
+     * Lossy ring buffer of read accesses, writers skip when full
+     */
+    private static final class ReadBuffer<K, V> {
+        private final AtomicLong writeIndex = new AtomicLong();
+        private final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        // written by the drainer only
+        private volatile long readIndex;
+
+        boolean offer(Node<K, V> n) {
+            long w = writeIndex.get();
+            if (w - readIndex >= READ_BUFFER_SIZE)
+                return false;
+            if (writeIndex.compareAndSet(w, w + 1))
+                buffer.lazySet((int) (w & READ_BUFFER_MASK), n);
+            return true;
+        }
+
+        void drain(ConcurrentKVMapStore<K, V> store) {
+            long r = readIndex;
+            long w = writeIndex.get();
+            for (; r < w; r++) {
+                int index = (int) (r & READ_BUFFER_MASK);
+                Node<K, V> n = buffer.get(index);
+                // claimed but not yet published
+                if (n == null)
+                    break;
+                buffer.lazySet(index, null);
+                store.onAccess(n);
+            }
+            readIndex = r;
+        }
+    }
+
+    /**
+     * 4-bit count-min sketch with periodic aging, 16 counters per long
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private long[] table;
+        private int sampleSize;
+        private int size;
+
+        FrequencySketch(long capacity) {
+            ensureCapacity(capacity);
+        }
+
+        void ensureCapacity(long capacity) {
+            int length = (int) Math.min(1 << 24, Math.max(16, Long.highestOneBit(Math.max(1, capacity - 1)) << 1));
+            if (table == null) {
+                table = new long[length];
+                sampleSize = 10 * length;
+            } else if (table.length < length) {
+                // the index is the hash masked by the length, a grown slot j maps the old slot j & (old length - 1)
+                // so copying the old slots keeps every count an upper bound of the key frequency
+                long[] old = table;
+                table = new long[length];
+                for (int i = 0; i < length; i += old.length)
+                    System.arraycopy(old, 0, table, i, old.length);
+                sampleSize = 10 * length;
+            }
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int offset(int hash, int i) {
+            return (((hash >>> (i << 3)) & 3) << 2) + (i << 4);
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int count = (int) ((table[index(hash, i)] >>> (offset(hash, i) & 63)) & 0xf);
+                min = Math.min(min, count);
+            }
+            return min;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                int shift = offset(hash, i) & 63;
+                if (((table[index] >>> shift) & 0xf) != 0xf) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++size >= sampleSize) {
+                for (int i = 0; i < table.length; i++)
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                size >>>= 1;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(table, 0);
+            size = 0;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            h ^= h >>> 11;
+            h *= 0xac4c1d2b;
+            h ^= h >>> 15;
+            return h;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final Set<K> exclusionFilter = ConcurrentHashMap.newKeySet();
+    private final DataSizeReader<V> sizeReader;
+    private final AtomicLong dataSize = new AtomicLong();
+    private final long defaultExpirationPeriod;
+
+    // policy state, guarded by evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<Node<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReadBuffer<K, V>[] readBuffers;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedSegment = new AccessOrder<>();
+    private final FrequencySketch sketch;
+    private final long maximumSize;
+    private final long maximumDataSize;
+    private final long maximumWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private long weight;
+    private long count;
+    private long windowWeight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private volatile DataEncoder<K, K> keyFilter;
+    private final NamedDescription namedDescription;
+
+    /**
+     * Create a store bounded by entry count, no expiration
+     *
+     * @param name        of the store
+     * @param maximumSize maximum number of entries, 0 for unbounded
+     */
+    public ConcurrentKVMapStore(String name, long maximumSize) {
+        this(name, maximumSize, 0, null, 0);
+    }
+
+    /**
+     * Create a store
+     *
+     * @param name                    of the store
+     * @param maximumSize             maximum number of entries, 0 for unbounded
+     * @param maximumDataSize         maximum data size in bytes of the values, 0 for unbounded, requires a size reader
+     * @param sizeReader              reads the size in bytes of a value, null disables data size accounting
+     * @param defaultExpirationPeriod expiration period in millis of the entries stored with {@link #put(Object, Object)},
+     *                                0 for no expiration
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentKVMapStore(String name, long maximumSize, long maximumDataSize, DataSizeReader<V> sizeReader, long defaultExpirationPeriod) {
+        if (maximumSize < 0 || maximumDataSize < 0 || defaultExpirationPeriod < 0)
+            throw new IllegalArgumentException("Invalid negative bound " + maximumSize + ", " + maximumDataSize + ", " + defaultExpirationPeriod);
+        if (maximumDataSize > 0 && sizeReader == null)
+            throw new IllegalArgumentException("Data size bound requires a size reader");
+        this.namedDescription = new NamedDescription(name);
+        this.maximumSize = maximumSize;
+        this.maximumDataSize = maximumDataSize;
+        this.sizeReader = sizeReader;
+        this.defaultExpirationPeriod = defaultExpirationPeriod;
+        // the policy weight is the data size if bounded by data size, the entry count otherwise
+        maximumWeight = maximumDataSize > 0 ? maximumDataSize : maximumSize;
+        windowMax = Math.max(1, maximumWeight / 100);
+        protectedMax = (long) ((maximumWeight - windowMax) * 0.8);
+        sketch = new FrequencySketch(maximumSize > 0 ? maximumSize : 1024);
+
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++)
+            readBuffers[i] = new ReadBuffer<>();
+    }
+
+    private K toKey(K key) {
+        return keyFilter != null ? keyFilter.encode(key) : key;
+    }
+
+    private boolean isBounded() {
+        return maximumWeight > 0;
+    }
+
+    private long weightOf(V value) {
+        return maximumDataSize > 0 ? Math.max(0, sizeReader.size(value)) : 1;
+    }
+
+    private void dataSizeChanged(V added, V removed) {
+        if (sizeReader != null) {
+            long delta = (added != null ? sizeReader.size(added) : 0) - (removed != null ? sizeReader.size(removed) : 0);
+            if (delta != 0)
+                dataSize.addAndGet(delta);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // KVMapStore
+    // ------------------------------------------------------------------
+
+    /**
+     * Associate a value with a key, the entry expires after the default expiration period
+     *
+     * @param key   that will be used to look for, filtered by the key filter if set
+     * @param value to be associated with the key
+     * @return true if the value was stored, false if the key or value is null or the key is excluded
+     */
+    @Override
+    public boolean put(K key, V value) {
+        return put(key, value, defaultExpirationPeriod);
+    }
+
+    /**
+     * Associate a value with a key with a specific expiration period
+     *
+     * @param key              that will be used to look for, filtered by the key filter if set
+     * @param value            to be associated with the key
+     * @param expirationPeriod in millis, 0 for no expiration
+     * @return true if the value was stored, false if the key or value is null or the key is excluded
+     */
+    public boolean put(K key, V value, long expirationPeriod) {
+        if (key == null || value == null)
+            return false;
+        key = toKey(key);
+        if (exclusionFilter.contains(key))
+            return false;
+
+        Node<K, V> node = new Node<>(key, value, isBounded() ? weightOf(value) : 0,
+                expirationPeriod > 0 ? System.currentTimeMillis() + expirationPeriod : 0);
+        Node<K, V> old = data.put(key, node);
+        dataSizeChanged(value, old != null ? old.value : null);
+        puts.increment();
+        if (old != null)
+            retire(old);
+        if (isBounded()) {
+            writeBuffer.offer(node);
+            drainWriteBuffer();
+        }
+        return true;
+    }
+
+    /**
+     * Look for the value associated with a key, lock-free
+     *
+     * @param key to look for, filtered by the key filter if set
+     * @return the associated value, null if the key is not stored or expired
+     */
+    @Override
+    public V get(K key) {
+        Node<K, V> node = key != null ? data.get(toKey(key)) : null;
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (node.expiresAt != 0 && node.isExpired(System.currentTimeMillis())) {
+            misses.increment();
+            if (removeNode(node))
+                expirations.increment();
+            return null;
+        }
+        hits.increment();
+        if (isBounded())
+            recordRead(node);
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        Node<K, V> node = key != null ? data.get(toKey(key)) : null;
+        return node != null && (node.expiresAt == 0 || !node.isExpired(System.currentTimeMillis()));
+    }
+
+    @Override
+    public boolean remove(K key) {
+        return removeGet(key) != null;
+    }
+
+    @Override
+    public V removeGet(K key) {
+        if (key == null)
+            return null;
+        Node<K, V> node = data.remove(toKey(key));
+        if (node == null)
+            return null;
+        dataSizeChanged(null, node.value);
+        retire(node);
+        return node.isExpired(System.currentTimeMillis()) ? null : node.value;
+    }
+
+    @Override
+    public void clear(boolean all) {
+        evictionLock.lock();
+        try {
+            for (Node<K, V> node : data.values())
+                if (data.remove(node.key, node)) {
+                    dataSizeChanged(null, node.value);
+                    if (isBounded())
+                        writeBuffer.offer(node);
+                    else
+                        node.queue = RETIRED;
+                }
+            if (isBounded())
+                maintenance();
+            sketch.clear();
+            if (all)
+                exclusionFilter.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the expired entries
+     *
+     * @return the number of entries removed
+     */
+    public int cleanUp() {
+        long now = System.currentTimeMillis();
+        int ret = 0;
+        for (Node<K, V> node : data.values())
+            if (node.isExpired(now) && removeNode(node)) {
+                expirations.increment();
+                ret++;
+            }
+        return ret;
+    }
+
+    @Override
+    public Iterator<K> exclusions() {
+        return exclusionFilter.iterator();
+    }
+
+    @Override
+    public Iterator<V> values() {
+        List<V> ret = new ArrayList<>();
+        for (Map.Entry<K, V> e : entrySet())
+            ret.add(e.getValue());
+        return ret.iterator();
+    }
+
+    @Override
+    public Iterator<K> keys() {
+        List<K> ret = new ArrayList<>();
+        for (Map.Entry<K, V> e : entrySet())
+            ret.add(e.getKey());
+        return ret.iterator();
+    }
+
+    /**
+     * @return a snapshot of the entries not expired
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        long now = System.currentTimeMillis();
+        Set<Map.Entry<K, V>> ret = new LinkedHashSet<>();
+        for (Node<K, V> node : data.values())
+            if (!node.isExpired(now))
+                ret.add(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<K, V>> VAL exclude(K exclusion) {
+        exclusionFilter.add(toKey(exclusion));
+        return (VAL) this;
+    }
+
+    @Override
+    public boolean isExcluded(K key) {
+        return exclusionFilter.contains(toKey(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<K, V>> VAL include(K exclusionToRemove) {
+        exclusionFilter.remove(toKey(exclusionToRemove));
+        return (VAL) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<K, V>> VAL setKeyFilter(DataEncoder<K, K> filter) {
+        this.keyFilter = filter;
+        return (VAL) this;
+    }
+
+    @Override
+    public DataEncoder<K, K> getKeyFilter() {
+        return keyFilter;
+    }
+
+    /**
+     * @return the number of stored entries, expired entries not yet removed included
+     */
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public long dataSize() {
+        return dataSize.get();
+    }
+
+    @Override
+    public long averageDataSize() {
+        int size = size();
+        return size > 0 ? dataSize.get() / size : 0;
+    }
+
+    @Override
+    public long defaultExpirationPeriod() {
+        return defaultExpirationPeriod;
+    }
+
+    @Override
+    public String getName() {
+        return namedDescription.getName();
+    }
+
+    @Override
+    public String getDescription() {
+        return namedDescription.getDescription();
+    }
+
+    @Override
+    public NVGenericMap getProperties() {
+        long h = hits.sum();
+        long m = misses.sum();
+        NVGenericMap ret = new NVGenericMap(getName());
+        ret.build(new NVLong("size", size()))
+                .build(new NVLong("data_size", dataSize()))
+                .build(new NVLong("maximum_size", maximumSize))
+                .build(new NVLong("maximum_data_size", maximumDataSize))
+                .build(new NVLong("hits", h))
+                .build(new NVLong("misses", m))
+                .build(new NVFloat("hit_rate", h + m > 0 ? (float) h / (h + m) : 0))
+                .build(new NVLong("puts", puts.sum()))
+                .build(new NVLong("evictions", evictions.sum()))
+                .build(new NVLong("expirations", expirations.sum()));
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " " + getProperties();
+    }
+
+    // ------------------------------------------------------------------
+    // policy
+    // ------------------------------------------------------------------
+
+    private boolean removeNode(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            dataSizeChanged(null, node.value);
+            retire(node);
+            return true;
+        }
+        return false;
+    }
+
+    private void retire(Node<K, V> node) {
+        if (isBounded()) {
+            writeBuffer.offer(node);
+            drainWriteBuffer();
+        } else
+            node.queue = RETIRED;
+    }
+
+    private void recordRead(Node<K, V> node) {
+        ReadBuffer<K, V> rb = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        if (!rb.offer(node) && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+            // the writers that failed the try-lock meanwhile left their nodes to this lock holder
+            drainWriteBuffer();
+        }
+    }
+
+    private void drainWriteBuffer() {
+        // a writer that fails the try-lock leaves its node to the lock holder that checks the queue after unlocking
+        while (!writeBuffer.isEmpty() && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // evictionLock held
+    private void maintenance() {
+        for (ReadBuffer<K, V> rb : readBuffers)
+            rb.drain(this);
+        Node<K, V> node;
+        while ((node = writeBuffer.poll()) != null) {
+            if (data.get(node.key) == node) {
+                if (node.queue == NONE)
+                    add(node);
+            } else {
+                // replaced or removed
+                if (node.queue != NONE && node.queue != RETIRED)
+                    unlink(node);
+                node.queue = RETIRED;
+            }
+        }
+        if (isBounded())
+            evict();
+    }
+
+    // evictionLock held
+    private void add(Node<K, V> node) {
+        sketch.increment(node.key);
+        node.queue = WINDOW;
+        window.addLast(node);
+        windowWeight += node.weight;
+        weight += node.weight;
+        count++;
+        if (maximumSize == 0 && count > 0)
+            sketch.ensureCapacity(count);
+    }
+
+    // evictionLock held
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.unlink(node);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                break;
+            case PROTECTED:
+                protectedSegment.unlink(node);
+                protectedWeight -= node.weight;
+                break;
+            default:
+                return;
+        }
+        weight -= node.weight;
+        count--;
+        node.queue = NONE;
+    }
+
+    // evictionLock held
+    private void onAccess(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                sketch.increment(node.key);
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                sketch.increment(node.key);
+                probation.unlink(node);
+                node.queue = PROTECTED;
+                protectedSegment.addLast(node);
+                protectedWeight += node.weight;
+                while (protectedWeight > protectedMax) {
+                    Node<K, V> demoted = protectedSegment.first();
+                    if (demoted == null || demoted == node)
+                        break;
+                    protectedSegment.unlink(demoted);
+                    protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                sketch.increment(node.key);
+                protectedSegment.moveToLast(node);
+                break;
+            default:
+                // not yet added or retired
+        }
+    }
+
+    private boolean isOverBound() {
+        return (maximumWeight > 0 && weight > maximumWeight) || (maximumSize > 0 && count > maximumSize);
+    }
+
+    // evictionLock held
+    private void evict() {
+        // the window overflow moves to the probation segment as admission candidates
+        Node<K, V> candidate = null;
+        while (windowWeight > windowMax) {
+            Node<K, V> n = window.first();
+            if (n == null)
+                break;
+            window.unlink(n);
+            windowWeight -= n.weight;
+            n.queue = PROBATION;
+            probation.addLast(n);
+            if (candidate == null)
+                candidate = n;
+        }
+
+        long now = System.currentTimeMillis();
+        while (isOverBound()) {
+            Node<K, V> victim = probation.first();
+            if (victim == null)
+                victim = protectedSegment.first();
+            if (victim == null)
+                victim = window.first();
+            if (victim == null)
+                break;
+
+            Node<K, V> toEvict = victim;
+            if (candidate != null && candidate != victim && candidate.queue == PROBATION && !victim.isExpired(now)) {
+                if (candidate.isExpired(now) || !admit(candidate, victim))
+                    toEvict = candidate;
+                // the next candidate is the one moved after it, the list sentinel has no key
+                Node<K, V> next = candidate.next;
+                candidate = next != null && next.key != null ? next : null;
+            }
+            evictNode(toEvict, now);
+        }
+    }
+
+    private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+        int candidateFreq = sketch.frequency(candidate.key);
+        int victimFreq = sketch.frequency(victim.key);
+        if (candidateFreq > victimFreq)
+            return true;
+        // a little randomness against an attacker keeping a hot victim resident
+        return candidateFreq >= 6 && (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    // evictionLock held
+    private void evictNode(Node<K, V> node, long now) {
+        unlink(node);
+        node.queue = RETIRED;
+        if (data.remove(node.key, node)) {
+            dataSizeChanged(null, node.value);
+            if (node.isExpired(now))
+                expirations.increment();
+            else
+                evictions.increment();
+        }
+    }
+}
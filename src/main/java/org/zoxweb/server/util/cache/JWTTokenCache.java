@@ -1,55 +1,126 @@
 package org.zoxweb.server.util.cache;
 
 import org.zoxweb.server.logging.LogWrapper;
-import org.zoxweb.server.task.TaskDefault;
-import org.zoxweb.server.task.TaskEvent;
 import org.zoxweb.server.task.TaskSchedulerProcessor;
 import org.zoxweb.server.task.TaskUtil;
 import org.zoxweb.server.util.DateUtil;
 import org.zoxweb.shared.security.JWT;
 import org.zoxweb.shared.security.JWTToken;
+import org.zoxweb.shared.util.*;
 import org.zoxweb.shared.util.Const.TimeInMillis;
-import org.zoxweb.shared.util.DataEncoder;
-import org.zoxweb.shared.util.KVMapStore;
-import org.zoxweb.shared.util.KVMapStoreDefault;
-import org.zoxweb.shared.util.SUS;
 
 import java.util.*;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * One time use JWT cache that prevents token replay attacks, a token is registered by its
  * hash and stays cached for the duration of its validity window, registering the same token
  * twice within that window is a replay and is rejected with a SecurityException.
- * <p>Expired entries are evicted by a cleaner task queued on the task scheduler at
- * registration time, so the cache content self purges without any polling.
+ * <p>The cache is split in shards, each with its own lock, map and expiry wheel: a ring of
+ * time buckets covering the longest validity window. A registered token is appended to the
+ * bucket of its expiry time and every elapsed bucket is purged once, on the next registration
+ * in the shard or by a sweep task queued on the task scheduler while the cache is not empty,
+ * so expiry costs O(1) per token without any scan. An expired token still waiting for its
+ * bucket purge is never returned.
+ * <p>An optional negative cache remembers rejected or revoked token hashes, a token in the
+ * negative cache can't be registered.
  */
 public class JWTTokenCache
-        implements KVMapStore<String, JWT> {
+        implements KVMapStore<String, JWT>, GetNVProperties {
+
+    private static final LogWrapper log = new LogWrapper(JWTTokenCache.class.getName());
 
     /**
-     * Scheduled per registered token, removes the token hash from the cache once its
-     * validity window has elapsed
+     * Minimum expiry bucket width in millis
      */
-    private class CacheCleanerTask extends TaskDefault {
+    public static final long MIN_TICK = 10;
 
-        @Override
-        protected void childExecuteTask(TaskEvent event) {
-            String hash = (String) event.getTaskExecutorParameters()[0];
-            cache.remove(hash);
-            //log.info(Thread.currentThread() + " pending tokens: " + size());
-        }
+    private static final class Entry {
+        private final String hash;
+        private final JWT jwt;
+        private final long expiresAt;
 
+        private Entry(String hash, JWT jwt, long expiresAt) {
+            this.hash = hash;
+            this.jwt = jwt;
+            this.expiresAt = expiresAt;
+        }
     }
 
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Entry> map = new HashMap<>();
+        private final ArrayList<Entry>[] buckets;
+        // next tick to purge
+        private long nextTick;
+
+        @SuppressWarnings("unchecked")
+        private Shard(long now) {
+            buckets = new ArrayList[wheelSize];
+            nextTick = now / tick;
+        }
+
+        // lock held, purge the elapsed buckets
+        private void expire(long now) {
+            long currentTick = now / tick;
+            long ticks = Math.min(currentTick - nextTick, wheelSize);
+            for (long t = 0; t < ticks; t++) {
+                ArrayList<Entry> bucket = buckets[(int) ((nextTick + t) % wheelSize)];
+                if (bucket == null || bucket.isEmpty())
+                    continue;
+                int kept = 0;
+                for (Entry e : bucket) {
+                    // replaced or removed entries are skipped
+                    if (map.get(e.hash) != e)
+                        continue;
+                    if (e.expiresAt <= now) {
+                        map.remove(e.hash);
+                        expired.increment();
+                        long lag = now - e.expiresAt;
+                        expiryLagTotal.add(lag);
+                        expiryLagMax.accumulate(lag);
+                    } else
+                        bucket.set(kept++, e);
+                }
+                bucket.subList(kept, bucket.size()).clear();
+                if (kept == 0)
+                    bucket.trimToSize();
+            }
+            nextTick = currentTick;
+        }
+
+        // lock held
+        private void schedule(Entry e) {
+            int index = (int) ((e.expiresAt / tick) % wheelSize);
+            if (buckets[index] == null)
+                buckets[index] = new ArrayList<>();
+            buckets[index].add(e);
+        }
+    }
 
-    private static final LogWrapper log = new LogWrapper(JWTTokenCache.class.getName());
-    private final Lock lock = new ReentrantLock();
-    private KVMapStore<String, JWT> cache = new KVMapStoreDefault<String, JWT>(new HashMap<String, JWT>(), new HashSet<String>());
     private final long expirationPeriod;
-    private volatile TaskSchedulerProcessor tsp;
-    private volatile CacheCleanerTask cct;
+    private final long tick;
+    private final int wheelSize;
+    private final Shard[] shards;
+    private final Set<String> exclusionFilter = ConcurrentHashMap.newKeySet();
+    private final ConcurrentKVMapStore<String, String> negativeCache;
+    private final TaskSchedulerProcessor tsp;
+    private final AtomicBoolean sweepPending = new AtomicBoolean();
+    private final Runnable sweeper = this::sweep;
+    private volatile DataEncoder<String, String> keyFilter;
+
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expiryLagTotal = new LongAdder();
+    private final LongAccumulator expiryLagMax = new LongAccumulator(Math::max, 0);
 
     /**
      * Create a cache with a 5 minutes expiration period using the default task scheduler
@@ -59,33 +130,68 @@ public class JWTTokenCache
     }
 
     /**
-     * Create a cache
+     * Create a cache without negative cache
      *
      * @param expirationPeriod the token validity window in millis, a token older than this
      *                         period is rejected, must be &gt; 0
-     * @param tsp              the task scheduler used to queue the expired token eviction
-     *                         tasks, can't be null
+     * @param tsp              the task scheduler used to queue the expired token sweep,
+     *                         can't be null
      */
     public JWTTokenCache(long expirationPeriod, TaskSchedulerProcessor tsp) {
+        this(expirationPeriod, tsp, 0, 0);
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param expirationPeriod  the token validity window in millis, a token older than this
+     *                          period is rejected, must be &gt; 0
+     * @param tsp               the task scheduler used to queue the expired token sweep,
+     *                          can't be null
+     * @param shardCount        number of shards rounded to a power of 2, 0 for 4 per cpu
+     * @param negativeCacheSize maximum number of rejected token hashes remembered, 0 disables
+     *                          the negative cache
+     */
+    public JWTTokenCache(long expirationPeriod, TaskSchedulerProcessor tsp, int shardCount, int negativeCacheSize) {
         SUS.checkIfNulls("TaskScheduler null", tsp);
 
         if (expirationPeriod <= 0) {
             throw new IllegalArgumentException("invalid expiration period <= 0 " + expirationPeriod);
         }
+        if (shardCount <= 0)
+            shardCount = 4 * Runtime.getRuntime().availableProcessors();
+        shardCount = shardCount > 1 ? Integer.highestOneBit(shardCount - 1) << 1 : 1;
 
-        cct = new CacheCleanerTask();
         this.expirationPeriod = expirationPeriod;
         this.tsp = tsp;
-        log.getLogger().info("ExpirationPeriod " + TimeInMillis.toString(expirationPeriod) + ", TaskScheduler:" + tsp);
+        // a token expires at most 2 expiration periods after registration
+        tick = Math.max(MIN_TICK, expirationPeriod / 64);
+        wheelSize = (int) (2 * expirationPeriod / tick) + 2;
+        long now = System.currentTimeMillis();
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Shard(now);
+        negativeCache = negativeCacheSize > 0 ?
+                new ConcurrentKVMapStore<>("JWTNegativeCache", negativeCacheSize, 0, null, 2 * expirationPeriod) : null;
+        log.getLogger().info("ExpirationPeriod " + TimeInMillis.toString(expirationPeriod) + ", shards " + shards.length + ", TaskScheduler:" + tsp);
+    }
+
+    private String toKey(String key) {
+        return keyFilter != null ? keyFilter.encode(key) : key;
     }
 
+    private Shard shard(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return shards[h & (shards.length - 1)];
+    }
 
     /**
      * Register a token by its own hash
      *
      * @param jwtToken the token to register
      * @return true if the token was registered
-     * @throws SecurityException if the token is expired or already registered, replay attack
+     * @throws SecurityException if the token is expired, rejected or already registered, replay attack
      */
     public boolean map(JWTToken jwtToken) {
         return put(jwtToken.getJWT().getHash(), jwtToken.getJWT());
@@ -96,7 +202,7 @@ public class JWTTokenCache
      *
      * @param jwt the jwt to register
      * @return true if the jwt was registered
-     * @throws SecurityException if the jwt is expired or already registered, replay attack
+     * @throws SecurityException if the jwt is expired, rejected or already registered, replay attack
      */
     public boolean map(JWT jwt) {
         return put(jwt.getHash(), jwt);
@@ -105,97 +211,238 @@ public class JWTTokenCache
 
     /**
      * Register a jwt, the jwt issued at time must be within the expiration period of the
-     * cache and the hash must not be already registered, on success an eviction task is
-     * queued to remove the entry once the jwt validity window has elapsed
+     * cache and the hash must not be already registered or rejected, on success the entry
+     * is scheduled for removal once the jwt validity window has elapsed
      *
      * @param jwtHash the jwt hash used as key
      * @param jwt     to be registered
-     * @return true if the jwt was registered
-     * @throws SecurityException if the jwt is expired or the hash is already registered,
+     * @return true if the jwt was registered, false if the hash is excluded
+     * @throws SecurityException if the jwt is expired, rejected or the hash is already registered,
      *                           replay attack
      */
     @Override
     public boolean put(String jwtHash, JWT jwt)
             throws SecurityException {
 
+        long now = System.currentTimeMillis();
         long issuedAtInMillis = jwt.getPayload().getIssuedAt() * 1000;
-        long delta = Math.abs(System.currentTimeMillis() - issuedAtInMillis);
+        long delta = Math.abs(now - issuedAtInMillis);
 
 
         if (delta >= expirationPeriod) {
             throw new SecurityException("Expired token issued at " + DateUtil.DEFAULT_GMT_MILLIS.format(new Date(issuedAtInMillis)));
         }
 
+        jwtHash = toKey(jwtHash);
+        if (exclusionFilter.contains(jwtHash))
+            return false;
+        if (isRejected(jwtHash)) {
+            rejected.increment();
+            throw new SecurityException("Token rejected.");
+        }
 
-        boolean ret;
+        Shard shard = shard(jwtHash);
+        shard.lock.lock();
         try {
-            lock.lock();
-            if (cache.get(jwtHash) != null) {
+            shard.expire(now);
+            Entry e = shard.map.get(jwtHash);
+            if (e != null && e.expiresAt > now) {
                 // otp replay
+                replays.increment();
                 throw new SecurityException("Token already used, replay attack.");
             }
 
             // register the token
-            ret = cache.put(jwtHash, jwt);
+            e = new Entry(jwtHash, jwt, now + expirationPeriod + delta);
+            shard.map.put(jwtHash, e);
+            shard.schedule(e);
+        } finally {
+            shard.lock.unlock();
+        }
+        puts.increment();
+        scheduleSweep();
 
-            tsp.queue(this, expirationPeriod + delta, cct, jwtHash);
+        return true;
+    }
 
-        } finally {
-            lock.unlock();
+    /**
+     * Purge the elapsed expiry buckets of all the shards
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.expire(now);
+            } finally {
+                shard.lock.unlock();
+            }
         }
+    }
 
-        return ret;
+    private void sweep() {
+        expire();
+        sweepPending.set(false);
+        // a token registered during the sweep may have seen the flag still set
+        if (size() > 0)
+            scheduleSweep();
+    }
+
+    private void scheduleSweep() {
+        if (sweepPending.compareAndSet(false, true)) {
+            try {
+                tsp.queue(tick, sweeper);
+            } catch (RuntimeException e) {
+                // scheduler closed, the tokens still expire on the next registration in their shard
+                sweepPending.set(false);
+                if (log.isEnabled())
+                    log.getLogger().info("sweep not scheduled " + e);
+            }
+        }
+    }
+
+    /**
+     * Add a token hash to the negative cache, the token can't be registered for 2 expiration periods,
+     * no effect if the negative cache is disabled
+     *
+     * @param jwtHash the rejected or revoked token hash
+     * @param reason  of the rejection
+     * @return true if the hash was added
+     */
+    public boolean reject(String jwtHash, String reason) {
+        return negativeCache != null && negativeCache.put(toKey(jwtHash), reason != null ? reason : "rejected");
+    }
+
+    /**
+     * Revoke a registered or future token
+     *
+     * @param jwt to revoke
+     * @return true if the token was added to the negative cache
+     */
+    public boolean revoke(JWT jwt) {
+        remove(jwt.getHash());
+        return reject(jwt.getHash(), "revoked");
+    }
+
+    /**
+     * @param jwtHash the token hash
+     * @return true if the hash is in the negative cache
+     */
+    public boolean isRejected(String jwtHash) {
+        return negativeCache != null && negativeCache.containsKey(toKey(jwtHash));
     }
 
     @Override
     public JWT get(String jwtHash) {
-        return cache.get(jwtHash);
+        jwtHash = toKey(jwtHash);
+        Shard shard = shard(jwtHash);
+        Entry e;
+        shard.lock.lock();
+        try {
+            e = shard.map.get(jwtHash);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (e != null && e.expiresAt > System.currentTimeMillis()) {
+            hits.increment();
+            return e.jwt;
+        }
+        misses.increment();
+        return null;
     }
 
     @Override
     public boolean remove(String jwtHash) {
-        return cache.remove(jwtHash);
+        return removeGet(jwtHash) != null;
     }
 
     @Override
     public boolean containsKey(String key) {
-        return cache.containsKey(key);
+        key = toKey(key);
+        Shard shard = shard(key);
+        shard.lock.lock();
+        try {
+            Entry e = shard.map.get(key);
+            return e != null && e.expiresAt > System.currentTimeMillis();
+        } finally {
+            shard.lock.unlock();
+        }
     }
 
     @Override
     public JWT removeGet(String jwtHash) {
-        return cache.removeGet(jwtHash);
+        jwtHash = toKey(jwtHash);
+        Shard shard = shard(jwtHash);
+        shard.lock.lock();
+        try {
+            Entry e = shard.map.remove(jwtHash);
+            return e != null ? e.jwt : null;
+        } finally {
+            shard.lock.unlock();
+        }
     }
 
     @Override
     public void clear(boolean all) {
-        cache.clear(all);
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.map.clear();
+                Arrays.fill(shard.buckets, null);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        if (negativeCache != null)
+            negativeCache.clear(all);
+        if (all)
+            exclusionFilter.clear();
     }
 
     @Override
     public Iterator<String> exclusions() {
-        return cache.exclusions();
+        return exclusionFilter.iterator();
     }
 
     @Override
     public Iterator<JWT> values() {
-        return cache.values();
+        List<JWT> ret = new ArrayList<>();
+        for (Map.Entry<String, JWT> e : entrySet())
+            ret.add(e.getValue());
+        return ret.iterator();
     }
 
     @Override
     public Iterator<String> keys() {
-        return cache.keys();
+        List<String> ret = new ArrayList<>();
+        for (Map.Entry<String, JWT> e : entrySet())
+            ret.add(e.getKey());
+        return ret.iterator();
     }
 
+    /**
+     * @return a snapshot of the registered tokens
+     */
     @Override
     public Set<Map.Entry<String, JWT>> entrySet() {
-        return cache.entrySet();
+        Set<Map.Entry<String, JWT>> ret = new LinkedHashSet<>();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (Entry e : shard.map.values())
+                    ret.add(new AbstractMap.SimpleImmutableEntry<>(e.hash, e.jwt));
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return ret;
     }
 
     @Override
-    public <VAL extends  KVMapStore<String, JWT>> VAL exclude(String exclusion) {
-        cache.exclude(exclusion);
-        return (VAL)this;
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<String, JWT>> VAL exclude(String exclusion) {
+        exclusionFilter.add(toKey(exclusion));
+        return (VAL) this;
     }
 
     /**
@@ -206,7 +453,7 @@ public class JWTTokenCache
      */
     @Override
     public boolean isExcluded(String key) {
-        return cache.isExcluded(key);
+        return exclusionFilter.contains(toKey(key));
     }
 
     /**
@@ -215,21 +462,24 @@ public class JWTTokenCache
      * @param exclusionToRemove the key to be removed from the exclusion set, filtered by the key filter if set
      */
     @Override
-    public <VAL extends  KVMapStore<String, JWT>> VAL include(String exclusionToRemove) {
-        cache.include(exclusionToRemove);
-        return (VAL)this;
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<String, JWT>> VAL include(String exclusionToRemove) {
+        exclusionFilter.remove(toKey(exclusionToRemove));
+        return (VAL) this;
     }
 
     /**
-     * Set the key filter of the underlying store
+     * Set the key filter applied to the jwt hashes
      *
      * @param filter to be applied to the jwt hash keys, null to disable filtering
      * @param <VAL>  the implementing store type
-     * @return the underlying store for ease of use
+     * @return the cache itself for ease of use
      */
     @Override
-    public <VAL extends  KVMapStore<String, JWT>> VAL setKeyFilter(DataEncoder<String, String> filter) {
-        return cache.setKeyFilter(filter);
+    @SuppressWarnings("unchecked")
+    public <VAL extends KVMapStore<String, JWT>> VAL setKeyFilter(DataEncoder<String, String> filter) {
+        this.keyFilter = filter;
+        return (VAL) this;
     }
 
     /**
@@ -237,22 +487,34 @@ public class JWTTokenCache
      */
     @Override
     public DataEncoder<String, String> getKeyFilter() {
-        return cache.getKeyFilter();
+        return keyFilter;
     }
 
+    /**
+     * @return the number of registered tokens, expired tokens waiting for their bucket purge included
+     */
     @Override
     public int size() {
-        return cache.size();
+        int ret = 0;
+        for (Shard shard : shards)
+            ret += shard.map.size();
+        return ret;
     }
 
+    /**
+     * @return 0, the token size is not accounted
+     */
     @Override
     public long dataSize() {
-        return cache.dataSize();
+        return 0;
     }
 
+    /**
+     * @return 0, the token size is not accounted
+     */
     @Override
     public long averageDataSize() {
-        return cache.averageDataSize();
+        return 0;
     }
 
 
@@ -279,4 +541,28 @@ public class JWTTokenCache
         return "JWTCache";
     }
 
+    /**
+     * @return the cache statistics, the expiry lag is the delay between a token expiry and its removal
+     */
+    @Override
+    public NVGenericMap getProperties() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long e = expired.sum();
+        NVGenericMap ret = new NVGenericMap(getName());
+        ret.build(new NVInt("shards", shards.length))
+                .build(new NVLong("size", size()))
+                .build(new NVLong("puts", puts.sum()))
+                .build(new NVLong("replays", replays.sum()))
+                .build(new NVLong("rejected", rejected.sum()))
+                .build(new NVLong("hits", h))
+                .build(new NVLong("misses", m))
+                .build(new NVFloat("hit_rate", h + m > 0 ? (float) h / (h + m) : 0))
+                .build(new NVLong("expired", e))
+                .build(new NVLong("expiry_lag_avg", e > 0 ? expiryLagTotal.sum() / e : 0))
+                .build(new NVLong("expiry_lag_max", expiryLagMax.get()));
+        if (negativeCache != null)
+            ret.build(negativeCache.getProperties());
+        return ret;
+    }
 }
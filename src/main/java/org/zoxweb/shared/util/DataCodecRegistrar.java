@@ -41,6 +41,41 @@ public class DataCodecRegistrar
         init();
     }
 
+    /**
+     * Look for the codec of the key class, if the class is not registered the codec of its closest registered super
+     * class or interface is returned, ie the NVEntity codec for an NVEntity subclass.
+     *
+     * @param key   the class or an instance of the class
+     * @param <VAL> the expected codec type
+     * @return the codec, null if none is assignable
+     */
+    @Override
+    public <VAL extends DataCodec<?, ?>> VAL lookup(Object key) {
+        VAL ret = super.lookup(key);
+        if (ret != null || key == null)
+            return ret;
+
+        for (Class<?> c = (Class<?>) toKey(key); c != null; c = c.getSuperclass()) {
+            ret = super.lookup(c);
+            if (ret == null)
+                ret = lookupInterfaces(c);
+            if (ret != null)
+                return ret;
+        }
+        return null;
+    }
+
+    private <VAL extends DataCodec<?, ?>> VAL lookupInterfaces(Class<?> c) {
+        for (Class<?> i : c.getInterfaces()) {
+            VAL ret = super.lookup(i);
+            if (ret == null)
+                ret = lookupInterfaces(i);
+            if (ret != null)
+                return ret;
+        }
+        return null;
+    }
+
     private void init() {
         register(byte[].class, BinaryCodec.SINGLETON);
         register(NVBlob.class, BinaryCodec.SINGLETON);
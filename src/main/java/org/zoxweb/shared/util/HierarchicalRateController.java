@@ -0,0 +1,247 @@
+package org.zoxweb.shared.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Per key rate controllers under an optional global rate controller, used for example to enforce per tenant API
+ * quotas and the overall quota of the upstream service.
+ * <p>
+ * A call is allowed only if both the key controller and the global controller allow it, with
+ * {@link RateController.RCType#TOKEN_BUCKET} controllers no monitor is taken on the call path.
+ * Key controllers not used for {@link #getIdleTimeout()} are removed, the idle timeout must be longer than the
+ * time a key controller needs to refill its burst.
+ * </p>
+ */
+public class HierarchicalRateController
+        implements GetName, ToNVProperties {
+
+    private final String name;
+    private final RateController global;
+    private final Function<String, RateController> factory;
+
+    private static class KeyController {
+        private final RateController rc;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private KeyController(RateController rc) {
+            this.rc = rc;
+        }
+    }
+
+    private final ConcurrentHashMap<String, KeyController> controllers = new ConcurrentHashMap<>();
+    private volatile long idleTimeout = Const.TimeInMillis.MINUTE.mult(10);
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong deniedByKey = new AtomicLong();
+    private final AtomicLong deniedByGlobal = new AtomicLong();
+
+    /**
+     * @param name    of the controller
+     * @param global  the controller shared by all the keys, can be null
+     * @param factory creates the controller of a new key
+     */
+    public HierarchicalRateController(String name, RateController global, Function<String, RateController> factory) {
+        SUS.checkIfNulls("Null factory", factory);
+        this.name = name;
+        this.global = global;
+        this.factory = factory;
+    }
+
+    /**
+     * Create a controller with token bucket limiters.
+     *
+     * @param name        of the controller
+     * @param globalRate  the global rate ie "1000/sec", null for no global limit
+     * @param globalBurst the global burst
+     * @param keyRate     the rate per key ie "50/sec"
+     * @param keyBurst    the burst per key
+     */
+    public HierarchicalRateController(String name, String globalRate, int globalBurst, String keyRate, int keyBurst) {
+        this(name,
+                globalRate != null ? tokenBucket(name, globalRate, globalBurst) : null,
+                k -> tokenBucket(k, keyRate, keyBurst));
+    }
+
+    private static RateController tokenBucket(String name, String rate, int burst) {
+        return new RateController(name, rate)
+                .setRCType(RateController.RCType.TOKEN_BUCKET)
+                .setBurst(burst);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the global controller, can be null
+     */
+    public RateController getGlobal() {
+        return global;
+    }
+
+    /**
+     * Return the controller of the key, created on first use.
+     *
+     * @param key of the caller
+     * @return the key controller
+     */
+    public RateController lookup(String key) {
+        SUS.checkIfNulls("Null key", key);
+        long now = System.currentTimeMillis();
+        // get first, the common case, to avoid locking the map bin
+        KeyController ret = controllers.get(key);
+        if (ret == null) {
+            KeyController created = new KeyController(factory.apply(key));
+            ret = controllers.putIfAbsent(key, created);
+            if (ret == null)
+                ret = created;
+        }
+        ret.lastUsed = now;
+
+        long last = lastSweep.get();
+        if (now - last > idleTimeout / 2 && lastSweep.compareAndSet(last, now))
+            expireIdle(now);
+        return ret.rc;
+    }
+
+    /**
+     * @return the time in millis after which an unused key controller is removed
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout in millis after which an unused key controller is removed, longer than the burst refill time
+     * @return this
+     */
+    public HierarchicalRateController setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 1)
+            throw new IllegalArgumentException("Invalid idle timeout " + idleTimeout);
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * Remove the key controllers not used for the idle timeout, invoked by {@link #lookup(String)} every half idle
+     * timeout.
+     *
+     * @return the number of removed key controllers
+     */
+    public int expireIdle() {
+        long now = System.currentTimeMillis();
+        lastSweep.set(now);
+        return expireIdle(now);
+    }
+
+    private int expireIdle(long now) {
+        int ret = 0;
+        for (Map.Entry<String, KeyController> e : controllers.entrySet()) {
+            if (now - e.getValue().lastUsed > idleTimeout && controllers.remove(e.getKey(), e.getValue()))
+                ret++;
+        }
+        expired.addAndGet(ret);
+        return ret;
+    }
+
+    /**
+     * Acquire one permit for the key without waiting.
+     *
+     * @param key of the caller
+     * @return true if allowed
+     */
+    public boolean tryAcquire(String key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Acquire permits for the key without waiting, the key permits are given back if the global controller refuses.
+     *
+     * @param key     of the caller
+     * @param permits the number of calls
+     * @return true if allowed
+     */
+    public boolean tryAcquire(String key, int permits) {
+        RateController rc = lookup(key);
+        if (!rc.tryAcquire(permits)) {
+            deniedByKey.incrementAndGet();
+            return false;
+        }
+        if (global != null && !global.tryAcquire(permits)) {
+            rc.release(permits);
+            deniedByGlobal.incrementAndGet();
+            return false;
+        }
+        allowed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reserve one permit for the key on both controllers.
+     *
+     * @param key of the caller
+     * @return the delay in millis before the call can proceed
+     */
+    public long nextWait(String key) {
+        long delay = lookup(key).nextWait();
+        if (global != null)
+            delay = Math.max(delay, global.nextWait());
+        allowed.incrementAndGet();
+        return delay;
+    }
+
+    /**
+     * @param key  of the caller
+     * @param unit of the delay
+     * @return the delay before the next call of the key is allowed
+     */
+    public long getDelay(String key, TimeUnit unit) {
+        long delay = lookup(key).getDelay(unit);
+        if (global != null)
+            delay = Math.max(delay, global.getDelay(unit));
+        return Math.max(delay, 0);
+    }
+
+    /**
+     * Remove the key controller, ie when the tenant is removed.
+     *
+     * @param key of the caller
+     * @return the removed controller or null
+     */
+    public RateController remove(String key) {
+        KeyController ret = controllers.remove(key);
+        return ret != null ? ret.rc : null;
+    }
+
+    /**
+     * @return the number of key controllers
+     */
+    public int size() {
+        return controllers.size();
+    }
+
+    @Override
+    public NVGenericMap toProperties(boolean detailed) {
+        NVGenericMap ret = new NVGenericMap(name);
+        ret.build(new NVLong("allowed", allowed.get()))
+                .build(new NVLong("denied_by_key", deniedByKey.get()))
+                .build(new NVLong("denied_by_global", deniedByGlobal.get()))
+                .build(new NVLong("expired", expired.get()))
+                .build(new NVInt("keys", controllers.size()));
+        if (detailed) {
+            if (global != null)
+                ret.build(new NVLong("global_calls", global.getCallCounts()));
+            NVGenericMap keys = new NVGenericMap("key_calls");
+            for (KeyController kc : controllers.values())
+                keys.build(new NVLong(kc.rc.getName(), kc.rc.getCallCounts()));
+            ret.build(keys);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2012-2026 XlogistX.IO Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.zoxweb.shared.util;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The attributes of an {@link NVConfigEntity} resolved once into ordinal indexed slots.
+ * <p>
+ * The index of an attribute is its position in {@link NVConfigEntity#getAttributes()}. An {@link NVEntity} created
+ * with its meta data stores its attributes in an array sized by the table, {@link NVEntity#lookup(int)} and
+ * {@link NVEntity#lookupValue(int)} read the array directly, and the name keyed {@link NVEntity#getAttributes()} map
+ * is a view over the same array with the {@link LinkedHashMap} semantics. The tables are cached per entity class, the
+ * tables of the classes created with more than one meta data are cached per meta data with weak keys.
+ * </p>
+ */
+public final class NVAttributeTable {
+
+    private static final Map<Class<?>, NVAttributeTable> TABLES = new ConcurrentHashMap<>();
+    // the table references its meta data, the value is weak so the key can be collected
+    private static final Map<NVConfigEntity, WeakReference<NVAttributeTable>> BY_CONFIG = new WeakHashMap<>();
+    private static final int SCAN_LIMIT = 16;
+
+    private final NVConfigEntity nvce;
+    private final List<NVConfig> source;
+    private final NVConfig[] configs;
+    private final Map<String, Integer> nameIndex;
+
+    private NVAttributeTable(NVConfigEntity nvce) {
+        this.nvce = nvce;
+        this.source = nvce.getAttributes();
+        this.configs = source.toArray(new NVConfig[0]);
+        this.nameIndex = new HashMap<>(configs.length * 2);
+        for (int i = 0; i < configs.length; i++) {
+            nameIndex.put(configs[i].getName(), i);
+        }
+    }
+
+    /**
+     * Return the table of the entity class, the table is rebuilt if the meta data attributes were replaced.
+     *
+     * @param entityClass the NVEntity class
+     * @param nvce        the meta data of the entity
+     * @return the attribute table
+     */
+    public static NVAttributeTable lookup(Class<?> entityClass, NVConfigEntity nvce) {
+        NVAttributeTable ret = TABLES.get(entityClass);
+        if (ret == null) {
+            ret = new NVAttributeTable(nvce);
+            TABLES.put(entityClass, ret);
+        } else if (!ret.isCurrent(nvce)) {
+            // a class created with more than one meta data
+            synchronized (BY_CONFIG) {
+                WeakReference<NVAttributeTable> ref = BY_CONFIG.get(nvce);
+                ret = ref != null ? ref.get() : null;
+                if (ret == null || !ret.isCurrent(nvce)) {
+                    ret = new NVAttributeTable(nvce);
+                    BY_CONFIG.put(nvce, new WeakReference<>(ret));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private boolean isCurrent(NVConfigEntity nvce) {
+        return this.nvce == nvce && source == nvce.getAttributes() && configs.length == source.size();
+    }
+
+    /**
+     * @return the meta data the table was built from
+     */
+    public NVConfigEntity getNVConfigEntity() {
+        return nvce;
+    }
+
+    /**
+     * @return the number of attributes
+     */
+    public int size() {
+        return configs.length;
+    }
+
+    /**
+     * @param index of the attribute
+     * @return the attribute meta data
+     */
+    public NVConfig getNVConfig(int index) {
+        return configs[index];
+    }
+
+    /**
+     * @param name of the attribute
+     * @return the attribute index, -1 if not found
+     */
+    public int indexOf(String name) {
+        Integer ret = name != null ? nameIndex.get(name) : null;
+        return ret != null ? ret : -1;
+    }
+
+    /**
+     * @param nvc attribute meta data
+     * @return the attribute index, -1 if not found
+     */
+    public int indexOf(NVConfig nvc) {
+        if (configs.length <= SCAN_LIMIT) {
+            // reference scan, cheaper than hashing for the usual entity sizes
+            for (int i = 0; i < configs.length; i++)
+                if (configs[i] == nvc)
+                    return i;
+        }
+        return nvc != null ? indexOf(nvc.getName()) : -1;
+    }
+
+    /**
+     * Create the attribute slots of a new entity.
+     *
+     * @return the attribute values initialized from the meta data
+     */
+    NVBase<?>[] newSlots() {
+        NVBase<?>[] ret = new NVBase<?>[configs.length];
+        for (int i = 0; i < configs.length; i++)
+            ret[i] = SharedMetaUtil.SINGLETON.toNVBase(configs[i]);
+        return ret;
+    }
+
+    /**
+     * Name keyed view over the attribute slots, a name not defined in the table is kept in an overflow map. As with a
+     * {@link LinkedHashMap} a key mapped to null is contained in the map.
+     */
+    static final class AttributeMap
+            extends AbstractMap<String, NVBase<?>> {
+
+        final NVAttributeTable table;
+        final NVBase<?>[] slots;
+        // the slots mapped to null, allocated on the first null mapping
+        private boolean[] nullMapped;
+        private Map<String, NVBase<?>> overflow;
+
+        AttributeMap(NVAttributeTable table, NVBase<?>[] slots) {
+            this.table = table;
+            this.slots = slots;
+        }
+
+        private boolean isMapped(int index) {
+            return slots[index] != null || (nullMapped != null && nullMapped[index]);
+        }
+
+        private NVBase<?> set(int index, NVBase<?> value, boolean mapped) {
+            NVBase<?> ret = slots[index];
+            slots[index] = value;
+            if (value == null && mapped) {
+                if (nullMapped == null)
+                    nullMapped = new boolean[slots.length];
+                nullMapped[index] = true;
+            } else if (nullMapped != null)
+                nullMapped[index] = false;
+            return ret;
+        }
+
+        @Override
+        public NVBase<?> get(Object key) {
+            int index = key instanceof String ? table.indexOf((String) key) : -1;
+            if (index != -1)
+                return slots[index];
+            return overflow != null ? overflow.get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            int index = key instanceof String ? table.indexOf((String) key) : -1;
+            if (index != -1)
+                return isMapped(index);
+            return overflow != null && overflow.containsKey(key);
+        }
+
+        @Override
+        public NVBase<?> put(String key, NVBase<?> value) {
+            int index = table.indexOf(key);
+            if (index != -1)
+                return set(index, value, true);
+            if (overflow == null)
+                overflow = new LinkedHashMap<>();
+            return overflow.put(key, value);
+        }
+
+        @Override
+        public NVBase<?> remove(Object key) {
+            int index = key instanceof String ? table.indexOf((String) key) : -1;
+            if (index != -1)
+                return set(index, null, false);
+            return overflow != null ? overflow.remove(key) : null;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(slots, null);
+            nullMapped = null;
+            overflow = null;
+        }
+
+        @Override
+        public int size() {
+            int ret = overflow != null ? overflow.size() : 0;
+            for (int i = 0; i < slots.length; i++)
+                if (isMapped(i))
+                    ret++;
+            return ret;
+        }
+
+        @Override
+        public Set<Entry<String, NVBase<?>>> entrySet() {
+            return new AbstractSet<Entry<String, NVBase<?>>>() {
+                @Override
+                public Iterator<Entry<String, NVBase<?>>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return AttributeMap.this.size();
+                }
+            };
+        }
+
+        private final class SlotEntry
+                implements Entry<String, NVBase<?>> {
+            private final int index;
+
+            SlotEntry(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public String getKey() {
+                return table.configs[index].getName();
+            }
+
+            @Override
+            public NVBase<?> getValue() {
+                return slots[index];
+            }
+
+            @Override
+            public NVBase<?> setValue(NVBase<?> value) {
+                return set(index, value, true);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Entry))
+                    return false;
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return getKey().hashCode() ^ Objects.hashCode(getValue());
+            }
+
+            @Override
+            public String toString() {
+                return getKey() + "=" + getValue();
+            }
+        }
+
+        private final class EntryIterator
+                implements Iterator<Entry<String, NVBase<?>>> {
+            private int next = advance(0);
+            private int last = -1;
+            private boolean lastInOverflow;
+            private Iterator<Entry<String, NVBase<?>>> overflowIterator;
+
+            private int advance(int from) {
+                while (from < slots.length && !isMapped(from))
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next < slots.length)
+                    return true;
+                if (overflowIterator == null && overflow != null)
+                    overflowIterator = overflow.entrySet().iterator();
+                return overflowIterator != null && overflowIterator.hasNext();
+            }
+
+            @Override
+            public Entry<String, NVBase<?>> next() {
+                if (next < slots.length) {
+                    last = next;
+                    next = advance(next + 1);
+                    return new SlotEntry(last);
+                }
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                last = -1;
+                lastInOverflow = true;
+                return overflowIterator.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last != -1) {
+                    set(last, null, false);
+                    last = -1;
+                } else if (lastInOverflow) {
+                    lastInOverflow = false;
+                    overflowIterator.remove();
+                } else
+                    throw new IllegalStateException();
+            }
+        }
+    }
+}
@@ -47,11 +47,16 @@ public abstract class NVEntity
 
     protected transient NVConfigEntity config;
     protected Map<String, NVBase<?>> attributes;
+    private transient NVAttributeTable table;
+    // the attributes array when attributes is the view created from the meta data, null otherwise
+    private transient NVBase<?>[] slots;
 
     protected NVEntity(NVConfigEntity nvce) {
 //		config = nvce;
 //		attributes = SharedUtil.toData( config.getAttributes());
-        this(nvce, SharedMetaUtil.toData(nvce.getAttributes()));
+        config = nvce;
+        table = NVAttributeTable.lookup(getClass(), nvce);
+        bind(new NVAttributeTable.AttributeMap(table, table.newSlots()));
     }
 
     /**
@@ -61,7 +66,16 @@ public abstract class NVEntity
      */
     protected NVEntity(NVConfigEntity c, Map<String, NVBase<?>> a) {
         config = c;
+        bind(a);
+    }
+
+    private void bind(Map<String, NVBase<?>> a) {
         attributes = a;
+        slots = null;
+        if (a instanceof NVAttributeTable.AttributeMap && ((NVAttributeTable.AttributeMap) a).table.getNVConfigEntity() == config) {
+            table = ((NVAttributeTable.AttributeMap) a).table;
+            slots = ((NVAttributeTable.AttributeMap) a).slots;
+        }
     }
 
     /**
@@ -84,7 +98,61 @@ public abstract class NVEntity
      * @param attr
      */
     public void setAttributes(Map<String, NVBase<?>> attr) {
-        attributes = attr;
+        bind(attr);
+    }
+
+    /**
+     * Returns the attribute table of the entity meta data, the attribute index is its position in
+     * {@link NVConfigEntity#getAttributes()}.
+     * @return the attribute table
+     */
+    public NVAttributeTable getAttributeTable() {
+        if (table == null)
+            table = NVAttributeTable.lookup(getClass(), config);
+        return table;
+    }
+
+    /**
+     * Looks up NVBase object by attribute index without name hashing.
+     * @param index of the attribute in the meta data attributes
+     * @return the nvbase at index
+     */
+    @SuppressWarnings("unchecked")
+    public <V extends NVBase<?>> V lookup(int index) {
+        if (slots != null)
+            return (V) slots[index];
+        return (V) attributes.get(getAttributeTable().getNVConfig(index).getName());
+    }
+
+    /**
+     * Looks up the value by attribute index without name hashing.
+     * @param index of the attribute in the meta data attributes
+     * @return value
+     */
+    public <V> V lookupValue(int index) {
+        NVBase<V> ret = lookup(index);
+        return ret != null ? ret.getValue() : null;
+    }
+
+    /**
+     * Sets the value by attribute index, the value filter and validation rules are the same as by name.
+     * @param index of the attribute in the meta data attributes
+     * @param v value
+     */
+    public <V> void setValue(int index, V v) {
+        NVBase<V> nvb = lookup(index);
+        if (nvb != null)
+            setValue(getAttributeTable().getNVConfig(index), nvb, v);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V extends NVBase<?>> V slot(NVConfig nvc) {
+        if (slots != null) {
+            int index = table.indexOf(nvc);
+            if (index != -1)
+                return (V) slots[index];
+        }
+        return (V) attributes.get(nvc.getName());
     }
 
     /**
@@ -97,7 +165,7 @@ public abstract class NVEntity
     }
 
     public <V extends NVBase<?>> V lookup(GetNVConfig gnvc) {
-        return (V) attributes.get(gnvc.getNVConfig().getName());
+        return slot(gnvc.getNVConfig());
     }
 
     public <V extends NVBase<?>> V lookup(GetName gName) {
@@ -112,8 +180,7 @@ public abstract class NVEntity
      * @return value
      */
     public <V> V lookupValue(NVConfig nvc) {
-        @SuppressWarnings("unchecked")
-        NVBase<V> ret = (NVBase<V>) attributes.get(nvc.getName());
+        NVBase<V> ret = slot(nvc);
 
         if (ret != null) {
             return ret.getValue();
@@ -178,49 +245,57 @@ public abstract class NVEntity
      */
     @SuppressWarnings("unchecked")
     public <V> void setValue(String name, V v) {
+        if (slots != null) {
+            int index = table.indexOf(name);
+            if (index != -1 && slots[index] != null) {
+                setValue(table.getNVConfig(index), (NVBase<V>) slots[index], v);
+                return;
+            }
+        }
+
         NVCB<V> nvcb = lookupNVCB(name);
 
         if (nvcb != null) {
-            //NVBase<V> ret = (NVBase<V>) attributes.get(name);
-
-            //if (ret != null)
-            {
-                //NVConfig nvc = config.lookup(name);
-                if (config.isAttributesValidationRequired() && v == null && nvcb.nvc.isMandatory()) {
-                    throw new NullPointerException("attibute " + nvcb.nvc + " is a required value can't be null");
-                }
-
-                ValueFilter<Object, Object> vf = (ValueFilter<Object, Object>) nvcb.nvc.getValueFilter();
+            setValue(nvcb.nvc, nvcb.nvb, v);
+        }
+    }
 
-                if (vf != null) {
-                    //If an array object has a value filter, the value filter will be applied
-                    //to the contained object not to the array.
-                    if (nvcb.nvc.isArray() && v instanceof List) {
-                        List<Object> list = (List<Object>) v;
+    @SuppressWarnings("unchecked")
+    private <V> void setValue(NVConfig nvc, NVBase<V> nvb, V v) {
+        //NVConfig nvc = config.lookup(name);
+        if (config.isAttributesValidationRequired() && v == null && nvc.isMandatory()) {
+            throw new NullPointerException("attibute " + nvc + " is a required value can't be null");
+        }
 
-                        for (int i = 0; i < list.size(); i++) {
-                            Object value = list.get(i);
-                            if (value instanceof NVPair) {
-                                ((NVPair) value).setValue((String) vf.validate(((NVPair) value).getValue()));
-                            } else {
-                                value = vf.validate(value);
-                            }
+        ValueFilter<Object, Object> vf = (ValueFilter<Object, Object>) nvc.getValueFilter();
 
-                            list.set(i, value);
-                        }
+        if (vf != null) {
+            //If an array object has a value filter, the value filter will be applied
+            //to the contained object not to the array.
+            if (nvc.isArray() && v instanceof List) {
+                List<Object> list = (List<Object>) v;
 
+                for (int i = 0; i < list.size(); i++) {
+                    Object value = list.get(i);
+                    if (value instanceof NVPair) {
+                        ((NVPair) value).setValue((String) vf.validate(((NVPair) value).getValue()));
                     } else {
-                        if (nvcb.nvc.isMandatory() || v != null)
-                            v = (V) vf.validate(v);
-
+                        value = vf.validate(value);
                     }
 
+                    list.set(i, value);
                 }
 
+            } else {
+                if (nvc.isMandatory() || v != null)
+                    v = (V) vf.validate(v);
 
-                nvcb.nvb.setValue(v);
             }
+
         }
+
+
+        nvb.setValue(v);
     }
 
     protected void updateAttribute(GetName getName, NVBase<?> value) {
@@ -241,7 +316,15 @@ public abstract class NVEntity
      * @param nvc
      * @param v
      */
+    @SuppressWarnings("unchecked")
     public <V> void setValue(NVConfig nvc, V v) {
+        if (slots != null) {
+            int index = table.indexOf(nvc);
+            if (index != -1 && slots[index] != null) {
+                setValue(table.getNVConfig(index), (NVBase<V>) slots[index], v);
+                return;
+            }
+        }
         setValue(nvc.getName(), v);
     }
 
@@ -256,7 +339,7 @@ public abstract class NVEntity
 
             if (config.getDisplayAttributes() == null) {
                 for (int i = 0; i < config.getAttributes().size(); i++) {
-                    NVBase<?> nvb = attributes.get(config.getAttributes().get(i).getName());
+                    NVBase<?> nvb = lookup(i);
 
                     if (nvb != null && nvb.getValue() != null) {
                         if (i > 0) {
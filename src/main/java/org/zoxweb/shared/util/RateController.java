@@ -2,14 +2,29 @@ package org.zoxweb.shared.util;
 
 
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call rate controller shared by the callers of a rate limited resource.
+ * <p>
+ * The {@link RCType#TIME} and {@link RCType#COUNTER} types space the calls by a fixed delay
+ * under the instance monitor. The {@link RCType#TOKEN_BUCKET} type is a lock-free generic cell
+ * rate algorithm: a single theoretical arrival time advanced by compare and set, it allows
+ * {@link #setBurst(int) burst} calls back to back then refills at the rate, and supports batches
+ * with {@link #tryAcquire(int)} and {@link #nextWait(int)}.
+ * </p>
+ */
 public class RateController
         implements GetName, WaitTime<RateController> {
 
 
     public enum RCType {
         TIME,
-        COUNTER
+        COUNTER,
+        /**
+         * Lock-free token bucket implemented as GCRA, with burst support
+         */
+        TOKEN_BUCKET
     }
 
     private float rate;
@@ -19,7 +34,12 @@ public class RateController
     private long nextTime;
     private long callCounts;
 
-    private RCType type = RCType.TIME;
+    private volatile RCType type = RCType.TIME;
+    // token bucket state: emission interval, burst and theoretical arrival time in nanos
+    private volatile long intervalNanos;
+    private volatile int burst = 1;
+    private final AtomicLong tat = new AtomicLong(System.nanoTime());
+    private final AtomicLong tokenCalls = new AtomicLong();
     private int counter = 0;
     private long counterEndTime = 0;
     private long counterStartTime = 0;
@@ -59,12 +79,32 @@ public class RateController
         return type;
     }
 
-    public RateController setRCType(RCType type) {
+    public synchronized RateController setRCType(RCType type) {
         SUS.checkIfNulls("Null type", type);
         this.type = type;
+        tat.set(System.nanoTime());
         return this;
     }
 
+    /**
+     * @return the number of calls allowed back to back in {@link RCType#TOKEN_BUCKET} mode
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Set the token bucket capacity.
+     *
+     * @param burst the number of calls allowed back to back in {@link RCType#TOKEN_BUCKET} mode, at least 1
+     * @return this
+     */
+    public RateController setBurst(int burst) {
+        if (burst < 1)
+            throw new IllegalArgumentException("Invalid burst " + burst);
+        this.burst = burst;
+        return this;
+    }
     public String getName() {
         return namedDescription.getName();
     }
@@ -90,6 +130,8 @@ public class RateController
     }
 
     public long getNextTime() {
+        if (type == RCType.TOKEN_BUCKET)
+            return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(tat.get() - System.nanoTime());
         return nextTime;
     }
 
@@ -103,7 +145,7 @@ public class RateController
     }
 
     public long getCallCounts() {
-        return callCounts;
+        return callCounts + tokenCalls.get();
     }
 
 
@@ -116,8 +158,15 @@ public class RateController
      * that the delay has already elapsed
      */
     @Override
-    public synchronized long getDelay(TimeUnit unit) {
-        return unit.convert(nextTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    public long getDelay(TimeUnit unit) {
+        if (type == RCType.TOKEN_BUCKET) {
+            // time until the next single call conforms
+            long interval = intervalNanos;
+            return unit.convert(tat.get() + interval - burst * interval - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        synchronized (this) {
+            return unit.convert(nextTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
     }
 
 
@@ -125,7 +174,98 @@ public class RateController
      *
      * @return the next delay based on the set rate
      */
-    public synchronized long nextWait() {
+    public long nextWait() {
+        if (type == RCType.TOKEN_BUCKET)
+            return nextWait(1);
+        return timedWait();
+    }
+
+    /**
+     * Reserve permits and return the delay the caller has to wait before using them, the
+     * reservation is always granted.
+     *
+     * @param permits the number of calls
+     * @return the delay in millis, 0 if the calls can proceed now
+     */
+    public long nextWait(int permits) {
+        if (type != RCType.TOKEN_BUCKET) {
+            long delay = 0;
+            for (int i = 0; i < permits; i++)
+                delay = timedWait();
+            return delay;
+        }
+        long interval = checkInterval(permits);
+        for (; ; ) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long next = Math.max(current, now) + permits * interval;
+            if (tat.compareAndSet(current, next)) {
+                tokenCalls.addAndGet(permits);
+                long delay = next - now - burst * interval;
+                return delay > 0 ? TimeUnit.NANOSECONDS.toMillis(delay + 999_999) : 0;
+            }
+        }
+    }
+
+    /**
+     * Acquire permits without waiting.
+     *
+     * @param permits the number of calls
+     * @return true if the permits were acquired, false if they would exceed the rate and the burst
+     */
+    public boolean tryAcquire(int permits) {
+        if (type != RCType.TOKEN_BUCKET) {
+            synchronized (this) {
+                // TIME: the next call must not wait, COUNTER: the current window must not be exceeded
+                if (type == RCType.TIME ? nextTime + deltaInMillis > System.currentTimeMillis() : isPastThreshold(false))
+                    return false;
+                nextWait(permits);
+                return true;
+            }
+        }
+        long interval = checkInterval(permits);
+        for (; ; ) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long next = Math.max(current, now) + permits * interval;
+            if (next - now > burst * interval)
+                return false;
+            if (tat.compareAndSet(current, next)) {
+                tokenCalls.addAndGet(permits);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back permits acquired in {@link RCType#TOKEN_BUCKET} mode but not used, for example when
+     * a parent limiter refused the call.
+     *
+     * @param permits the number of calls
+     */
+    public void release(int permits) {
+        if (type != RCType.TOKEN_BUCKET)
+            return;
+        long interval = intervalNanos;
+        for (; ; ) {
+            long current = tat.get();
+            if (tat.compareAndSet(current, current - permits * interval)) {
+                tokenCalls.addAndGet(-permits);
+                return;
+            }
+        }
+    }
+
+    private long checkInterval(int permits) {
+        if (permits < 1)
+            throw new IllegalArgumentException("Invalid permits " + permits);
+        long interval = intervalNanos;
+        if (interval == 0)
+            throw new IllegalArgumentException("Rate is zero");
+        return interval;
+    }
+
+    private synchronized long timedWait() {
         if (rate == 0) {
             throw new IllegalArgumentException("Rate is zero");
         }
@@ -189,10 +329,19 @@ public class RateController
     }
 
 
-    public synchronized boolean isPastThreshold(boolean invokeWait) {
-        if (invokeWait)
-            nextWait();
-        return getNextTime() - System.currentTimeMillis() - (rate * deltaInMillis) > 0;
+    public boolean isPastThreshold(boolean invokeWait) {
+        if (type == RCType.TOKEN_BUCKET) {
+            // past the threshold when the next call would exceed the burst
+            if (invokeWait)
+                return !tryAcquire(1);
+            long interval = intervalNanos;
+            return interval == 0 || Math.max(tat.get(), System.nanoTime()) + interval - System.nanoTime() > burst * interval;
+        }
+        synchronized (this) {
+            if (invokeWait)
+                nextWait();
+            return getNextTime() - System.currentTimeMillis() - (rate * deltaInMillis) > 0;
+        }
     }
 
     public synchronized RateController setRate(float rate, TimeUnit unit) {
@@ -207,6 +356,7 @@ public class RateController
         tim = Const.TimeInMillis.convert(unit);
 
         deltaInMillis = 0;
+        intervalNanos = rate != 0 ? Math.max(1, (long) (TimeUnit.MILLISECONDS.toNanos(tim.MILLIS) / (double) rate)) : 0;
 
         if (rate != 0) {
             float floatDelta = (float) tim.MILLIS / rate;
@@ -256,6 +406,7 @@ public class RateController
                 ", duration=" + getDuration() +
                 ", namedDescription=" + namedDescription +
                 ", RCType=" + getRCType() +
+                ", burst=" + getBurst() +
                 ", rateUnit=" + getRateUnit() +
                 '}';
     }
@@ -0,0 +1,283 @@
+package org.zoxweb.server.api.provider.notification.smtp;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.api.*;
+import org.zoxweb.shared.util.NVGenericMap;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SMTPTransportPoolTest {
+
+    private static ServerSocket serverSocket;
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final AtomicInteger activeConnections = new AtomicInteger();
+    private static final AtomicInteger maxActiveConnections = new AtomicInteger();
+    private static final AtomicInteger auths = new AtomicInteger();
+    private static final AtomicInteger quits = new AtomicInteger();
+    private static final ConcurrentLinkedQueue<String> delivered = new ConcurrentLinkedQueue<>();
+
+    @BeforeAll
+    public static void start() throws IOException {
+        executor = new TaskProcessor(64);
+        tsp = new TaskSchedulerProcessor();
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        serverSocket.close();
+        tsp.close();
+        executor.close();
+    }
+
+    /**
+     * Minimal SMTP server, rejects the recipients starting with "bad" and drops the connection after a message
+     * with the "drop" subject.
+     */
+    private static void serve(Socket socket) {
+        maxActiveConnections.accumulateAndGet(activeConnections.incrementAndGet(), Math::max);
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+            Writer writer = new OutputStreamWriter(s.getOutputStream(), "ISO-8859-1");
+            reply(writer, "220 localhost stand-in");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO")) {
+                    reply(writer, "250-localhost\r\n250-AUTH PLAIN LOGIN\r\n250 8BITMIME");
+                } else if (command.startsWith("AUTH")) {
+                    auths.incrementAndGet();
+                    reply(writer, "235 2.7.0 Authentication successful");
+                } else if (command.startsWith("RCPT") && command.contains("<BAD")) {
+                    reply(writer, "550 5.1.1 No such user");
+                } else if (command.startsWith("DATA")) {
+                    reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+                    StringBuilder data = new StringBuilder();
+                    while (!(line = reader.readLine()).equals("."))
+                        data.append(line).append("\n");
+                    delivered.add(data.toString());
+                    reply(writer, "250 2.0.0 Ok: queued");
+                    if (data.toString().contains("Subject: drop"))
+                        return;
+                } else if (command.startsWith("QUIT")) {
+                    quits.incrementAndGet();
+                    reply(writer, "221 2.0.0 Bye");
+                    return;
+                } else {
+                    // MAIL, RCPT, RSET, NOOP
+                    reply(writer, "250 2.0.0 Ok");
+                }
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    private static void reply(Writer writer, String response) throws IOException {
+        writer.write(response + "\r\n");
+        writer.flush();
+    }
+
+    private static SMTPTransportPool pool(int maxConnections) {
+        return new SMTPTransportPool(SMTPTransportPool.createSession(
+                SMTPTransportPool.createProperties(true, "NONE", "127.0.0.1", "" + serverSocket.getLocalPort(), 5000),
+                "user", "password"), maxConnections, executor, tsp);
+    }
+
+    private static MimeMessage message(SMTPTransportPool pool, String to, String subject) throws MessagingException {
+        MimeMessage msg = new MimeMessage(pool.getSession());
+        msg.setFrom("sender@example.com");
+        msg.setRecipients(MimeMessage.RecipientType.TO, to);
+        msg.setSubject(subject);
+        msg.setText("body of " + subject);
+        return msg;
+    }
+
+    private static int delivered(String subject) {
+        int ret = 0;
+        for (String data : delivered)
+            if (data.contains("Subject: " + subject + "\n"))
+                ret++;
+        return ret;
+    }
+
+    @Test
+    public void reuseConnection() throws MessagingException {
+        try (SMTPTransportPool pool = pool(2)) {
+            int connectionsBefore = connections.get();
+            int authsBefore = auths.get();
+            for (int i = 0; i < 5; i++)
+                pool.send(message(pool, "to@example.com", "reuse-" + i));
+
+            // rejected recipient, the connection stays in the pool
+            Assertions.assertThrows(SendFailedException.class, () -> pool.send(message(pool, "bad@example.com", "rejected")));
+            pool.send(message(pool, "to@example.com", "reuse-after"));
+
+            Assertions.assertEquals(1, connections.get() - connectionsBefore);
+            Assertions.assertEquals(1, auths.get() - authsBefore);
+            for (int i = 0; i < 5; i++)
+                Assertions.assertEquals(1, delivered("reuse-" + i));
+            NVGenericMap stats = pool.toProperties(false);
+            Assertions.assertEquals(6L, (long) stats.getValue("messages_sent"));
+            Assertions.assertEquals(1L, (long) stats.getValue("messages_failed"));
+            Assertions.assertEquals(6L, (long) stats.getValue("connections_reused"));
+        }
+    }
+
+    @Test
+    public void batchBoundedConnections() throws MessagingException {
+        try (SMTPTransportPool pool = pool(3)) {
+            int connectionsBefore = connections.get();
+            maxActiveConnections.set(activeConnections.get());
+            List<MimeMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 60; i++)
+                messages.add(message(pool, i == 7 ? "bad@example.com" : "to@example.com", "batch-" + i));
+
+            MessagingException[] failures = pool.sendAll(messages);
+            for (int i = 0; i < failures.length; i++) {
+                if (i == 7)
+                    Assertions.assertInstanceOf(SendFailedException.class, failures[i]);
+                else {
+                    Assertions.assertNull(failures[i]);
+                    Assertions.assertEquals(1, delivered("batch-" + i));
+                }
+            }
+            Assertions.assertTrue(connections.get() - connectionsBefore <= 3);
+            Assertions.assertTrue(maxActiveConnections.get() <= 3);
+            Assertions.assertEquals(0, (int) pool.toProperties(false).getValue("in_use"));
+        }
+    }
+
+    @Test
+    public void batchServerDown() throws IOException, MessagingException {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            port = closed.getLocalPort();
+        }
+        try (SMTPTransportPool pool = new SMTPTransportPool(SMTPTransportPool.createSession(
+                SMTPTransportPool.createProperties(true, "NONE", "127.0.0.1", "" + port, 5000),
+                "user", "password"), 1)) {
+            List<MimeMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                messages.add(message(pool, "to@example.com", "down-" + i));
+            MessagingException[] failures = pool.sendAll(messages);
+            // one connection attempt, the remaining messages fail with its exception
+            for (MessagingException failure : failures)
+                Assertions.assertSame(failures[0], failure);
+            Assertions.assertNotNull(failures[0]);
+            Assertions.assertEquals(0, (int) pool.toProperties(false).getValue("in_use"));
+        }
+    }
+
+    @Test
+    public void closedScheduler() throws MessagingException {
+        TaskSchedulerProcessor scheduler = new TaskSchedulerProcessor();
+        scheduler.close();
+        try (SMTPTransportPool pool = new SMTPTransportPool(SMTPTransportPool.createSession(
+                SMTPTransportPool.createProperties(true, "NONE", "127.0.0.1", "" + serverSocket.getLocalPort(), 5000),
+                "user", "password"), 1, executor, scheduler).setIdleTimeout(100)) {
+            // release can't schedule the sweep but keeps the connection
+            pool.send(message(pool, "to@example.com", "closed-scheduler-1"));
+            Assertions.assertEquals(1, pool.idleCount());
+            TaskUtil.sleep(200);
+            // the expired idle connection is evicted on borrow
+            pool.send(message(pool, "to@example.com", "closed-scheduler-2"));
+            Assertions.assertEquals(1L, (long) pool.toProperties(false).getValue("connections_evicted"));
+            Assertions.assertEquals(1, delivered("closed-scheduler-2"));
+            Assertions.assertEquals(0, (int) pool.toProperties(false).getValue("in_use"));
+        }
+    }
+
+    @Test
+    public void healthCheckAndIdleEviction() throws MessagingException {
+        try (SMTPTransportPool pool = pool(1).setHealthCheckAfter(0).setIdleTimeout(300)) {
+            // the server drops the connection after this message
+            pool.send(message(pool, "to@example.com", "drop"));
+            TaskUtil.sleep(100);
+            int connectionsBefore = connections.get();
+            pool.send(message(pool, "to@example.com", "after-drop"));
+            Assertions.assertEquals(1, connections.get() - connectionsBefore);
+            Assertions.assertEquals(1, delivered("after-drop"));
+            Assertions.assertEquals(1L, (long) pool.toProperties(false).getValue("health_check_failed"));
+
+            int quitsBefore = quits.get();
+            Assertions.assertEquals(1, pool.idleCount());
+            TaskUtil.sleep(1500);
+            Assertions.assertEquals(0, pool.idleCount());
+            Assertions.assertEquals(1, quits.get() - quitsBefore);
+            Assertions.assertEquals(1L, (long) pool.toProperties(false).getValue("connections_evicted"));
+        }
+    }
+
+    @Test
+    public void providerBatch() {
+        SMTPCreator creator = new SMTPCreator();
+        APIConfigInfo configInfo = creator.createEmptyConfigInfo();
+        configInfo.getProperties().build(SMTPCreator.Param.HOST.getName(), "127.0.0.1")
+                .build(SMTPCreator.Param.PORT.getName(), "" + serverSocket.getLocalPort())
+                .build(SMTPCreator.Param.AUTHENTICATION.getName(), "NONE")
+                .build(SMTPCreator.Param.USERNAME.getName(), "user")
+                .build(SMTPCreator.Param.PASSWORD.getName(), "password");
+        SMTPProvider provider = (SMTPProvider) creator.createAPI(null, configInfo);
+        provider.setMaxConnections(2);
+        provider.setTaskExecutors(executor, tsp);
+        try {
+            int authsBefore = auths.get();
+            List<APINotificationMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                APINotificationMessageDAO message = new APINotificationMessageDAO();
+                message.setMessageType(APIServiceType.EMAIL_NOTIFICATION);
+                message.setSenderID("sender@example.com");
+                message.setRecipientIDs("to@example.com");
+                message.setTitle("provider-" + i);
+                message.setBodyTemplate("notification " + i);
+                messages.add(message);
+            }
+            provider.sendAPIMessages(messages, APINotificationDelivery.NOW);
+            provider.sendAPIMessage(messages.get(0), APINotificationDelivery.NOW);
+            Assertions.assertTrue(provider.isProviderActive());
+
+            for (int i = 0; i < 10; i++)
+                Assertions.assertEquals(i == 0 ? 2 : 1, delivered("provider-" + i));
+            Assertions.assertTrue(auths.get() - authsBefore <= 2);
+        } finally {
+            provider.close();
+        }
+        Assertions.assertFalse(provider.isProviderActive());
+    }
+}
@@ -0,0 +1,267 @@
+package org.zoxweb.server.http;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.http.HTTPAPIResult;
+import org.zoxweb.shared.http.HTTPMessageConfig;
+import org.zoxweb.shared.http.HTTPMessageConfigInterface;
+import org.zoxweb.shared.http.HTTPMethod;
+import org.zoxweb.shared.http.HTTPResponseData;
+import org.zoxweb.shared.task.ConsumerCallback;
+import org.zoxweb.shared.util.NVGenericMap;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HTTPAPIResponseCacheTest {
+
+    private static ServerSocket serverSocket;
+    private static NIOSocket nioSocket;
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+    private static final ConcurrentHashMap<String, AtomicInteger> upstream = new ConcurrentHashMap<>();
+
+    @BeforeAll
+    public static void start() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+        nioSocket = new NIOSocket(executor, tsp);
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        nioSocket.close();
+        serverSocket.close();
+        tsp.close();
+        executor.close();
+    }
+
+    /**
+     * Keep-alive server, the path selects the caching headers.
+     */
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream is = new BufferedInputStream(s.getInputStream());
+            OutputStream os = s.getOutputStream();
+            for (; ; ) {
+                StringBuilder sb = new StringBuilder();
+                int b;
+                while (!sb.toString().endsWith("\r\n\r\n")) {
+                    if ((b = is.read()) == -1)
+                        return;
+                    sb.append((char) b);
+                }
+                String request = sb.toString();
+                String path = request.substring(0, request.indexOf("\r\n")).split(" ")[1];
+                upstream.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+
+                String headers;
+                if (path.startsWith("/etag")) {
+                    if (request.toLowerCase().contains("if-none-match: \"v1\"")) {
+                        os.write(SharedStringUtil.getBytes("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n"));
+                        os.flush();
+                        continue;
+                    }
+                    headers = "ETag: \"v1\"\r\nCache-Control: no-cache\r\n";
+                } else if (path.startsWith("/fresh")) {
+                    headers = "Cache-Control: public, max-age=60\r\n";
+                } else if (path.startsWith("/nostore")) {
+                    headers = "Cache-Control: no-store, max-age=60\r\n";
+                } else {
+                    // slow upstream without caching headers
+                    TaskUtil.sleep(300);
+                    headers = "";
+                }
+                os.write(SharedStringUtil.getBytes("HTTP/1.1 200 OK\r\n" + headers + "Content-Length: " + path.length() + "\r\n\r\n" + path));
+                os.flush();
+            }
+        } catch (IOException e) {
+            // connection closed
+        }
+    }
+
+    private static int upstream(String path) {
+        AtomicInteger count = upstream.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    private static HTTPAPIEndPoint<String, String> endPoint(HTTPAPIResponseCache cache) {
+        return new HTTPAPIEndPoint<String, String>(HTTPMessageConfig.createAndInit("http://127.0.0.1:" + serverSocket.getLocalPort(), "/", HTTPMethod.GET, false))
+                .setDataEncoder((hmci, input) -> {
+                    hmci.setURI(input);
+                    return hmci;
+                })
+                .setDataDecoder(HTTPResponseData::getDataAsString)
+                .setResponseCache(cache);
+    }
+
+    @Test
+    public void cacheControlDirectives() {
+        Assertions.assertEquals("60", HTTPAPIResponseCache.directive("public, max-age=60", "max-age"));
+        Assertions.assertEquals("60", HTTPAPIResponseCache.directive("max-age=\"60\"", "MAX-AGE"));
+        Assertions.assertEquals("", HTTPAPIResponseCache.directive("no-cache, private", "no-cache"));
+        Assertions.assertNull(HTTPAPIResponseCache.directive("no-cache, private", "no-store"));
+    }
+
+    @Test
+    public void freshAndRevalidated() throws IOException {
+        HTTPAPIResponseCache cache = new HTTPAPIResponseCache(16, 1 << 20);
+        HTTPAPIEndPoint<String, String> endPoint = endPoint(cache);
+
+        HTTPAPIResult<String> first = endPoint.syncCall("/fresh");
+        HTTPAPIResult<String> second = endPoint.syncCall("/fresh");
+        Assertions.assertEquals("/fresh", second.getData());
+        // every call decodes its own result
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(first.getData(), second.getData());
+        Assertions.assertEquals(1, upstream("/fresh"));
+
+        HTTPAPIResult<String> etag = endPoint.syncCall("/etag");
+        Assertions.assertEquals(etag.getData(), endPoint.syncCall("/etag").getData());
+        Assertions.assertEquals(2, upstream("/etag"));
+
+        endPoint.syncCall("/nostore");
+        endPoint.syncCall("/nostore");
+        Assertions.assertEquals(2, upstream("/nostore"));
+
+        NVGenericMap stats = (NVGenericMap) endPoint.getProperties().get("response_cache");
+        Assertions.assertEquals(1L, (long) stats.getValue("hits"));
+        Assertions.assertEquals(1L, (long) stats.getValue("revalidated"));
+        Assertions.assertEquals(4L, (long) stats.getValue("misses"));
+        Assertions.assertEquals(2L, (long) stats.getValue("stored"));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void coalescedOnPool() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket);
+        try {
+            HTTPAPIResponseCache cache = new HTTPAPIResponseCache(16, 1 << 20);
+            HTTPAPIEndPoint<String, String> endPoint = endPoint(cache).setClientPool(pool);
+            List<CompletableFuture<HTTPAPIResult<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                CompletableFuture<HTTPAPIResult<String>> result = new CompletableFuture<>();
+                results.add(result);
+                endPoint.asyncCall(new HTTPCallback<String, String>("/slow") {
+                    @Override
+                    public void accept(HTTPAPIResult<String> r) {
+                        result.complete(r);
+                    }
+
+                    @Override
+                    public void exception(Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+            for (CompletableFuture<HTTPAPIResult<String>> result : results) {
+                Assertions.assertEquals("/slow", result.get(10, TimeUnit.SECONDS).getData());
+                if (result != results.get(0))
+                    Assertions.assertNotSame(results.get(0).get(), result.get());
+            }
+            Assertions.assertEquals(1, upstream("/slow"));
+            Assertions.assertEquals(9L, (long) cache.getStats().getValue("coalesced"));
+            // the success is counted once the callback returned
+            for (int i = 0; i < 100 && endPoint.successCount() < 10; i++)
+                TaskUtil.sleep(10);
+            Assertions.assertEquals(10, endPoint.successCount());
+            // no validator and no max-age, not stored
+            Assertions.assertEquals(0, cache.size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void callerRequestUnchanged() {
+        HTTPAPIResponseCache cache = new HTTPAPIResponseCache(16, 1 << 20);
+        HTTPAPIResponseCache.Transport transport = (hmci, cc) -> cc.accept(OkHTTPCall.send(hmci));
+        List<HTTPAPIResult<?>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            HTTPMessageConfigInterface hmci = HTTPMessageConfig.createAndInit("http://127.0.0.1:" + serverSocket.getLocalPort(), "/etag/unchanged", HTTPMethod.GET, false);
+            hmci.setHTTPErrorAsException(true);
+            cache.call(hmci, transport, hrd -> new HTTPAPIResult<>(hrd.getStatus(), hrd.getHeaders(), hrd.getDataAsString(), hrd.getDuration()),
+                    new ConsumerCallback<HTTPAPIResult<?>>() {
+                        @Override
+                        public void accept(HTTPAPIResult<?> result) {
+                            results.add(result);
+                        }
+
+                        @Override
+                        public void exception(Throwable e) {
+                            Assertions.fail(e);
+                        }
+                    });
+            // the revalidation headers and the error handling are set on a copy
+            Assertions.assertNull(hmci.getHeaders().getValue("If-None-Match"));
+            Assertions.assertTrue(hmci.isHTTPErrorAsException());
+        }
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertEquals(1L, (long) cache.getStats().getValue("revalidated"));
+    }
+
+    @Test
+    public void endPointsWithDifferentDecoders() throws IOException {
+        HTTPAPIResponseCache cache = new HTTPAPIResponseCache(16, 1 << 20);
+        HTTPAPIEndPoint<String, String> asString = endPoint(cache);
+        HTTPAPIEndPoint<String, Integer> asLength = new HTTPAPIEndPoint<String, Integer>(HTTPMessageConfig.createAndInit("http://127.0.0.1:" + serverSocket.getLocalPort(), "/", HTTPMethod.GET, false))
+                .setDataEncoder((hmci, input) -> {
+                    hmci.setURI(input);
+                    return hmci;
+                })
+                .setDataDecoder(hrd -> hrd.getData().length)
+                .setResponseCache(cache);
+
+        Assertions.assertEquals("/fresh/decoders", asString.syncCall("/fresh/decoders").getData());
+        Assertions.assertEquals("/fresh/decoders".length(), (int) asLength.syncCall("/fresh/decoders").getData());
+        Assertions.assertEquals(1, upstream("/fresh/decoders"));
+        Assertions.assertEquals(1L, (long) cache.getStats().getValue("hits"));
+    }
+
+    @Test
+    public void eviction() throws IOException {
+        HTTPAPIResponseCache cache = new HTTPAPIResponseCache(2, 1 << 20);
+        HTTPAPIEndPoint<String, String> endPoint = endPoint(cache);
+        for (int i = 0; i < 3; i++)
+            endPoint.syncCall("/fresh/" + i);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1L, (long) cache.getStats().getValue("evicted"));
+        endPoint.syncCall("/fresh/2");
+        Assertions.assertEquals(1, upstream("/fresh/2"));
+        endPoint.syncCall("/fresh/0");
+        Assertions.assertEquals(2, upstream("/fresh/0"));
+    }
+}
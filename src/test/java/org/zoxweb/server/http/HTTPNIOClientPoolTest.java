@@ -0,0 +1,313 @@
+package org.zoxweb.server.http;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.http.*;
+import org.zoxweb.shared.task.ConsumerCallback;
+import org.zoxweb.shared.util.NVGenericMap;
+import org.zoxweb.shared.util.ProtocolException;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HTTPNIOClientPoolTest {
+
+    private static ServerSocket serverSocket;
+    private static final AtomicInteger accepted = new AtomicInteger();
+    private static final AtomicInteger dropped = new AtomicInteger();
+    private static NIOSocket nioSocket;
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    accepted.incrementAndGet();
+                    Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+        nioSocket = new NIOSocket(executor, tsp);
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        nioSocket.close();
+        serverSocket.close();
+        tsp.close();
+        executor.close();
+    }
+
+    /**
+     * Minimal keep-alive server, the path selects how the response is framed.
+     */
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream is = new BufferedInputStream(s.getInputStream());
+            OutputStream os = s.getOutputStream();
+            for (; ; ) {
+                StringBuilder sb = new StringBuilder();
+                int b;
+                while (!sb.toString().endsWith("\r\n\r\n")) {
+                    if ((b = is.read()) == -1)
+                        return;
+                    sb.append((char) b);
+                }
+                String[] lines = sb.toString().split("\r\n");
+                String path = lines[0].split(" ")[1];
+                int contentLength = 0;
+                for (String line : lines)
+                    if (line.toLowerCase().startsWith("content-length:"))
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                byte[] content = new byte[contentLength];
+                for (int i = 0; i < contentLength; i++)
+                    content[i] = (byte) is.read();
+
+                if (path.startsWith("/drop") && dropped.getAndIncrement() == 0) {
+                    // request lost with the connection
+                    return;
+                } else if (path.startsWith("/chunked")) {
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                            "5;ext=1\r\nhello\r\n8\r\n chunked\r\n0\r\nX-Trailer: t\r\n\r\n"));
+                } else if (path.startsWith("/close")) {
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nbye"));
+                    os.flush();
+                    return;
+                } else if (path.startsWith("/echo")) {
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 200 OK\r\nContent-Length: " + content.length + "\r\n\r\n"));
+                    os.write(content);
+                } else if (path.startsWith("/missing")) {
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 404 Not Found\r\nContent-Length: 7\r\n\r\nmissing"));
+                } else {
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: " + path.length() + "\r\n\r\n" + path));
+                    if (path.startsWith("/stale")) {
+                        // keep-alive connection dropped by the server after the response
+                        os.flush();
+                        return;
+                    }
+                }
+                os.flush();
+            }
+        } catch (IOException e) {
+            // connection closed
+        }
+    }
+
+    private static String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    private static CompletableFuture<HTTPResponseData> send(HTTPNIOClientPool pool, HTTPMessageConfigInterface hmci) throws IOException {
+        CompletableFuture<HTTPResponseData> ret = new CompletableFuture<>();
+        pool.send(hmci, new ConsumerCallback<HTTPResponse>() {
+            @Override
+            public void accept(HTTPResponse response) {
+                ret.complete((HTTPResponseData) response);
+            }
+
+            @Override
+            public void exception(Throwable e) {
+                ret.completeExceptionally(e);
+            }
+        });
+        return ret;
+    }
+
+    private static HTTPResponseData get(HTTPNIOClientPool pool, String path) throws Exception {
+        return send(pool, HTTPMessageConfig.buildHMCI(url(path), HTTPMethod.GET, false)).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void keepAliveReuse() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(1);
+        try {
+            int before = accepted.get();
+            for (int i = 0; i < 5; i++) {
+                HTTPResponseData hrd = get(pool, "/reuse/" + i);
+                Assertions.assertEquals(200, hrd.getStatus());
+                Assertions.assertEquals("/reuse/" + i, hrd.getDataAsString());
+            }
+            HTTPResponseData chunked = get(pool, "/chunked");
+            Assertions.assertEquals("hello chunked", chunked.getDataAsString());
+
+            HTTPMessageConfigInterface post = HTTPMessageConfig.buildHMCI(url("/echo"), HTTPMethod.POST, false);
+            post.setContent("posted content");
+            Assertions.assertEquals("posted content", send(pool, post).get(10, TimeUnit.SECONDS).getDataAsString());
+
+            Assertions.assertEquals(1, accepted.get() - before);
+            NVGenericMap stats = pool.toProperties(false);
+            Assertions.assertEquals(1L, (long) stats.getValue("connections_created"));
+            Assertions.assertEquals(6L, (long) stats.getValue("connections_reused"));
+
+            // error status reported as exception when requested
+            HTTPMessageConfigInterface missing = HTTPMessageConfig.buildHMCI(url("/missing"), HTTPMethod.GET, false);
+            missing.setHTTPErrorAsException(true);
+            CompletableFuture<HTTPResponseData> error = send(pool, missing);
+            Exception e = Assertions.assertThrows(Exception.class, () -> error.get(10, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(HTTPCallException.class, e.getCause());
+            missing = HTTPMessageConfig.buildHMCI(url("/missing"), HTTPMethod.GET, false);
+            missing.setHTTPErrorAsException(false);
+            Assertions.assertEquals(404, send(pool, missing).get(10, TimeUnit.SECONDS).getStatus());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void pipelining() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(1).setMaxPipelineDepth(4);
+        try {
+            int before = accepted.get();
+            Assertions.assertEquals("/first", get(pool, "/first").getDataAsString());
+            List<CompletableFuture<HTTPResponseData>> responses = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                responses.add(send(pool, HTTPMessageConfig.buildHMCI(url("/pipe/" + i), HTTPMethod.GET, false)));
+            for (int i = 0; i < responses.size(); i++)
+                Assertions.assertEquals("/pipe/" + i, responses.get(i).get(10, TimeUnit.SECONDS).getDataAsString());
+            Assertions.assertEquals(1, accepted.get() - before);
+            Assertions.assertTrue((long) pool.toProperties(false).getValue("pipelined") > 0);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void connectionCloseAndRetry() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(2);
+        try {
+            // response delimited by the connection close
+            Assertions.assertEquals("bye", get(pool, "/close").getDataAsString());
+
+            // the server drops the idle connection, the next request opens a new one
+            Assertions.assertEquals("/stale", get(pool, "/stale").getDataAsString());
+            TaskUtil.sleep(100);
+            for (int i = 0; i < 3; i++)
+                Assertions.assertEquals("/after/" + i, get(pool, "/after/" + i).getDataAsString());
+
+            // connection closed before the response, the idempotent request is retried once
+            Assertions.assertEquals("/drop", get(pool, "/drop").getDataAsString());
+            Assertions.assertEquals(1L, (long) pool.toProperties(false).getValue("retries"));
+
+            // not retried for a non idempotent request
+            dropped.set(0);
+            HTTPMessageConfigInterface post = HTTPMessageConfig.buildHMCI(url("/drop"), HTTPMethod.POST, false);
+            post.setContent("lost");
+            CompletableFuture<HTTPResponseData> lost = send(pool, post);
+            Assertions.assertThrows(Exception.class, () -> lost.get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+        Assertions.assertThrows(IOException.class, () -> get(pool, "/closed"));
+    }
+
+    @Test
+    public void callerRequestAndBodyLimit() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(1);
+        try {
+            HTTPMessageConfigInterface post = HTTPMessageConfig.buildHMCI(url("/echo"), HTTPMethod.POST, false);
+            post.setContent("posted content");
+            int headers = post.getHeaders().size();
+            for (int i = 0; i < 2; i++)
+                Assertions.assertEquals("posted content", send(pool, post).get(10, TimeUnit.SECONDS).getDataAsString());
+            // the host header is set on a copy
+            Assertions.assertNull(post.getHeaders().get(HTTPHeader.HOST));
+            Assertions.assertEquals(headers, post.getHeaders().size());
+
+            pool.setMaxBodySize(2);
+            Assertions.assertEquals(2, pool.getMaxBodySize());
+            CompletableFuture<HTTPResponseData> sized = send(pool, HTTPMessageConfig.buildHMCI(url("/sized"), HTTPMethod.GET, false));
+            Exception e = Assertions.assertThrows(Exception.class, () -> sized.get(10, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(ProtocolException.class, e.getCause());
+            // body delimited by the connection close
+            CompletableFuture<HTTPResponseData> untilClose = send(pool, HTTPMessageConfig.buildHMCI(url("/close"), HTTPMethod.GET, false));
+            e = Assertions.assertThrows(Exception.class, () -> untilClose.get(10, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(ProtocolException.class, e.getCause());
+            Assertions.assertThrows(IllegalArgumentException.class, () -> pool.setMaxBodySize(0));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void apiEndPointAsync() throws Exception {
+        HTTPNIOClientPool pool = new HTTPNIOClientPool(nioSocket).setMaxConnectionsPerHost(2);
+        AtomicInteger dispatched = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        try {
+            HTTPAPIEndPoint<String, String> endPoint = new HTTPAPIEndPoint<String, String>(HTTPMessageConfig.createAndInit(url(""), "/api", HTTPMethod.GET, false))
+                    .setDataEncoder((hmci, input) -> {
+                        hmci.setURI("/api/" + input);
+                        return hmci;
+                    })
+                    .setDataDecoder(HTTPResponseData::getDataAsString)
+                    .setClientPool(pool)
+                    .setExecutor(r -> {
+                        dispatched.incrementAndGet();
+                        executor.execute(r);
+                    });
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                CompletableFuture<String> result = new CompletableFuture<>();
+                results.add(result);
+                endPoint.asyncCall(new HTTPCallback<String, String>("call" + i) {
+                    @Override
+                    public String get() {
+                        // the request is built off the caller thread
+                        if (Thread.currentThread() == caller)
+                            throw new IllegalStateException("built on the caller thread");
+                        return super.get();
+                    }
+
+                    @Override
+                    public void accept(HTTPAPIResult<String> r) {
+                        result.complete(r.getData());
+                    }
+
+                    @Override
+                    public void exception(Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+            for (int i = 0; i < results.size(); i++)
+                Assertions.assertEquals("/api/call" + i, results.get(i).get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(10, dispatched.get());
+            // the success is counted once the callback returned
+            for (int i = 0; i < 100 && endPoint.successCount() < 10; i++)
+                TaskUtil.sleep(10);
+            Assertions.assertEquals(10, endPoint.successCount());
+            Assertions.assertTrue((long) pool.toProperties(false).getValue("connections_created") <= 2);
+        } finally {
+            pool.close();
+        }
+    }
+}
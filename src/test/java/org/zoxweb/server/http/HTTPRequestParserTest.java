@@ -0,0 +1,184 @@
+package org.zoxweb.server.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.io.IOUtil;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.shared.http.HTTPMessageConfigInterface;
+import org.zoxweb.shared.http.HTTPMethod;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HTTPRequestParserTest {
+
+    private static final String PIPELINED = "GET /api/v1/resource?id=1234&name=value HTTP/1.1\r\n" +
+            "Host: api.xlogistx.io\r\n" +
+            "Accept:   application/json  \r\n" +
+            "\r\n" +
+            "POST /echo HTTP/1.1\r\n" +
+            "Host: api.xlogistx.io\r\n" +
+            "content-length: 11\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            "hello world" +
+            "POST /chunked HTTP/1.1\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "Content-Type: application/json\r\n" +
+            "\r\n" +
+            "5\r\n{\"a\":\r\n" +
+            "3;ext=1\r\n12}\r\n" +
+            "0\r\n" +
+            "X-Trailer: ignored\r\n" +
+            "\r\n" +
+            "GET /close HTTP/1.0\r\n" +
+            "\r\n";
+
+    private static List<String> parse(HTTPRequestParser parser, byte[] data, int readSize) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < data.length; i += readSize) {
+            parser.feed(ByteBuffer.wrap(data, i, Math.min(readSize, data.length - i)));
+            HTTPRequestParser.Request r;
+            while ((r = parser.poll()) != null)
+                ret.add(r.getMethod() + " " + r.getURI() + " " + r.headerCount() + " " + r.isKeepAlive() + " " +
+                        SharedStringUtil.toString(r.copyBody()));
+        }
+        return ret;
+    }
+
+    @Test
+    public void pipelined() {
+        byte[] data = SharedStringUtil.getBytes(PIPELINED);
+        for (int readSize : new int[]{1, 2, 7, 64, data.length}) {
+            HTTPRequestParser parser = new HTTPRequestParser();
+            List<String> requests = parse(parser, data, readSize);
+            Assertions.assertEquals(4, requests.size(), "read size " + readSize);
+            Assertions.assertEquals("GET /api/v1/resource?id=1234&name=value 2 true ", requests.get(0));
+            Assertions.assertEquals("POST /echo 3 true hello world", requests.get(1));
+            Assertions.assertEquals("POST /chunked 2 true {\"a\":12}", requests.get(2));
+            Assertions.assertEquals("GET /close 0 false ", requests.get(3));
+            Assertions.assertFalse(parser.isPending());
+            Assertions.assertEquals(4L, (Long) parser.getProperties().getValue("requests"));
+        }
+    }
+
+    @Test
+    public void lazyHeaders() {
+        HTTPRequestParser parser = new HTTPRequestParser();
+        Assertions.assertEquals(4, parser.feed(ByteBuffer.wrap(SharedStringUtil.getBytes(PIPELINED))));
+        HTTPRequestParser.Request r = parser.poll();
+        Assertions.assertEquals(HTTPMethod.GET, r.getMethod());
+        Assertions.assertEquals("HTTP/1.1", r.getVersion());
+        Assertions.assertEquals("application/json", r.getHeaderValue("accept"));
+        Assertions.assertEquals(1, r.headerIndex("ACCEPT"));
+        Assertions.assertEquals(-1, r.headerIndex("Accept-Encoding"));
+
+        HTTPRawMessage hrm = r.toHTTPRawMessage();
+        Assertions.assertEquals("1234", hrm.getHTTPMessageConfig().getParameters().getValue("id"));
+
+        r = parser.poll();
+        Assertions.assertEquals(11, r.getContentLength());
+        hrm = r.toHTTPRawMessage();
+        Assertions.assertTrue(hrm.isMessageComplete());
+        Assertions.assertEquals("hello world", SharedStringUtil.toString(hrm.getHTTPMessageConfig().getContent()));
+
+        r = parser.poll();
+        Assertions.assertTrue(r.isChunked());
+        Assertions.assertEquals(8, r.getBodyLength());
+        Assertions.assertEquals(1, parser.available());
+    }
+
+    @Test
+    public void chunkedMultipart() throws Exception {
+        UByteArrayOutputStream data = IOUtil.inputStreamToByteArray(IOUtil.locateFile("chunked_multipart_test_request.bin"), true);
+        for (int readSize : new int[]{1, 3, 15, 1024}) {
+            HTTPRequestParser parser = new HTTPRequestParser();
+            HTTPRequestParser.Request r = null;
+            for (int i = 0; i < data.size() && r == null; i += readSize) {
+                parser.feed(data.getInternalBuffer(), i, Math.min(readSize, data.size() - i));
+                r = parser.poll();
+            }
+            Assertions.assertNotNull(r, "read size " + readSize);
+            Assertions.assertTrue(r.isChunked());
+            HTTPRawMessage hrm = r.toHTTPRawMessage();
+            HTTPMessageConfigInterface hmci = hrm.getHTTPMessageConfig();
+            // the streaming multipart decoder stores the parts as attachments
+            Assertions.assertEquals("value1", hmci.attachment().getValue("param1"));
+            Assertions.assertNotNull(hmci.attachment().getNV("file1"));
+            Assertions.assertNotNull(hmci.attachment().getNV("file2"));
+        }
+    }
+
+    @Test
+    public void streamedBody() {
+        byte[] data = SharedStringUtil.getBytes(PIPELINED);
+        for (int readSize : new int[]{1, 2, 7, 64, data.length}) {
+            // the buffered body limit does not apply to the streamed bodies
+            HTTPRequestParser parser = new HTTPRequestParser(1024, 0, true);
+            List<String> requests = new ArrayList<>();
+            StringBuilder body = null;
+            String line = null;
+            for (int i = 0; i < data.length; i += readSize) {
+                parser.feed(ByteBuffer.wrap(data, i, Math.min(readSize, data.length - i)));
+                HTTPRequestParser.Request r;
+                do {
+                    ByteBuffer bb;
+                    while ((bb = parser.pollBody()) != null) {
+                        byte[] b = new byte[bb.remaining()];
+                        bb.get(b);
+                        body.append(SharedStringUtil.toString(b));
+                    }
+                    if (body != null && !parser.isBodyStreaming()) {
+                        requests.add(line + body);
+                        body = null;
+                    }
+                    r = parser.poll();
+                    if (r != null) {
+                        line = r.getMethod() + " " + r.getURI() + " " + r.headerCount() + " " + r.isKeepAlive() + " ";
+                        if (r.isStreamed())
+                            body = new StringBuilder();
+                        else
+                            requests.add(line + SharedStringUtil.toString(r.copyBody()));
+                    }
+                } while (r != null);
+            }
+            Assertions.assertEquals(4, requests.size(), "read size " + readSize);
+            Assertions.assertEquals("GET /api/v1/resource?id=1234&name=value 2 true ", requests.get(0));
+            Assertions.assertEquals("POST /echo 3 true hello world", requests.get(1));
+            Assertions.assertEquals("POST /chunked 2 true {\"a\":12}", requests.get(2));
+            Assertions.assertEquals("GET /close 0 false ", requests.get(3));
+            Assertions.assertFalse(parser.isPending());
+            Assertions.assertFalse(parser.isBodyStreaming());
+        }
+
+        // the drained body bytes are released, the buffer does not grow with the body
+        HTTPRequestParser parser = new HTTPRequestParser(1024, 0, true);
+        parser.feed(ByteBuffer.wrap(SharedStringUtil.getBytes("PUT /big HTTP/1.1\r\nContent-Length: 1048576\r\n\r\n")));
+        Assertions.assertTrue(parser.poll().isStreamed());
+        byte[] chunk = new byte[4096];
+        long total = 0;
+        for (int i = 0; i < 256; i++) {
+            parser.feed(ByteBuffer.wrap(chunk));
+            total += parser.pollBody().remaining();
+        }
+        Assertions.assertEquals(1048576L, total);
+        Assertions.assertNull(parser.pollBody());
+        Assertions.assertFalse(parser.isBodyStreaming());
+        Assertions.assertTrue((Long) parser.getProperties().getValue("buffer_size") <= 8192);
+    }
+
+    @Test
+    public void malformed() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HTTPRequestParser().feed(ByteBuffer.wrap(SharedStringUtil.getBytes("BREW /pot HTTP/1.1\r\n\r\n"))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HTTPRequestParser().feed(ByteBuffer.wrap(SharedStringUtil.getBytes("POST / HTTP/1.1\r\nContent-Length: x\r\n\r\n"))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HTTPRequestParser().feed(ByteBuffer.wrap(SharedStringUtil.getBytes("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n"))));
+        HTTPRequestParser small = new HTTPRequestParser(128, 1024);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            small.feed(ByteBuffer.wrap(SharedStringUtil.getBytes("GET / HTTP/1.1\r\n")));
+            for (int i = 0; i < 20; i++)
+                small.feed(ByteBuffer.wrap(SharedStringUtil.getBytes("X-Header: 0123456789\r\n")));
+        });
+    }
+}
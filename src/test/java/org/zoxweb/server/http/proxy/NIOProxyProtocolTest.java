@@ -0,0 +1,141 @@
+package org.zoxweb.server.http.proxy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.http.HTTPRequestParser;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+
+public class NIOProxyProtocolTest {
+
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+    private static NIOSocket nioSocket;
+    private static ServerSocket serverSocket;
+    private static int proxyPort;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+        nioSocket = new NIOSocket(executor, tsp);
+        SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, new NIOProxyProtocol.NIOProxyProtocolFactory());
+        proxyPort = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        nioSocket.close();
+        serverSocket.close();
+        tsp.close();
+        executor.close();
+    }
+
+    /**
+     * Keep-alive origin server, replies with the request line, the body length and the body checksum.
+     */
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            HTTPRequestParser parser = new HTTPRequestParser();
+            InputStream is = s.getInputStream();
+            OutputStream os = s.getOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                parser.feed(buffer, 0, read);
+                HTTPRequestParser.Request r;
+                while ((r = parser.poll()) != null) {
+                    byte[] body = r.copyBody();
+                    String content = r.getMethod() + " " + r.getURI() + " " + body.length + " " + Arrays.hashCode(body) +
+                            " " + r.getHeaderValue("Proxy-Connection");
+                    os.write(SharedStringUtil.getBytes("HTTP/1.1 200 OK\r\nContent-Length: " + content.length() + "\r\n\r\n" + content));
+                }
+                os.flush();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    private static String readResponse(DataInputStream is) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n"))
+            headers.append((char) is.readUnsignedByte());
+        Assertions.assertTrue(headers.toString().startsWith("HTTP/1.1 200"), headers.toString());
+        String length = headers.substring(headers.indexOf("Content-Length: ") + 16);
+        byte[] content = new byte[Integer.parseInt(length.substring(0, length.indexOf("\r\n")))];
+        is.readFully(content);
+        return SharedStringUtil.toString(content);
+    }
+
+    @Test
+    public void pipelinedRequests() throws IOException {
+        String origin = "http://127.0.0.1:" + serverSocket.getLocalPort();
+        byte[] big = new byte[256 * 1024];
+        for (int i = 0; i < big.length; i++)
+            big[i] = (byte) i;
+        try (Socket client = new Socket("127.0.0.1", proxyPort)) {
+            client.setSoTimeout(5000);
+            OutputStream os = client.getOutputStream();
+            DataInputStream is = new DataInputStream(client.getInputStream());
+
+            // pipelined in one write
+            os.write(SharedStringUtil.getBytes("GET " + origin + "/first HTTP/1.1\r\nHost: 127.0.0.1\r\nProxy-Connection: keep-alive\r\n\r\n" +
+                    "POST " + origin + "/second HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 5\r\n\r\nhello" +
+                    "POST " + origin + "/chunked HTTP/1.1\r\nHost: 127.0.0.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n"));
+            os.flush();
+            Assertions.assertEquals("GET /first 0 1 null", readResponse(is));
+            Assertions.assertEquals("POST /second 5 " + Arrays.hashCode(SharedStringUtil.getBytes("hello")) + " null", readResponse(is));
+            Assertions.assertEquals("POST /chunked 5 " + Arrays.hashCode(SharedStringUtil.getBytes("hello")) + " null", readResponse(is));
+
+            // a body bigger than the reads is streamed
+            os.write(SharedStringUtil.getBytes("PUT " + origin + "/big HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: " + big.length + "\r\n\r\n"));
+            for (int i = 0; i < big.length; i += 10000) {
+                os.write(big, i, Math.min(10000, big.length - i));
+                os.flush();
+            }
+            Assertions.assertEquals("PUT /big " + big.length + " " + Arrays.hashCode(big) + " null", readResponse(is));
+
+            // chunked body streamed in pieces
+            os.write(SharedStringUtil.getBytes("POST " + origin + "/big-chunked HTTP/1.1\r\nHost: 127.0.0.1\r\nTransfer-Encoding: chunked\r\n\r\n"));
+            for (int i = 0; i < big.length; i += 10000) {
+                int len = Math.min(10000, big.length - i);
+                os.write(SharedStringUtil.getBytes(Integer.toHexString(len) + "\r\n"));
+                os.write(big, i, len);
+                os.write(SharedStringUtil.getBytes("\r\n"));
+                os.flush();
+            }
+            os.write(SharedStringUtil.getBytes("0\r\n\r\n"));
+            os.flush();
+            Assertions.assertEquals("POST /big-chunked " + big.length + " " + Arrays.hashCode(big) + " null", readResponse(is));
+        }
+    }
+}
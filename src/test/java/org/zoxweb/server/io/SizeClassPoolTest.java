@@ -0,0 +1,173 @@
+package org.zoxweb.server.io;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.io.SharedIOUtil;
+import org.zoxweb.shared.util.NVGenericMap;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SizeClassPoolTest {
+
+    @Test
+    public void reuseAndSeparation() {
+        ByteBuffer heap = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4);
+        ByteBuffer direct = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.DIRECT, SharedIOUtil.K_4);
+        heap.put((byte) 1);
+        ByteBufferUtil.cache(heap, direct);
+        // double recache is ignored
+        ByteBufferUtil.cache(heap);
+
+        ByteBuffer d = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.DIRECT, SharedIOUtil.K_4);
+        ByteBuffer h = ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4);
+        Assertions.assertSame(direct, d);
+        Assertions.assertSame(heap, h);
+        Assertions.assertEquals(0, h.position());
+        Assertions.assertNotSame(h, ByteBufferUtil.allocateByteBuffer(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4));
+
+        // non power of two capacities keep their exact capacity
+        ByteBuffer odd = ByteBufferUtil.allocateByteBuffer(16709);
+        ByteBufferUtil.cache(odd);
+        Assertions.assertSame(odd, ByteBufferUtil.allocateByteBuffer(16709));
+        Assertions.assertEquals(16709, ByteBufferUtil.allocateByteBuffer(16709).capacity());
+
+        Assertions.assertEquals(ByteBufferUtil.CACHE_LIMIT, ByteBufferUtil.getCacheLimit(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_4));
+        Assertions.assertEquals(ByteBufferUtil.MIN_CACHE_LIMIT, ByteBufferUtil.getCacheLimit(ByteBufferUtil.BufferType.HEAP, SharedIOUtil.K_1 * SharedIOUtil.K_1 * 4));
+
+        byte[] ba = ByteBufferUtil.allocateByteArray(100);
+        ba[0] = 5;
+        ByteBufferUtil.cache(ba);
+        byte[] ba2 = ByteBufferUtil.allocateByteArray(100);
+        Assertions.assertSame(ba, ba2);
+        Assertions.assertEquals(0, ba2[0]);
+    }
+
+    private static SizeClassPool<byte[]> byteArrayPool(int limit) {
+        return new SizeClassPool<byte[]>("test", limit) {
+            @Override
+            protected int capacityOf(byte[] ba) {
+                return ba.length;
+            }
+
+            @Override
+            protected void reset(byte[] ba) {
+            }
+        };
+    }
+
+    @Test
+    public void limitsAndSpill() {
+        SizeClassPool<byte[]> pool = byteArrayPool(8);
+
+        // magazine of 4 spilled to the shared stack, the limit counts both
+        for (int i = 0; i < 20; i++)
+            Assertions.assertEquals(i < 8, pool.offer(new byte[64]));
+        Assertions.assertEquals(8, pool.count());
+        Assertions.assertEquals(12L, (long) pool.toProperties(false).getValue("drops"));
+
+        int polled = 0;
+        while (pool.poll(64) != null)
+            polled++;
+        Assertions.assertEquals(8, polled);
+        Assertions.assertEquals(0, pool.count());
+        Assertions.assertTrue(pool.offer(new byte[64]));
+    }
+
+    @Test
+    public void crossThreadDoubleRecache() throws InterruptedException {
+        SizeClassPool<byte[]> pool = byteArrayPool(8);
+        byte[] ba = new byte[64];
+        Assertions.assertTrue(pool.offer(ba));
+        Assertions.assertFalse(pool.offer(ba));
+
+        AtomicBoolean recached = new AtomicBoolean(true);
+        Thread other = new Thread(() -> recached.set(pool.offer(ba)));
+        other.start();
+        other.join();
+        Assertions.assertFalse(recached.get());
+        Assertions.assertEquals(1, pool.count());
+
+        Assertions.assertSame(ba, pool.poll(64));
+        Assertions.assertNull(pool.poll(64));
+        // polled, it can be recached again
+        Assertions.assertTrue(pool.offer(ba));
+        Assertions.assertEquals(2L, (long) pool.toProperties(false).getValue("double_recaches"));
+    }
+
+    @Test
+    public void terminatedThreadMagazine() throws InterruptedException {
+        SizeClassPool<byte[]> pool = byteArrayPool(8);
+        // the magazine of 4 stays in the terminated thread
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 4; i++)
+                pool.offer(new byte[64]);
+        });
+        other.start();
+        other.join();
+        Assertions.assertEquals(4, pool.count());
+
+        int polled = 0;
+        while (pool.poll(64) != null)
+            polled++;
+        Assertions.assertEquals(4, polled);
+        Assertions.assertEquals(0, pool.count());
+        NVGenericMap classStats = (NVGenericMap) ((NVGenericMap) pool.toProperties(true).get("size_classes")).get("64");
+        Assertions.assertEquals(4L, (long) classStats.getValue("reclaimed"));
+        for (int i = 0; i < 8; i++)
+            Assertions.assertTrue(pool.offer(new byte[64]));
+    }
+
+    @Test
+    public void concurrentNoSharing() throws Exception {
+        SizeClassPool<ByteBuffer> pool = new SizeClassPool<ByteBuffer>("concurrent", 64) {
+            @Override
+            protected int capacityOf(ByteBuffer bb) {
+                return bb.capacity();
+            }
+
+            @Override
+            protected void reset(ByteBuffer bb) {
+                ((Buffer) bb).clear();
+            }
+        };
+
+        int threads = 8;
+        int loops = 100_000;
+        IdentityHashMap<ByteBuffer, Thread> owners = new IdentityHashMap<>();
+        AtomicBoolean shared = new AtomicBoolean(false);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                List<ByteBuffer> held = new ArrayList<>();
+                for (int i = 0; i < loops; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        ByteBuffer bb = pool.poll(SharedIOUtil.K_1);
+                        if (bb == null)
+                            bb = ByteBuffer.allocate(SharedIOUtil.K_1);
+                        synchronized (owners) {
+                            if (owners.put(bb, Thread.currentThread()) != null)
+                                shared.set(true);
+                        }
+                        held.add(bb);
+                    }
+                    for (ByteBuffer bb : held) {
+                        synchronized (owners) {
+                            owners.remove(bb);
+                        }
+                        pool.offer(bb);
+                    }
+                    held.clear();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        Assertions.assertFalse(shared.get(), "a buffer was handed to two owners");
+    }
+}
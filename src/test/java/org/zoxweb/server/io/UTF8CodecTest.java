@@ -0,0 +1,83 @@
+package org.zoxweb.server.io;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class UTF8CodecTest {
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    sb.append((char) (0x20 + random.nextInt(0x5f)));
+                    break;
+                case 1:
+                    sb.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 2:
+                    sb.append((char) (0x800 + random.nextInt(0xd000)));
+                    break;
+                case 3:
+                    sb.appendCodePoint(0x10000 + random.nextInt(0xfffff));
+                    break;
+                default:
+                    sb.append("json \"text\"");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[chunk];
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) != -1)
+            sb.append(buffer, 0, read);
+        return sb.toString();
+    }
+
+    @Test
+    public void sameBytesAsOutputStreamWriter() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            String str = randomString(random, random.nextInt(2000));
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (OutputStreamWriter osw = new OutputStreamWriter(expected, StandardCharsets.UTF_8)) {
+                osw.write(str);
+            }
+            UByteArrayOutputStream actual = new UByteArrayOutputStream();
+            UTF8Writer writer = new UTF8Writer(actual, 16);
+            // split writes across surrogate pairs
+            int split = str.length() / 2;
+            writer.write(str, 0, split);
+            writer.write(str.toCharArray(), split, str.length() - split);
+            writer.flush();
+            Assertions.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+            Assertions.assertEquals(str, readAll(new UTF8Reader(actual.toByteArray()), 1 + random.nextInt(64)));
+        }
+    }
+
+    @Test
+    public void malformed() throws IOException {
+        String unpaired = "a\uD800b\uDC00c";
+        UByteArrayOutputStream ubaos = new UByteArrayOutputStream();
+        UTF8Writer writer = new UTF8Writer(ubaos);
+        writer.write(unpaired);
+        writer.write('\uD83D');
+        writer.close();
+        Assertions.assertArrayEquals(unpaired.replace('\uD800', '?').replace('\uDC00', '?').concat("?").getBytes(StandardCharsets.UTF_8), ubaos.toByteArray());
+
+        byte[] invalid = {'a', (byte) 0xc3, 'b', (byte) 0xff, (byte) 0xe2, (byte) 0x82};
+        Assertions.assertEquals("a\uFFFDb\uFFFD\uFFFD\uFFFD", readAll(new UTF8Reader(invalid), 8));
+        Assertions.assertEquals("b", readAll(new UTF8Reader(invalid, 2, 1), 8));
+    }
+}
@@ -0,0 +1,125 @@
+package org.zoxweb.server.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.io.ByteBufferUtil;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.shared.io.SharedIOUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ChannelWriteQueueTest {
+
+    private static final int PAYLOAD = SharedIOUtil.K_1 * SharedIOUtil.K_1 * 16;
+
+    private static final CountDownLatch highLatch = new CountDownLatch(1);
+    private static final CountDownLatch lowLatch = new CountDownLatch(1);
+    private static final CountDownLatch writeLatch = new CountDownLatch(1);
+
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+
+    @BeforeAll
+    public static void start() {
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+    }
+
+    @AfterAll
+    public static void stop() {
+        tsp.close();
+        executor.close();
+    }
+
+    public static class BulkSession
+            extends BaseSessionCallback<BaseChannelOutputStream> {
+        private final UByteArrayOutputStream ubaos = new UByteArrayOutputStream();
+
+        @Override
+        public void accept(ByteBuffer byteBuffer) {
+            try {
+                ByteBufferUtil.write(byteBuffer, ubaos, true);
+                if (ubaos.byteAt(ubaos.size() - 1) == (byte) '\n') {
+                    ubaos.reset();
+                    byte[] payload = new byte[PAYLOAD];
+                    for (int i = 0; i < payload.length; i++)
+                        payload[i] = (byte) i;
+                    getOutputStream().write(payload);
+                    writeLatch.countDown();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                SharedIOUtil.close(getOutputStream());
+            }
+        }
+
+        @Override
+        public void writeHighWatermark(long pendingBytes) {
+            highLatch.countDown();
+        }
+
+        @Override
+        public void writeLowWatermark(long pendingBytes) {
+            lowLatch.countDown();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return getOutputStream() != null && getOutputStream().isClosed();
+        }
+
+        @Override
+        public void exception(Throwable e) {
+        }
+    }
+
+    @Test
+    public void slowConsumer() throws Exception {
+        NIOSocket nioSocket = new NIOSocket(executor, tsp);
+        try {
+            NIOSocketHandlerFactory factory = new NIOSocketHandlerFactory(BulkSession::new);
+            factory.setAsyncWrite(SharedIOUtil.K_8, SharedIOUtil.K_32, PAYLOAD);
+            SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, factory);
+            int port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10000);
+                OutputStream os = socket.getOutputStream();
+                os.write("go\n".getBytes());
+                os.flush();
+
+                // the peer is not reading, the writer must not stall
+                Assertions.assertTrue(highLatch.await(5, TimeUnit.SECONDS));
+                Assertions.assertTrue(writeLatch.await(5, TimeUnit.SECONDS));
+
+                InputStream is = socket.getInputStream();
+                byte[] buffer = new byte[SharedIOUtil.K_32];
+                int total = 0;
+                while (total < PAYLOAD) {
+                    int read = is.read(buffer);
+                    Assertions.assertTrue(read > 0);
+                    for (int i = 0; i < read; i++)
+                        Assertions.assertEquals((byte) (total + i), buffer[i]);
+                    total += read;
+                }
+                Assertions.assertEquals(PAYLOAD, total);
+                Assertions.assertTrue(lowLatch.await(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            nioSocket.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.zoxweb.server.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.io.ByteBufferUtil;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.shared.io.SharedIOUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DirectBufferEchoTest {
+
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+    // the type of the last buffer the session received
+    private static final AtomicReference<Boolean> directRead = new AtomicReference<>();
+
+    @BeforeAll
+    public static void start() {
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+    }
+
+    @AfterAll
+    public static void stop() {
+        tsp.close();
+        executor.close();
+    }
+
+    /**
+     * Echo the read buffer as is, no copy to an intermediate stream.
+     */
+    public static class RawEchoSession
+            extends BaseSessionCallback<BaseChannelOutputStream> {
+        @Override
+        public void accept(ByteBuffer byteBuffer) {
+            directRead.set(byteBuffer.isDirect());
+            try {
+                getOutputStream().write(byteBuffer, true);
+            } catch (IOException e) {
+                SharedIOUtil.close(getOutputStream());
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return getOutputStream() != null && getOutputStream().isClosed();
+        }
+
+        @Override
+        public void exception(Throwable e) {
+        }
+    }
+
+    @Test
+    public void heapAndDirectEcho() throws Exception {
+        byte[] out = new byte[SharedIOUtil.K_1 * 100];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) (i * 31);
+
+        for (ByteBufferUtil.BufferType bufferType : new ByteBufferUtil.BufferType[]{ByteBufferUtil.BufferType.HEAP, ByteBufferUtil.BufferType.DIRECT}) {
+            directRead.set(null);
+            NIOSocket nioSocket = new NIOSocket(executor, tsp);
+            try {
+                NIOSocketHandlerFactory factory = new NIOSocketHandlerFactory(RawEchoSession::new);
+                factory.setBufferType(bufferType);
+                SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, factory);
+                int port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    socket.setSoTimeout(5000);
+                    OutputStream os = socket.getOutputStream();
+                    InputStream is = socket.getInputStream();
+                    os.write(out);
+                    os.flush();
+                    byte[] in = new byte[out.length];
+                    int total = 0;
+                    while (total < in.length) {
+                        int read = is.read(in, total, in.length - total);
+                        Assertions.assertTrue(read > 0, bufferType + " connection closed");
+                        total += read;
+                    }
+                    Assertions.assertArrayEquals(out, in, bufferType.name());
+                    Assertions.assertEquals(bufferType == ByteBufferUtil.BufferType.DIRECT, directRead.get(), bufferType.name());
+                }
+            } finally {
+                nioSocket.close();
+            }
+        }
+    }
+}
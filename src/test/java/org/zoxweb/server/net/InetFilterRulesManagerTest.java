@@ -0,0 +1,94 @@
+package org.zoxweb.server.net;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.net.InetFilterDAO;
+import org.zoxweb.shared.net.SharedNetUtil;
+import org.zoxweb.shared.security.SecConst;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Random;
+
+public class InetFilterRulesManagerTest {
+
+    /**
+     * The original linear scan, first matching rule wins.
+     */
+    private static SecConst.SecAction linearCheck(List<InetFilterRulesManager.InetFilterRule> rules, byte[] ipAddress) throws Exception {
+        SecConst.SecAction ret = null;
+        for (InetFilterRulesManager.InetFilterRule ipfp : rules) {
+            switch (ipfp.getSecurityStatus()) {
+                case ALLOW:
+                    ret = SecConst.SecAction.DENY;
+                    if (SharedNetUtil.belongsToNetwork(ipAddress, ipfp.getNetMaskBytes(), ipfp.getNetworkBytes()))
+                        return SecConst.SecAction.ALLOW;
+                    break;
+                case REJECT:
+                case DENY:
+                    ret = SecConst.SecAction.ALLOW;
+                    if (SharedNetUtil.belongsToNetwork(ipAddress, ipfp.getNetMaskBytes(), ipfp.getNetworkBytes()))
+                        return SecConst.SecAction.DENY;
+                    break;
+            }
+        }
+        return ret == null ? SecConst.SecAction.ALLOW : ret;
+    }
+
+    @Test
+    public void matchesLinearScan() throws Exception {
+        Random random = new Random(11);
+        InetFilterRulesManager manager = new InetFilterRulesManager();
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.checkIPSecurityStatus(new byte[]{10, 0, 0, 1}));
+
+        for (int i = 0; i < 500; i++) {
+            int prefix = 8 + random.nextInt(25);
+            String ip = "10." + random.nextInt(4) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            String mask = InetAddress.getByAddress(SharedNetUtil.toNetmaskIPV4((short) prefix)).getHostAddress();
+            manager.addInetFilterProp(ip + "-" + mask + "-" + (random.nextInt(3) == 0 ? "allow" : "deny"));
+        }
+        // host rule without mask and a non contiguous mask
+        manager.addInetFilterProp(new InetFilterDAO("10.1.2.3", null), SecConst.SecAction.ALLOW);
+        manager.addInetFilterProp(new InetFilterDAO("10.0.0.7", "255.0.255.0"), SecConst.SecAction.DENY);
+
+        List<InetFilterRulesManager.InetFilterRule> rules = manager.getAll();
+        for (int i = 0; i < 20_000; i++) {
+            byte[] address = {10, (byte) random.nextInt(5), (byte) random.nextInt(256), (byte) random.nextInt(256)};
+            Assertions.assertEquals(linearCheck(rules, address), manager.checkIPSecurityStatus(address));
+            Assertions.assertEquals(linearCheck(rules, address), manager.lookupSecurityStatus(InetAddress.getByAddress(address)));
+        }
+
+        // removing a rule republishes the trie
+        InetFilterRulesManager.InetFilterRule first = rules.get(0);
+        manager.removeInetFilterProp(first);
+        Assertions.assertEquals(rules.size() - 1, manager.getAll().size());
+        byte[] network = first.getNetworkBytes();
+        Assertions.assertEquals(linearCheck(manager.getAll(), network), manager.checkIPSecurityStatus(network));
+    }
+
+    @Test
+    public void ipv6() throws Exception {
+        InetFilterRulesManager manager = new InetFilterRulesManager();
+        manager.addInetFilterProp(new InetFilterDAO("2001:db8::1", null), SecConst.SecAction.DENY);
+        manager.addInetFilterProp(new InetFilterDAO("10.0.0.0", "255.0.0.0"), SecConst.SecAction.DENY);
+        Assertions.assertEquals(SecConst.SecAction.DENY, manager.lookupSecurityStatus("2001:db8::1"));
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("2001:db8::2"));
+        Assertions.assertEquals(SecConst.SecAction.DENY, manager.lookupSecurityStatus("10.5.5.5"));
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("127.0.0.1"));
+    }
+
+    @Test
+    public void trie() {
+        CIDRTrie trie = new CIDRTrie();
+        trie.insert(new byte[]{10, 0, 0, 0}, 8, 5);
+        trie.insert(new byte[]{10, 1, 0, 0}, 16, 2);
+        trie.insert(new byte[]{0, 0, 0, 0}, 0, 9);
+        Assertions.assertEquals(2, trie.lookup(new byte[]{10, 1, 9, 9}));
+        Assertions.assertEquals(5, trie.lookup(new byte[]{10, 2, 9, 9}));
+        Assertions.assertEquals(9, trie.lookup(new byte[]{11, 2, 9, 9}));
+        Assertions.assertEquals(5, trie.lookupV4(0x0a020909));
+        Assertions.assertEquals(CIDRTrie.NO_MATCH, trie.lookup(new byte[16]));
+        Assertions.assertEquals(24, CIDRTrie.prefixLength(new byte[]{-1, -1, -1, 0}));
+        Assertions.assertEquals(-1, CIDRTrie.prefixLength(new byte[]{-1, 0, -1, 0}));
+    }
+}
@@ -0,0 +1,177 @@
+package org.zoxweb.server.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.util.NVGenericMap;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NIODatagramRelayTest {
+
+    private static DatagramSocket upstream;
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+    private static NIOSocket nioSocket;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // echo server, the datagrams starting with "slow" are answered after 600 millis
+        upstream = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread server = new Thread(() -> {
+            while (!upstream.isClosed()) {
+                try {
+                    DatagramPacket in = new DatagramPacket(new byte[2048], 2048);
+                    upstream.receive(in);
+                    DatagramPacket out = new DatagramPacket(in.getData(), in.getLength(), in.getSocketAddress());
+                    if (new String(in.getData(), 0, in.getLength()).startsWith("slow")) {
+                        Thread delayed = new Thread(() -> {
+                            TaskUtil.sleep(600);
+                            try {
+                                upstream.send(out);
+                            } catch (IOException e) {
+                                // closed
+                            }
+                        });
+                        delayed.setDaemon(true);
+                        delayed.start();
+                    } else
+                        upstream.send(out);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+        nioSocket = new NIOSocket(executor, tsp);
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        nioSocket.close();
+        upstream.close();
+        tsp.close();
+        executor.close();
+    }
+
+    private static NIODatagramRelay relay() throws IOException {
+        return new NIODatagramRelay(nioSocket, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                (InetSocketAddress) upstream.getLocalSocketAddress(), 1024).start();
+    }
+
+    private static DatagramSocket client() throws IOException {
+        DatagramSocket ret = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        ret.setSoTimeout(5000);
+        return ret;
+    }
+
+    private static void send(DatagramSocket client, NIODatagramRelay relay, String message) throws IOException {
+        byte[] data = SharedStringUtil.getBytes(message);
+        client.send(new DatagramPacket(data, data.length, relay.getLocalAddress()));
+    }
+
+    private static String receive(DatagramSocket client) throws IOException {
+        DatagramPacket in = new DatagramPacket(new byte[2048], 2048);
+        client.receive(in);
+        return new String(in.getData(), 0, in.getLength());
+    }
+
+    @Test
+    public void concurrentClients() throws IOException {
+        NIODatagramRelay relay = relay();
+        List<DatagramSocket> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++)
+                clients.add(client());
+            for (int j = 0; j < 5; j++) {
+                for (int i = 0; i < clients.size(); i++)
+                    send(clients.get(i), relay, "client-" + i + "-" + j);
+                for (int i = 0; i < clients.size(); i++)
+                    Assertions.assertEquals("client-" + i + "-" + j, receive(clients.get(i)));
+            }
+
+            NVGenericMap stats = relay.toProperties(true);
+            Assertions.assertEquals(20L, (long) stats.getValue("sessions_created"));
+            Assertions.assertEquals(100L, (long) stats.getValue("packets_forwarded"));
+            Assertions.assertEquals(100L, (long) stats.getValue("packets_returned"));
+            Assertions.assertEquals(20, relay.sessionCount());
+            NVGenericMap sessions = (NVGenericMap) stats.get("sessions");
+            Assertions.assertEquals(20, sessions.size());
+            NVGenericMap first = (NVGenericMap) sessions.get("127.0.0.1:" + clients.get(0).getLocalPort());
+            Assertions.assertEquals(5L, (long) first.getValue("packets_returned"));
+        } finally {
+            for (DatagramSocket client : clients)
+                client.close();
+            relay.close();
+        }
+        Assertions.assertEquals(0, relay.sessionCount());
+    }
+
+    @Test
+    public void slowUpstreamDoesNotBlock() throws IOException {
+        NIODatagramRelay relay = relay();
+        try (DatagramSocket slow = client(); DatagramSocket fast = client()) {
+            long ts = System.currentTimeMillis();
+            send(slow, relay, "slow request");
+            send(fast, relay, "fast request");
+            Assertions.assertEquals("fast request", receive(fast));
+            Assertions.assertTrue(System.currentTimeMillis() - ts < 500, "fast reply delayed by the slow one");
+            Assertions.assertEquals("slow request", receive(slow));
+        } finally {
+            relay.close();
+        }
+    }
+
+    @Test
+    public void idleSessionExpiry() throws IOException {
+        NIODatagramRelay relay = new NIODatagramRelay(nioSocket, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                (InetSocketAddress) upstream.getLocalSocketAddress(), 1024).setIdleTimeout(200).start();
+        try (DatagramSocket client = client()) {
+            send(client, relay, "first");
+            Assertions.assertEquals("first", receive(client));
+            Assertions.assertEquals(1, relay.sessionCount());
+
+            TaskUtil.sleep(1000);
+            Assertions.assertEquals(0, relay.sessionCount());
+            Assertions.assertEquals(1L, (long) relay.toProperties(false).getValue("sessions_expired"));
+
+            // a new session is mapped for the returning client
+            send(client, relay, "second");
+            Assertions.assertEquals("second", receive(client));
+            Assertions.assertEquals(2L, (long) relay.toProperties(false).getValue("sessions_created"));
+        } finally {
+            relay.close();
+        }
+    }
+
+    @Test
+    public void idleTimeoutAfterStart() throws IOException {
+        NIODatagramRelay relay = relay();
+        try (DatagramSocket client = client()) {
+            send(client, relay, "first");
+            Assertions.assertEquals("first", receive(client));
+            // the expiry task is rescheduled with the new timeout
+            relay.setIdleTimeout(200);
+            for (int i = 0; i < 40 && relay.sessionCount() > 0; i++)
+                TaskUtil.sleep(50);
+            Assertions.assertEquals(0, relay.sessionCount());
+            Assertions.assertEquals(1L, (long) relay.toProperties(false).getValue("sessions_expired"));
+        } finally {
+            relay.close();
+        }
+    }
+}
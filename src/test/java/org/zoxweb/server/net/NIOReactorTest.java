@@ -0,0 +1,99 @@
+package org.zoxweb.server.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.net.protocols.EchoProtocol;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.shared.util.NVGenericMap;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+public class NIOReactorTest {
+
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+
+    @BeforeAll
+    public static void start() {
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+    }
+
+    @AfterAll
+    public static void stop() {
+        tsp.close();
+        executor.close();
+    }
+
+    private static void echo(NIOReactor.Balancer balancer) throws Exception {
+        NIOSocket nioSocket = new NIOSocket(executor, tsp, 4, balancer);
+        try {
+            SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, new NIOSocketHandlerFactory(EchoProtocol.EchoSession.class, false));
+            int port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+
+            Socket[] sockets = new Socket[8];
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("127.0.0.1", port);
+                sockets[i].setSoTimeout(5000);
+            }
+
+            for (int i = 0; i < sockets.length; i++) {
+                String msg = "hello reactor " + i;
+                OutputStream os = sockets[i].getOutputStream();
+                os.write((msg + "\n").getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                BufferedReader br = new BufferedReader(new InputStreamReader(sockets[i].getInputStream(), StandardCharsets.UTF_8));
+                Assertions.assertEquals(msg, br.readLine());
+            }
+
+            NVGenericMap stats = nioSocket.toProperties(true);
+            Assertions.assertEquals(4, nioSocket.reactorCount());
+            NVGenericMap reactors = (NVGenericMap) stats.get("reactors");
+            long assigned = 0;
+            for (int i = 0; i < nioSocket.reactorCount(); i++) {
+                NVGenericMap reactorStats = (NVGenericMap) reactors.get("NIO-REACTOR-" + i);
+                Assertions.assertNotNull(reactorStats);
+                long count = reactorStats.getValue("assigned_counts");
+                assigned += count;
+                if (balancer == NIOReactor.Balancer.ROUND_ROBIN)
+                    Assertions.assertEquals(2, count);
+            }
+            Assertions.assertEquals(sockets.length, assigned);
+
+            for (Socket s : sockets)
+                s.close();
+        } finally {
+            nioSocket.close();
+        }
+    }
+
+    @Test
+    public void roundRobinEcho() throws Exception {
+        echo(NIOReactor.Balancer.ROUND_ROBIN);
+    }
+
+    @Test
+    public void leastLoadedEcho() throws Exception {
+        echo(NIOReactor.Balancer.LEAST_LOADED);
+    }
+
+    @Test
+    public void defaultReactorPerCore() throws Exception {
+        NIOSocket nioSocket = new NIOSocket(executor, tsp);
+        try {
+            Assertions.assertEquals(Runtime.getRuntime().availableProcessors(), nioSocket.reactorCount());
+        } finally {
+            nioSocket.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.zoxweb.server.net.security;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.net.InetFilterRulesManager;
+import org.zoxweb.shared.security.SecConst;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class IPBlockListTest {
+
+    private static final String FEED = "# sample feed\n" +
+            "; another comment\n" +
+            "\n" +
+            "192.0.2.1\n" +
+            "198.51.100.0/24 ; SBL0001\n" +
+            "198.51.101.0/24\n" +
+            "203.0.113.10-203.0.113.20, range\n" +
+            "203.0.113.15-203.0.113.30\n" +
+            "255.255.255.255\n" +
+            "0.0.0.0/32\n" +
+            "2001:db8::/32 # documentation\n" +
+            "2001:db9::5\n" +
+            "not.an.address\n" +
+            "300.1.1.1\n" +
+            "10.0.0.0/33\n";
+
+    @Test
+    public void parseAndLookup() throws Exception {
+        IPBlockList list = IPBlockList.load(new ByteArrayInputStream(FEED.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(9, list.entryCount());
+        Assertions.assertEquals(3, list.rejectedCount());
+        // the adjacent /24 and the overlapping ranges are merged
+        Assertions.assertEquals(5, list.v4RangeCount());
+        Assertions.assertEquals(2, list.v6RangeCount());
+
+        Assertions.assertTrue(list.contains(InetAddress.getByName("192.0.2.1")));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("192.0.2.2")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("198.51.101.255")));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("198.51.102.0")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("203.0.113.30")));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("203.0.113.9")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("255.255.255.255")));
+        Assertions.assertTrue(list.contains(new byte[4]));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("0.0.0.1")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("2001:db8:ffff::1")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("2001:db9::5")));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("2001:db9::6")));
+        Assertions.assertFalse(IPBlockList.EMPTY.contains(InetAddress.getByName("192.0.2.1")));
+    }
+
+    @Test
+    public void ipv4Mapped() throws Exception {
+        IPBlockList.Builder builder = new IPBlockList.Builder();
+        Assertions.assertTrue(builder.add("::ffff:192.0.2.1"));
+        Assertions.assertTrue(builder.add("::ffff:198.51.100.0/120"));
+        Assertions.assertTrue(builder.add("::ffff:203.0.113.10-::ffff:203.0.113.20"));
+        IPBlockList list = builder.build();
+        Assertions.assertEquals(3, list.v4RangeCount());
+        Assertions.assertEquals(0, list.v6RangeCount());
+        Assertions.assertTrue(list.contains(InetAddress.getByName("192.0.2.1")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("198.51.100.77")));
+        Assertions.assertTrue(list.contains(InetAddress.getByName("203.0.113.15")));
+        Assertions.assertFalse(list.contains(InetAddress.getByName("203.0.113.21")));
+        // the mapped form of the address matches too
+        byte[] mapped = new byte[16];
+        mapped[10] = mapped[11] = (byte) 0xff;
+        System.arraycopy(InetAddress.getByName("198.51.100.1").getAddress(), 0, mapped, 12, 4);
+        Assertions.assertTrue(list.contains(mapped));
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(3);
+        IPBlockList.Builder builder = new IPBlockList.Builder();
+        int[][] ranges = new int[2000][];
+        for (int i = 0; i < ranges.length; i++) {
+            int start = random.nextInt(1 << 20);
+            int end = start + random.nextInt(64);
+            ranges[i] = new int[]{start, end};
+            Assertions.assertTrue(builder.add("10." + (start >>> 16) + "." + ((start >>> 8) & 0xff) + "." + (start & 0xff) + "-" +
+                    "10." + (end >>> 16) + "." + ((end >>> 8) & 0xff) + "." + (end & 0xff)));
+        }
+        IPBlockList list = builder.build();
+        for (int i = 0; i < 50_000; i++) {
+            int ip = random.nextInt(1 << 20);
+            boolean expected = false;
+            for (int[] r : ranges)
+                if (ip >= r[0] && ip <= r[1]) {
+                    expected = true;
+                    break;
+                }
+            Assertions.assertEquals(expected, list.containsV4(0x0a000000 | ip), "ip " + ip);
+        }
+    }
+
+    @Test
+    public void rulesManagerHotSwap() throws Exception {
+        InetFilterRulesManager manager = new InetFilterRulesManager();
+        IPBlockerListener listener = new IPBlockerListener(null, null);
+        listener.setInetFilterRulesManager(manager);
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("192.0.2.1"));
+
+        listener.loadBlockList(new ByteArrayInputStream(FEED.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(listener.isBlocked(InetAddress.getByName("192.0.2.1")));
+        Assertions.assertEquals(SecConst.SecAction.DENY, manager.lookupSecurityStatus("192.0.2.1"));
+        Assertions.assertEquals(SecConst.SecAction.DENY, manager.lookupSecurityStatus("2001:db8::1"));
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("192.0.2.2"));
+        // loopback stays exempt
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("127.0.0.1"));
+
+        listener.setBlockList(null);
+        Assertions.assertEquals(SecConst.SecAction.ALLOW, manager.lookupSecurityStatus("192.0.2.1"));
+    }
+}
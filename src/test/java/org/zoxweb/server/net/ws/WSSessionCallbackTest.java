@@ -0,0 +1,249 @@
+package org.zoxweb.server.net.ws;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.http.HTTPUtil;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.server.net.BaseChannelOutputStream;
+import org.zoxweb.server.net.NIOSocket;
+import org.zoxweb.server.net.NIOSocketHandlerFactory;
+import org.zoxweb.server.task.TaskProcessor;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.http.HTTPWSProto;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WSSessionCallbackTest {
+
+    private static final int MASK = 0x37fa213d;
+
+    private static TaskProcessor executor;
+    private static TaskSchedulerProcessor tsp;
+
+    @BeforeAll
+    public static void start() {
+        executor = new TaskProcessor(256);
+        tsp = new TaskSchedulerProcessor();
+    }
+
+    @AfterAll
+    public static void stop() {
+        tsp.close();
+        executor.close();
+    }
+
+    @Test
+    public void unmaskMatchesByteWise() {
+        Random random = new Random(7);
+        for (int length = 0; length < 40; length++) {
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                byte[] data = new byte[length + 3];
+                random.nextBytes(data);
+                byte[] expected = data.clone();
+                byte[] key = {0x37, (byte) 0xfa, 0x21, 0x3d};
+                for (int i = 0; i < length; i++)
+                    expected[3 + i] ^= key[i % 4];
+
+                ByteBuffer bb = ByteBuffer.wrap(data).order(order);
+                WSFrameCodec.unmask(bb, 3, length, MASK);
+                Assertions.assertArrayEquals(expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void headerRoundTrip() {
+        WSFrameCodec.Frame frame = new WSFrameCodec.Frame();
+        for (long length : new long[]{0, 125, 126, 0xffff, 0x10000, 100_000}) {
+            ByteBuffer bb = ByteBuffer.allocate(WSFrameCodec.MAX_HEADER_SIZE + 1);
+            bb.put((byte) 0xff);
+            int headerLength = WSFrameCodec.encodeHeader(bb, length % 2 == 0, 0x2, length, MASK);
+            Assertions.assertTrue(frame.parse(bb, 1, 1 + headerLength, Integer.MAX_VALUE));
+            Assertions.assertFalse(frame.parse(bb, 1, headerLength, Integer.MAX_VALUE));
+            Assertions.assertEquals(length, frame.payloadLength());
+            Assertions.assertEquals(length % 2 == 0, frame.isFin());
+            Assertions.assertEquals(0x2, frame.opCode());
+            Assertions.assertEquals(MASK, frame.mask());
+            Assertions.assertEquals(1 + headerLength, frame.payloadOffset());
+        }
+
+        // compatible with the shared frame formatter
+        UByteArrayOutputStream ubaos = new UByteArrayOutputStream();
+        HTTPWSProto.formatFrame(ubaos, true, HTTPWSProto.OpCode.TEXT, new byte[]{2, 3, 5, 10}, "hello websocket");
+        ByteBuffer bb = ByteBuffer.wrap(ubaos.toByteArray());
+        Assertions.assertTrue(frame.parse(bb, 0, bb.limit(), 1024));
+        frame.unmask(bb);
+        Assertions.assertEquals("hello websocket", new String(bb.array(), frame.payloadOffset(), frame.payloadLength()));
+
+        Assertions.assertThrows(WSFrameCodec.MessageTooBigException.class, () -> frame.parse(ByteBuffer.wrap(ubaos.toByteArray()), 0, ubaos.size(), 4));
+    }
+
+    @Test
+    public void echoSession() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicInteger closeCode = new AtomicInteger();
+        AtomicInteger fragmentsSeen = new AtomicInteger();
+        WSMessageHandler echo = new WSMessageHandler() {
+            @Override
+            public void onMessage(WSSessionCallback<?> session, HTTPWSProto.OpCode opCode, ByteBuffer[] payload) {
+                fragmentsSeen.set(Math.max(fragmentsSeen.get(), payload.length));
+                try {
+                    session.send(opCode, payload);
+                } catch (IOException e) {
+                    session.exception(e);
+                }
+            }
+
+            @Override
+            public void onClose(WSSessionCallback<?> session, int code, String reason) {
+                closeCode.set(code);
+                closed.countDown();
+            }
+        };
+
+        NIOSocket nioSocket = new NIOSocket(executor, tsp);
+        try {
+            NIOSocketHandlerFactory factory = new NIOSocketHandlerFactory(() -> new WSSessionCallback<BaseChannelOutputStream>(echo));
+            SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, factory);
+            int port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10000);
+                OutputStream os = socket.getOutputStream();
+                DataInputStream is = new DataInputStream(socket.getInputStream());
+
+                String key = "dGhlIHNhbXBsZSBub25jZQ==";
+                os.write(SharedStringUtil.getBytes("GET /ws HTTP/1.1\r\nHost: localhost\r\nupgrade: websocket\r\nConnection: Upgrade\r\n" +
+                        "Sec-WebSocket-Key: " + key + "\r\nSec-WebSocket-Version: 13\r\n\r\n"));
+                os.flush();
+                String response = readHeaders(is);
+                Assertions.assertTrue(response.startsWith("HTTP/1.1 101"), response);
+                Assertions.assertTrue(response.contains(HTTPUtil.toWebSocketAcceptValue(key)), response);
+
+                // single frame text
+                os.write(frame(true, 0x1, SharedStringUtil.getBytes("hello")));
+                Assertions.assertEquals("hello", new String(readFrame(is, 0x1)));
+
+                // fragmented binary split across writes with a ping in between
+                byte[] part1 = new byte[3000];
+                byte[] part2 = new byte[5000];
+                new Random(1).nextBytes(part1);
+                new Random(2).nextBytes(part2);
+                byte[] first = frame(false, 0x2, part1);
+                os.write(first, 0, 1000);
+                os.flush();
+                TaskUtil.sleep(50);
+                os.write(first, 1000, first.length - 1000);
+                os.write(frame(true, 0x9, SharedStringUtil.getBytes("ping")));
+                os.write(frame(true, 0x0, part2));
+                os.flush();
+                Assertions.assertEquals("ping", new String(readFrame(is, 0xA)));
+                byte[] echoed = readFrame(is, 0x2);
+                Assertions.assertEquals(part1.length + part2.length, echoed.length);
+                for (int i = 0; i < part1.length; i++)
+                    Assertions.assertEquals(part1[i], echoed[i]);
+                for (int i = 0; i < part2.length; i++)
+                    Assertions.assertEquals(part2[i], echoed[part1.length + i]);
+                Assertions.assertEquals(2, fragmentsSeen.get());
+
+                // 64 bit length frame
+                byte[] large = new byte[70_000];
+                new Random(3).nextBytes(large);
+                os.write(frame(true, 0x2, large));
+                os.flush();
+                Assertions.assertArrayEquals(large, readFrame(is, 0x2));
+
+                // close handshake
+                os.write(frame(true, 0x8, new byte[]{0x03, (byte) 0xe8, 'b', 'y', 'e'}));
+                os.flush();
+                byte[] close = readFrame(is, 0x8);
+                Assertions.assertEquals(WSFrameCodec.CLOSE_NORMAL, ((close[0] & 0xff) << 8) | (close[1] & 0xff));
+                Assertions.assertTrue(closed.await(5, TimeUnit.SECONDS));
+                Assertions.assertEquals(WSFrameCodec.CLOSE_NORMAL, closeCode.get());
+            }
+        } finally {
+            nioSocket.close();
+        }
+    }
+
+    @Test
+    public void invalidUpgrade() throws Exception {
+        WSMessageHandler none = (session, opCode, payload) -> Assertions.fail("no message expected");
+        NIOSocket nioSocket = new NIOSocket(executor, tsp);
+        try {
+            NIOSocketHandlerFactory factory = new NIOSocketHandlerFactory(() -> new WSSessionCallback<BaseChannelOutputStream>(none));
+            SelectionKey sk = nioSocket.addServerSocket(new InetSocketAddress("127.0.0.1", 0), 128, factory);
+            int port = ((InetSocketAddress) ((ServerSocketChannel) sk.channel()).getLocalAddress()).getPort();
+
+            String[] requests = {
+                    // malformed request line
+                    "GET\r\nHost: localhost\r\n\r\n",
+                    // missing key
+                    "GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Version: 13\r\n\r\n",
+                    // upgrade with a body
+                    "GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                            "Sec-WebSocket-Version: 13\r\nContent-Length: 4\r\n\r\nbody",
+            };
+            for (String request : requests) {
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    socket.setSoTimeout(10000);
+                    socket.getOutputStream().write(SharedStringUtil.getBytes(request));
+                    socket.getOutputStream().flush();
+                    String response = readHeaders(new DataInputStream(socket.getInputStream()));
+                    Assertions.assertTrue(response.startsWith("HTTP/1.1 400"), request);
+                }
+            }
+        } finally {
+            nioSocket.close();
+        }
+    }
+
+    private static byte[] frame(boolean fin, int opCode, byte[] payload) {
+        ByteBuffer bb = ByteBuffer.allocate(WSFrameCodec.MAX_HEADER_SIZE + payload.length);
+        WSFrameCodec.encodeHeader(bb, fin, opCode, payload.length, MASK);
+        int offset = bb.position();
+        bb.put(payload);
+        WSFrameCodec.unmask(bb, offset, payload.length, MASK);
+        byte[] ret = new byte[bb.position()];
+        System.arraycopy(bb.array(), 0, ret, 0, ret.length);
+        return ret;
+    }
+
+    private static byte[] readFrame(DataInputStream is, int expectedOpCode) throws IOException {
+        int b0 = is.readUnsignedByte();
+        int b1 = is.readUnsignedByte();
+        Assertions.assertEquals(0x80 | expectedOpCode, b0);
+        Assertions.assertEquals(0, b1 & 0x80, "server frames are not masked");
+        long length = b1 & 0x7f;
+        if (length == 126)
+            length = is.readUnsignedShort();
+        else if (length == 127)
+            length = is.readLong();
+        byte[] ret = new byte[(int) length];
+        is.readFully(ret);
+        return ret;
+    }
+
+    private static String readHeaders(DataInputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n"))
+            sb.append((char) is.readUnsignedByte());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package org.zoxweb.server.security;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.crypto.CryptoConst;
+import org.zoxweb.shared.security.JWT;
+import org.zoxweb.shared.util.SharedBase64;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class JWTVerifierTest {
+
+    private static final byte[] KEY = SharedStringUtil.getBytes("a-very-secret-key-for-hmac-tests");
+
+    private static JWT jwt(CryptoConst.JWTAlgo algo, String subject) {
+        return JWT.createJWT(algo, subject, "xlogistx.io", "test");
+    }
+
+    @Test
+    public void hmacRoundTrip() throws Exception {
+        for (CryptoConst.JWTAlgo algo : new CryptoConst.JWTAlgo[]{CryptoConst.JWTAlgo.HS256, CryptoConst.JWTAlgo.HS384, CryptoConst.JWTAlgo.HS512}) {
+            JWT jwt = jwt(algo, "user@xlogistx.io");
+            String token = CryptoUtil.encodeJWT(KEY, jwt, true);
+            JWTVerifier.VerifiedJWT verified = JWTVerifier.SINGLETON.verify(KEY, token);
+            Assertions.assertEquals(algo, verified.getAlgorithm());
+            Assertions.assertEquals(jwt.getHash(), verified.getHash());
+            JWT decoded = verified.getJWT();
+            Assertions.assertSame(decoded, verified.getJWT());
+            Assertions.assertEquals("user@xlogistx.io", decoded.getPayload().getSubjectID());
+            // same result as the reference decoder
+            JWT reference = SecUtil.decodeJWT(KEY, token);
+            Assertions.assertEquals(reference.getHash(), decoded.getHash());
+            Assertions.assertEquals(reference.getPayload().getSubjectID(), decoded.getPayload().getSubjectID());
+        }
+    }
+
+    @Test
+    public void rejectInvalid() throws Exception {
+        String token = CryptoUtil.encodeJWT(KEY, jwt(CryptoConst.JWTAlgo.HS256, "user"), true);
+        String[] parts = token.split("\\.");
+
+        // wrong key
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(SharedStringUtil.getBytes("other"), token));
+        // tampered payload
+        String tampered = parts[0] + "." + SharedBase64.encodeAsString(SharedBase64.Base64Type.URL, "{\"sub\":\"admin\"}") + "." + parts[2];
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, tampered));
+        // none algorithm
+        String none = SharedBase64.encodeAsString(SharedBase64.Base64Type.URL, "{\"alg\":\"none\",\"typ\":\"JWT\"}") + "." + parts[1] + "." + parts[2];
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, none));
+        // malformed
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, parts[0] + "." + parts[1]));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, token + ".x"));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, "garbage." + parts[1] + "." + parts[2]));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, token.substring(0, token.length() - 2) + "é"));
+    }
+
+    private static final String URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    // same signature bytes, the unused low bits of the last character set
+    private static String nonCanonical(String token) {
+        char last = token.charAt(token.length() - 1);
+        return token.substring(0, token.length() - 1) + URL_ALPHABET.charAt(URL_ALPHABET.indexOf(last) ^ 1);
+    }
+
+    @Test
+    public void rejectNonCanonicalSignature() throws Exception {
+        // 32 bytes HMAC, 43 characters with 2 unused bits
+        String token = CryptoUtil.encodeJWT(KEY, jwt(CryptoConst.JWTAlgo.HS256, "user"), true);
+        Assertions.assertNotNull(JWTVerifier.SINGLETON.verify(KEY, token));
+        String altered = nonCanonical(token);
+        Assertions.assertThrows(SecurityException.class, () -> SecUtil.decodeJWT(KEY, altered));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, altered));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(KEY, token + "="));
+
+        // 256 bytes RSA, 342 characters with 4 unused bits
+        KeyPair kp = CryptoUtil.generateKeyPair(CryptoConst.PKInfo.RSA_2048);
+        String rsaToken = CryptoUtil.encodeJWT(kp.getPrivate().getEncoded(), jwt(CryptoConst.JWTAlgo.RS256, "rsa-user"), true);
+        byte[] publicKey = kp.getPublic().getEncoded();
+        Assertions.assertNotNull(JWTVerifier.SINGLETON.verify(publicKey, rsaToken));
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(publicKey, nonCanonical(rsaToken)));
+    }
+
+    @Test
+    public void rsaRoundTrip() throws Exception {
+        KeyPair kp = CryptoUtil.generateKeyPair(CryptoConst.PKInfo.RSA_2048);
+        JWT jwt = jwt(CryptoConst.JWTAlgo.RS256, "rsa-user");
+        String token = CryptoUtil.encodeJWT(kp.getPrivate().getEncoded(), jwt, true);
+        byte[] publicKey = kp.getPublic().getEncoded();
+        for (int i = 0; i < 3; i++)
+            Assertions.assertEquals("rsa-user", JWTVerifier.SINGLETON.decode(publicKey, token).getPayload().getSubjectID());
+        String[] parts = token.split("\\.");
+        String forged = parts[0] + "." + parts[1] + "." + SharedBase64.encodeAsString(SharedBase64.Base64Type.URL, new byte[256]);
+        Assertions.assertThrows(SecurityException.class, () -> JWTVerifier.SINGLETON.verify(publicKey, forged));
+    }
+
+    @Test
+    public void batch() throws Exception {
+        ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 50; i++)
+            queue.add(CryptoUtil.encodeJWT(KEY, jwt(CryptoConst.JWTAlgo.HS256, "user-" + i), true));
+        queue.add("bad.token.value");
+        List<JWTVerifier.VerifiedJWT> verified = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+        int count = JWTVerifier.SINGLETON.verifyBatch(KEY, queue, verified::add, (t, e) -> rejected.add(t));
+        Assertions.assertEquals(50, count);
+        Assertions.assertEquals(50, verified.size());
+        Assertions.assertEquals(1, rejected.size());
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertEquals("user-7", verified.get(7).getJWT().getPayload().getSubjectID());
+    }
+}
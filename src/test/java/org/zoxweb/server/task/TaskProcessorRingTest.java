@@ -0,0 +1,125 @@
+package org.zoxweb.server.task;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.util.MPMCQueue;
+import org.zoxweb.shared.util.NVGenericMap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TaskProcessorRingTest {
+
+    @Test
+    public void mpmcQueue() throws Exception {
+        MPMCQueue<Integer> queue = new MPMCQueue<>(5);
+        Assertions.assertEquals(8, queue.capacity());
+        for (int i = 0; i < 8; i++)
+            Assertions.assertTrue(queue.offer(i));
+        Assertions.assertFalse(queue.offer(8));
+        Assertions.assertEquals(8, queue.size());
+        for (int i = 0; i < 8; i++)
+            Assertions.assertEquals(i, queue.poll());
+        Assertions.assertNull(queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+
+        // every element is polled exactly once
+        MPMCQueue<Long> mpmc = new MPMCQueue<>(256);
+        int producers = 4;
+        int perProducer = 200_000;
+        AtomicLong sum = new AtomicLong();
+        AtomicLong polled = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(producers * 2);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (long i = 1; i <= perProducer; i++)
+                    while (!mpmc.offer(i))
+                        Thread.yield();
+                done.countDown();
+            }).start();
+            new Thread(() -> {
+                while (polled.get() < (long) producers * perProducer) {
+                    Long v = mpmc.poll();
+                    if (v != null) {
+                        sum.addAndGet(v);
+                        polled.incrementAndGet();
+                    } else
+                        Thread.yield();
+                }
+                done.countDown();
+            }).start();
+        }
+        Assertions.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assertions.assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+    }
+
+    @Test
+    public void ringExecution() throws Exception {
+        TaskProcessor tp = new TaskProcessor("RING", 64, 4, Thread.NORM_PRIORITY, false, TaskProcessor.DispatchMode.MPMC_RING);
+        Assertions.assertEquals(TaskProcessor.DispatchMode.MPMC_RING, tp.getDispatchMode());
+        AtomicInteger counter = new AtomicInteger();
+        int tasks = 10_000;
+        // the slow tasks force the producer to block on the threshold
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            tp.execute(() -> {
+                counter.incrementAndGet();
+                if (index % 1000 == 0)
+                    TaskUtil.sleep(5);
+            });
+            Assertions.assertTrue(tp.pendingTasks() <= 64 + 1);
+        }
+
+        Future<String> future = tp.submit(() -> "done");
+        Assertions.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+
+        tp.shutdown();
+        Assertions.assertTrue(tp.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(tasks, counter.get());
+        Assertions.assertEquals(tasks + 1, tp.totalExecutedTasks());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tp.execute(() -> {
+        }));
+
+        NVGenericMap props = tp.getProperties();
+        Assertions.assertEquals((Long) (tasks + 1L), ((NVGenericMap) props.get("wait_time_histogram")).getValue("count"));
+        Assertions.assertEquals((Long) (tasks + 1L), ((NVGenericMap) props.get("queue_depth_histogram")).getValue("count"));
+    }
+
+    @Test
+    public void idleWorkersWakeUp() throws Exception {
+        TaskProcessor tp = new TaskProcessor("RING", 16, 2, Thread.NORM_PRIORITY, false, TaskProcessor.DispatchMode.MPMC_RING);
+        try {
+            // let the workers park
+            TaskUtil.sleep(200);
+            AtomicLong ran = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(1);
+            long ts = System.nanoTime();
+            tp.execute(() -> {
+                ran.set(System.nanoTime());
+                done.countDown();
+            });
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            long latency = ran.get() - ts;
+            // well below the park timeout
+            Assertions.assertTrue(latency < TimeUnit.MILLISECONDS.toNanos(TaskProcessor.WAIT_TIME / 2), "latency " + latency);
+        } finally {
+            tp.close();
+        }
+    }
+
+    @Test
+    public void roundedCapacity() throws Exception {
+        TaskProcessor tp = new TaskProcessor("RING", 100, 2, Thread.NORM_PRIORITY, false, TaskProcessor.DispatchMode.MPMC_RING);
+        try {
+            Assertions.assertEquals(128, tp.getQueueMaxSize());
+            Future<String> future = tp.submit(() -> "done");
+            Assertions.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+        } finally {
+            tp.close();
+        }
+        Assertions.assertEquals(0, tp.pendingTasks());
+    }
+}
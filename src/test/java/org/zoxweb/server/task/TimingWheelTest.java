@@ -0,0 +1,136 @@
+package org.zoxweb.server.task;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.util.Appointment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimingWheelTest {
+
+    @Test
+    public void expirationAndCancel() throws Exception {
+        // small wheel to exercise the upper levels: 5ms * 8 = 40ms for the first level
+        TimingWheel<Integer> wheel = new TimingWheel<>(5, 8);
+        ConcurrentHashMap<Integer, Long> fired = new ConcurrentHashMap<>();
+        AtomicBoolean live = new AtomicBoolean(true);
+        Thread driver = new Thread(() -> {
+            while (live.get()) {
+                try {
+                    wheel.advance(20, i -> fired.put(i, System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        driver.start();
+
+        Random random = new Random(7);
+        List<TimingWheel.Entry<Integer>> entries = new ArrayList<>();
+        long[] expirations = new long[400];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < expirations.length; i++) {
+            TimingWheel.Entry<Integer> e = new TimingWheel.Entry<>(i);
+            expirations[i] = now + random.nextInt(1500);
+            wheel.schedule(e, expirations[i]);
+            entries.add(e);
+        }
+        Assertions.assertTrue(wheel.levelCount() > 1);
+
+        // cancel the odd ones, reschedule every 10th even one
+        for (int i = 1; i < entries.size(); i += 2)
+            Assertions.assertTrue(wheel.cancel(entries.get(i)) || fired.containsKey(i));
+        for (int i = 0; i < entries.size(); i += 10) {
+            if (!fired.containsKey(i)) {
+                expirations[i] = System.currentTimeMillis() + 200;
+                wheel.schedule(entries.get(i), expirations[i]);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (wheel.size() > 0 && System.currentTimeMillis() < deadline)
+            TaskUtil.sleep(20);
+        live.set(false);
+        driver.join();
+
+        Assertions.assertEquals(0, wheel.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Long ts = fired.get(i);
+            if (i % 2 == 0) {
+                Assertions.assertNotNull(ts, "entry " + i + " never expired");
+                Assertions.assertTrue(ts >= expirations[i], "entry " + i + " expired early");
+            } else if (ts != null) {
+                // only if it expired before the cancel
+                Assertions.assertTrue(ts <= expirations[i] + 100);
+            }
+            Assertions.assertFalse(entries.get(i).isScheduled());
+            Assertions.assertFalse(wheel.cancel(entries.get(i)));
+        }
+    }
+
+    @Test
+    public void wheelScheduler() {
+        TaskProcessor executor = new TaskProcessor(64);
+        TaskSchedulerProcessor tsp = new TaskSchedulerProcessor(executor, 10);
+        try {
+            Assertions.assertEquals(10, tsp.getTickMillis());
+            AtomicInteger counter = new AtomicInteger();
+            long ts = System.currentTimeMillis();
+            AtomicInteger delay = new AtomicInteger();
+            Appointment appointment = tsp.queue(100, () -> {
+                delay.set((int) (System.currentTimeMillis() - ts));
+                counter.incrementAndGet();
+            });
+            Appointment cancelled = tsp.queue(50, counter::incrementAndGet);
+            Assertions.assertTrue(cancelled.cancel());
+            Assertions.assertFalse(cancelled.cancel());
+            Assertions.assertEquals(1, tsp.pendingTasks());
+            tsp.queue(0, counter::incrementAndGet);
+
+            TaskUtil.sleep(400);
+            Assertions.assertEquals(2, counter.get());
+            Assertions.assertTrue(delay.get() >= 100, "early " + delay.get());
+            Assertions.assertEquals(1, appointment.execCount());
+
+            // reset reschedules
+            Assertions.assertTrue(appointment.reset(false));
+            TaskUtil.sleep(300);
+            Assertions.assertEquals(2, appointment.execCount());
+
+            AtomicInteger repeat = new AtomicInteger();
+            ScheduledFuture<?> sf = tsp.scheduleWithFixedDelay(repeat::incrementAndGet, 10, 20, TimeUnit.MILLISECONDS);
+            TaskUtil.sleep(300);
+            sf.cancel(true);
+            int count = repeat.get();
+            Assertions.assertTrue(count > 5, "repeat count " + count);
+            TaskUtil.sleep(100);
+            Assertions.assertTrue(repeat.get() <= count + 1);
+            Assertions.assertTrue(sf.isCancelled());
+            Assertions.assertFalse(sf.cancel(true));
+
+            // cancelled while running, the fixed delay task must not queue itself again
+            AtomicInteger running = new AtomicInteger();
+            ScheduledFuture<?> slow = tsp.scheduleWithFixedDelay(() -> {
+                running.incrementAndGet();
+                TaskUtil.sleep(100);
+            }, 0, 10, TimeUnit.MILLISECONDS);
+            TaskUtil.sleep(50);
+            Assertions.assertEquals(1, running.get());
+            Assertions.assertTrue(slow.cancel(true));
+            TaskUtil.sleep(200);
+            Assertions.assertEquals(1, running.get());
+            Assertions.assertEquals(0, tsp.pendingTasks());
+            Assertions.assertEquals(10L, (long) tsp.getProperties().getValue("tick_millis"));
+        } finally {
+            tsp.close();
+            executor.close();
+        }
+    }
+}
@@ -11,6 +11,8 @@ import org.zoxweb.shared.security.SecConst;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AnnotationScanTest {
 
@@ -60,6 +62,26 @@ public class AnnotationScanTest {
 
     }
 
+    @Test
+    public void cachedScanAndInvoke() throws Exception {
+        ReflectionUtil.AnnotationMap result = ReflectionUtil.scanClassAnnotations(ToBeTested.class, EndPointProp.class, ParamProp.class);
+        assert (result == ReflectionUtil.scanClassAnnotations(ToBeTested.class, EndPointProp.class, ParamProp.class));
+        assert (result != ReflectionUtil.scanClassAnnotations(ToBeTested.class, EndPointProp.class, Deprecated.class));
+        assert (ReflectionUtil.scanClassAnnotations(ToBeTested.class, Test.class) == null);
+
+        ReflectionUtil.MethodAnnotations[] endPoints = result.findMethodAnnotationsByType(EndPointProp.class);
+        assert (endPoints.length == 2);
+        for (ReflectionUtil.MethodAnnotations ma : endPoints) {
+            if (ma.method.getName().equals("getProfile")) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("profileId", "id");
+                data.put("realm", "realm");
+                assert ("str".equals(ReflectionUtil.invokeMethod(new ToBeTested(), ma, data)));
+            }
+        }
+        assert (result.findMethodsByType(Deprecated.class) == null);
+    }
+
     @Test
     public void testClassAnnotation() {
         assert (!ReflectionUtil.isClassAnnotatedAs(ToBeTested.class, Deprecated.class));
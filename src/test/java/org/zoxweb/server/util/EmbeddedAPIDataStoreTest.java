@@ -0,0 +1,159 @@
+package org.zoxweb.server.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zoxweb.server.io.WriteAheadLog;
+import org.zoxweb.shared.data.AppDeviceDAO;
+import org.zoxweb.shared.data.DeviceDAO;
+import org.zoxweb.shared.data.FileInfoDAO;
+import org.zoxweb.shared.db.QueryMarker;
+import org.zoxweb.shared.db.QueryMatch;
+import org.zoxweb.shared.util.Const.RelationalOperator;
+import org.zoxweb.shared.util.NVEntity;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+public class EmbeddedAPIDataStoreTest {
+
+    @TempDir
+    File dir;
+
+    private static FileInfoDAO file(String name, String contentType, long length) {
+        FileInfoDAO ret = new FileInfoDAO();
+        ret.setName(name);
+        ret.setContentType(contentType);
+        ret.setLength(length);
+        return ret;
+    }
+
+    private static void assertSameResults(MockAPIDataStore mock, EmbeddedAPIDataStore store, QueryMarker... criteria) {
+        List<NVEntity> expected = mock.search(FileInfoDAO.NVC_FILE_INFO_DAO, null, criteria);
+        List<NVEntity> actual = store.search(FileInfoDAO.NVC_FILE_INFO_DAO, null, criteria);
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (NVEntity nve : expected)
+            Assertions.assertEquals(1, store.searchByID(FileInfoDAO.NVC_FILE_INFO_DAO, nve.getGUID()).size());
+        Assertions.assertEquals(expected.size(), store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, criteria));
+    }
+
+    @Test
+    public void indexedQueriesMatchScan() throws Exception {
+        EmbeddedAPIDataStore store = new EmbeddedAPIDataStore(dir);
+        store.addIndex(FileInfoDAO.NVC_FILE_INFO_DAO, "content_type", EmbeddedAPIDataStore.IndexType.HASH);
+        store.addIndex(FileInfoDAO.NVC_FILE_INFO_DAO, FileInfoDAO.Param.LENGTH, EmbeddedAPIDataStore.IndexType.SORTED);
+        MockAPIDataStore mock = new MockAPIDataStore();
+
+        String[] types = {"text/plain", "image/png", "application/json", "TEXT/PLAIN"};
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            FileInfoDAO fid = store.insert(file("file-" + i, types[random.nextInt(types.length)], random.nextInt(100)));
+            mock.insert(fid);
+        }
+
+        for (long length : new long[]{0, 10, 50, 99, 100}) {
+            for (RelationalOperator op : new RelationalOperator[]{RelationalOperator.EQUAL, RelationalOperator.GT, RelationalOperator.GTE, RelationalOperator.LT, RelationalOperator.LTE})
+                assertSameResults(mock, store, new QueryMatch<>("length", length, op));
+            assertSameResults(mock, store, new QueryMatch<>("length", length, RelationalOperator.LT), new QueryMatch<>("content_type", "text/plain", RelationalOperator.EQUAL));
+        }
+        assertSameResults(mock, store, new QueryMatch<>("content_type", "image/png", RelationalOperator.NOT_EQUAL));
+        assertSameResults(mock, store, new QueryMatch<>("name", "file-7", RelationalOperator.EQUAL));
+        Assertions.assertTrue((Long) store.getProperties().getValue("index_queries") > 0);
+        Assertions.assertTrue((Long) store.getProperties().getValue("scan_queries") > 0);
+        Assertions.assertTrue(store.explain(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 5, RelationalOperator.EQUAL)).startsWith("INDEX length SORTED"));
+        Assertions.assertTrue(store.explain(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("name", "file-7", RelationalOperator.EQUAL)).startsWith("SCAN 1000"));
+
+        // update moves the entity in the indexes
+        FileInfoDAO fid = store.<FileInfoDAO>search(FileInfoDAO.NVC_FILE_INFO_DAO, null, new QueryMatch<>("name", "file-7", RelationalOperator.EQUAL)).get(0);
+        fid.setLength(5000);
+        // stored by reference, not reindexed till updated
+        Assertions.assertEquals(0, store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 1000L, RelationalOperator.GT)));
+        store.update(fid);
+        Assertions.assertEquals(1, store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 1000L, RelationalOperator.GT)));
+
+        // delete by criteria
+        long pngs = store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("content_type", "image/png", RelationalOperator.EQUAL));
+        Assertions.assertTrue(store.delete(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("content_type", "image/png", RelationalOperator.EQUAL)));
+        Assertions.assertEquals(1000 - pngs, store.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO));
+        store.close();
+    }
+
+    @Test
+    public void dottedIndex() throws Exception {
+        EmbeddedAPIDataStore store = new EmbeddedAPIDataStore(dir);
+        store.addIndex(AppDeviceDAO.NVC_APP_DEVICE_DAO, "device.model", EmbeddedAPIDataStore.IndexType.HASH);
+        for (int i = 0; i < 10; i++) {
+            DeviceDAO device = new DeviceDAO();
+            device.setModel("model-" + (i % 3));
+            AppDeviceDAO appDevice = new AppDeviceDAO();
+            appDevice.setName("model-0");
+            appDevice.setDevice(device);
+            store.insert(appDevice);
+        }
+        QueryMatch<String> model = new QueryMatch<>("device.model", "model-1", RelationalOperator.EQUAL);
+        Assertions.assertTrue(store.explain(AppDeviceDAO.NVC_APP_DEVICE_DAO, model).startsWith("INDEX device.model HASH"));
+        Assertions.assertEquals(3, store.countMatch(AppDeviceDAO.NVC_APP_DEVICE_DAO, model));
+        Assertions.assertEquals(4, store.countMatch(AppDeviceDAO.NVC_APP_DEVICE_DAO, new QueryMatch<>("device.model", "model-0", RelationalOperator.EQUAL)));
+        store.close();
+    }
+
+    @Test
+    public void recovery() throws Exception {
+        EmbeddedAPIDataStore store = new EmbeddedAPIDataStore(dir, false, 50);
+        for (int i = 0; i < 120; i++)
+            store.insert(file("file-" + i, "text/plain", i));
+        FileInfoDAO deleted = store.<FileInfoDAO>search(FileInfoDAO.NVC_FILE_INFO_DAO, null, new QueryMatch<>("name", "file-3", RelationalOperator.EQUAL)).get(0);
+        Assertions.assertTrue(store.delete(deleted, false));
+        store.createSequence("seq", 100, 1);
+        Assertions.assertEquals(101, store.nextSequenceValue("seq"));
+        Assertions.assertTrue((Long) store.getProperties().getValue("snapshots") >= 2);
+        // simulate a crash, no close, then a torn record at the end of the log
+        store.nextSequenceValue("seq");
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, EmbeddedAPIDataStore.WAL_FILE), "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[]{0, 0, 0, 100, 1, '{'});
+        }
+
+        EmbeddedAPIDataStore reopened = new EmbeddedAPIDataStore(dir, false, 50);
+        Assertions.assertEquals(119, reopened.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO));
+        Assertions.assertEquals(102, reopened.currentSequenceValue("seq"));
+        Assertions.assertTrue(reopened.searchByID(FileInfoDAO.NVC_FILE_INFO_DAO, deleted.getGUID()).isEmpty());
+        Assertions.assertEquals(1, reopened.search(FileInfoDAO.class.getName(), null, new QueryMatch<>("name", "file-119", RelationalOperator.EQUAL)).size());
+        FileInfoDAO fid = reopened.<FileInfoDAO>search(FileInfoDAO.NVC_FILE_INFO_DAO, null, new QueryMatch<>("name", "file-42", RelationalOperator.EQUAL)).get(0);
+        Assertions.assertEquals(42, fid.getLength());
+        Assertions.assertEquals("text/plain", fid.getContentType());
+        reopened.close();
+
+        // clean close leaves an empty log
+        Assertions.assertEquals(0, new File(dir, EmbeddedAPIDataStore.WAL_FILE).length());
+        reopened = new EmbeddedAPIDataStore(dir);
+        Assertions.assertEquals(119, reopened.countMatch(FileInfoDAO.NVC_FILE_INFO_DAO));
+        reopened.close();
+    }
+
+    @Test
+    public void writeAheadLog() throws Exception {
+        File file = new File(dir, "test.wal");
+        WriteAheadLog wal = new WriteAheadLog(file, true);
+        for (int i = 0; i < 10; i++)
+            wal.append((byte) i, ("record-" + i).getBytes());
+        wal.close();
+        // corrupt the last record payload
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 6);
+            raf.write('X');
+        }
+        wal = new WriteAheadLog(file, false);
+        StringBuilder sb = new StringBuilder();
+        Assertions.assertEquals(9, wal.replay((type, payload, length) -> sb.append(type).append(new String(payload, 0, length)).append(',')));
+        Assertions.assertTrue(sb.toString().startsWith("0record-0,1record-1,"));
+        wal.append((byte) 9, "again".getBytes());
+        wal.close();
+        wal = new WriteAheadLog(file, false);
+        Assertions.assertEquals(10, wal.replay((type, payload, length) -> {
+        }));
+        wal.close();
+    }
+}
@@ -1,11 +1,18 @@
 package org.zoxweb.server.util;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.zoxweb.server.io.UByteArrayOutputStream;
+import org.zoxweb.shared.data.SimpleMessage;
+import org.zoxweb.shared.filters.FilterType;
 import org.zoxweb.shared.http.*;
 import org.zoxweb.shared.util.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 
 public class GSONUtilTest {
@@ -163,4 +170,96 @@ public class GSONUtilTest {
         System.out.println("authentication " + GSONUtil.toJSONDefault(authorization, true));
     }
 
+
+    private static NVGenericMap streamSample() {
+        NVGenericMap nested = new NVGenericMap("nested")
+                .build("string", "value \"quoted\" <html> \u00e9 \u20ac \uD83D\uDE00")
+                .build(new NVLong("long", Long.MAX_VALUE))
+                .build(new NVDouble("double", 3.25));
+        NVGenericMapList list = new NVGenericMapList("list");
+        list.add(new NVGenericMap().build("a", "1").build(new NVInt("b", 2)));
+        list.add(new NVGenericMap().build("a", "3").build(new NVInt("b", 4)));
+        NVIntList ints = new NVIntList("ints");
+        ints.getValue().addAll(Arrays.asList(1, 2, 3));
+        NVStringList strings = new NVStringList("strings");
+        strings.getValue().addAll(Arrays.asList("x", "y"));
+        return new NVGenericMap("sample")
+                .build("name", "zoxweb")
+                .build("empty", null)
+                .build(new NVInt("int", 42))
+                .build(new NVInt("zero", 0))
+                .build(new NVFloat("float", 1.5f))
+                .build(new NVBoolean("flag", true))
+                .build(new NVEnum("enum", Const.Bool.TRUE))
+                .build(new NVPair("email", "mario@mario.com", FilterType.EMAIL))
+                .build(new NVBlob("blob", new byte[]{0, 1, 2, (byte) 0xff}))
+                .build(new NVEntityReference("message", new SimpleMessage("hello", 200)))
+                .build(nested)
+                .build(list)
+                .build(ints)
+                .build(strings);
+    }
+
+    @Test
+    public void streamingEncoderSameBytes() throws IOException {
+        NVGenericMap nvgm = streamSample();
+        for (boolean indent : new boolean[]{true, false})
+            for (boolean printNull : new boolean[]{true, false})
+                for (boolean printClassType : new boolean[]{true, false}) {
+                    Assertions.assertArrayEquals(SharedStringUtil.getBytes(GSONUtil.toJSONGenericMap(nvgm, indent, printNull, printClassType)),
+                            GSONUtil.toJSONGenericMap(new UByteArrayOutputStream(), nvgm, indent, printNull, printClassType).toByteArray());
+                }
+
+        SimpleMessage sm = new SimpleMessage("streamed", 201, "none");
+        for (SharedBase64.Base64Type b64Type : new SharedBase64.Base64Type[]{null, SharedBase64.Base64Type.URL})
+            Assertions.assertArrayEquals(SharedStringUtil.getBytes(GSONUtil.toJSON(sm, true, false, true, b64Type)),
+                    GSONUtil.toJSON(new UByteArrayOutputStream(), sm, true, false, true, b64Type).toByteArray());
+
+        for (Object o : new Object[]{nvgm, sm, new TestObj("zoxweb", "org", 10), null})
+            Assertions.assertArrayEquals(SharedStringUtil.getBytes(GSONUtil.toJSONDefault(o)),
+                    GSONUtil.toJSONDefault(new UByteArrayOutputStream(), o).toByteArray());
+    }
+
+    @Test
+    public void streamingDecoderSameResult() throws IOException {
+        String[] jsons = {
+                GSONUtil.toJSONGenericMap(streamSample(), false, true, true),
+                GSONUtil.toJSONGenericMap(streamSample(), true, false, false),
+                GSONUtil.toJSONDefault(streamSample()),
+                "{\"pairs\":[{\"k1\":\"v1\"},{\"k2\":\"v2\"}],\"numbers\":[1,2.5,30000000000],\"mixed\":[1,\"a\"],\"none\":[],\"n\":null}",
+                "{\"deep\":{\"a\":{\"b\":{\"c\":[{\"x\":1,\"y\":true},{\"x\":2,\"y\":false}]}}},\"class_type\":\"ignored\"}",
+                "{\"empty\":{},\"emptyFirst\":[{},{\"a\":1}],\"pair\":{\"value_filter\":\"NONE\",\"value\":\"v\"}}",
+                // meta tokens after the first member, in the first and the following map list elements
+                "{\"e\":{\"value\":\"TRUE\",\"enum_type\":\"" + Const.Bool.class.getName() + "\"}," +
+                        "\"list\":[{\"id\":1,\"m\":{\"name\":\"first\",\"creation_ts\":1000,\"class_type\":\"" + SimpleMessage.class.getName() + "\"}}," +
+                        "{\"id\":2,\"m\":{\"name\":\"second\",\"creation_ts\":2000,\"class_type\":\"" + SimpleMessage.class.getName() + "\"}}," +
+                        "{\"id\":3,\"p\":{\"value\":\"mario@mario.com\",\"value_filter\":\"" + FilterType.EMAIL.toCanonicalID() + "\"}}]}",
+        };
+        for (String json : jsons) {
+            NVGenericMap tree = GSONUtil.fromJSONGenericMap(json, null, SharedBase64.Base64Type.DEFAULT);
+            NVGenericMap streamed = GSONUtil.fromJSONGenericMap(SharedStringUtil.getBytes(json), null, SharedBase64.Base64Type.DEFAULT);
+            Assertions.assertEquals(GSONUtil.toJSONGenericMap(tree, false, true, true), GSONUtil.toJSONGenericMap(streamed, false, true, true), json);
+            NVGenericMap fromStream = GSONUtil.fromJSONGenericMap(new ByteArrayInputStream(SharedStringUtil.getBytes(json)), null, SharedBase64.Base64Type.DEFAULT, true);
+            Assertions.assertEquals(GSONUtil.toJSONGenericMap(GSONUtil.fromJSONGenericMap(json, null, SharedBase64.Base64Type.DEFAULT, true), false, true, true),
+                    GSONUtil.toJSONGenericMap(fromStream, false, true, true), json);
+        }
+
+        NVGenericMap decoded = GSONUtil.fromJSONGenericMap(SharedStringUtil.getBytes(jsons[0]), null, SharedBase64.Base64Type.DEFAULT);
+        Assertions.assertEquals(Const.Bool.TRUE, decoded.getValue("enum"));
+        Assertions.assertEquals(FilterType.EMAIL, ((NVPair) decoded.get("email")).getValueFilter());
+        Assertions.assertArrayEquals(new byte[]{0, 1, 2, (byte) 0xff}, (byte[]) decoded.getValue("blob"));
+        Assertions.assertInstanceOf(SimpleMessage.class, decoded.getValue("message"));
+        Assertions.assertEquals(Long.MAX_VALUE, (long) ((NVGenericMap) decoded.get("nested")).getValue("long"));
+        Assertions.assertEquals(2, ((NVGenericMapList) decoded.get("list")).getValue().size());
+
+        decoded = GSONUtil.fromJSONGenericMap(SharedStringUtil.getBytes(jsons[jsons.length - 1]), null, SharedBase64.Base64Type.DEFAULT);
+        Assertions.assertEquals(Const.Bool.TRUE, decoded.getValue("e"));
+        List<NVGenericMap> elements = ((NVGenericMapList) decoded.get("list")).getValue();
+        Assertions.assertInstanceOf(SimpleMessage.class, elements.get(0).getValue("m"));
+        Assertions.assertInstanceOf(SimpleMessage.class, elements.get(1).getValue("m"));
+        Assertions.assertInstanceOf(NVPair.class, elements.get(2).get("p"));
+
+        Assertions.assertNull(GSONUtil.fromJSONGenericMap(new byte[0], null, SharedBase64.Base64Type.DEFAULT));
+        Assertions.assertNull(GSONUtil.fromJSONGenericMap(SharedStringUtil.getBytes("[1,2]"), null, SharedBase64.Base64Type.DEFAULT));
+    }
 }
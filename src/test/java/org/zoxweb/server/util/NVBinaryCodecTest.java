@@ -0,0 +1,130 @@
+package org.zoxweb.server.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.queue.NVEntityByteDecoder;
+import org.zoxweb.server.queue.NVEntityQueueEvent;
+import org.zoxweb.server.queue.NVGenericMapByteDecoder;
+import org.zoxweb.server.queue.NVGenericMapQueueEvent;
+import org.zoxweb.shared.data.SimpleMessage;
+import org.zoxweb.shared.filters.FilterType;
+import org.zoxweb.shared.http.*;
+import org.zoxweb.shared.util.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+public class NVBinaryCodecTest {
+
+    private static NVGenericMap sample() {
+        NVGenericMap nested = new NVGenericMap("nested")
+                .build("string", "value \"quoted\" \u00e9 \u20ac \uD83D\uDE00")
+                .build(new NVLong("long", Long.MIN_VALUE))
+                .build(new NVDouble("double", -3.25));
+        NVGenericMapList list = new NVGenericMapList("list");
+        list.add(new NVGenericMap().build("a", "1").build(new NVInt("b", 2)));
+        list.add(new NVGenericMap().build("a", "3").build(new NVInt("b", -4)));
+        NVIntList ints = new NVIntList("ints");
+        ints.getValue().addAll(Arrays.asList(1, -2, Integer.MAX_VALUE));
+        NVStringList strings = new NVStringList("strings");
+        strings.getValue().addAll(Arrays.asList("x", "y"));
+        return new NVGenericMap("sample")
+                .build("name", "zoxweb")
+                .build("empty", null)
+                .build(new NVInt("int", 42))
+                .build(new NVFloat("float", 1.5f))
+                .build(new NVBoolean("flag", true))
+                .build(new NVEnum("enum", Const.Bool.TRUE))
+                .build(new NVPair("email", "mario@mario.com", FilterType.EMAIL))
+                .build(new NVBlob("blob", new byte[]{0, 1, 2, (byte) 0xff}))
+                .build(new NVBigDecimal("decimal", new BigDecimal("12345.6789")))
+                .build(new NVEntityReference("message", new SimpleMessage("hello", 200)))
+                .build(nested)
+                .build(list)
+                .build(ints)
+                .build(strings);
+    }
+
+    private static HTTPMessageConfig entitySample() {
+        HTTPMessageConfig ret = (HTTPMessageConfig) HTTPMessageConfig.createAndInit("https://api.xlogistx.io", "v1/test", HTTPMethod.PATCH);
+        ret.setContentType(HTTPMediaType.APPLICATION_JSON, HTTPConst.CHARSET_UTF_8);
+        ret.getHeaders().build("x-custom", "custom value");
+        ret.getParameters().build("page", "2");
+        ret.setContent(new byte[]{'{', '}', 0, -1});
+        ret.setBasicAuthorization("user", "password");
+        ret.setTimeout(5000);
+        return ret;
+    }
+
+    @Test
+    public void mapRoundTrip() throws IOException {
+        NVGenericMap nvgm = sample();
+        byte[] encoded = NVBinaryCodec.encode(nvgm);
+        NVGenericMap decoded = NVBinaryCodec.decodeNVGenericMap(encoded);
+        Assertions.assertEquals(GSONUtil.toJSONGenericMap(nvgm, false, true, true), GSONUtil.toJSONGenericMap(decoded, false, true, true));
+        Assertions.assertEquals("sample", decoded.getName());
+        Assertions.assertEquals(FilterType.EMAIL, ((NVPair) decoded.get("email")).getValueFilter());
+        Assertions.assertEquals(Const.Bool.TRUE, decoded.getValue("enum"));
+        Assertions.assertArrayEquals(new byte[]{0, 1, 2, (byte) 0xff}, (byte[]) decoded.getValue("blob"));
+
+        byte[] json = GSONUtil.toJSONGenericMap(nvgm, false, false, true).getBytes();
+        Assertions.assertTrue(encoded.length < json.length, encoded.length + " " + json.length);
+
+        NVGenericMapQueueEvent event = new NVGenericMapByteDecoder(true).decode(new NVGenericMapQueueEvent(this, nvgm, true).toBytes());
+        Assertions.assertTrue(event.isBinary());
+        Assertions.assertEquals(GSONUtil.toJSONGenericMap(nvgm, false, true, true), GSONUtil.toJSONGenericMap(event.getContent(), false, true, true));
+        Assertions.assertArrayEquals(encoded, event.toBytes());
+    }
+
+    @Test
+    public void entityRoundTrip() throws IOException {
+        HTTPMessageConfig hmci = entitySample();
+        byte[] encoded = NVBinaryCodec.encode(hmci);
+        NVEntity decoded = NVBinaryCodec.decodeNVEntity(encoded);
+        Assertions.assertInstanceOf(HTTPMessageConfig.class, decoded);
+        Assertions.assertEquals(GSONUtil.toJSON(hmci, false, false, true), GSONUtil.toJSON(decoded, false, false, true));
+        Assertions.assertArrayEquals(hmci.getContent(), ((HTTPMessageConfigInterface) decoded).getContent());
+        Assertions.assertEquals(HTTPMethod.PATCH, ((HTTPMessageConfigInterface) decoded).getMethod());
+
+        byte[] json = GSONUtil.toJSON(hmci, false, false, true).getBytes();
+        Assertions.assertTrue(encoded.length < json.length, encoded.length + " " + json.length);
+
+        SimpleMessage sm = new SimpleMessage("queued", 201, "none");
+        NVEntity fromQueue = new NVEntityByteDecoder(true).decode(new NVEntityQueueEvent(this, sm, true).toBytes()).getContent();
+        Assertions.assertEquals(GSONUtil.toJSON(sm, false, false, true), GSONUtil.toJSON(fromQueue, false, false, true));
+        // the json decoder is still the default
+        Assertions.assertNotNull(new NVEntityByteDecoder().decode(GSONUtil.toJSON(sm, false, false, true, SharedBase64.Base64Type.URL).getBytes()).getContent());
+    }
+
+    @Test
+    public void registrar() {
+        NVBinaryCodec.register();
+        SimpleMessage sm = new SimpleMessage("registered", 200);
+        Assertions.assertSame(NVBinaryCodec.NVENTITY_CODEC, DataCodecRegistrar.SINGLETON.lookup(NVEntity.class));
+        // subclasses resolve to the NVEntity codec
+        Assertions.assertSame(NVBinaryCodec.NVENTITY_CODEC, DataCodecRegistrar.SINGLETON.lookup(SimpleMessage.class));
+        Assertions.assertSame(NVBinaryCodec.NVENTITY_CODEC, DataCodecRegistrar.SINGLETON.lookup(sm));
+        Assertions.assertSame(DataCodecRegistrar.BinaryCodec.SINGLETON, DataCodecRegistrar.SINGLETON.lookup(byte[].class));
+        Assertions.assertNull(DataCodecRegistrar.SINGLETON.lookup(Integer.class));
+        DataCodec<NVEntity, byte[]> codec = DataCodecRegistrar.SINGLETON.lookup(NVEntity.class);
+        Assertions.assertEquals("registered", ((SimpleMessage) codec.decode(codec.encode(sm))).getMessage());
+        Assertions.assertSame(NVBinaryCodec.NVGENERIC_MAP_CODEC, DataCodecRegistrar.SINGLETON.lookup(NVGenericMap.class));
+    }
+
+    @Test
+    public void invalidEncoding() {
+        byte[] encoded = NVBinaryCodec.encode(new SimpleMessage("truncated", 200));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVEntity(Arrays.copyOf(encoded, encoded.length - 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVEntity(Arrays.copyOf(encoded, encoded.length + 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVGenericMap(new byte[]{0, 99}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVEntity(new byte[]{2, 4, 'j', 'a', 'v'}));
+        // class table reference out of range
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVEntity(new byte[]{8, 0, 0}));
+
+        // enum ordinal out of range, the ordinal is the last value before the end tag
+        byte[] enumMap = NVBinaryCodec.encode(new NVGenericMap().build(new NVEnum("enum", HTTPMethod.GET)));
+        enumMap[enumMap.length - 2] = 99;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NVBinaryCodec.decodeNVGenericMap(enumMap));
+    }
+}
@@ -0,0 +1,98 @@
+package org.zoxweb.server.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.data.AppDeviceDAO;
+import org.zoxweb.shared.data.DeviceDAO;
+import org.zoxweb.shared.data.FileInfoDAO;
+import org.zoxweb.shared.db.QueryMatch;
+import org.zoxweb.shared.db.QueryRequest;
+import org.zoxweb.shared.util.Const.LogicalOperator;
+import org.zoxweb.shared.util.Const.RelationalOperator;
+
+public class QueryPredicateTest {
+
+    private static FileInfoDAO file(String name, String contentType, long length) {
+        FileInfoDAO ret = new FileInfoDAO();
+        ret.setName(name);
+        ret.setContentType(contentType);
+        ret.setLength(length);
+        return ret;
+    }
+
+    @Test
+    public void typedTerms() {
+        FileInfoDAO fid = file("readme", "Text/Plain", 42);
+        QueryPredicate qp = QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 42, RelationalOperator.EQUAL));
+        // the Integer criterion is converted to the Long field type
+        Assertions.assertEquals(42L, qp.requiredTerms().get(0).getValue());
+        Assertions.assertTrue(qp.test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 40, RelationalOperator.GT)).test(fid));
+        Assertions.assertFalse(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("length", 42, RelationalOperator.LT)).test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("content_type", "text/plain", RelationalOperator.EQUAL)).test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("content_type", "image/png", RelationalOperator.NOT_EQUAL)).test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("description", null, RelationalOperator.EQUAL)).test(fid));
+        // unresolved entity type, decided per entity
+        Assertions.assertTrue(QueryPredicate.compile(null, new QueryMatch<>("name", "README", RelationalOperator.EQUAL)).test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(null).test(fid));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, (QueryRequest) null).isMatchAll());
+    }
+
+    @Test
+    public void logicalOperators() {
+        FileInfoDAO fid = file("readme", "text/plain", 42);
+        QueryMatch<String> png = new QueryMatch<>("content_type", "image/png", RelationalOperator.EQUAL);
+        QueryMatch<String> name = new QueryMatch<>("name", "readme", RelationalOperator.EQUAL);
+        QueryMatch<Long> small = new QueryMatch<>("length", 10L, RelationalOperator.LT);
+
+        // png OR (name AND small)
+        QueryPredicate qp = QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, png, LogicalOperator.OR, name, LogicalOperator.AND, small);
+        Assertions.assertFalse(qp.test(fid));
+        Assertions.assertTrue(qp.requiredTerms().isEmpty());
+        // (png AND small) OR name
+        qp = QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, png, small, LogicalOperator.OR, name);
+        Assertions.assertTrue(qp.test(fid));
+
+        // AND terms ordered by selectivity
+        qp = QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, small, name);
+        Assertions.assertEquals("name", qp.requiredTerms().get(0).getName());
+        String explain = qp.explain();
+        Assertions.assertTrue(explain.startsWith("AND"), explain);
+        Assertions.assertTrue(explain.indexOf("name EQUAL") < explain.indexOf("length LT"), explain);
+
+        QueryRequest qr = new QueryRequest();
+        qr.setQuery(name, LogicalOperator.AND, new QueryMatch<>("length", 42L, RelationalOperator.GTE));
+        Assertions.assertTrue(QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, qr).test(fid));
+    }
+
+    @Test
+    public void dottedNames() {
+        DeviceDAO device = new DeviceDAO();
+        device.setName("phone");
+        device.setModel("x1");
+        AppDeviceDAO appDevice = new AppDeviceDAO();
+        appDevice.setName("app");
+        appDevice.setDevice(device);
+
+        // the leaf is read from the referenced entity, not from the top level field of the same name
+        QueryPredicate qp = QueryPredicate.compile(AppDeviceDAO.NVC_APP_DEVICE_DAO, new QueryMatch<>("device.name", "phone", RelationalOperator.EQUAL));
+        Assertions.assertNotNull(qp.requiredTerms().get(0).getNVConfig());
+        Assertions.assertTrue(qp.test(appDevice));
+        Assertions.assertFalse(QueryPredicate.compile(AppDeviceDAO.NVC_APP_DEVICE_DAO, new QueryMatch<>("device.name", "app", RelationalOperator.EQUAL)).test(appDevice));
+        Assertions.assertTrue(QueryPredicate.compile(AppDeviceDAO.NVC_APP_DEVICE_DAO, new QueryMatch<>("device.model", "X1", RelationalOperator.EQUAL)).test(appDevice));
+        Assertions.assertEquals("x1", QueryPredicate.fieldValue(appDevice, "device.model"));
+
+        // missing intermediate entity
+        appDevice.setDevice(null);
+        Assertions.assertFalse(qp.test(appDevice));
+        Assertions.assertNull(QueryPredicate.fieldValue(appDevice, "device.model"));
+    }
+
+    @Test
+    public void exactNameCase() {
+        FileInfoDAO fid = file("readme", "text/plain", 42);
+        QueryPredicate qp = QueryPredicate.compile(FileInfoDAO.NVC_FILE_INFO_DAO, new QueryMatch<>("NAME", "readme", RelationalOperator.EQUAL));
+        Assertions.assertNull(qp.requiredTerms().get(0).getNVConfig());
+        Assertions.assertFalse(qp.test(fid));
+    }
+}
@@ -2,12 +2,14 @@ package org.zoxweb.server.util;
 
 import org.junit.jupiter.api.Test;
 import org.zoxweb.server.http.HTTPAPIManager;
+import org.zoxweb.server.io.IOUtil;
 import org.zoxweb.server.io.UByteArrayOutputStream;
 import org.zoxweb.server.logging.LogWrapper;
 import org.zoxweb.server.net.NIOSocket;
 import org.zoxweb.server.security.KeyMakerProvider;
 import org.zoxweb.shared.util.SUS;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -31,6 +33,115 @@ public class ReflectionTest {
         public void param0() {
         }
 
+        public long sum(int a, long b) {
+            return a + b;
+        }
+
+        public static String join(String... values) {
+            return String.join(",", values);
+        }
+
+        public void fail(String message) {
+            throw new IllegalStateException(message);
+        }
+
+    }
+
+    @Test
+    public void methodInvoker() throws Exception {
+        ToTest tt = new ToTest();
+        ReflectionUtil.MethodInvoker sum = ReflectionUtil.lookupInvoker(ToTest.class.getMethod("sum", int.class, long.class));
+        assertSame(sum, ReflectionUtil.lookupInvoker(ToTest.class.getMethod("sum", int.class, long.class)));
+        assertEquals(7L, (long) sum.invoke(tt, 3, 4L));
+        // primitive widening goes through Method.invoke
+        assertEquals(7L, (long) sum.invoke(tt, 3, 4));
+        assertThrows(IllegalArgumentException.class, () -> sum.invoke(tt, 3, null));
+        assertThrows(IllegalArgumentException.class, () -> sum.invoke(tt, "3", 4L));
+        assertThrows(IllegalArgumentException.class, () -> sum.invoke(tt, 3));
+        assertThrows(NullPointerException.class, () -> sum.invoke(null, 3, 4L));
+
+        ReflectionUtil.MethodInvoker join = ReflectionUtil.lookupInvoker(ToTest.class.getMethod("join", String[].class));
+        assertEquals("a,b", join.invoke(null, (Object) new String[]{"a", "b"}));
+
+        ReflectionUtil.MethodInvoker fail = ReflectionUtil.lookupInvoker(ToTest.class.getMethod("fail", String.class));
+        InvocationTargetException e = assertThrows(InvocationTargetException.class, () -> fail.invoke(tt, "failed"));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("failed", e.getCause().getMessage());
+
+        assertNull(ReflectionUtil.lookupInvoker(ToTest.class.getMethod("param1", String.class)).invoke(tt, "void"));
+        assertTrue(ReflectionUtil.hasMethod(tt, ToTest.class.getMethod("param0")));
+        assertFalse(ReflectionUtil.hasMethod(String.class, ToTest.class.getMethod("param0")));
+    }
+
+    public interface Sum {
+        long sum(ToTest tt, int a, long b);
+    }
+
+    public interface Join {
+        String join(String[] values);
+    }
+
+    @Test
+    public void bindInvoker() throws Exception {
+        ToTest tt = new ToTest();
+        ReflectionUtil.MethodInvoker sum = ReflectionUtil.lookupInvoker(ToTest.class.getMethod("sum", int.class, long.class));
+        Sum bound = sum.bind(Sum.class);
+        assertSame(bound, sum.bind(Sum.class));
+        assertEquals(7L, bound.sum(tt, 3, 4L));
+        assertEquals("a,b", ReflectionUtil.lookupInvoker(ToTest.class.getMethod("join", String[].class)).bind(Join.class).join(new String[]{"a", "b"}));
+        // signature mismatch and not functional interfaces
+        assertThrows(IllegalArgumentException.class, () -> sum.bind(Join.class));
+        assertThrows(IllegalArgumentException.class, () -> sum.bind(Runnable.class));
+        assertThrows(IllegalArgumentException.class, () -> sum.bind(ToTest.class));
+    }
+
+    /**
+     * Defines its own copy of one class, its other classes come from the parent loader.
+     */
+    private static class ChildLoader
+            extends ClassLoader {
+        private final String className;
+
+        private ChildLoader(String className) {
+            super(ReflectionTest.class.getClassLoader());
+            this.className = className;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(className))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> ret = findLoadedClass(name);
+                if (ret == null) {
+                    try {
+                        UByteArrayOutputStream data = IOUtil.inputStreamToByteArray(getParent().getResourceAsStream(name.replace('.', '/') + ".class"), true);
+                        ret = defineClass(name, data.getInternalBuffer(), 0, data.size());
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return ret;
+            }
+        }
+    }
+
+    @Test
+    public void childLoaderInvoker() throws Exception {
+        Class<?> plugin = new ChildLoader(ToTest.class.getName()).loadClass(ToTest.class.getName());
+        assertNotSame(ToTest.class, plugin);
+        Object tt = plugin.getConstructor().newInstance();
+
+        ReflectionUtil.MethodInvoker sum = ReflectionUtil.lookupInvoker(plugin.getMethod("sum", int.class, long.class));
+        assertEquals(7L, (long) sum.invoke(tt, 3, 4L));
+        assertEquals(7L, (long) sum.invoke(tt, 3, 4));
+        assertThrows(IllegalArgumentException.class, () -> sum.invoke(new ToTest(), 3, 4L));
+        assertEquals("a,b", ReflectionUtil.lookupInvoker(plugin.getMethod("join", String[].class)).invoke(null, (Object) new String[]{"a", "b"}));
+        assertNull(ReflectionUtil.lookupInvoker(plugin.getMethod("param0")).invoke(tt));
+        InvocationTargetException e = assertThrows(InvocationTargetException.class,
+                () -> ReflectionUtil.lookupInvoker(plugin.getMethod("fail", String.class)).invoke(tt, "failed"));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("a,b", ReflectionUtil.lookupInvoker(plugin.getMethod("join", String[].class)).bind(Join.class).join(new String[]{"a", "b"}));
     }
 
     @Test
@@ -0,0 +1,138 @@
+package org.zoxweb.server.util.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.util.SharedStringUtil;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentKVMapStoreTest {
+
+    @Test
+    public void boundedByCount() {
+        ConcurrentKVMapStore<String, String> store = new ConcurrentKVMapStore<>("count", 100);
+        // hot keys read often
+        for (int i = 0; i < 20; i++) {
+            store.put("hot-" + i, "v" + i);
+            for (int j = 0; j < 10; j++)
+                store.get("hot-" + i);
+        }
+        // one time keys scanning through while the hot keys are still read
+        for (int i = 0; i < 10_000; i++) {
+            store.put("scan-" + i, "v" + i);
+            store.get("hot-" + (i % 20));
+        }
+
+        Assertions.assertTrue(store.size() <= 100, "size " + store.size());
+        int hot = 0;
+        for (int i = 0; i < 20; i++)
+            if (store.containsKey("hot-" + i))
+                hot++;
+        Assertions.assertEquals(20, hot, "frequent keys must survive a scan");
+        Assertions.assertTrue((Long) store.getProperties().getValue("evictions") >= 9_900);
+    }
+
+    @Test
+    public void boundedByDataSize() {
+        ConcurrentKVMapStore<String, byte[]> store = new ConcurrentKVMapStore<>("bytes", 0, 10_000, v -> v != null ? v.length : 0, 0);
+        for (int i = 0; i < 1000; i++)
+            store.put("k" + i, new byte[100]);
+        Assertions.assertTrue(store.dataSize() <= 10_000, "data size " + store.dataSize());
+        Assertions.assertEquals(store.size() * 100L, store.dataSize());
+        Assertions.assertEquals(100, store.averageDataSize());
+
+        store.put("big", new byte[5_000]);
+        Assertions.assertTrue(store.dataSize() <= 10_000);
+        store.clear(true);
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertEquals(0, store.dataSize());
+    }
+
+    @Test
+    public void frequencyKeptOnGrowth() {
+        // bounded by data size only, the frequency sketch sized for 1024 entries grows with the entry count
+        ConcurrentKVMapStore<String, byte[]> store = new ConcurrentKVMapStore<>("growth", 0, 40_000, v -> v != null ? v.length : 0, 0);
+        for (int i = 0; i < 10; i++) {
+            store.put("hot-" + i, new byte[10]);
+            for (int j = 0; j < 15; j++)
+                store.get("hot-" + i);
+        }
+        // one time keys, the hot keys are no longer read
+        for (int i = 0; i < 20_000; i++)
+            store.put("scan-" + i, new byte[10]);
+
+        Assertions.assertTrue(store.dataSize() <= 40_000, "data size " + store.dataSize());
+        int hot = 0;
+        for (int i = 0; i < 10; i++)
+            if (store.containsKey("hot-" + i))
+                hot++;
+        Assertions.assertEquals(10, hot, "frequent keys must survive the sketch growth");
+    }
+
+    @Test
+    public void expiration() throws InterruptedException {
+        ConcurrentKVMapStore<String, String> store = new ConcurrentKVMapStore<>("ttl", 0, 0, null, 50);
+        store.put("a", "1");
+        store.put("b", "2", 0);
+        store.put("c", "3", 10_000);
+        Assertions.assertEquals("1", store.get("a"));
+        Thread.sleep(80);
+        Assertions.assertNull(store.get("a"));
+        Assertions.assertFalse(store.containsKey("a"));
+        Assertions.assertEquals("2", store.get("b"));
+        Assertions.assertEquals(2, store.entrySet().size());
+        Assertions.assertEquals(50, store.defaultExpirationPeriod());
+        Assertions.assertEquals(1L, (long) store.getProperties().getValue("expirations"));
+        Assertions.assertEquals(0, store.cleanUp());
+    }
+
+    @Test
+    public void keyFilterAndExclusions() {
+        ConcurrentKVMapStore<String, String> store = new ConcurrentKVMapStore<>("filter", 10);
+        store.setKeyFilter(SharedStringUtil::toLowerCase);
+        store.exclude("Blocked");
+        Assertions.assertFalse(store.put("BLOCKED", "x"));
+        Assertions.assertTrue(store.isExcluded("blocked"));
+        Assertions.assertTrue(store.put("Key", "v1"));
+        Assertions.assertTrue(store.put("KEY", "v2"));
+        Assertions.assertEquals(1, store.size());
+        Assertions.assertEquals("v2", store.get("key"));
+        Assertions.assertEquals("v2", store.removeGet("kEy"));
+        Assertions.assertFalse(store.remove("key"));
+        store.include("blocked");
+        Assertions.assertTrue(store.put("blocked", "x"));
+        Assertions.assertEquals(1L, (long) store.getProperties().getValue("hits"));
+    }
+
+    @Test
+    public void concurrentAccess() throws InterruptedException {
+        ConcurrentKVMapStore<Integer, Integer> store = new ConcurrentKVMapStore<>("concurrent", 500);
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong wrong = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 100_000; i++) {
+                    int key = random.nextInt(2000);
+                    if (random.nextInt(4) == 0)
+                        store.put(key, key);
+                    else {
+                        Integer v = store.get(key);
+                        if (v != null && v != key)
+                            wrong.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        Assertions.assertEquals(0, wrong.get());
+        // trigger a final maintenance
+        store.put(-1, -1);
+        Assertions.assertTrue(store.size() <= 500, "size " + store.size());
+    }
+}
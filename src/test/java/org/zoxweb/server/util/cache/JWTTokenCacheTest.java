@@ -0,0 +1,131 @@
+package org.zoxweb.server.util.cache;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.server.task.TaskSchedulerProcessor;
+import org.zoxweb.server.task.TaskUtil;
+import org.zoxweb.shared.crypto.CryptoConst;
+import org.zoxweb.shared.security.JWT;
+import org.zoxweb.shared.util.NVGenericMap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JWTTokenCacheTest {
+
+    private static TaskSchedulerProcessor tsp;
+
+    @BeforeAll
+    public static void start() {
+        tsp = new TaskSchedulerProcessor();
+    }
+
+    @AfterAll
+    public static void stop() {
+        tsp.close();
+    }
+
+    private static JWT jwt(String hash) {
+        JWT ret = JWT.createJWT(CryptoConst.JWTAlgo.HS256, "subject", "xlogistx.io", "test");
+        ret.setHash(hash);
+        return ret;
+    }
+
+    @Test
+    public void replayAndExpiry() {
+        JWTTokenCache cache = new JWTTokenCache(1500, tsp, 4, 0);
+        for (int i = 0; i < 100; i++)
+            Assertions.assertTrue(cache.map(jwt("token-" + i)));
+        Assertions.assertThrows(SecurityException.class, () -> cache.map(jwt("token-7")));
+        Assertions.assertNotNull(cache.get("token-7"));
+        Assertions.assertNull(cache.get("unknown"));
+        Assertions.assertEquals(100, cache.size());
+        Assertions.assertTrue(cache.remove("token-8"));
+        Assertions.assertTrue(cache.map(jwt("token-8")));
+
+        JWT old = jwt("old");
+        old.getPayload().setIssuedAt(System.currentTimeMillis() / 1000 - 10);
+        Assertions.assertThrows(SecurityException.class, () -> cache.map(old));
+
+        // the sweep task purges the elapsed buckets
+        for (int i = 0; i < 100 && cache.size() > 0; i++)
+            TaskUtil.sleep(50);
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertNull(cache.get("token-1"));
+        Assertions.assertTrue(cache.map(jwt("token-1")));
+
+        NVGenericMap stats = cache.getProperties();
+        Assertions.assertEquals(100L, (long) stats.getValue("expired"));
+        Assertions.assertEquals(1L, (long) stats.getValue("replays"));
+    }
+
+    @Test
+    public void negativeCache() {
+        JWTTokenCache cache = new JWTTokenCache(60_000, tsp, 0, 1000);
+        JWT jwt = jwt("revoked");
+        Assertions.assertTrue(cache.map(jwt));
+        Assertions.assertTrue(cache.revoke(jwt));
+        Assertions.assertFalse(cache.containsKey("revoked"));
+        Assertions.assertTrue(cache.isRejected("revoked"));
+        Assertions.assertThrows(SecurityException.class, () -> cache.map(jwt("revoked")));
+        Assertions.assertTrue(cache.reject("bad-signature", "invalid signature"));
+        Assertions.assertThrows(SecurityException.class, () -> cache.map(jwt("bad-signature")));
+        Assertions.assertEquals(2L, (long) cache.getProperties().getValue("rejected"));
+
+        JWTTokenCache noNegative = new JWTTokenCache(60_000, tsp);
+        Assertions.assertFalse(noNegative.reject("x", null));
+        Assertions.assertTrue(noNegative.map(jwt("x")));
+    }
+
+    @Test
+    public void closedScheduler() {
+        TaskSchedulerProcessor closed = new TaskSchedulerProcessor();
+        closed.close();
+        JWTTokenCache cache = new JWTTokenCache(1500, closed, 1, 0);
+        // registration doesn't fail without sweep task
+        Assertions.assertTrue(cache.map(jwt("first")));
+        Assertions.assertTrue(cache.map(jwt("second")));
+        Assertions.assertThrows(SecurityException.class, () -> cache.map(jwt("first")));
+        for (int i = 0; i < 100 && cache.size() > 0; i++) {
+            TaskUtil.sleep(50);
+            cache.expire();
+        }
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertTrue(cache.map(jwt("first")));
+        Assertions.assertEquals(2L, (long) cache.getProperties().getValue("expired"));
+    }
+
+    @Test
+    public void concurrentReplay() throws InterruptedException {
+        int threads = 4, tokens = 1000;
+        JWTTokenCache cache = new JWTTokenCache(60_000, tsp);
+        AtomicInteger sharedRegistered = new AtomicInteger();
+        AtomicInteger sharedReplayed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < tokens; i++) {
+                        Assertions.assertTrue(cache.map(jwt(id + "-" + i)));
+                        try {
+                            cache.map(jwt("shared-" + i));
+                            sharedRegistered.incrementAndGet();
+                        } catch (SecurityException e) {
+                            sharedReplayed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        Assertions.assertEquals(tokens, sharedRegistered.get());
+        Assertions.assertEquals((threads - 1) * tokens, sharedReplayed.get());
+        Assertions.assertEquals((threads + 1) * tokens, cache.size());
+        Assertions.assertEquals((long) (threads - 1) * tokens, (long) cache.getProperties().getValue("replays"));
+    }
+}
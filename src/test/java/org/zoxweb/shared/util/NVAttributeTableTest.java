@@ -0,0 +1,104 @@
+package org.zoxweb.shared.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zoxweb.shared.data.SimpleMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class NVAttributeTableTest {
+
+    @Test
+    public void indexedAccess() {
+        SimpleMessage sm = new SimpleMessage("hello", 200, "none");
+        NVAttributeTable table = sm.getAttributeTable();
+        Assertions.assertSame(table, new SimpleMessage().getAttributeTable());
+        List<NVConfig> attributes = SimpleMessage.NVC_SIMPLE_MESSAGE.getAttributes();
+        Assertions.assertEquals(attributes.size(), table.size());
+
+        for (int i = 0; i < attributes.size(); i++) {
+            NVConfig nvc = attributes.get(i);
+            Assertions.assertEquals(i, table.indexOf(nvc));
+            Assertions.assertEquals(i, table.indexOf(nvc.getName()));
+            Assertions.assertSame(sm.lookup(nvc.getName()), sm.lookup(i));
+        }
+        Assertions.assertEquals(-1, table.indexOf("unknown"));
+
+        int message = table.indexOf(SimpleMessage.Param.MESSAGE.getNVConfig());
+        Assertions.assertEquals("hello", sm.lookupValue(message));
+        sm.setValue(message, "indexed");
+        Assertions.assertEquals("indexed", sm.getMessage());
+        sm.setValue(SimpleMessage.Param.STATUS.getNVConfig(), 201);
+        Assertions.assertEquals(201, sm.getStatus());
+    }
+
+    @Test
+    public void mapView() {
+        SimpleMessage sm = new SimpleMessage("view", 200);
+        Map<String, NVBase<?>> map = sm.getAttributes();
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, NVBase<?>> e : map.entrySet()) {
+            names.add(e.getKey());
+            Assertions.assertSame(e.getValue(), map.get(e.getKey()));
+        }
+        List<String> expected = new ArrayList<>();
+        for (NVConfig nvc : SimpleMessage.NVC_SIMPLE_MESSAGE.getAttributes())
+            expected.add(nvc.getName());
+        Assertions.assertEquals(expected, names);
+        Assertions.assertEquals(expected.size(), map.size());
+
+        // replacing an entry through the map is seen by the indexed access
+        NVPair replaced = new NVPair("message", "replaced");
+        map.put("message", replaced);
+        Assertions.assertSame(replaced, sm.lookup(sm.getAttributeTable().indexOf("message")));
+        Assertions.assertEquals("replaced", sm.getMessage());
+
+        // names outside the meta data are kept
+        map.put("extra", new NVPair("extra", "value"));
+        Assertions.assertEquals("value", sm.lookupValue("extra"));
+        Assertions.assertEquals(expected.size() + 1, map.size());
+
+        Iterator<Map.Entry<String, NVBase<?>>> it = map.entrySet().iterator();
+        while (it.hasNext())
+            if (it.next().getKey().equals("extra"))
+                it.remove();
+        Assertions.assertNull(map.get("extra"));
+        Assertions.assertEquals(expected.size(), map.size());
+
+        // a plain map set as attributes still works by index
+        SimpleMessage copy = new SimpleMessage();
+        copy.setAttributes(new LinkedHashMap<>(map));
+        Assertions.assertEquals("replaced", copy.lookupValue(copy.getAttributeTable().indexOf("message")));
+    }
+
+    @Test
+    public void nullMapping() {
+        SimpleMessage sm = new SimpleMessage("null", 200);
+        Map<String, NVBase<?>> map = sm.getAttributes();
+        Map<String, NVBase<?>> expected = new LinkedHashMap<>(map);
+        int size = map.size();
+
+        // a defined name mapped to null stays in the map as with a LinkedHashMap
+        map.put("message", null);
+        expected.put("message", null);
+        Assertions.assertTrue(map.containsKey("message"));
+        Assertions.assertNull(map.get("message"));
+        Assertions.assertEquals(size, map.size());
+        Assertions.assertEquals(expected, map);
+        Assertions.assertEquals(expected.keySet(), map.keySet());
+
+        map.remove("message");
+        expected.remove("message");
+        Assertions.assertFalse(map.containsKey("message"));
+        Assertions.assertEquals(size - 1, map.size());
+        Assertions.assertEquals(expected, map);
+
+        map.put("extra", null);
+        Assertions.assertTrue(map.containsKey("extra"));
+        Assertions.assertEquals(size, map.size());
+    }
+}
@@ -211,4 +211,100 @@ public class RateControllerTest {
         System.out.println(list);
         System.out.println(rc);
     }
+
+    @Test
+    public void tokenBucketBurst()
+    {
+        RateController rc = new RateController("tb", "10/s")
+                .setRCType(RateController.RCType.TOKEN_BUCKET)
+                .setBurst(5);
+        for (int i = 0; i < 5; i++)
+            Assertions.assertTrue(rc.tryAcquire(1));
+        Assertions.assertFalse(rc.tryAcquire(1));
+        Assertions.assertTrue(rc.isPastThreshold(false));
+        Assertions.assertTrue(rc.getDelay(TimeUnit.MILLISECONDS) > 0);
+
+        // refilled at 100 millis per call
+        TaskUtil.sleep(250);
+        Assertions.assertTrue(rc.tryAcquire(2));
+        Assertions.assertFalse(rc.tryAcquire(1));
+
+        // a batch larger than the burst is never allowed but can be reserved
+        Assertions.assertFalse(rc.tryAcquire(6));
+        long delay = rc.nextWait(3);
+        Assertions.assertTrue(delay > 200 && delay <= 400, "delay " + delay);
+        rc.release(3);
+        Assertions.assertEquals(7L, rc.getCallCounts());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> rc.setBurst(0));
+    }
+
+    @Test
+    public void tokenBucketConcurrent() throws InterruptedException
+    {
+        RateController rc = new RateController("tb", "1/min")
+                .setRCType(RateController.RCType.TOKEN_BUCKET)
+                .setBurst(1000);
+        java.util.concurrent.atomic.AtomicInteger granted = new java.util.concurrent.atomic.AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 500; j++)
+                    if (rc.tryAcquire(1))
+                        granted.incrementAndGet();
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        Assertions.assertEquals(1000, granted.get());
+        Assertions.assertEquals(1000L, rc.getCallCounts());
+    }
+
+    @Test
+    public void tryAcquireTimeType()
+    {
+        RateController rc = new RateController("time", "1/s");
+        Assertions.assertTrue(rc.tryAcquire(1));
+        Assertions.assertFalse(rc.tryAcquire(1));
+    }
+
+    @Test
+    public void hierarchical()
+    {
+        HierarchicalRateController hrc = new HierarchicalRateController("tenants", "1/min", 5, "1/min", 3);
+        for (int i = 0; i < 3; i++)
+            Assertions.assertTrue(hrc.tryAcquire("a"));
+        // tenant quota exhausted
+        Assertions.assertFalse(hrc.tryAcquire("a"));
+        Assertions.assertTrue(hrc.tryAcquire("b", 2));
+        // global quota exhausted, the tenant permit is given back
+        Assertions.assertFalse(hrc.tryAcquire("c"));
+        Assertions.assertEquals(0L, hrc.lookup("c").getCallCounts());
+        Assertions.assertTrue(hrc.getDelay("c", TimeUnit.SECONDS) > 0);
+
+        NVGenericMap stats = hrc.toProperties(true);
+        Assertions.assertEquals(4L, (long) stats.getValue("allowed"));
+        Assertions.assertEquals(1L, (long) stats.getValue("denied_by_key"));
+        Assertions.assertEquals(1L, (long) stats.getValue("denied_by_global"));
+        Assertions.assertEquals(3, hrc.size());
+        Assertions.assertNotNull(hrc.remove("a"));
+        Assertions.assertTrue(hrc.lookup("a").tryAcquire(1));
+    }
+
+    @Test
+    public void hierarchicalIdleExpiry()
+    {
+        HierarchicalRateController hrc = new HierarchicalRateController("tenants", null, 1, "10/s", 2)
+                .setIdleTimeout(100);
+        for (int i = 0; i < 50; i++)
+            Assertions.assertTrue(hrc.tryAcquire("tenant-" + i));
+        Assertions.assertEquals(50, hrc.size());
+        TaskUtil.sleep(150);
+        // the lookup of an active key removes the idle ones
+        Assertions.assertTrue(hrc.tryAcquire("active"));
+        Assertions.assertEquals(1, hrc.size());
+        Assertions.assertEquals(50L, (long) hrc.toProperties(false).getValue("expired"));
+        Assertions.assertEquals(0, hrc.expireIdle());
+    }
 }